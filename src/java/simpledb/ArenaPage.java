@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A page that can keep its bytes in a slot of a {@link PageArena} instead
+ * of on the Java heap. While it is attached, the page decodes what it is
+ * asked for out of the slot each time, and keeps nothing decoded. The first
+ * change to the page copies it back to the heap, so a page being changed
+ * never depends on the slot.
+ *
+ * @see BufferPool#getArena
+ */
+public interface ArenaPage extends Page {
+
+    /**
+     * Copy the current contents of this page into slot and read them from
+     * there from now on. Pages with changes that were not written yet stay
+     * on the heap. Attaching a page that is attached already does nothing.
+     *
+     * @param slot a buffer of exactly the page size, positioned at 0
+     * @return true if the page is attached to slot
+     */
+    boolean attach(ByteBuffer slot);
+
+    /**
+     * Copy the page back to the heap, so that the slot it was attached to
+     * can be given to another page while this one is still referenced.
+     */
+    void detach();
+
+    /** @return true if the page reads its bytes from a slot of an arena */
+    boolean isAttached();
+}
@@ -38,6 +38,9 @@ public class BTreeFile implements DbFile {
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		// the file may have been created or rewritten behind the file manager's back
+		Database.getFileHandleManager().close(f);
+		Database.getBufferPool().getCompressedCache().removeTable(tableid);
 	}
 
 	/**
@@ -47,6 +50,11 @@ public class BTreeFile implements DbFile {
 		return f;
 	}
 
+	@Override
+	public long getWriteCount() {
+		return Database.getFileHandleManager().getWriteCount(f);
+	}
+
 	/**
 	 * Returns an ID uniquely identifying this BTreeFile. Implementation note:
 	 * you will need to generate this tableid somewhere and ensure that each
@@ -78,13 +86,12 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
+		FileHandleManager files = Database.getFileHandleManager();
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+				int retval = files.read(f, 0, pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -93,20 +100,12 @@ public class BTreeFile implements DbFile {
 							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
-				return p;
+				return decodePage(id, pageBuf);
 			}
 			else {
 				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				// bis.skip() return the actual number of bytes skipped
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) !=
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				// when doing this, bis has already skip
-				// bis.read() return the number of bytes read
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+				// files.read() returns the number of bytes read
+				int retval = files.read(f, pageOffset(id.pageNumber()), pageBuf);
 				if (retval == -1) {
 					throw new IllegalArgumentException("Read past end of table");
 				}
@@ -115,29 +114,31 @@ public class BTreeFile implements DbFile {
 							+ BufferPool.getPageSize() + " bytes from BTreeFile");
 				}
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
-				if(id.pgcateg() == BTreePageId.INTERNAL) {
-					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
-					return p;
-				}
-				else if(id.pgcateg() == BTreePageId.LEAF) {
-					BTreeLeafPage p = new BTreeLeafPage(id, pageBuf, keyField);
-					return p;
-				}
-				else { // id.pgcateg() == BTreePageId.HEADER
-					BTreeHeaderPage p = new BTreeHeaderPage(id, pageBuf);
-					return p;
-				}
+				return decodePage(id, pageBuf);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public Page decodePage(PageId pid, byte[] data) {
+		BTreePageId id = (BTreePageId) pid;
+		try {
+			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
+				return new BTreeRootPtrPage(id, data);
+			}
+			else if(id.pgcateg() == BTreePageId.INTERNAL) {
+				return new BTreeInternalPage(id, data, keyField);
 			}
+			else if(id.pgcateg() == BTreePageId.LEAF) {
+				return new BTreeLeafPage(id, data, keyField);
+			}
+			else { // id.pgcateg() == BTreePageId.HEADER
+				return new BTreeHeaderPage(id, data);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -150,25 +151,58 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			Database.getFileHandleManager().write(f, 0, page.getPageData());
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			// serialize into the thread's page buffer instead of a new array
+			Database.getFileHandleManager().write(f, pageOffset(page.getId().pageNumber()),
+					PageCodec.serialize(page));
 		}
 	}
+
+	/**
+	 * Write a run of consecutive pages with a single write, unless it
+	 * contains the root pointer page, which has a size of its own.
+	 *
+	 * @see DbFile#writePages
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		boolean rootPtr = false;
+		for (Page page : pages) {
+			rootPtr |= ((BTreePageId) page.getId()).pgcateg() == BTreePageId.ROOT_PTR;
+		}
+		if (pages.size() <= 1 || rootPtr || !PageCodec.isRun(pages)) {
+			for (Page page : pages) {
+				writePage(page);
+			}
+			return;
+		}
+		Database.getFileHandleManager().write(f, pageOffset(pages.get(0).getId().pageNumber()),
+				PageCodec.toByteArray(pages));
+	}
+
+	/**
+	 * @return the offset in the file of the page with the given page number
+	 */
+	private static long pageOffset(int pageNumber) {
+		return BTreeRootPtrPage.getPageSize() + (long) (pageNumber-1) * BufferPool.getPageSize();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((fileLength() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+	}
+
+	private long fileLength() {
+		try {
+			return Database.getFileHandleManager().length(f);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -1131,15 +1165,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(fileLength() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				Database.getFileHandleManager().append(f, emptyRootPtrData);
+				Database.getFileHandleManager().append(f, emptyLeafData);
 			}
 		}
 
@@ -1195,11 +1226,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				Database.getFileHandleManager().append(f, emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1230,10 +1258,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		Database.getFileHandleManager().write(f, pageOffset(emptyPageNo), BTreePage.createEmptyPageData());
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.Predicate.Op;
@@ -13,6 +14,11 @@ import simpledb.Predicate.Op;
 
 public class BTreeFileEncoder {
 
+	/** Default fill factor of the pages written by bulkConvert. Can be
+	 overridden with -Dsimpledb.BTreeFileEncoder.fillFactor=f */
+	public static final double BULK_FILL_FACTOR =
+			Double.parseDouble(System.getProperty("simpledb.BTreeFileEncoder.fillFactor", "1.0"));
+
 	/**
 	 * Encode the file using the BTreeFile's Insert method.
 	 * 
@@ -335,6 +341,196 @@ public class BTreeFileEncoder {
 		return bf;
 	}
 
+	/**
+	 * Build a B+ tree from a text file bottom-up without holding the tuples in
+	 * memory, using a fill factor of {@link #BULK_FILL_FACTOR} and a sort
+	 * memory budget of {@link ExternalSort#MEMORY_BYTES}.
+	 *
+	 * @see #bulkConvert(File, File, int, Type[], char, int, double, long)
+	 */
+	public static BTreeFile bulkConvert(File inFile, File bFile, int npagebytes,
+			Type[] typeAr, char fieldSeparator, int keyField) throws IOException {
+		return bulkConvert(inFile, bFile, npagebytes, typeAr, fieldSeparator, keyField,
+				BULK_FILL_FACTOR, ExternalSort.MEMORY_BYTES);
+	}
+
+	/**
+	 * Build a B+ tree from a text file bottom-up, for inputs of any size.
+	 * <p>
+	 * The tuples are parsed by the {@link BulkLoader} and sorted on the key
+	 * field with an {@link ExternalSort}, which spills sorted runs to disk
+	 * once memoryBytes are used. As the number of tuples is known after the
+	 * sort, the shape of the whole tree is computed up front: every page gets
+	 * its page number, parent and siblings before it is written, so the
+	 * root pointer page, the leaf pages and then each level of internal pages
+	 * are written in one sequential pass over the file. Only the first key of
+	 * each page of the level being built is kept in memory.
+	 * <p>
+	 * Leaf pages are filled with fillFactor times the tuples and internal
+	 * pages with fillFactor times the children they can hold, spread evenly
+	 * so that the last page of a level is not left nearly empty. A fill
+	 * factor below 1 leaves room for later inserts without splits.
+	 *
+	 * @param inFile - the file containing the raw data
+	 * @param bFile - the data file for the BTreeFile
+	 * @param npagebytes - number of bytes per page
+	 * @param typeAr - array containing the types of the tuples
+	 * @param fieldSeparator - character separating fields in the raw data file
+	 * @param keyField - the field of the tuples the B+ tree will be keyed on
+	 * @param fillFactor - the fraction of each page to fill, in (0, 1]
+	 * @param memoryBytes - roughly how much memory the sort may use
+	 * @return the B+ tree file, added to the catalog
+	 * @throws IOException
+	 */
+	public static BTreeFile bulkConvert(File inFile, File bFile, int npagebytes,
+			Type[] typeAr, char fieldSeparator, int keyField, double fillFactor, long memoryBytes)
+					throws IOException {
+		if (fillFactor <= 0 || fillFactor > 1) {
+			throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+		}
+		ExternalSort sort = new ExternalSort(typeAr, keyField, memoryBytes);
+		OutputStream out = null;
+		try {
+			BulkLoader.parse(inFile, typeAr, fieldSeparator, sort);
+			ExternalSort.Cursor tuples = sort.sorted();
+			int nrecbytes = sort.getRecordSize();
+			Type keyType = typeAr[keyField];
+			int keyOffset = 0;
+			for (int i = 0; i < keyField; i++) {
+				keyOffset += typeAr[i].getLen();
+			}
+
+			// the same page layouts as convertToLeafPage and convertToInternalPage
+			int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE;
+			int nrecords = (npagebytes * 8 - leafpointerbytes * 8) / (nrecbytes * 8 + 1);
+			int leafheaderbytes = (nrecords + 7) / 8;
+			int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+			int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+			int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) / (nentrybytes * 8 + 1);
+			int internalheaderbytes = (nentries + 1 + 7) / 8;
+
+			// an internal page needs at least two keys so that pages spread
+			// evenly over a level never end up without one
+			int perLeaf = Math.max(1, (int) (nrecords * fillFactor));
+			int perInternal = Math.max(3, (int) ((nentries + 1) * fillFactor));
+
+			// number of pages on each level, from the leaves up to the root
+			List<Integer> levels = new ArrayList<Integer>();
+			levels.add((int) Math.max(1, (sort.size() + perLeaf - 1) / perLeaf));
+			while (levels.get(levels.size() - 1) > 1) {
+				int children = levels.get(levels.size() - 1);
+				levels.add((children + perInternal - 1) / perInternal);
+			}
+			int[] firstPage = new int[levels.size() + 1];
+			firstPage[0] = 1;
+			for (int l = 0; l < levels.size(); l++) {
+				firstPage[l + 1] = firstPage[l] + levels.get(l);
+			}
+			int root = firstPage[levels.size()] - 1;
+			int rootCategory = (levels.size() > 1 ? BTreePageId.INTERNAL : BTreePageId.LEAF);
+
+			out = new BufferedOutputStream(new FileOutputStream(bFile), 1 << 20);
+			out.write(convertToRootPtrPage(root, rootCategory, 0));
+
+			// the leaves, remembering the first key of each
+			int leaves = levels.get(0);
+			byte[] firstKeys = new byte[leaves * keyType.getLen()];
+			byte[] page = new byte[npagebytes];
+			ByteBuffer buf = ByteBuffer.wrap(page);
+			for (int p = 0; p < leaves; p++) {
+				Arrays.fill(page, (byte) 0);
+				int count = (int) (share(sort.size(), leaves, p + 1) - share(sort.size(), leaves, p));
+				buf.putInt(0, parentOf(levels, firstPage, 0, p));
+				buf.putInt(4, p > 0 ? firstPage[0] + p - 1 : 0);
+				buf.putInt(8, p < leaves - 1 ? firstPage[0] + p + 1 : 0);
+				for (int i = 0; i < count; i++) {
+					if (!tuples.next()) {
+						throw new IOException("sort returned fewer tuples than it was given");
+					}
+					page[leafpointerbytes + i / 8] |= (byte) (1 << (i % 8));
+					System.arraycopy(tuples.buffer(), tuples.offset(), page,
+							leafpointerbytes + leafheaderbytes + i * nrecbytes, nrecbytes);
+				}
+				System.arraycopy(page, leafpointerbytes + leafheaderbytes + keyOffset,
+						firstKeys, p * keyType.getLen(), keyType.getLen());
+				out.write(page);
+			}
+
+			// then each level of internal pages, keyed on the first keys of their children
+			// the parent pointer and child category come before the header,
+			// the extra child pointer is stored with the others
+			int internalHeaderOffset = BTreeInternalPage.INDEX_SIZE + 1;
+			int keysOffset = internalHeaderOffset + internalheaderbytes;
+			int childrenOffset = keysOffset + nentries * keyType.getLen();
+			for (int l = 1; l < levels.size(); l++) {
+				int children = levels.get(l - 1);
+				int pages = levels.get(l);
+				byte[] levelKeys = new byte[pages * keyType.getLen()];
+				for (int p = 0; p < pages; p++) {
+					Arrays.fill(page, (byte) 0);
+					int first = (int) share(children, pages, p);
+					int count = (int) share(children, pages, p + 1) - first;
+					buf.putInt(0, parentOf(levels, firstPage, l, p));
+					page[4] = (byte) (l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
+					// slot 0 only has a child pointer, slots 1 .. count-1 have a key as well
+					for (int i = 0; i < count; i++) {
+						page[internalHeaderOffset + i / 8] |= (byte) (1 << (i % 8));
+						if (i > 0) {
+							System.arraycopy(firstKeys, (first + i) * keyType.getLen(), page,
+									keysOffset + (i - 1) * keyType.getLen(), keyType.getLen());
+						}
+						buf.putInt(childrenOffset + i * BTreeInternalPage.INDEX_SIZE, firstPage[l - 1] + first + i);
+					}
+					System.arraycopy(firstKeys, first * keyType.getLen(),
+							levelKeys, p * keyType.getLen(), keyType.getLen());
+					out.write(page);
+				}
+				firstKeys = levelKeys;
+			}
+			out.close();
+			out = null;
+		} finally {
+			if (out != null) {
+				out.close();
+			}
+			sort.close();
+		}
+
+		BTreeFile bf = new BTreeFile(bFile, keyField, new TupleDesc(typeAr));
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		return bf;
+	}
+
+	/**
+	 * @return the number of items that go before part p when n items are
+	 *   spread evenly over parts parts
+	 */
+	private static long share(long n, int parts, int p) {
+		return n * p / parts;
+	}
+
+	/**
+	 * @return the page number of the parent of page p of level l of a tree
+	 *   built by bulkConvert, or 0 (the root pointer page) for the root
+	 */
+	private static int parentOf(List<Integer> levels, int[] firstPage, int l, int p) {
+		if (l == levels.size() - 1) {
+			return 0;
+		}
+		int children = levels.get(l);
+		int parents = levels.get(l + 1);
+		// the parent q is the last one whose first child is at most p
+		int q = (int) (((long) p * parents) / children);
+		while (q + 1 < parents && share(children, parents, q + 1) <= p) {
+			q++;
+		}
+		while (share(children, parents, q) > p) {
+			q--;
+		}
+		return firstPage[l + 1] + q;
+	}
+
 	/**
 	 * Set all the right sibling pointers by following the left sibling pointers
 	 * 
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -15,8 +16,9 @@ import simpledb.Predicate.Op;
  */
 public class BTreeInternalPage extends BTreePage {
 	private final byte header[];
-	private final Field keys[];
-	private final int children[];
+	// decoded keys and child pointers, or null while the page reads its view
+	private Field keys[];
+	private int children[];
 	private final int numSlots;
 	
 	private int childCategory; // either leaf or internal
@@ -62,7 +64,8 @@ public class BTreeInternalPage extends BTreePage {
 	 * @see BufferPool#getPageSize()
 	 * 
 	 * @param id - the id of this page
-	 * @param data - the raw data of this page
+	 * @param data - the raw data of this page, which the page keeps as its
+	 * before image, so the caller must not change the array afterwards
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
@@ -108,7 +111,9 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		dis.close();
 
-		setBeforeImage();
+		// the bytes the page was read from are its before image until it
+		// is first changed
+		oldData = data;
 	}
 
 	/** 
@@ -140,12 +145,7 @@ public class BTreeInternalPage extends BTreePage {
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -154,13 +154,6 @@ public class BTreeInternalPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read keys from the source file.
 	 */
@@ -220,6 +213,21 @@ public class BTreeInternalPage extends BTreePage {
 		return child;
 	}
 
+	protected void decode(DataInputStream dis) throws IOException {
+		dis.skipBytes(INDEX_SIZE + 1 + header.length);
+		keys = new Field[numSlots];
+		for (int i=1; i<keys.length; i++)
+			keys[i] = readNextKey(dis,i);
+		children = new int[numSlots];
+		for (int i=0; i<children.length; i++)
+			children[i] = readNextChild(dis,i);
+	}
+
+	protected void forgetDecoded() {
+		keys = null;
+		children = null;
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -232,105 +240,50 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
+		return PageCodec.toByteArray(this);
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Serialize this page straight into buf, without building a copy of
+	 * the page first.
+	 */
+	public synchronized void writePageData(ByteBuffer buf) {
+		if (view != null) {
+			buf.put(view.duplicate());
+			return;
 		}
+		int start = buf.position();
+		int keySize = td.getFieldType(keyField).getLen();
 
-		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// write out the parent pointer and the child page category
+		buf.putInt(parent);
+		buf.put((byte) childCategory);
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		buf.put(header);
 
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
 		for (int i=1; i<keys.length; i++) {
-
-			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
+				PageCodec.zero(buf, keySize);
+			} else {
+				keys[i].serialize(buf);
 			}
-
-			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
 		}
 
 		// create the child pointers
 		for (int i=0; i<children.length; i++) {
-
-			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
+				PageCodec.zero(buf, INDEX_SIZE);
+			} else {
+				buf.putInt(children[i]);
 			}
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		PageCodec.zero(buf, BufferPool.getPageSize() - (buf.position() - start));
 	}
 
 	/**
@@ -345,6 +298,7 @@ public class BTreeInternalPage extends BTreePage {
 	 *        delete the left child
 	 */
 	private void deleteEntry(BTreeEntry e, boolean deleteRightChild) throws DbException {
+		beforeWrite();
 		RecordId rid = e.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to delete entry with null rid");
@@ -402,6 +356,7 @@ public class BTreeInternalPage extends BTreePage {
 	 *         order on the page
 	 */
 	public void updateEntry(BTreeEntry e) throws DbException {
+		beforeWrite();
 		RecordId rid = e.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to update entry with null rid");
@@ -441,6 +396,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
+		beforeWrite();
 		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
 			throw new DbException("key field type mismatch, in insertEntry");
 
@@ -637,10 +593,10 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return the ith key
 	 * @throws NoSuchElementException
 	 */
-	protected Field getKey(int i) throws NoSuchElementException {
+	protected synchronized Field getKey(int i) throws NoSuchElementException {
 
 		// key at slot 0 is not used
-		if (i <= 0 || i >= keys.length)
+		if (i <= 0 || i >= numSlots)
 			throw new NoSuchElementException();
 
 		try {
@@ -650,6 +606,10 @@ public class BTreeInternalPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeInternalPage.getKey: returning key %d", i);
+			if (keys == null) {
+				int keySize = td.getFieldType(keyField).getLen();
+				return readNextKey(viewInput(INDEX_SIZE + 1 + header.length + (i - 1) * keySize, keySize), i);
+			}
 			return keys[i];
 
 		} catch (ArrayIndexOutOfBoundsException e) {
@@ -663,9 +623,9 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return the ith child page id
 	 * @throws NoSuchElementException
 	 */
-	protected BTreePageId getChildId(int i) throws NoSuchElementException {
+	protected synchronized BTreePageId getChildId(int i) throws NoSuchElementException {
 
-		if (i < 0 || i >= children.length)
+		if (i < 0 || i >= numSlots)
 			throw new NoSuchElementException();
 
 		try {
@@ -675,6 +635,11 @@ public class BTreeInternalPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeInternalPage.getChildId: returning child id %d", i);
+			if (children == null) {
+				int keySize = td.getFieldType(keyField).getLen();
+				int child = view.getInt(INDEX_SIZE + 1 + header.length + (numSlots - 1) * keySize + i * INDEX_SIZE);
+				return new BTreePageId(pid.getTableId(), child, childCategory);
+			}
 			return new BTreePageId(pid.getTableId(), children[i], childCategory);
 
 		} catch (ArrayIndexOutOfBoundsException e) {
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -13,7 +14,12 @@ import java.io.*;
  */
 public class BTreeLeafPage extends BTreePage {
 	private final byte header[];
-	private final Tuple tuples[];
+	// decoded tuples. While the page reads its view only the tuples handed
+	// out so far are decoded, and they are kept, as BTreeFile moves tuples
+	// by updating the record ids of the very tuples its callers hold
+	private Tuple tuples[];
+	// getTuple returned a tuple since the page was created
+	private boolean handedOut;
 	private final int numSlots;
 	
 	private int leftSibling; // leaf node or 0
@@ -58,7 +64,8 @@ public class BTreeLeafPage extends BTreePage {
 	 * @see BufferPool#getPageSize()
 	 * 
 	 * @param id - the id of this page
-	 * @param data - the raw data of this page
+	 * @param data - the raw data of this page, which the page keeps as its
+	 * before image, so the caller must not change the array afterwards
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeLeafPage(BTreePageId id, byte[] data, int key) throws IOException {
@@ -103,7 +110,9 @@ public class BTreeLeafPage extends BTreePage {
 		}
 		dis.close();
 
-		setBeforeImage();
+		// the bytes the page was read from are its before image until it
+		// is first changed
+		oldData = data;
 	}
 
 	/** 
@@ -132,12 +141,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -146,13 +150,6 @@ public class BTreeLeafPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read tuples from the source file.
 	 */
@@ -187,6 +184,26 @@ public class BTreeLeafPage extends BTreePage {
 		return t;
 	}
 
+	protected void decode(DataInputStream dis) throws IOException {
+		dis.skipBytes(3 * INDEX_SIZE + header.length);
+		Tuple[] handed = tuples;
+		tuples = new Tuple[numSlots];
+		for (int i=0; i<tuples.length; i++) {
+			if (handed != null && handed[i] != null) {
+				tuples[i] = handed[i];
+				dis.skipBytes(td.getSize());
+			} else {
+				tuples[i] = readNextTuple(dis,i);
+			}
+		}
+	}
+
+	protected void forgetDecoded() {
+		if (!handedOut) {
+			tuples = null;
+		}
+	}
+
 	/**
 	 * Generates a byte array representing the contents of this page.
 	 * Used to serialize this page to disk.
@@ -199,84 +216,45 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
+		return PageCodec.toByteArray(this);
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Serialize this page straight into buf, without building a copy of
+	 * the page first.
+	 */
+	public synchronized void writePageData(ByteBuffer buf) {
+		if (view != null) {
+			buf.put(view.duplicate());
+			return;
 		}
-		try {
-			dos.writeInt(leftSibling);
+		int start = buf.position();
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// write out the parent and sibling pointers
+		buf.putInt(parent);
+		buf.putInt(leftSibling);
+		buf.putInt(rightSibling);
 
 		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
+		buf.put(header);
 
 		// create the tuples
 		for (int i=0; i<tuples.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				PageCodec.zero(buf, td.getSize());
 				continue;
 			}
 
 			// non-empty slot
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				tuples[i].getField(j).serialize(buf);
 			}
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		PageCodec.zero(buf, BufferPool.getPageSize() - (buf.position() - start));
 	}
 
 	/**
@@ -287,6 +265,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param t The tuple to delete
 	 */
 	public void deleteTuple(Tuple t) throws DbException {
+		beforeWrite();
 		RecordId rid = t.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to delete tuple with null rid");
@@ -307,6 +286,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @param t The tuple to add.
 	 */
 	public void insertTuple(Tuple t) throws DbException {
+		beforeWrite();
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
 
@@ -400,6 +380,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setLeftSiblingId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			leftSibling = 0;
 		}
@@ -420,6 +401,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setRightSiblingId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			rightSibling = 0;
 		}
@@ -497,9 +479,9 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return the ith tuple in the page
 	 * @throws NoSuchElementException
 	 */
-	Tuple getTuple(int i) throws NoSuchElementException {
+	synchronized Tuple getTuple(int i) throws NoSuchElementException {
 
-		if (i >= tuples.length)
+		if (i >= numSlots)
 			throw new NoSuchElementException();
 
 		try {
@@ -509,6 +491,15 @@ public class BTreeLeafPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
+			if (view != null) {
+				if (tuples == null) {
+					tuples = new Tuple[numSlots];
+				}
+				if (tuples[i] == null) {
+					tuples[i] = readNextTuple(viewInput(3 * INDEX_SIZE + header.length + i * td.getSize(), td.getSize()), i);
+				}
+			}
+			handedOut = true;
 			return tuples[i];
 
 		} catch (ArrayIndexOutOfBoundsException e) {
@@ -2,18 +2,24 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page cached by a buffer pool with a {@link PageArena} is attached to the
+ * slot of its frame and decodes its entries out of the slot as they are
+ * asked for. Once detached it reads them from a heap copy of the slot in
+ * the same way, and the first change to the page decodes it for good.
  *
  * @see BTreeFile
  * @see BufferPool
  *
  */
-public abstract class BTreePage implements Page {
+public abstract class BTreePage implements ArenaPage {
 	protected volatile boolean dirty = false;
 	protected volatile TransactionId dirtier = null;
 
@@ -24,8 +30,14 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
+	// bytes of the before image, or null while the before image is the
+	// current contents of the page, which are only copied out once the page
+	// is changed again
 	protected byte[] oldData;
-	protected final Byte oldDataLock=new Byte((byte)0);
+	protected final Object oldDataLock = new Object();
+	// the arena slot holding the bytes of the page, or a heap copy of them
+	// once the page was detached; null while the page is decoded
+	protected ByteBuffer view;
 
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
@@ -95,6 +107,7 @@ public abstract class BTreePage implements Page {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setParentId(BTreePageId id) throws DbException {
+		beforeWrite();
 		if(id == null) {
 			throw new DbException("parent id must not be null");
 		}
@@ -112,6 +125,117 @@ public abstract class BTreePage implements Page {
 		}
 	}
 
+	/**
+	 * Make the current contents of this page its before image. The page is
+	 * not serialized here: that is left to the next change to the page, or
+	 * to getBeforeImage, whichever comes first.
+	 */
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = null;
+		}
+	}
+
+	/**
+	 * Called by every method that changes the page, before it changes
+	 * anything, to decode a page that reads its view and to copy out the
+	 * before image if it is still the current contents.
+	 */
+	protected void beforeWrite() {
+		synchronized(oldDataLock)
+		{
+			decode();
+			if (oldData == null) {
+				oldData = getPageData();
+			}
+		}
+	}
+
+	/**
+	 * @return the bytes of the before image of this page
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized(oldDataLock)
+		{
+			return oldData != null ? oldData : getPageData();
+		}
+	}
+
+	public boolean attach(ByteBuffer slot) {
+		synchronized(oldDataLock)
+		{
+			synchronized(this) {
+				if (isAttached()) {
+					return true;
+				}
+				if (dirty || slot.capacity() != BufferPool.getPageSize()) {
+					return false;
+				}
+				ByteBuffer out = slot.duplicate();
+				out.clear();
+				writePageData(out);
+				if (oldData != null && ByteBuffer.wrap(oldData).equals(slot.duplicate())) {
+					oldData = null;
+				}
+				view = slot;
+				forgetDecoded();
+				return true;
+			}
+		}
+	}
+
+	public synchronized void detach() {
+		if (isAttached()) {
+			byte[] bytes = new byte[BufferPool.getPageSize()];
+			view.duplicate().get(bytes);
+			view = ByteBuffer.wrap(bytes);
+		}
+	}
+
+	public synchronized boolean isAttached() {
+		return view != null && view.isDirect();
+	}
+
+	/**
+	 * Decode the whole page out of its view, if it has one, so that it can
+	 * be changed.
+	 */
+	protected synchronized void decode() {
+		if (view != null) {
+			try {
+				decode(viewInput(0, BufferPool.getPageSize()));
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			view = null;
+		}
+	}
+
+	/**
+	 * Decode everything the page keeps besides its header and pointers
+	 * out of the bytes of the whole page.
+	 */
+	protected abstract void decode(DataInputStream dis) throws IOException;
+
+	/**
+	 * Drop what decode built and no caller can still depend on, as the page
+	 * reads its view from now on.
+	 */
+	protected abstract void forgetDecoded();
+
+	/**
+	 * @return a stream over a copy of length bytes of the view of this page,
+	 *   starting at offset
+	 */
+	protected DataInputStream viewInput(int offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer in = view.duplicate();
+		in.position(offset);
+		in.get(bytes);
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
 	/**
 	 * Marks this page as dirty/not dirty and record that transaction
 	 * that did the dirtying
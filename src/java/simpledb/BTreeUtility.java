@@ -148,6 +148,7 @@ public class BTreeUtility {
 		// Convert the tuples list to a B+ tree file
 		File hFile = File.createTempFile("table", ".dat");
 		hFile.deleteOnExit();
+		FreeSpaceMap.file(hFile).deleteOnExit();
 
 		File bFile = File.createTempFile("table_index", ".dat");
 		bFile.deleteOnExit();
@@ -404,6 +405,7 @@ public class BTreeUtility {
 		// Convert the tuples list to a B+ tree file
 		File hFile = File.createTempFile("table", ".dat");
 		hFile.deleteOnExit();
+		FreeSpaceMap.file(hFile).deleteOnExit();
 
 		File bFile = File.createTempFile("table_index", ".dat");
 		bFile.deleteOnExit();
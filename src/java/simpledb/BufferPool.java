@@ -2,9 +2,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,8 +13,32 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * The frames are split into partitions, each with its own latch, page table
+ * and replacement policy, and a page belongs to the partition its id hashes
+ * to. Threads requesting pages of different partitions never wait for each
+ * other. Pin counts are atomic, so a page that stays pinned can be unpinned
+ * without taking its partition's latch.
+ * <p>
+ * Page locks are kept by a {@link LockManager}. A transaction's lock on a
+ * page is acquired before the page's partition latch is taken, so no
+ * thread ever waits for a lock while holding a latch.
+ * <p>
+ * A buffer pool created off heap keeps the bytes of its pages in a
+ * {@link PageArena}, and attaches every clean {@link ArenaPage} it caches to
+ * the arena slot of its frame. A page is detached again before its frame is
+ * given to another page, as callers may still hold on to it.
+ * <p>
+ * The buffer pool can be resized while it is in use with {@link #resize}.
+ * <p>
+ * Root pointer and internal pages of B+ trees are kept in a reserve of
+ * frames that other pages cannot push them out of, see
+ * {@link #isHighPriority}.
+ * <p>
+ * Clean pages evicted can be kept compressed in a second tier, a
+ * {@link CompressedPageCache}, which a miss checks before reading from disk.
  * 
- * @Threadsafe, all fields are final
+ * @Threadsafe
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -28,116 +51,656 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private class Frame {
-        // frame id
-        private int frameID;
+    /** Replacement policy of new buffer pools. Can be overridden with
+     -Dsimpledb.BufferPool.policy=fifo|clock|lru-k|2q */
+    public static final String DEFAULT_POLICY = System.getProperty("simpledb.BufferPool.policy", "clock");
+
+    /** Maximum number of partitions of new buffer pools. Can be overridden with
+     -Dsimpledb.BufferPool.partitions=n */
+    public static final int MAX_PARTITIONS = Integer.getInteger("simpledb.BufferPool.partitions",
+            4 * Runtime.getRuntime().availableProcessors());
+
+    /** Fewest frames a partition gets; smaller buffer pools have fewer partitions */
+    public static final int MIN_PARTITION_PAGES = 64;
+
+    /** Tables with more pages than this fraction of the buffer pool are
+     scanned through a {@link BufferRing}. Can be overridden with
+     -Dsimpledb.BufferPool.ringThreshold=f */
+    public static final double DEFAULT_RING_THRESHOLD =
+            Double.parseDouble(System.getProperty("simpledb.BufferPool.ringThreshold", "1.0"));
+
+    /** Whether new buffer pools keep their pages off the heap. Can be turned
+     on with -Dsimpledb.BufferPool.offHeap=true */
+    public static final boolean DEFAULT_OFF_HEAP = Boolean.getBoolean("simpledb.BufferPool.offHeap");
+
+    /** Fraction of the frames of every partition kept for the pages of the
+     high priority class, see {@link #isHighPriority}. Can be overridden with
+     -Dsimpledb.BufferPool.indexReserve=f */
+    public static final double DEFAULT_INDEX_RESERVE =
+            Double.parseDouble(System.getProperty("simpledb.BufferPool.indexReserve", "0.1"));
+
+    private static class Frame {
+        // frame id, within its partition
+        private final int frameID;
         // page id
-        private PageId pageId;
+        private volatile PageId pageId;
         // page
-        private Page page;
-        // pin_count
-        private int pinCount;
+        private volatile Page page;
+        // pin_count, changed without the partition latch by unpinPage when it
+        // stays above 0
+        private final AtomicInteger pinCount = new AtomicInteger();
         // as for dirty, we can use page.isDirty() to check
         // the file that contains this page. use when flush
         private DbFile file;
-
-
-        public Frame() {
-        }
+        // the stream the page was read ahead for by the prefetcher, until the
+        // page is requested; null otherwise
+        private Prefetcher.Stream prefetchedFor;
+        // number of times the frame was pinned, so the page writer can tell
+        // whether the page may have changed while it wrote it
+        private long pinGeneration;
+        // accessClock of the partition when the page was last requested
+        private long lastAccess;
+        // page is of the high priority class and held in the reserve of the
+        // partition, out of reach of the replacement policy
+        private boolean reserved;
 
         public Frame(int frameID) {
             this.frameID = frameID;
         }
 
-        public Frame(int frameID, PageId pageId, Page page, int pinCount) {
-            this.frameID = frameID;
-            this.pageId = pageId;
-            this.page = page;
-            this.pinCount = pinCount;
-        }
-
         public int getFrameID() {
             return frameID;
         }
 
-        public void setFrameID(int frameID) {
-            this.frameID = frameID;
-        }
-
         public PageId getPageId() {
             return pageId;
         }
 
-        public void setPageId(PageId pageId) {
-            this.pageId = pageId;
-        }
-
         public Page getPage() {
             return page;
         }
 
-        public void setPage(Page page) {
-            this.page = page;
+        public int getPinCount() {
+            return pinCount.get();
         }
 
-        public int getPinCount() {
-            return pinCount;
+        public DbFile getFile() {
+            return file;
         }
+    }
 
-        public void setPinCount(int pinCount) {
-            this.pinCount = pinCount;
+    /**
+     * A share of the frames of the buffer pool with its own page table, free
+     * list and replacement policy. A page always lives in the partition
+     * {@link #partitionOf} picks from its id. Everything except the lookups
+     * in pageTable and the pin counts is guarded by the partition's latch,
+     * which is the Partition object itself.
+     */
+    private static class Partition {
+        private Frame[] frames;
+        // frames pages may be installed into; frames past it are drained of
+        // their pages and dropped after the partition was shrunk
+        private int limit;
+        private final Map<PageId, Frame> pageTable;
+        // frames that hold no page, used before anything is evicted
+        private final Deque<Integer> freeFrames;
+        // picks the victim among the frames whose pin count is 0
+        private final ReplacementPolicy policy;
+        // the arena of the buffer pool when the partition was last resized,
+        // and the slot in it of the first frame
+        private PageArena arena;
+        private int slotBase;
+        // position in partitions, the stripe of the metrics it records hits in
+        private final int index;
+        // counts the requests for pages of the partition
+        private long accessClock;
+        // number of frames with reserved set
+        private int reservedFrames;
+
+        Partition(int index, int numFrames, String policy, PageArena arena, int slotBase) {
+            this.index = index;
+            this.arena = arena;
+            this.slotBase = slotBase;
+            this.limit = numFrames;
+            this.frames = new Frame[numFrames];
+            this.pageTable = new ConcurrentHashMap<>(2 * numFrames);
+            this.freeFrames = new ArrayDeque<>();
+            this.policy = newPolicy(policy, numFrames);
+            for(int i = 0; i < numFrames; i++) {
+                // init Frame[] with empty frame object
+                this.frames[i] = new Frame(i);
+                // at first, each frame is free
+                this.freeFrames.add(i);
+            }
         }
 
-        public DbFile getFile() {
-            return file;
+        /** @return true if a page can be installed without evicting a pinned one */
+        boolean hasRoom() {
+            return !this.freeFrames.isEmpty() || this.policy.numEvictable() > 0;
+        }
+
+        /**
+         * Hold frame in the reserve, unless it is there already or the
+         * reserve has no room left. The caller holds the latch.
+         *
+         * @param reserveFrames the size of the reserve
+         */
+        void reserve(Frame frame, int reserveFrames) {
+            if(frame.reserved || this.reservedFrames >= reserveFrames || frame.frameID >= this.limit) {
+                return;
+            }
+            frame.reserved = true;
+            this.reservedFrames++;
+            this.policy.setEvictable(frame.frameID, false);
+        }
+
+        /**
+         * Take frame out of the reserve, and hand it back to the replacement
+         * policy if it is not pinned. The caller holds the latch.
+         */
+        void unreserve(Frame frame) {
+            if(!frame.reserved) {
+                return;
+            }
+            frame.reserved = false;
+            this.reservedFrames--;
+            if(frame.page != null && frame.pinCount.get() == 0) {
+                this.policy.setEvictable(frame.frameID, true);
+            }
+        }
+
+        /**
+         * Take the unpinned frame of the reserve whose page was requested
+         * least recently out of it, so that it can be evicted. The caller
+         * holds the latch.
+         *
+         * @return false if the reserve has no unpinned frame
+         */
+        boolean releaseReserved() {
+            Frame oldest = null;
+            if(this.reservedFrames > 0) {
+                for(Frame frame : this.frames) {
+                    if(frame.reserved && frame.pinCount.get() == 0
+                            && (oldest == null || frame.lastAccess < oldest.lastAccess)) {
+                        oldest = frame;
+                    }
+                }
+            }
+            if(oldest == null) {
+                return false;
+            }
+            unreserve(oldest);
+            return true;
         }
 
-        public void setFile(DbFile file) {
-            this.file = file;
+        /** Pin frame once more. The caller holds the latch. */
+        void pin(Frame frame) {
+            frame.pinGeneration++;
+            // if previous pin count is 0, then after adding the frame can no longer be evicted
+            if(frame.pinCount.getAndIncrement() == 0) {
+                this.policy.setEvictable(frame.frameID, false);
+            }
         }
 
-        public void pinCountAddOne() {
-            this.pinCount++;
+        /**
+         * Drop the frames past limit once none of them holds a page. The
+         * caller holds the latch.
+         */
+        void trim() {
+            for(int i = this.limit; i < this.frames.length; i++) {
+                if(this.frames[i].page != null) {
+                    return;
+                }
+            }
+            if(this.frames.length > this.limit) {
+                this.frames = Arrays.copyOf(this.frames, this.limit);
+                this.policy.resize(this.limit);
+            }
         }
 
-        public void pinCountMinusOne() {
-            // TODO: what if pinCount already equals to 0 before minus one?
-            this.pinCount--;
+        /** Unpin frame once. The caller holds the latch. */
+        void unpin(Frame frame) {
+            int pins = frame.pinCount.get();
+            if(pins <= 0) {
+                return;
+            }
+            if(frame.pinCount.decrementAndGet() == 0 && !frame.reserved) {
+                this.policy.setEvictable(frame.frameID, true);
+            }
         }
     }
 
-    private int numPages;
-//    private Map<PageId, Page> idPageMap;
-    private Frame[] frames;
-    private List<Integer> unpinnedFrames;
-    private Map<PageId, Integer> pageIdFrameIdMap;
-//    private Map<TransactionId, List<Integer>> transactionIdFrameIdsMap;
-//    private ReadWriteLock rwLock;
-//    private Lock rLock;
-//    private Lock wLock;
+    private volatile int numPages;
+    private final Partition[] partitions;
+    private final Prefetcher prefetcher;
+    private final LockManager lockManager;
+    private final PageWriter pageWriter;
+    private final PageWarmer warmer;
+    private final CompressedPageCache compressedCache;
+    // before images of pages a running transaction changed, taken when
+    // the pages were evicted, so that an abort can still put them back
+    private final Map<PageId, Page> evictedBeforeImages = new ConcurrentHashMap<>();
+    // holds the bytes of the cached pages, or null if they stay on the heap
+    private volatile PageArena arena;
+    // taken by resize, so that only one resize runs at a time
+    private final Object resizeLock = new Object();
+    private final BufferPoolMetrics metrics;
+    private volatile double ringThreshold = DEFAULT_RING_THRESHOLD;
+    private volatile double indexReserve = DEFAULT_INDEX_RESERVE;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the
+     * replacement policy {@link #DEFAULT_POLICY}.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into as
+     * many partitions as {@link #MAX_PARTITIONS} and
+     * {@link #MIN_PARTITION_PAGES} allow.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the name of the replacement policy, see {@link #newPolicy}
+     */
+    public BufferPool(int numPages, String policy) {
+        this(numPages, policy, Math.min(MAX_PARTITIONS, numPages / MIN_PARTITION_PAGES));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     * <p>
+     * The frames are split evenly between the partitions. Each partition
+     * has its own latch, page table and replacement policy, so requests for
+     * pages of different partitions never wait for each other, but a page
+     * can only be cached if its own partition has a frame for it.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the name of the replacement policy, see {@link #newPolicy}
+     * @param numPartitions the number of partitions, at least 1 and at most numPages
+     */
+    public BufferPool(int numPages, String policy, int numPartitions) {
+        this(numPages, policy, numPartitions, DEFAULT_OFF_HEAP);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, with their
+     * bytes in a {@link PageArena} of numPages slots if offHeap is set.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the name of the replacement policy, see {@link #newPolicy}
+     * @param numPartitions the number of partitions, at least 1 and at most numPages
+     * @param offHeap whether to keep the pages in an arena off the heap
+     */
+    public BufferPool(int numPages, String policy, int numPartitions, boolean offHeap) {
         // some code goes here
         this.numPages = numPages;
-        this.frames = new Frame[numPages];
-        this.unpinnedFrames = new LinkedList<>();
-        this.pageIdFrameIdMap = new HashMap<>();
-//        this.transactionIdFrameIdsMap = new HashMap<>();
-        for(int i = 0; i < numPages; i++) {
-            // init Frame[] with empty frame object
-            this.frames[i] = new Frame(i);
-            // at first, each frame is unpinned
-            this.unpinnedFrames.add(i);        }
+        this.arena = offHeap ? new PageArena(numPages, pageSize) : null;
+        numPartitions = Math.max(1, Math.min(numPartitions, numPages));
+        this.partitions = new Partition[numPartitions];
+        int slotBase = 0;
+        for(int i = 0; i < numPartitions; i++) {
+            this.partitions[i] = new Partition(i, numPages / numPartitions + (i < numPages % numPartitions ? 1 : 0), policy, this.arena, slotBase);
+            slotBase += this.partitions[i].frames.length;
+        }
+        this.prefetcher = new Prefetcher(this);
+        this.lockManager = new LockManager();
+        this.pageWriter = new PageWriter(this);
+        this.warmer = new PageWarmer(this);
+        this.compressedCache = new CompressedPageCache();
+        this.metrics = new BufferPoolMetrics(this, numPartitions);
+    }
 
+    /**
+     * Create the replacement policy called name for a buffer pool of
+     * numFrames frames.
+     *
+     * @param name one of fifo, clock, lru-k and 2q
+     * @throws IllegalArgumentException if there is no such policy
+     */
+    public static ReplacementPolicy newPolicy(String name, int numFrames) {
+        switch (name.toLowerCase()) {
+        case "fifo":
+            return new FifoPolicy(numFrames);
+        case "clock":
+            return new ClockPolicy(numFrames);
+        case "lru-k":
+            return new LruKPolicy(numFrames);
+        case "2q":
+            return new TwoQueuePolicy(numFrames);
+        default:
+            throw new IllegalArgumentException("unknown replacement policy " + name);
+        }
     }
     
     public static int getPageSize() {
       return pageSize;
     }
+
+    /** @return the number of pages this buffer pool can hold */
+    public int getNumPages() {
+        return this.numPages;
+    }
+
+    /**
+     * Change the number of pages this buffer pool can hold while it is in
+     * use. The number of partitions stays the same, and every partition is
+     * resized under its latch in turn, so requests for pages of the other
+     * partitions go on meanwhile.
+     * <p>
+     * Growing adds empty frames to every partition and keeps every cached
+     * page. Shrinking writes the dirty pages first, without holding a latch,
+     * and then evicts the pages of the frames that are taken away. Pages of
+     * those frames that are pinned are not waited for: no page is installed
+     * there any more, and the frames are dropped once the replacement
+     * policy evicted their pages, so {@link #getNumPages} drops at once
+     * while the pages cached may stay above it for a while. Off heap, the
+     * clean pages move into a new arena of the new size.
+     *
+     * @param numPages the new number of pages, at least one per partition
+     * @throws IllegalArgumentException if numPages is less than the number of partitions
+     */
+    public void resize(int numPages) throws IOException {
+        if(numPages < this.partitions.length) {
+            throw new IllegalArgumentException("a buffer pool of " + this.partitions.length
+                    + " partitions needs at least as many pages, not " + numPages);
+        }
+        synchronized(this.resizeLock) {
+            if(numPages == this.numPages) {
+                return;
+            }
+            if(numPages < this.numPages) {
+                // so that the pages evicted below rarely have to be written
+                // while the latch is held
+                writeDirtyPages(Integer.MAX_VALUE, false);
+            }
+            PageArena newArena = this.arena != null ? new PageArena(numPages, pageSize) : null;
+            int n = this.partitions.length;
+            int slotBase = 0;
+            for(int i = 0; i < n; i++) {
+                Partition part = this.partitions[i];
+                int numFrames = numPages / n + (i < numPages % n ? 1 : 0);
+                synchronized(part) {
+                    resizePartition(part, numFrames);
+                    part.arena = newArena;
+                    part.slotBase = slotBase;
+                    for(int f = 0; f < part.limit; f++) {
+                        Frame frame = part.frames[f];
+                        if(frame.page instanceof ArenaPage && ((ArenaPage) frame.page).isAttached()) {
+                            detach(frame);
+                            attach(part, frame);
+                        }
+                    }
+                }
+                slotBase += numFrames;
+            }
+            this.arena = newArena;
+            this.numPages = numPages;
+        }
+    }
+
+    /**
+     * Give part numFrames frames. Frames taken away are evicted unless their
+     * pages are pinned, and left to drain otherwise. The caller holds the
+     * partition's latch.
+     */
+    private void resizePartition(Partition part, int numFrames) {
+        int old = part.frames.length;
+        if(numFrames > old) {
+            part.frames = Arrays.copyOf(part.frames, numFrames);
+            for(int f = old; f < numFrames; f++) {
+                part.frames[f] = new Frame(f);
+            }
+            part.policy.resize(numFrames);
+        }
+        // frames of an earlier shrink that are kept after all become usable again
+        for(int f = part.limit; f < numFrames; f++) {
+            if(part.frames[f].page == null) {
+                part.freeFrames.add(f);
+            }
+        }
+        part.limit = numFrames;
+        for(Iterator<Integer> it = part.freeFrames.iterator(); it.hasNext(); ) {
+            if(it.next() >= numFrames) {
+                it.remove();
+            }
+        }
+        for(int f = numFrames; f < part.frames.length; f++) {
+            Frame frame = part.frames[f];
+            if(frame.page == null) {
+                continue;
+            }
+            if(frame.pinCount.get() == 0) {
+                evictFrame(part, frame);
+            } else {
+                // its slot belongs to another frame in the new arena, and
+                // it has to be evicted once unpinned
+                detach(frame);
+                part.unreserve(frame);
+            }
+        }
+        part.trim();
+    }
+
+    /** @return the number of partitions of this buffer pool */
+    public int getNumPartitions() {
+        return this.partitions.length;
+    }
+
+    /** @return the read-ahead service that fills this buffer pool for sequential scans */
+    public Prefetcher getPrefetcher() {
+        return this.prefetcher;
+    }
+
+    /** @return the manager of the page locks of the transactions using this buffer pool */
+    public LockManager getLockManager() {
+        return this.lockManager;
+    }
+
+    /** @return the background writer of the dirty pages of this buffer pool */
+    public PageWriter getPageWriter() {
+        return this.pageWriter;
+    }
+
+    /** @return the service saving the ids of the cached pages and reading them back after a restart */
+    public PageWarmer getWarmer() {
+        return this.warmer;
+    }
+
+    /** @return the second tier keeping clean pages evicted from this buffer pool compressed */
+    public CompressedPageCache getCompressedCache() {
+        return this.compressedCache;
+    }
+
+    /** @return the arena holding the bytes of the cached pages, or null if they are on the heap */
+    public PageArena getArena() {
+        return this.arena;
+    }
+
+    /** @return the counters of this buffer pool */
+    public BufferPoolMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /** @return the number of pages that were dirty when they were evicted */
+    public long getDirtyEvictions() {
+        return this.metrics.getDirtyEvictions();
+    }
+
+    /**
+     * Count the cached pages of each table, and the dirty and the pinned
+     * pages among them, taking the latch of one partition at a time.
+     *
+     * @return the numbers of resident, dirty and pinned pages of each table, by table id
+     */
+    Map<Integer, int[]> residency() {
+        Map<Integer, int[]> byTable = new HashMap<>();
+        for(Partition part : this.partitions) {
+            synchronized(part) {
+                for(Frame frame : part.frames) {
+                    Page page = frame.page;
+                    if(page == null) {
+                        continue;
+                    }
+                    int[] counts = byTable.get(frame.pageId.getTableId());
+                    if(counts == null) {
+                        counts = new int[3];
+                        byTable.put(frame.pageId.getTableId(), counts);
+                    }
+                    counts[0]++;
+                    if(page.isDirty() != null) {
+                        counts[1]++;
+                    }
+                    if(frame.pinCount.get() > 0) {
+                        counts[2]++;
+                    }
+                }
+            }
+        }
+        return byTable;
+    }
+
+    /**
+     * List the cached pages, most recently requested first. The order within
+     * each partition is exact. Partitions are interleaved by the rank of
+     * their pages, as pages hash to the partitions evenly.
+     */
+    List<PageId> residentPages() {
+        final Map<PageId, Double> rank = new HashMap<>();
+        for(Partition part : this.partitions) {
+            List<Frame> frames = new ArrayList<>();
+            synchronized(part) {
+                for(Frame frame : part.frames) {
+                    if(frame.page != null) {
+                        frames.add(frame);
+                    }
+                }
+                Collections.sort(frames, new Comparator<Frame>() {
+                    @Override
+                    public int compare(Frame a, Frame b) {
+                        return Long.compare(b.lastAccess, a.lastAccess);
+                    }
+                });
+                for(int i = 0; i < frames.size(); i++) {
+                    rank.put(frames.get(i).pageId, (i + 0.5) / frames.size());
+                }
+            }
+        }
+        List<PageId> pages = new ArrayList<>(rank.keySet());
+        Collections.sort(pages, new Comparator<PageId>() {
+            @Override
+            public int compare(PageId a, PageId b) {
+                return Double.compare(rank.get(a), rank.get(b));
+            }
+        });
+        return pages;
+    }
+
+    /** @return the number of pages held in the reserves of the partitions right now */
+    int reservedPages() {
+        int n = 0;
+        for(Partition part : this.partitions) {
+            synchronized(part) {
+                n += part.reservedFrames;
+            }
+        }
+        return n;
+    }
+
+    /** @return true if any partition has a frame without a page */
+    boolean hasFreeFrames() {
+        for(Partition part : this.partitions) {
+            synchronized(part) {
+                if(!part.freeFrames.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the fraction of the buffer pool a table has to exceed to be
+     * scanned through a {@link BufferRing}.
+     */
+    public void setRingThreshold(double ringThreshold) {
+        this.ringThreshold = ringThreshold;
+    }
+
+    public double getRingThreshold() {
+        return this.ringThreshold;
+    }
+
+    /**
+     * Sets the fraction of the frames of every partition kept for pages of
+     * the high priority class. Pages already in the reserve stay there.
+     */
+    public void setIndexReserve(double indexReserve) {
+        this.indexReserve = indexReserve;
+    }
+
+    public double getIndexReserve() {
+        return this.indexReserve;
+    }
+
+    /**
+     * Every page belongs to one of two priority classes. Root pointer and
+     * internal pages of a B+ tree are of the high class, as every lookup in
+     * the tree goes through them, and losing one costs every lookup below
+     * it a read. Leaf and header pages of a B+ tree and the pages of every
+     * other file are of the normal class.
+     * <p>
+     * Up to {@link #getIndexReserve} of the frames of a partition are kept
+     * as a reserve for pages of the high class: a page of the high class
+     * that is installed or requested while the reserve has room is kept out
+     * of reach of the replacement policy, and pages of the normal class
+     * cannot push it out. The reserve is soft. When every frame of a
+     * partition outside it is pinned, its least recently requested page is
+     * handed back to the replacement policy, and pages of the high class
+     * beyond the reserve are evicted like any other.
+     *
+     * @return true if pid is of the high priority class
+     */
+    public static boolean isHighPriority(PageId pid) {
+        if(!(pid instanceof BTreePageId)) {
+            return false;
+        }
+        int category = ((BTreePageId) pid).pgcateg();
+        return category == BTreePageId.ROOT_PTR || category == BTreePageId.INTERNAL;
+    }
+
+    /** @return the number of frames of part kept for pages of the high priority class */
+    private int reserveFrames(Partition part) {
+        return (int) (this.indexReserve * part.limit);
+    }
+
+    /**
+     * Create the ring a sequential scan over tablePages pages reads through,
+     * if the table is large enough to push other pages out of the buffer
+     * pool.
+     *
+     * @return a new {@link BufferRing}, or null if the scan should use the
+     *   buffer pool itself
+     */
+    public BufferRing newRing(int tablePages) {
+        return tablePages > this.ringThreshold * this.numPages ? new BufferRing() : null;
+    }
+
+    /** @return true if the page is currently cached in this buffer pool */
+    public boolean isCached(PageId pid) {
+        return partitionOf(pid).pageTable.containsKey(pid);
+    }
+
+    private Partition partitionOf(PageId pid) {
+        // spread the bits of the hash code, as consecutive pages have
+        // consecutive hash codes
+        int h = pid.hashCode() * 0x9e3779b9;
+        h ^= h >>> 16;
+        return this.partitions[(h & 0x7fffffff) % this.partitions.length];
+    }
     
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
@@ -159,59 +722,336 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * Only the latch of the page's partition is held, and not while a
+     * missing page is read from disk: the page is installed under the latch
+     * afterwards, unless another thread installed it meanwhile. READ_ONLY
+     * requests acquire a shared lock and READ_WRITE requests an exclusive
+     * lock.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
+     * @throws TransactionAbortedException if tid was aborted to break a deadlock
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-//        rLock.lock();
-        //if page is already in buffer pool, just return and pinCount +1
-        if(this.pageIdFrameIdMap.containsKey(pid)) {
-            int frameID = this.pageIdFrameIdMap.get(pid);
-
-            // update pinCount if perm is READ_WRITE
-            if(perm.equals(Permissions.READ_WRITE)) {
-                // if previous pin count is 0, then after adding we should remove this frame id from unpinned queue
-                if(frames[frameID].getPinCount() == 0) {
-                    this.unpinnedFrames.remove(Integer.valueOf(frameID));
+        return fetchPage(tid, pid, perm, true);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)}.
+     *
+     * @param record whether to count the request as a hit or a miss, which
+     *   callers that counted it already do not
+     */
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm, boolean record)
+        throws TransactionAbortedException, DbException {
+        this.lockManager.acquire(tid, pid, perm.equals(Permissions.READ_WRITE));
+        if(perm.equals(Permissions.READ_WRITE)) {
+            this.pageWriter.wakeUp();
+        }
+        Partition part = partitionOf(pid);
+        synchronized(part) {
+            //if page is already in buffer pool, just return and pinCount +1
+            Frame frame = part.pageTable.get(pid);
+            if(frame != null) {
+                if(record) {
+                    this.metrics.recordHit(part.index, BufferPoolMetrics.category(pid));
                 }
-                frames[frameID].pinCountAddOne();
+                return accessFrame(part, frame, perm);
             }
-            return frames[frameID].getPage();
         }
         // page not in buffer pool
-        int unpinnedFrameId = 0;
-        try {
-            unpinnedFrameId = this.unpinnedFrames.get(0);   // always get the first unpinned frame id
-        } catch (IndexOutOfBoundsException e) {
-            e.printStackTrace();
+        // read from catalog, without holding the latch
+        long start = this.metrics.startMiss();
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        while(true) {
+            long writeCount = file.getWriteCount();
+            Page p = this.compressedCache.take(pid, file);
+            if(p == null) {
+                p = file.readPage(pid);
+            }
+            synchronized(part) {
+                // another thread installed the page meanwhile
+                Frame frame = part.pageTable.get(pid);
+                if(frame == null) {
+                    // the page may have been written since it was read
+                    if(file.getWriteCount() != writeCount) {
+                        continue;
+                    }
+                    frame = installPage(part, pid, p, file);
+                    // if it's a READ_ONLY perm, we do not need to hold its pin because we can evict it whenever we want
+                    if(perm.equals(Permissions.READ_ONLY)) {
+                        part.unpin(frame);
+                    }
+                } else {
+                    accessFrame(part, frame, perm);
+                }
+                if(record) {
+                    this.metrics.recordMisses(1, start, BufferPoolMetrics.category(pid));
+                }
+                return frame.page;
+            }
         }
-        Frame frame = this.frames[unpinnedFrameId];
+    }
 
-        Page oldPage = frame.getPage();
-        if(oldPage != null) {
-            evictPage();
+    /**
+     * Record an access to the page of frame, pinning it for READ_WRITE
+     * requests. The caller holds the partition's latch.
+     *
+     * @return the page of frame
+     */
+    private Page accessFrame(Partition part, Frame frame, Permissions perm) {
+        if(frame.prefetchedFor != null) {
+            frame.prefetchedFor = null;
+            this.prefetcher.recordHit();
         }
-        // read from catalog
-        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        Page p = file.readPage(pid);
+        part.policy.pageAccessed(frame.frameID);
+        frame.lastAccess = ++part.accessClock;
+        if(!frame.reserved && isHighPriority(frame.pageId)) {
+            part.reserve(frame, reserveFrames(part));
+        }
+
+        // update pinCount if perm is READ_WRITE
+        if(perm.equals(Permissions.READ_WRITE)) {
+            part.pin(frame);
+        }
+        return frame.page;
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * except that a READ_ONLY page that is not cached is taken from ring, or
+     * read into ring, instead of being installed into the buffer pool.
+     *
+     * @param ring the ring of the scan requesting the page, or null
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        return fetchPage(tid, pid, perm, ring, true);
+    }
+
+    private Page fetchPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring, boolean record)
+        throws TransactionAbortedException, DbException {
+        if(ring == null || perm.equals(Permissions.READ_WRITE)) {
+            return fetchPage(tid, pid, perm, record);
+        }
+        this.lockManager.acquire(tid, pid, false);
+        // with the lock held a page that is not cached cannot be dirty
+        if(isCached(pid)) {
+            return fetchPage(tid, pid, perm, record);
+        }
+        Page p = ring.get(pid);
+        if(p == null) {
+            long start = this.metrics.startMiss();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            long writeCount = file.getWriteCount();
+            p = file.readPage(pid);
+            ring.add(Collections.singletonList(p), file, writeCount);
+            if(record) {
+                this.metrics.recordMisses(1, start, BufferPoolMetrics.category(pid));
+            }
+        } else if(record) {
+            this.metrics.recordRingHit();
+        }
+        return p;
+    }
+
+    /**
+     * Retrieve a run of up to count consecutive pages starting at start with
+     * the associated permissions. If start is not cached, the run is read
+     * with a single {@link DbFile#readPages} call and the pages of it that
+     * are not in the buffer pool yet are installed into free frames, so a
+     * sequential scan issues one large read per run instead of one read per
+     * page. The run ends before the first page that is already cached, so
+     * no cached page is read again. If start itself is cached nothing is read
+     * and only start is returned.
+     * The run is capped at the size of the buffer pool. It is read without
+     * holding any latch; if the file was written meanwhile, the pages of the
+     * run are read again one by one instead of being installed.
+     *
+     * @param tid the ID of the transaction requesting the pages
+     * @param start the ID of the first page of the run
+     * @param count the number of pages wanted
+     * @param perm the requested permissions on the pages
+     * @return the pages fetched, in page number order, beginning with start
+     */
+    public List<Page> getPages(TransactionId tid, PageId start, int count, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPages(tid, start, count, perm, null);
+    }
+
+    /**
+     * Retrieve a run of pages like
+     * {@link #getPages(TransactionId, PageId, int, Permissions)}, except
+     * that READ_ONLY pages that are not cached go into ring instead of the
+     * buffer pool. The run is then capped at the size of the ring.
+     *
+     * @param ring the ring of the scan requesting the pages, or null
+     */
+    public List<Page> getPages(TransactionId tid, PageId start, int count, Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
+        if(perm.equals(Permissions.READ_WRITE)) {
+            ring = null;
+        }
+        List<Page> pages = new ArrayList<>();
+        if(isCached(start)) {
+            pages.add(getPage(tid, start, perm));
+            return pages;
+        }
+        // stop the run at the first page that is cached already, e.g. because
+        // the prefetcher read it ahead
+        int n = Math.min(count, ring != null ? ring.capacity() : this.numPages);
+        if(start instanceof HeapPageId) {
+            for(int i = 1; i < n; i++) {
+                if(isCached(new HeapPageId(start.getTableId(), start.pageNumber() + i))) {
+                    n = i;
+                    break;
+                }
+            }
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(start.getTableId());
+        long writeCount = file.getWriteCount();
+        long startNanos = this.metrics.startMiss();
+        List<Page> read = file.readPages(start, n);
+        // every page of the run counts as a miss, and not again below
+        this.metrics.recordMisses(read.size(), startNanos, BufferPoolMetrics.category(start));
+        if(ring != null) {
+            ring.add(read, file, writeCount);
+            for(Page p : read) {
+                pages.add(fetchPage(tid, p.getId(), perm, ring, false));
+            }
+            return pages;
+        }
+        for(Page p : read) {
+            PageId pid = p.getId();
+            Partition part = partitionOf(pid);
+            // lock before latching, getPage below finds the lock held
+            this.lockManager.acquire(tid, pid, perm.equals(Permissions.READ_WRITE));
+            synchronized(part) {
+                if(!part.pageTable.containsKey(pid) && file.getWriteCount() == writeCount) {
+                    part.unpin(installPage(part, pid, p, file));
+                }
+                pages.add(fetchPage(tid, pid, perm, false));
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Install page p of the given file into a free frame of part, or else
+     * into the frame of the page its replacement policy evicts. The frame is
+     * left pinned once. The caller holds the partition's latch.
+     */
+    private Frame installPage(Partition part, PageId pid, Page p, DbFile file) throws DbException {
+        int frameId = part.freeFrames.isEmpty() ? evictPage(part) : part.freeFrames.poll();
+        // a frame past the limit of a partition being shrunk is not used again
+        while(frameId >= part.limit) {
+            part.trim();
+            frameId = part.freeFrames.isEmpty() ? evictPage(part) : part.freeFrames.poll();
+        }
+        // a page is in one tier only, and the image of the other could go stale
+        this.compressedCache.remove(pid);
+        Frame frame = part.frames[frameId];
         frame.pageId = pid;
         frame.page = p;
         frame.file = file;
-        frame.setPinCount(1);
-        this.pageIdFrameIdMap.put(pid, unpinnedFrameId);
-        this.unpinnedFrames.remove(0);    // dequeue from unpinned frames list
-        // if it's a READ_ONLY perm, we do not need to hold its pin because we can evict it whenever we want
-        if(perm.equals(Permissions.READ_ONLY)) {
-            unpinPage(pid);
-        }
-        //        rLock.unlock();
-        return p;
+        frame.prefetchedFor = null;
+        frame.pinCount.set(1);
+        frame.pinGeneration++;
+        frame.lastAccess = ++part.accessClock;
+        part.pageTable.put(pid, frame);
+        part.policy.pageInstalled(frameId, pid);
+        if(isHighPriority(pid)) {
+            part.reserve(frame, reserveFrames(part));
+        }
+        attach(part, frame);
+        return frame;
     }
 
+    /**
+     * Move the page of frame into the frame's slot of the arena, if there
+     * is an arena and the page can live there. Dirty pages stay on the heap.
+     * The caller holds the partition's latch.
+     */
+    private void attach(Partition part, Frame frame) {
+        if(part.arena == null || !(frame.page instanceof ArenaPage) || part.arena.getPageSize() != pageSize
+                || frame.frameID >= part.limit) {
+            return;
+        }
+        ArenaPage page = (ArenaPage) frame.page;
+        if(!page.isAttached()) {
+            page.attach(part.arena.slot(part.slotBase + frame.frameID));
+        }
+    }
+
+    /**
+     * Copy the page of frame back to the heap before the frame is given to
+     * another page. The caller holds the partition's latch.
+     */
+    private void detach(Frame frame) {
+        if(this.arena != null && frame.page instanceof ArenaPage) {
+            ((ArenaPage) frame.page).detach();
+        }
+    }
+
+    /**
+     * Install pages read ahead by the {@link Prefetcher}. Pages that are
+     * already cached are skipped, and so are pages whose partition has no
+     * frame that can be taken without evicting a pinned page. Nothing is
+     * installed once the file was written since the pages were read, as
+     * they may be out of date.
+     *
+     * @param file the file the pages were read from
+     * @param pages the pages read ahead
+     * @param writeCount {@link DbFile#getWriteCount} of file sampled before the pages were read
+     * @param stream the scan the pages were read ahead for, which is told
+     *   about those of them evicted unused
+     * @return the number of pages installed
+     */
+    int installPrefetched(DbFile file, List<Page> pages, long writeCount, Prefetcher.Stream stream)
+        throws DbException {
+        return installRead(file, pages, writeCount, stream);
+    }
+
+    /**
+     * Install pages read by the {@link PageWarmer} like
+     * {@link #installPrefetched}, except that they only go into free frames,
+     * so that they never push out a page requested meanwhile.
+     *
+     * @return the number of pages installed
+     */
+    int installWarm(DbFile file, List<Page> pages, long writeCount) throws DbException {
+        return installRead(file, pages, writeCount, null);
+    }
+
+    /**
+     * @param stream the scan pages are read ahead for, or null for the pages
+     *   of a warm-up
+     */
+    private int installRead(DbFile file, List<Page> pages, long writeCount, Prefetcher.Stream stream)
+        throws DbException {
+        int installed = 0;
+        for(Page p : pages) {
+            PageId pid = p.getId();
+            Partition part = partitionOf(pid);
+            synchronized(part) {
+                if(file.getWriteCount() != writeCount) {
+                    break;
+                }
+                if(part.pageTable.containsKey(pid) || (stream != null ? !part.hasRoom() : part.freeFrames.isEmpty())) {
+                    continue;
+                }
+                Frame frame = installPage(part, pid, p, file);
+                frame.prefetchedFor = stream;
+                part.unpin(frame);
+                installed++;
+            }
+        }
+        return installed;
+    }
 
     /**
      * Releases the lock on a page.
@@ -224,7 +1064,22 @@ public class BufferPool {
      */
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        this.lockManager.release(tid, pid);
+    }
+
+    /**
+     * Lock the whole table tableId for tid, shared or exclusive, so that it
+     * needs no lock on the pages of it. Scans of tables with at least
+     * {@link LockManager#getEscalationThreshold} pages take the lock up
+     * front instead of escalating to it.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the ID of the table to lock
+     * @param exclusive true to be able to write any page of the table
+     */
+    public void lockTable(TransactionId tid, int tableId, boolean exclusive)
+        throws TransactionAbortedException {
+        this.lockManager.acquireTable(tid, tableId, exclusive);
     }
 
     /**
@@ -234,19 +1089,25 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return this.lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit the dirty pages of the transaction are written to disk and
+     * become the before images of its pages. On abort every page the
+     * transaction holds an exclusive lock on is put back to its before image,
+     * on disk too, as pages may have been written before the transaction
+     * ended, and is dropped from the buffer pool. The before image of a page
+     * evicted meanwhile is the one kept when it was evicted.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -254,7 +1115,54 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            if(commit) {
+                flushPages(tid);
+                for(PageId pid : this.lockManager.exclusivePages(tid)) {
+                    this.evictedBeforeImages.remove(pid);
+                    Partition part = partitionOf(pid);
+                    synchronized(part) {
+                        Frame frame = part.pageTable.get(pid);
+                        if(frame != null) {
+                            frame.page.setBeforeImage();
+                            attach(part, frame);
+                        }
+                    }
+                }
+            } else {
+                for(PageId pid : this.lockManager.exclusivePages(tid)) {
+                    rollbackPage(pid);
+                }
+            }
+        } finally {
+            this.lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Put the page pid back to its before image, on disk too, and drop it
+     * from the buffer pool. A page that was evicted is put back to the
+     * before image kept when it was evicted, as reading it again made the
+     * changes on disk its before image.
+     */
+    private void rollbackPage(PageId pid) throws IOException {
+        Partition part = partitionOf(pid);
+        synchronized(part) {
+            Page evicted = this.evictedBeforeImages.remove(pid);
+            Frame frame = part.pageTable.get(pid);
+            if(frame == null) {
+                if(evicted != null) {
+                    Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(evicted);
+                    this.compressedCache.remove(pid);
+                }
+                return;
+            }
+            Page before = evicted != null ? evicted : frame.page.getBeforeImage();
+            if(!Arrays.equals(before.getPageData(), frame.page.getPageData())) {
+                frame.file.writePage(before);
+            }
+            discardPage(pid);
+        }
     }
 
     /**
@@ -281,6 +1189,7 @@ public class BufferPool {
         // TODO: what should I do with these dirty pages?
         for(Page dirtyPage : dirtyPages) {
 //            flushPage(dirtyPage.getId());
+            dirtyPage.markDirty(true, tid);
             flushPage(dirtyPage);
 //            flushPage(dirtyPage);
             unpinPage(dirtyPage.getId());
@@ -313,17 +1222,21 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         PageId pageId = t.getRecordId().getPageId();
-        if(this.pageIdFrameIdMap.containsKey(pageId)) {
-            int frameId = this.pageIdFrameIdMap.get(pageId);
-            Frame frame = this.frames[frameId];
-            Page dirtyPage = frame.getPage();
-            dirtyPage.markDirty(true, tid);
-            DbFile file = frame.getFile();
-            file.deleteTuple(tid, t);
-        } else {
-            DbFile file = Database.getCatalog().getDatabaseFile(pageId.getTableId());
-            file.deleteTuple(tid,t);
+        this.lockManager.acquire(tid, pageId, true);
+        this.pageWriter.wakeUp();
+        Partition part = partitionOf(pageId);
+        DbFile file = null;
+        synchronized(part) {
+            Frame frame = part.pageTable.get(pageId);
+            if(frame != null) {
+                frame.page.markDirty(true, tid);
+                file = frame.file;
+            }
         }
+        if(file == null) {
+            file = Database.getCatalog().getDatabaseFile(pageId.getTableId());
+        }
+        file.deleteTuple(tid, t);
     }
 
     /**
@@ -331,14 +1244,134 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        for(PageId pageId : this.pageIdFrameIdMap.keySet()) {
-            flushPage(pageId);
+        writeDirtyPages(Integer.MAX_VALUE, true);
+    }
+
+    /**
+     * A dirty page taken by writeDirtyPages, its frame when it was taken,
+     * and a copy of its bytes made while the latch of the frame was held.
+     */
+    private static class DirtyPage {
+        private final Frame frame;
+        private final Page page;
+        private final DbFile file;
+        private final long pinGeneration;
+        private final Page snapshot;
+
+        DirtyPage(Frame frame) {
+            this.frame = frame;
+            this.page = frame.page;
+            this.file = frame.file;
+            this.pinGeneration = frame.pinGeneration;
+            this.snapshot = new PageSnapshot(frame.page.getId(), frame.page.getPageData());
         }
     }
 
+    /** The bytes of a page at one point in time, written in place of the page. */
+    private static class PageSnapshot implements Page {
+        private final PageId pid;
+        private final byte[] data;
+
+        PageSnapshot(PageId pid, byte[] data) {
+            this.pid = pid;
+            this.data = data;
+        }
+
+        public PageId getId() {
+            return pid;
+        }
+
+        public TransactionId isDirty() {
+            return null;
+        }
+
+        public void markDirty(boolean dirty, TransactionId tid) {
+        }
+
+        public byte[] getPageData() {
+            return data;
+        }
+
+        public Page getBeforeImage() {
+            return this;
+        }
+
+        public void setBeforeImage() {
+        }
+    }
+
+    /**
+     * Write up to max dirty pages to disk, sorted by file and page number,
+     * with one {@link DbFile#writePages} call per run of consecutive pages.
+     * The bytes of each page are copied while the latch of its partition is
+     * held, and the copies are written with no latch held. Afterwards a page
+     * is marked clean unless it was pinned again or replaced meanwhile.
+     *
+     * @param max the most pages to write
+     * @param all whether to write every dirty page; otherwise pinned pages
+     *   and pages a transaction holds an exclusive lock on, whose changes
+     *   may not be committed, are skipped
+     * @return the number of pages written
+     */
+    int writeDirtyPages(int max, boolean all) throws IOException {
+        List<DirtyPage> dirty = new ArrayList<>();
+        for(Partition part : this.partitions) {
+            synchronized(part) {
+                for(Frame frame : part.frames) {
+                    if(dirty.size() >= max) {
+                        break;
+                    }
+                    if(frame.page != null && frame.page.isDirty() != null
+                            && (all || (frame.pinCount.get() == 0
+                                    && !this.lockManager.isWriteLocked(frame.page.getId())))) {
+                        dirty.add(new DirtyPage(frame));
+                    }
+                }
+            }
+        }
+        Collections.sort(dirty, new Comparator<DirtyPage>() {
+            @Override
+            public int compare(DirtyPage a, DirtyPage b) {
+                PageId x = a.page.getId();
+                PageId y = b.page.getId();
+                if(x.getTableId() != y.getTableId()) {
+                    return Integer.compare(x.getTableId(), y.getTableId());
+                }
+                return Integer.compare(x.pageNumber(), y.pageNumber());
+            }
+        });
+        int i = 0;
+        while(i < dirty.size()) {
+            DirtyPage first = dirty.get(i);
+            List<Page> run = new ArrayList<>();
+            run.add(first.snapshot);
+            int j = i + 1;
+            while(j < dirty.size() && dirty.get(j).file == first.file
+                    && dirty.get(j).page.getId().pageNumber() == first.page.getId().pageNumber() + (j - i)) {
+                run.add(dirty.get(j++).snapshot);
+            }
+            first.file.writePages(run);
+            this.pageWriter.recordWrite(run.size());
+            this.metrics.recordDirtyPageWrites(run.size());
+            i = j;
+        }
+        for(DirtyPage d : dirty) {
+            Partition part = partitionOf(d.page.getId());
+            synchronized(part) {
+                if(d.frame.page == d.page && d.frame.pinGeneration == d.pinGeneration) {
+                    d.page.markDirty(false, null);
+                    if(d.frame.pinCount.get() == 0) {
+                        attach(part, d.frame);
+                    }
+                }
+            }
+        }
+        return dirty.size();
+    }
+
     /** Remove the specific page id from the buffer pool.
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
@@ -347,20 +1380,28 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        if(this.pageIdFrameIdMap.containsKey(pid)) {
-            int frameId = this.pageIdFrameIdMap.get(pid);
-            Frame frame = this.frames[frameId];
-            frame.file = null;
-            frame.page = null;
-            frame.pageId = null;
-            if(frame.getPinCount() != 0) {
-                frame.setPinCount(0);
-                this.unpinnedFrames.add(frameId);
+        Partition part = partitionOf(pid);
+        synchronized(part) {
+            Frame frame = part.pageTable.remove(pid);
+            this.compressedCache.remove(pid);
+            if(frame != null) {
+                part.unreserve(frame);
+                detach(frame);
+                frame.file = null;
+                frame.page = null;
+                frame.pageId = null;
+                frame.prefetchedFor = null;
+                frame.pinCount.set(0);
+                part.policy.pageRemoved(frame.frameID, pid, false);
+                if(frame.frameID < part.limit) {
+                    part.freeFrames.add(frame.frameID);
+                } else {
+                    part.trim();
+                }
             }
-            this.pageIdFrameIdMap.remove(pid);
         }
     }
 
@@ -368,82 +1409,143 @@ public class BufferPool {
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
         // use pid to get table id -> find dbfile in catalog by tableid -> write dbfile
-        if(this.pageIdFrameIdMap.containsKey(pid)) {
-            int frameId = this.pageIdFrameIdMap.get(pid);
-            Frame frame = this.frames[frameId];
+        Partition part = partitionOf(pid);
+        synchronized(part) {
+            Frame frame = part.pageTable.get(pid);
+            if(frame != null) {
+                Page dirtyPage = frame.page;
 
-            Page dirtyPage = frame.page;
-
-            DbFile file = frame.file;
-
-            // page is dirty, then flush and set not dirty
-            if(dirtyPage.isDirty() != null) {
-                file.writePage(dirtyPage);
-                dirtyPage.markDirty(false, null);
+                // page is dirty, then flush and set not dirty
+                if(dirtyPage.isDirty() != null) {
+                    frame.file.writePage(dirtyPage);
+                    dirtyPage.markDirty(false, null);
+                    this.metrics.recordDirtyPageWrites(1);
+                }
             }
         }
-//        else {
-//            System.out.println("current dirty page not in buffer pool!");
-//        }
     }
 
-    private synchronized void flushPage(Page page) throws IOException {
-        if(this.pageIdFrameIdMap.containsKey(page.getId())) {
-            flushPage(page.getId());
-        } else {
-            DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
-            file.writePage(page);
-            page.markDirty(false, null);
+    private void flushPage(Page page) throws IOException {
+        Partition part = partitionOf(page.getId());
+        synchronized(part) {
+            if(part.pageTable.containsKey(page.getId())) {
+                flushPage(page.getId());
+                return;
+            }
         }
+        DbFile file = Database.getCatalog().getDatabaseFile(page.getId().getTableId());
+        file.writePage(page);
+        page.markDirty(false, null);
+        this.compressedCache.remove(page.getId());
+        this.metrics.recordDirtyPageWrites(1);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized  void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
-
+        // only the holder of the exclusive lock can have dirtied a page
+        for(PageId pid : this.lockManager.exclusivePages(tid)) {
+            flushPage(pid);
+        }
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards the page the replacement policy of part picks from the buffer
+     * pool. Flushes the page to disk to ensure dirty pages are updated on
+     * disk. The caller holds the partition's latch.
+     *
+     * @return the frame that was freed
+     * @throws DbException if every page in the partition is pinned
      */
-    private synchronized void evictPage() throws DbException {
+    private int evictPage(Partition part) throws DbException {
         // some code goes here
         // not necessary for lab1
-        // evict with LRU policy
-        int unpinnedFramesId = this.unpinnedFrames.get(0);
-        Frame frame = this.frames[unpinnedFramesId];
+        int frameId = part.policy.victim();
+        // the reserve is soft: once every other page is pinned, its pages
+        // are evicted too, least recently requested first
+        while(frameId == -1 && part.releaseReserved()) {
+            frameId = part.policy.victim();
+        }
+        if(frameId == -1) {
+            throw new DbException("all pages in the buffer pool are pinned");
+        }
+        evictFrame(part, part.frames[frameId]);
+        return frameId;
+    }
 
+    /**
+     * Discards the page of frame from the buffer pool, writing it first if
+     * it is dirty. The frame is left empty. The caller holds the partition's
+     * latch.
+     */
+    private void evictFrame(Partition part, Frame frame) {
+        // the changes of a running transaction may be on disk already, so
+        // keep the before image of the page for its abort
+        if(this.lockManager.isWriteLocked(frame.pageId)
+                && !this.evictedBeforeImages.containsKey(frame.pageId)) {
+            byte[] before = frame.page.getBeforeImage().getPageData();
+            if(!Arrays.equals(before, frame.page.getPageData())) {
+                this.evictedBeforeImages.put(frame.pageId, new PageSnapshot(frame.pageId, before));
+            }
+        }
         // if page is dirty, flush the page
-        if(frame.getPage().isDirty() != null) {
+        boolean dirty = frame.getPage().isDirty() != null;
+        this.metrics.recordEviction(dirty);
+        if(dirty) {
             try {
-                flushPage(this.frames[this.unpinnedFrames.get(0)].getPageId());
+                flushPage(frame.getPageId());
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
 
-        this.pageIdFrameIdMap.remove(frame.pageId);
+        part.unreserve(frame);
+        part.pageTable.remove(frame.pageId);
+        part.policy.pageRemoved(frame.frameID, frame.pageId, true);
+        if(frame.prefetchedFor != null) {
+            this.prefetcher.recordWasted(frame.prefetchedFor);
+            frame.prefetchedFor = null;
+        }
+        // kept unless it is still dirty because it could not be written
+        this.compressedCache.put(frame.page);
 
+        detach(frame);
         frame.page = null;
         frame.pageId = null;
         frame.file = null;
     }
 
-    /** unpin a page when requestor has fulfilled the page */
+    /**
+     * unpin a page when requestor has fulfilled the page. Unpinning a page
+     * that stays pinned by someone else does not take any latch.
+     */
     public void unpinPage(PageId pageId) {
-        if(this.pageIdFrameIdMap.containsKey(pageId)) {
-            int frameId = this.pageIdFrameIdMap.get(pageId);
-            Frame frame = this.frames[frameId];
-            frame.pinCountMinusOne();
-            if(frame.getPinCount() == 0) {
-                this.unpinnedFrames.add(frameId);
+        Partition part = partitionOf(pageId);
+        Frame frame = part.pageTable.get(pageId);
+        if(frame == null) {
+            return;
+        }
+        int pins = frame.pinCount.get();
+        while(pins > 1) {
+            if(frame.pinCount.compareAndSet(pins, pins - 1)) {
+                if(pageId.equals(frame.pageId)) {
+                    return;
+                }
+                // the frame was given to another page meanwhile
+                frame.pinCount.incrementAndGet();
+                break;
+            }
+            pins = frame.pinCount.get();
+        }
+        synchronized(part) {
+            frame = part.pageTable.get(pageId);
+            if(frame != null) {
+                part.unpin(frame);
             }
         }
     }
@@ -0,0 +1,372 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * BufferPoolMetrics counts the hits, misses, evictions and dirty page
+ * writes of a {@link BufferPool}, and the time its misses take. Recording
+ * them takes no lock of its own. Hits, which getPage records most often,
+ * are plain counters with one stripe per partition, each incremented only
+ * while the latch of its partition is held anyway; even an uncontended
+ * atomic add would cost about a third of a cached getPage. Everything else
+ * is counted in LongAdders, so threads recording it do not contend on a
+ * single cache line. Reading the counters takes no latch, so they may lag
+ * behind the buffer pool a little. What is cached right now,
+ * dirty and pinned pages and the resident pages of each table, is counted
+ * only when it is asked for, by looking at every frame.
+ * <p>
+ * Hits and misses are also counted by the category of the page requested,
+ * see {@link #CATEGORIES}, so that the hit ratio of B+ tree internal pages
+ * can be told apart from that of the leaves and heap pages below them.
+ * The counters of the second tier, the {@link CompressedPageCache}, are
+ * kept by the tier itself and published here too.
+ * <p>
+ * The metrics of the buffer pool of the Database are registered as the
+ * MXBean {@value #OBJECT_NAME}, and the Parser prints them when it is
+ * given the command stats;
+ *
+ * @see BufferPool#getMetrics
+ * @Threadsafe
+ */
+public class BufferPoolMetrics implements BufferPoolMetricsMXBean {
+
+    /** Name the metrics of the buffer pool of the Database are registered under */
+    public static final String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    /** Metrics are recorded unless disabled with -Dsimpledb.BufferPoolMetrics.enabled=false */
+    public static final boolean ENABLED =
+            !"false".equalsIgnoreCase(System.getProperty("simpledb.BufferPoolMetrics.enabled"));
+
+    /** Categories of pages hits and misses are counted by: the four kinds of
+     B+ tree pages, in the order of the constants of {@link BTreePageId}, and
+     the pages of every other file */
+    public static final String[] CATEGORIES = { "root pointer", "internal", "leaf", "header", "data" };
+
+    // category of the pages of files other than B+ trees
+    private static final int DATA = 4;
+
+    private final BufferPool bufferPool;
+    private volatile boolean enabled = ENABLED;
+
+    // hits of pages of category c in partition i at hits[i * STRIDE + c],
+    // apart so that partitions do not share a cache line
+    private static final int STRIDE = 16;
+    private final long[] hits;
+    // hits on pages in the ring of a scan, which holds no latch
+    private final LongAdder ringHits = new LongAdder();
+    private final LongAdder[] misses = new LongAdder[CATEGORIES.length];
+    private final LongAdder missNanos = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder dirtyEvictions = new LongAdder();
+    private final LongAdder dirtyPageWrites = new LongAdder();
+
+    /**
+     * @param numPartitions the number of partitions of bufferPool, the
+     *   stripes hits are recorded in
+     */
+    public BufferPoolMetrics(BufferPool bufferPool, int numPartitions) {
+        this.bufferPool = bufferPool;
+        this.hits = new long[numPartitions * STRIDE];
+        for (int c = 0; c < misses.length; c++) {
+            misses[c] = new LongAdder();
+        }
+    }
+
+    /** @return the index in {@link #CATEGORIES} of the category of pid */
+    static int category(PageId pid) {
+        return pid instanceof BTreePageId ? ((BTreePageId) pid).pgcateg() : DATA;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return System.nanoTime() to pass to recordMiss, or 0 if metrics are
+     *   disabled
+     */
+    long startMiss() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a hit in a partition. The caller holds the latch of that
+     * partition.
+     *
+     * @param category the category of the page, see {@link #category}
+     */
+    void recordHit(int partition, int category) {
+        if (enabled) {
+            hits[partition * STRIDE + category]++;
+        }
+    }
+
+    /** Record a hit on a page in the ring of a scan. */
+    void recordRingHit() {
+        if (enabled) {
+            ringHits.increment();
+        }
+    }
+
+    /**
+     * Record n misses served together.
+     *
+     * @param start the value startMiss returned before the pages were read
+     * @param category the category of the pages, see {@link #category}
+     */
+    void recordMisses(int n, long start, int category) {
+        if (enabled) {
+            misses[category].add(n);
+            missNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    void recordEviction(boolean dirty) {
+        if (enabled) {
+            evictions.increment();
+            if (dirty) {
+                dirtyEvictions.increment();
+            }
+        }
+    }
+
+    void recordDirtyPageWrites(int n) {
+        if (enabled) {
+            dirtyPageWrites.add(n);
+        }
+    }
+
+    public long getHits() {
+        long n = ringHits.sum();
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            n += hits(c);
+        }
+        return n;
+    }
+
+    /** @return the hits on pages of category c, apart from those in the ring of a scan */
+    private long hits(int c) {
+        long n = 0;
+        for (int i = c; i < hits.length; i += STRIDE) {
+            n += hits[i];
+        }
+        return n;
+    }
+
+    public long getMisses() {
+        long n = 0;
+        for (LongAdder m : misses) {
+            n += m.sum();
+        }
+        return n;
+    }
+
+    public double getHitRatio() {
+        long h = getHits();
+        long requests = h + getMisses();
+        return requests == 0 ? 0 : (double) h / requests;
+    }
+
+    public Map<String, Double> getHitRatioByCategory() {
+        Map<String, Double> byCategory = new LinkedHashMap<String, Double>();
+        for (int c = 0; c < CATEGORIES.length; c++) {
+            // pages in the ring of a scan are data pages
+            long h = hits(c) + (c == DATA ? ringHits.sum() : 0);
+            long requests = h + misses[c].sum();
+            if (requests > 0) {
+                byCategory.put(CATEGORIES[c], (double) h / requests);
+            }
+        }
+        return byCategory;
+    }
+
+    public double getAverageMissMicros() {
+        long m = getMisses();
+        return m == 0 ? 0 : missNanos.sum() / 1e3 / m;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getDirtyEvictions() {
+        return dirtyEvictions.sum();
+    }
+
+    public long getDirtyPageWrites() {
+        return dirtyPageWrites.sum();
+    }
+
+    public int getCapacity() {
+        return bufferPool.getNumPages();
+    }
+
+    public int getResidentPages() {
+        return sum(0);
+    }
+
+    public int getDirtyPages() {
+        return sum(1);
+    }
+
+    public int getPinnedPages() {
+        return sum(2);
+    }
+
+    public int getReservedPages() {
+        return bufferPool.reservedPages();
+    }
+
+    private int sum(int column) {
+        int n = 0;
+        for (int[] counts : bufferPool.residency().values()) {
+            n += counts[column];
+        }
+        return n;
+    }
+
+    public long getSecondTierHits() {
+        return bufferPool.getCompressedCache().getHits();
+    }
+
+    public long getSecondTierMisses() {
+        return bufferPool.getCompressedCache().getMisses();
+    }
+
+    public double getSecondTierHitRatio() {
+        return bufferPool.getCompressedCache().getHitRatio();
+    }
+
+    public double getSecondTierCompressionRatio() {
+        return bufferPool.getCompressedCache().getCompressionRatio();
+    }
+
+    public int getSecondTierPages() {
+        return bufferPool.getCompressedCache().getPages();
+    }
+
+    public double getWarmUpProgress() {
+        return bufferPool.getWarmer().getProgress();
+    }
+
+    public int getWarmUpPagesLoaded() {
+        return bufferPool.getWarmer().getPagesLoaded();
+    }
+
+    public Map<String, Integer> getResidentPagesByTable() {
+        Map<String, Integer> byTable = new TreeMap<String, Integer>();
+        for (Map.Entry<Integer, int[]> e : bufferPool.residency().entrySet()) {
+            byTable.put(tableName(e.getKey()), e.getValue()[0]);
+        }
+        return byTable;
+    }
+
+    private static String tableName(int tableId) {
+        String name = Database.getCatalog().getTableName(tableId);
+        return name != null ? name : "table " + tableId;
+    }
+
+    public void reset() {
+        Arrays.fill(hits, 0);
+        ringHits.reset();
+        for (LongAdder m : misses) {
+            m.reset();
+        }
+        missNanos.reset();
+        evictions.reset();
+        dirtyEvictions.reset();
+        dirtyPageWrites.reset();
+        bufferPool.getCompressedCache().resetCounters();
+    }
+
+    /**
+     * Register these metrics as {@value #OBJECT_NAME}, in place of those of
+     * the buffer pool registered before.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the metrics as text, one per line, followed by the resident
+     *   pages of each table
+     */
+    public String report() {
+        Map<Integer, int[]> residency = bufferPool.residency();
+        int resident = 0, dirty = 0, pinned = 0;
+        for (int[] counts : residency.values()) {
+            resident += counts[0];
+            dirty += counts[1];
+            pinned += counts[2];
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("hits: %d, misses: %d, hit ratio: %.3f%n", getHits(), getMisses(), getHitRatio()));
+        Map<String, Double> byCategory = getHitRatioByCategory();
+        if (!byCategory.isEmpty()) {
+            sb.append("hit ratio by page category:");
+            String sep = " ";
+            for (Map.Entry<String, Double> e : byCategory.entrySet()) {
+                sb.append(String.format("%s%s %.3f", sep, e.getKey(), e.getValue()));
+                sep = ", ";
+            }
+            sb.append(String.format("%n"));
+        }
+        sb.append(String.format("average miss: %.1f us%n", getAverageMissMicros()));
+        sb.append(String.format("evictions: %d (%d dirty), dirty page writes: %d%n",
+                getEvictions(), getDirtyEvictions(), getDirtyPageWrites()));
+        sb.append(String.format("resident: %d of %d pages, %d dirty, %d pinned, %d in the index reserve%n",
+                resident, getCapacity(), dirty, pinned, getReservedPages()));
+        CompressedPageCache tier = bufferPool.getCompressedCache();
+        if (tier.isEnabled()) {
+            sb.append(String.format("second tier: %d pages in %d of %d bytes, hits: %d, misses: %d, "
+                    + "hit ratio: %.3f, compression ratio: %.2f%n", tier.getPages(), tier.getUsedBytes(),
+                    tier.getCapacityBytes(), tier.getHits(), tier.getMisses(), tier.getHitRatio(),
+                    tier.getCompressionRatio()));
+        }
+        PageWarmer warmer = bufferPool.getWarmer();
+        if (warmer.getPagesPlanned() > 0) {
+            sb.append(String.format("warm-up: %d of %d pages loaded, %.0f%% done%n",
+                    warmer.getPagesLoaded(), warmer.getPagesPlanned(), 100 * warmer.getProgress()));
+        }
+        Map<String, int[]> byName = new TreeMap<String, int[]>();
+        for (Map.Entry<Integer, int[]> e : residency.entrySet()) {
+            byName.put(tableName(e.getKey()), e.getValue());
+        }
+        for (Map.Entry<String, int[]> e : byName.entrySet()) {
+            sb.append(String.format("  %-20s %6d pages %s%n", e.getKey(), e.getValue()[0],
+                    bar(e.getValue()[0], getCapacity())));
+        }
+        return sb.toString();
+    }
+
+    /** @return a bar of up to 40 characters showing the share n of total */
+    private static String bar(int n, int total) {
+        StringBuilder sb = new StringBuilder();
+        int len = total == 0 ? 0 : (int) Math.round(40.0 * n / total);
+        for (int i = 0; i < len; i++) {
+            sb.append('#');
+        }
+        return sb.toString();
+    }
+}
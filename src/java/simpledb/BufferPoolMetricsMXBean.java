@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link BufferPoolMetrics}, through which the
+ * metrics of the buffer pool of the Database are published over JMX as
+ * {@value BufferPoolMetrics#OBJECT_NAME}.
+ */
+public interface BufferPoolMetricsMXBean {
+
+    /** @return the number of requests for pages that were cached */
+    long getHits();
+
+    /** @return the number of requests for pages that had to be read */
+    long getMisses();
+
+    /** @return hits / (hits + misses), or 0 before the first request */
+    double getHitRatio();
+
+    /**
+     * @return hits / (hits + misses) of the pages of each category of
+     *   {@link BufferPoolMetrics#CATEGORIES} requested so far
+     */
+    Map<String, Double> getHitRatioByCategory();
+
+    /** @return the average time a miss took to read its page and install it */
+    double getAverageMissMicros();
+
+    /** @return the number of pages evicted to make room for others */
+    long getEvictions();
+
+    /** @return the number of evicted pages that had to be written first */
+    long getDirtyEvictions();
+
+    /** @return the number of dirty pages written to disk, by any means */
+    long getDirtyPageWrites();
+
+    /** @return the number of frames of the buffer pool */
+    int getCapacity();
+
+    /** @return the number of pages cached right now */
+    int getResidentPages();
+
+    /** @return the number of cached pages that are dirty right now */
+    int getDirtyPages();
+
+    /** @return the number of cached pages that are pinned right now */
+    int getPinnedPages();
+
+    /** @return the number of B+ tree root pointer and internal pages held in the index reserve right now */
+    int getReservedPages();
+
+    /** @return the number of misses served from the compressed second tier */
+    long getSecondTierHits();
+
+    /** @return the number of misses the compressed second tier had no page for */
+    long getSecondTierMisses();
+
+    /** @return hits / (hits + misses) of the compressed second tier */
+    double getSecondTierHitRatio();
+
+    /** @return the bytes of the pages added to the second tier divided by the bytes they were compressed to */
+    double getSecondTierCompressionRatio();
+
+    /** @return the number of pages kept compressed in the second tier right now */
+    int getSecondTierPages();
+
+    /** @return the fraction of its pages the last warm-up from a snapshot has been through */
+    double getWarmUpProgress();
+
+    /** @return the number of pages the last warm-up from a snapshot installed */
+    int getWarmUpPagesLoaded();
+
+    /** @return the number of cached pages of each table, by table name */
+    Map<String, Integer> getResidentPagesByTable();
+
+    /** Set all counters back to 0. */
+    void reset();
+}
@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BufferRing is a small private set of page slots that a large sequential
+ * scan recycles instead of filling the shared frames of the
+ * {@link BufferPool}. Pages the scan finds in the buffer pool are used from
+ * there, but pages it has to read go into the ring, each one replacing the
+ * page that was read longest ago. So a scan of a table many times bigger
+ * than the buffer pool leaves the hot pages of other queries cached.
+ * <p>
+ * A page kept in the ring is only handed out again while nothing was written
+ * to its file since it was read, see {@link DbFile#getWriteCount}, so the
+ * ring never returns a page that is out of date; otherwise it is read again. A ring
+ * belongs to a single scan and is not thread-safe.
+ *
+ * @see BufferPool#newRing
+ */
+public class BufferRing {
+    /** Number of pages in a ring. Can be overridden with
+     -Dsimpledb.BufferRing.pages=n */
+    public static final int DEFAULT_PAGES = Integer.getInteger("simpledb.BufferRing.pages", 32);
+
+    private final Page[] pages;
+    // the file of each page, and its write count when the page was read
+    private final DbFile[] files;
+    private final long[] writeCounts;
+    // position of each page in pages
+    private final Map<PageId, Integer> slots;
+    // the slot the next page goes into
+    private int next;
+
+    private long hits;
+    private long reads;
+
+    public BufferRing() {
+        this(DEFAULT_PAGES);
+    }
+
+    public BufferRing(int numPages) {
+        this.pages = new Page[Math.max(1, numPages)];
+        this.files = new DbFile[this.pages.length];
+        this.writeCounts = new long[this.pages.length];
+        this.slots = new HashMap<>(2 * this.pages.length);
+    }
+
+    /** @return the number of pages this ring holds */
+    public int capacity() {
+        return pages.length;
+    }
+
+    /**
+     * @return the page pid if it is in the ring and nothing was written to
+     *   its file since it was read, else null
+     */
+    Page get(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot == null) {
+            return null;
+        }
+        if (files[slot].getWriteCount() != writeCounts[slot]) {
+            slots.remove(pid);
+            pages[slot] = null;
+            files[slot] = null;
+            return null;
+        }
+        hits++;
+        return pages[slot];
+    }
+
+    /**
+     * Put pages read from disk into the ring, replacing the oldest pages.
+     *
+     * @param read the pages read
+     * @param file the file the pages were read from
+     * @param writeCount {@link DbFile#getWriteCount} of file sampled before
+     *   the pages were read
+     */
+    void add(Iterable<Page> read, DbFile file, long writeCount) {
+        for (Page p : read) {
+            reads++;
+            Page old = pages[next];
+            if (old != null) {
+                slots.remove(old.getId());
+            }
+            pages[next] = p;
+            files[next] = file;
+            writeCounts[next] = writeCount;
+            slots.put(p.getId(), next);
+            next = (next + 1) % pages.length;
+        }
+    }
+
+    /** Forget all pages of the ring. */
+    public void clear() {
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = null;
+            files[i] = null;
+        }
+        slots.clear();
+        next = 0;
+    }
+
+    /** @return the number of pages found in the ring */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return the number of pages read into the ring */
+    public long getReads() {
+        return reads;
+    }
+}
@@ -0,0 +1,395 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+/**
+ * BulkLoader converts a delimited text file into a HeapFile, like
+ * {@link HeapFileEncoder}, but parses the input on a pool of worker threads.
+ * <p>
+ * The calling thread reads the input in chunks of {@link #CHUNK_BYTES} that
+ * end at a line break and hands each chunk to a worker, which turns its
+ * lines into fixed-width records in the HeapPage format. The calling thread
+ * then packs the records of finished chunks into full HeapPage images and
+ * writes them {@link #WRITE_PAGES} pages at a time, so the output is written
+ * with large sequential writes and no page is ever built as a HeapPage
+ * object.
+ * <p>
+ * By default chunks are packed in input order, and the output file has the
+ * tuples in the same order and on the same pages as HeapFileEncoder would
+ * put them. A load that does not care about the order of the tuples can
+ * pack chunks as they finish instead, which keeps all workers busy when
+ * some chunks take longer to parse than others.
+ * <p>
+ * The input format is that of {@link HeapFileEncoder#convert(File, File,
+ * int, int, Type[], char)}. Carriage returns and empty lines are ignored,
+ * missing fields are loaded as 0 or the empty string and extra fields are
+ * ignored. Only the fixed-size page format is supported.
+ *
+ * @see HeapFileEncoder
+ * @see HeapPage
+ */
+public class BulkLoader {
+
+    /** Number of parser threads. Can be overridden with
+     -Dsimpledb.BulkLoader.threads=n, defaults to the number of processors */
+    public static final int THREADS = Integer.getInteger("simpledb.BulkLoader.threads",
+            Runtime.getRuntime().availableProcessors());
+
+    /** Size of the chunks of input handed to the parser threads. Can be
+     overridden with -Dsimpledb.BulkLoader.chunkBytes=n */
+    public static final int CHUNK_BYTES = Integer.getInteger("simpledb.BulkLoader.chunkBytes", 4 << 20);
+
+    /** Number of pages written to the output file at a time */
+    public static final int WRITE_PAGES = 256;
+
+    /**
+     * Receives the records parsed from the input, one chunk at a time, on the
+     * thread that called the BulkLoader.
+     */
+    interface RecordSink {
+        /** Take count records of the table's record size from records */
+        void add(byte[] records, int count) throws IOException;
+    }
+
+    /** Records parsed from one chunk of input */
+    private static class Chunk {
+        final byte[] records;
+        final int count;
+
+        Chunk(byte[] records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+    }
+
+    private final Type[] typeAr;
+    private final byte separator;
+    private final int npagebytes;
+    private final int nrecbytes;
+    private final int nrecords;
+    private final int nheaderbytes;
+
+    private BulkLoader(Type[] typeAr, char fieldSeparator, int npagebytes) {
+        if (fieldSeparator > 0x7f) {
+            throw new IllegalArgumentException("field separator must be an ASCII character");
+        }
+        this.typeAr = typeAr.clone();
+        this.separator = (byte) fieldSeparator;
+        this.npagebytes = npagebytes;
+        int bytes = 0;
+        for (Type type : typeAr) {
+            bytes += type.getLen();
+        }
+        this.nrecbytes = bytes;
+        // the same layout as HeapPage and HeapFileEncoder
+        this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        this.nheaderbytes = (nrecords + 7) / 8;
+    }
+
+    /**
+     * Convert the input text file into a HeapFile with {@link #THREADS}
+     * parser threads, keeping the tuples in input order.
+     *
+     * @return the number of tuples written
+     * @see #convert(File, File, int, Type[], char, int, boolean)
+     */
+    public static long convert(File inFile, File outFile, int npagebytes, Type[] typeAr,
+                               char fieldSeparator) throws IOException {
+        return convert(inFile, outFile, npagebytes, typeAr, fieldSeparator, THREADS, true);
+    }
+
+    /**
+     * Convert the input text file into a HeapFile of pages in the
+     * {@link HeapPage} format.
+     *
+     * @param inFile The input file to read data from
+     * @param outFile The output file to write data to
+     * @param npagebytes The number of bytes per page in the output file
+     * @param typeAr the types of the fields of each input line/output tuple
+     * @param fieldSeparator the character between fields, which must be ASCII
+     * @param threads the number of parser threads
+     * @param ordered whether the output must keep the tuples in input order
+     * @return the number of tuples written
+     * @throws IOException if the input/output file can't be read or written
+     */
+    public static long convert(File inFile, File outFile, int npagebytes, Type[] typeAr,
+                               char fieldSeparator, int threads, boolean ordered) throws IOException {
+        return convert(inFile, outFile, npagebytes, typeAr, fieldSeparator, threads, ordered, CHUNK_BYTES);
+    }
+
+    static long convert(File inFile, File outFile, int npagebytes, Type[] typeAr, char fieldSeparator,
+                        int threads, boolean ordered, int chunkBytes) throws IOException {
+        BulkLoader loader = new BulkLoader(typeAr, fieldSeparator, npagebytes);
+        FreeSpaceMap.file(outFile).delete();
+        PageWriter out = loader.new PageWriter(new FileOutputStream(outFile));
+        try {
+            loader.load(inFile, Math.max(1, threads), ordered, chunkBytes, out);
+            out.finish();
+            return out.tuples;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Parse the input text file with {@link #THREADS} parser threads and
+     * hand the records, in the format of {@link Field#serialize}, to sink in
+     * no particular order.
+     */
+    static void parse(File inFile, Type[] typeAr, char fieldSeparator, RecordSink sink) throws IOException {
+        new BulkLoader(typeAr, fieldSeparator, BufferPool.getPageSize()).load(inFile,
+                Math.max(1, THREADS), false, CHUNK_BYTES, sink);
+    }
+
+    private void load(File inFile, int threads, boolean ordered, int chunkBytes, RecordSink out)
+            throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-bulkloader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        CompletionService<Chunk> done = new ExecutorCompletionService<Chunk>(workers);
+        // chunks handed to the workers and not packed yet, in input order
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+        int maxInFlight = 2 * threads;
+
+        InputStream in = new FileInputStream(inFile);
+        try {
+            byte[] buf = new byte[chunkBytes];
+            int len = 0;
+            boolean eof = false;
+            while (!eof || len > 0) {
+                // fill the buffer, growing it if a single line does not fit
+                while (!eof && len < buf.length) {
+                    int r = in.read(buf, len, buf.length - len);
+                    if (r < 0) {
+                        eof = true;
+                    } else {
+                        len += r;
+                    }
+                }
+                if (len == 0) {
+                    break;
+                }
+                int end = len;
+                if (!eof) {
+                    while (end > 0 && buf[end - 1] != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        buf = Arrays.copyOf(buf, 2 * buf.length);
+                        continue;
+                    }
+                }
+
+                if (inFlight.size() >= maxInFlight) {
+                    Chunk parsed = next(done, inFlight, ordered);
+                    out.add(parsed.records, parsed.count);
+                }
+                final byte[] chunk = buf;
+                final int chunkLen = end;
+                Callable<Chunk> task = new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() {
+                        return parse(chunk, chunkLen);
+                    }
+                };
+                // only unordered loads take results from the completion queue
+                inFlight.addLast(ordered ? workers.submit(task) : done.submit(task));
+
+                // the partial line at the end starts the next chunk
+                buf = new byte[Math.max(chunkBytes, len - end)];
+                System.arraycopy(chunk, end, buf, 0, len - end);
+                len -= end;
+            }
+            while (!inFlight.isEmpty()) {
+                Chunk parsed = next(done, inFlight, ordered);
+                out.add(parsed.records, parsed.count);
+            }
+        } finally {
+            workers.shutdownNow();
+            in.close();
+        }
+    }
+
+    /**
+     * @return the next parsed chunk to write: the oldest one if ordered,
+     *   otherwise whichever finished first
+     */
+    private static Chunk next(CompletionService<Chunk> done, Deque<Future<Chunk>> inFlight,
+                              boolean ordered) throws IOException {
+        try {
+            Future<Chunk> f;
+            if (ordered) {
+                f = inFlight.removeFirst();
+            } else {
+                f = done.take();
+                inFlight.remove(f);
+            }
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("bulk load interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Parse the complete lines in buf[0, len) into records of nrecbytes bytes
+     * each, laid out as on a HeapPage.
+     */
+    Chunk parse(byte[] buf, int len) {
+        int lines = 1;
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == '\n') {
+                lines++;
+            }
+        }
+        byte[] records = new byte[lines * nrecbytes];
+        int count = 0;
+        int pos = 0;
+        while (pos < len) {
+            int eol = pos;
+            while (eol < len && buf[eol] != '\n') {
+                eol++;
+            }
+            int end = eol;
+            while (end > pos && buf[end - 1] == '\r') {
+                end--;
+            }
+            if (end > pos) {
+                parseLine(buf, pos, end, records, count * nrecbytes);
+                count++;
+            }
+            pos = eol + 1;
+        }
+        return new Chunk(records, count);
+    }
+
+    private void parseLine(byte[] buf, int start, int end, byte[] out, int off) {
+        int field = start;
+        for (int i = 0; i < typeAr.length; i++) {
+            int fieldEnd = field;
+            while (fieldEnd < end && buf[fieldEnd] != separator) {
+                fieldEnd++;
+            }
+            // trim, as String.trim does
+            int s = field;
+            int e = fieldEnd;
+            while (s < e && (buf[s] & 0xff) <= ' ') {
+                s++;
+            }
+            while (e > s && (buf[e - 1] & 0xff) <= ' ') {
+                e--;
+            }
+            if (typeAr[i] == Type.INT_TYPE) {
+                writeInt(out, off, parseInt(buf, s, e));
+            } else {
+                int n = Math.min(e - s, Type.STRING_LEN);
+                writeInt(out, off, n);
+                System.arraycopy(buf, s, out, off + 4, n);
+                // the rest of the field is already zero
+            }
+            off += typeAr[i].getLen();
+            field = fieldEnd < end ? fieldEnd + 1 : end;
+        }
+    }
+
+    private static int parseInt(byte[] buf, int s, int e) {
+        int i = s;
+        boolean negative = false;
+        if (i < e && (buf[i] == '-' || buf[i] == '+')) {
+            negative = buf[i] == '-';
+            i++;
+        }
+        long v = 0;
+        boolean ok = i < e && e - i <= 10;
+        for (; ok && i < e; i++) {
+            int d = buf[i] - '0';
+            ok = d >= 0 && d <= 9;
+            v = v * 10 + d;
+        }
+        v = negative ? -v : v;
+        if (!ok || v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            System.out.println("BAD LINE : " + new String(buf, s, e - s));
+            return 0;
+        }
+        return (int) v;
+    }
+
+    private static void writeInt(byte[] out, int off, int v) {
+        out[off] = (byte) (v >>> 24);
+        out[off + 1] = (byte) (v >>> 16);
+        out[off + 2] = (byte) (v >>> 8);
+        out[off + 3] = (byte) v;
+    }
+
+    /**
+     * Packs records into HeapPage images in a buffer of WRITE_PAGES pages and
+     * writes the buffer out whenever it is full.
+     */
+    private class PageWriter implements RecordSink {
+        private final OutputStream os;
+        private final byte[] pages = new byte[WRITE_PAGES * npagebytes];
+        // page of the buffer being filled, and the number of records on it
+        private int page;
+        private int slot;
+        private int written;
+        long tuples;
+
+        PageWriter(OutputStream os) {
+            this.os = os;
+        }
+
+        public void add(byte[] records, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                int base = page * npagebytes;
+                pages[base + slot / 8] |= (byte) (1 << (slot % 8));
+                System.arraycopy(records, i * nrecbytes, pages,
+                        base + nheaderbytes + slot * nrecbytes, nrecbytes);
+                tuples++;
+                if (++slot == nrecords) {
+                    slot = 0;
+                    if (++page == WRITE_PAGES) {
+                        flush();
+                    }
+                }
+            }
+        }
+
+        /** Write out the last, partly filled page, or an empty page if the file is empty */
+        void finish() throws IOException {
+            if (slot > 0 || written == 0 && page == 0) {
+                page++;
+                slot = 0;
+            }
+            flush();
+        }
+
+        private void flush() throws IOException {
+            os.write(pages, 0, page * npagebytes);
+            Arrays.fill(pages, 0, page * npagebytes, (byte) 0);
+            written += page;
+            page = 0;
+        }
+
+        void close() throws IOException {
+            os.close();
+        }
+    }
+}
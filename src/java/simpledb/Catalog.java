@@ -151,6 +151,27 @@ public class Catalog {
         return this.idTableMap.keySet().iterator();
     }
 
+    /**
+     * @return the page format of the specified table, or null if the table
+     *   does not exist or is not stored in a HeapFile
+     */
+    public HeapFile.PageFormat getPageFormat(int tableId) {
+        Table t = this.idTableMap.get(tableId);
+        if(t == null || !(t.getDbFile() instanceof HeapFile)) {
+            return null;
+        }
+        return ((HeapFile) t.getDbFile()).getPageFormat();
+    }
+
+    /**
+     * @return true if the specified table is stored column by column in a
+     *   {@link ColumnFile}
+     */
+    public boolean isColumnar(int tableId) {
+        Table t = this.idTableMap.get(tableId);
+        return t != null && t.getDbFile() instanceof ColumnFile;
+    }
+
     public String getTableName(int id) {
         // some code goes here
         Table t = this.idTableMap.get(id);
@@ -206,10 +227,24 @@ public class Catalog {
                         }
                     }
                 }
+                // an optional "slotted" after the field list selects the
+                // variable-length page format, "columnar" a ColumnFile
+                HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+                boolean columnar = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                if (options.toLowerCase().equals("slotted"))
+                    format = HeapFile.PageFormat.SLOTTED;
+                else if (options.toLowerCase().equals("columnar"))
+                    columnar = true;
+                else if (!options.isEmpty()) {
+                    System.out.println("Unknown table option " + options);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tabFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf = columnar ? new ColumnFile(tabFile, t) : new HeapFile(tabFile, t, format);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -0,0 +1,71 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * The CLOCK approximation of LRU. Every frame has a reference bit that is
+ * set whenever its page is requested. To find a victim a hand sweeps over
+ * the frames, clearing the reference bits it passes, and stops at the first
+ * evictable frame whose bit is already clear. Hits only set a bit, and the
+ * sweep takes amortized O(1) steps per victim.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private boolean[] evictable;
+    private boolean[] referenced;
+    private int numEvictable;
+    private int hand;
+
+    public ClockPolicy(int numFrames) {
+        this.evictable = new boolean[numFrames];
+        this.referenced = new boolean[numFrames];
+    }
+
+    public void pageInstalled(int frame, PageId pid) {
+        referenced[frame] = true;
+    }
+
+    public void pageAccessed(int frame) {
+        referenced[frame] = true;
+    }
+
+    public void setEvictable(int frame, boolean evictable) {
+        if (this.evictable[frame] != evictable) {
+            this.evictable[frame] = evictable;
+            numEvictable += evictable ? 1 : -1;
+        }
+    }
+
+    public int victim() {
+        if (numEvictable == 0) {
+            return -1;
+        }
+        // at most two turns: the first one clears every reference bit
+        while (true) {
+            int frame = hand;
+            hand = (hand + 1) % evictable.length;
+            if (evictable[frame]) {
+                if (!referenced[frame]) {
+                    return frame;
+                }
+                referenced[frame] = false;
+            }
+        }
+    }
+
+    public int numEvictable() {
+        return numEvictable;
+    }
+
+    public void pageRemoved(int frame, PageId pid, boolean evicted) {
+        setEvictable(frame, false);
+        referenced[frame] = false;
+    }
+
+    public void resize(int numFrames) {
+        evictable = Arrays.copyOf(evictable, numFrames);
+        referenced = Arrays.copyOf(referenced, numFrames);
+        if (hand >= numFrames) {
+            hand = 0;
+        }
+    }
+}
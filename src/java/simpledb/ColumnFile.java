@@ -0,0 +1,464 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is a DbFile that stores a table column by column. The rows of
+ * the table are split into segments of {@link #getRowsPerSegment} rows, and
+ * within a segment each column has its own run of {@link ColumnPage}s, so a
+ * scan that needs only some of the columns reads only their pages.
+ * <p>
+ * The file is a sequence of segments of the same number of pages:
+ * <pre>
+ *   segment 0: pages of column 0, pages of column 1, ..., pages of column n-1
+ *   segment 1: ...
+ * </pre>
+ * Column c takes ceil(rowsPerSegment / values per page of c) pages in every
+ * segment, so the page holding any value can be computed from the schema
+ * alone. The first page of each column in a segment also keeps the number
+ * of rows in the segment and the smallest and largest value of the column
+ * in it, which lets scans skip segments that cannot match a predicate.
+ * Only the last segment may be partly filled.
+ * <p>
+ * Tuples are appended to the last segment; deleting tuples is not
+ * supported. ColumnFiles are created with {@link #convert} or by inserting
+ * into an empty file, and are scanned with {@link ColumnScan}.
+ *
+ * @see ColumnPage
+ * @see ColumnScan
+ */
+public class ColumnFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int pageSize;
+    // values per page, first page within a segment and pages per segment of every column
+    private final int[] valuesPerPage;
+    private final int[] columnStart;
+    private final int[] columnPages;
+    private final int rowsPerSegment;
+    private final int pagesPerSegment;
+
+    /**
+     * Constructs a column file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this column file
+     * @param td the schema of the table
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        this.f = f;
+        this.td = td;
+        this.pageSize = BufferPool.getPageSize();
+        int n = td.numFields();
+        this.valuesPerPage = new int[n];
+        this.columnStart = new int[n];
+        this.columnPages = new int[n];
+
+        // a segment holds as many rows as fit on one page of the narrowest
+        // column, so that column is never split across pages
+        int rows = 0;
+        for (int c = 0; c < n; c++) {
+            valuesPerPage[c] = ColumnPage.valuesPerPage(td.getFieldType(c), pageSize);
+            if (valuesPerPage[c] < 1) {
+                throw new IllegalArgumentException("a page of " + pageSize + " bytes cannot hold a value of column " + c);
+            }
+            rows = Math.max(rows, valuesPerPage[c]);
+        }
+        this.rowsPerSegment = rows;
+        int pages = 0;
+        for (int c = 0; c < n; c++) {
+            columnStart[c] = pages;
+            columnPages[c] = (rows + valuesPerPage[c] - 1) / valuesPerPage[c];
+            pages += columnPages[c];
+        }
+        this.pagesPerSegment = pages;
+        // the file may have been created or rewritten behind the file manager's back
+        Database.getFileHandleManager().close(f);
+        Database.getBufferPool().getCompressedCache().removeTable(getId());
+        Database.getCatalog().addTable(this);
+    }
+
+    /**
+     * Returns the File backing this ColumnFile on disk.
+     */
+    public File getFile() {
+        return this.f;
+    }
+
+    @Override
+    public long getWriteCount() {
+        return Database.getFileHandleManager().getWriteCount(this.f);
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash code of
+     * the absolute path of its file.
+     */
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * @return the number of rows every segment can hold
+     */
+    public int getRowsPerSegment() {
+        return this.rowsPerSegment;
+    }
+
+    /**
+     * @return the number of pages every segment takes
+     */
+    public int getPagesPerSegment() {
+        return this.pagesPerSegment;
+    }
+
+    /**
+     * @return the number of pages column c takes in every segment
+     */
+    public int getColumnPages(int c) {
+        return this.columnPages[c];
+    }
+
+    /**
+     * Returns the number of pages in this ColumnFile.
+     */
+    public int numPages() {
+        try {
+            return (int) (Database.getFileHandleManager().length(this.f) / pageSize);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of segments in this ColumnFile.
+     */
+    public int numSegments() {
+        return numPages() / pagesPerSegment;
+    }
+
+    /**
+     * @return the id of page k of column c in segment s
+     */
+    public HeapPageId pageId(int segment, int c, int k) {
+        return new HeapPageId(getId(), segment * pagesPerSegment + columnStart[c] + k);
+    }
+
+    /**
+     * @return the column whose values are stored on page pageNo
+     */
+    int columnOf(int pageNo) {
+        int offset = pageNo % pagesPerSegment;
+        int c = td.numFields() - 1;
+        while (columnStart[c] > offset) {
+            c--;
+        }
+        return c;
+    }
+
+    private ColumnPage newPage(HeapPageId pid, byte[] data) {
+        return new ColumnPage(pid, td.getFieldType(columnOf(pid.pageNumber())), data);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try {
+            byte[] curContent = new byte[pageSize];
+            Database.getFileHandleManager().read(this.f, (long) pid.pageNumber() * pageSize, curContent);
+            return newPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), curContent);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // see DbFile.java for javadocs
+    public Page decodePage(PageId pid, byte[] data) {
+        return newPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+    }
+
+    /**
+     * Read a run of consecutive pages with a single scattering read into one
+     * buffer per page.
+     *
+     * @see DbFile#readPages
+     */
+    public List<Page> readPages(PageId start, int count) {
+        int first = start.pageNumber();
+        int n = Math.min(count, numPages() - first);
+        List<Page> pages = new ArrayList<>(Math.max(n, 0));
+        if (n <= 0) {
+            return pages;
+        }
+        try {
+            byte[][] curContents = new byte[n][pageSize];
+            Database.getFileHandleManager().read(this.f, (long) first * pageSize, curContents);
+            for (int i = 0; i < n; i++) {
+                pages.add(newPage(new HeapPageId(start.getTableId(), first + i), curContents[i]));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        Database.getFileHandleManager().write(this.f, (long) page.getId().pageNumber() * pageSize, page.getPageData());
+    }
+
+    /**
+     * Append t to the last segment, starting a new segment if the last one
+     * is full. Every column gets its value appended to its last page, and
+     * the summary on its first page in the segment is updated.
+     *
+     * @see DbFile#insertTuple
+     */
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        int segment = numSegments() - 1;
+        int rows = segment < 0 ? rowsPerSegment
+                : ((ColumnPage) bufferPool.getPage(tid, pageId(segment, 0, 0), Permissions.READ_ONLY)).getSegmentRows();
+        if (rows == rowsPerSegment) {
+            // the new segment is written as empty pages, so its pages can be
+            // read like any other
+            Database.getFileHandleManager().append(this.f, new byte[pagesPerSegment * pageSize]);
+            segment++;
+            rows = 0;
+        }
+
+        ArrayList<Page> dirtyPages = new ArrayList<>();
+        for (int c = 0; c < td.numFields(); c++) {
+            HeapPageId firstId = pageId(segment, c, 0);
+            ColumnPage first = (ColumnPage) bufferPool.getPage(tid, firstId, Permissions.READ_WRITE);
+            first.addToSummary(t.getField(c));
+            bufferPool.unpinPage(firstId);
+            dirtyPages.add(first);
+
+            HeapPageId lastId = pageId(segment, c, rows / valuesPerPage[c]);
+            ColumnPage last = first;
+            if (!lastId.equals(firstId)) {
+                last = (ColumnPage) bufferPool.getPage(tid, lastId, Permissions.READ_WRITE);
+                bufferPool.unpinPage(lastId);
+                dirtyPages.add(last);
+            }
+            last.addValue(t.getField(c));
+        }
+        t.setRecordId(new RecordId(pageId(segment, 0, 0), rows));
+        return dirtyPages;
+    }
+
+    /**
+     * ColumnFiles are append-only.
+     *
+     * @throws DbException always
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("cannot delete tuples from a column file");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[td.numFields()];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = c;
+        }
+        return iterator(tid, columns, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator over the given columns of all rows of this file.
+     * The tuples it returns have only those columns, in the order given.
+     * Segments in which no row can satisfy all of the predicates, judging
+     * by the segment's min and max, are skipped; the rows of the other
+     * segments are returned whether they satisfy the predicates or not.
+     *
+     * @param columns the columns to read, at least one
+     * @param predicates predicates over columns of the table (not of the result)
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("a column scan needs at least one column");
+        }
+        return new ColumnFileIterator(tid, columns.clone(), new ArrayList<>(predicates));
+    }
+
+    private class ColumnFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final int[] columns;
+        private final List<Predicate> predicates;
+        private final TupleDesc resultTd;
+
+        private boolean isOpen;
+        private int numSegments;
+        private int segment;
+        // RecordIds of the current segment refer to its first page
+        private HeapPageId segmentId;
+        private int segmentRows;
+        private int row;
+        // current page of every result column and its index within the segment
+        private final ColumnPage[] pages;
+        private final int[] pageIndex;
+
+        ColumnFileIterator(TransactionId tid, int[] columns, List<Predicate> predicates) {
+            this.tid = tid;
+            this.columns = columns;
+            this.predicates = predicates;
+            Type[] types = new Type[columns.length];
+            String[] names = new String[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                types[i] = td.getFieldType(columns[i]);
+                names[i] = td.getFieldName(columns[i]);
+            }
+            this.resultTd = new TupleDesc(types, names);
+            this.pages = new ColumnPage[columns.length];
+            this.pageIndex = new int[columns.length];
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            this.isOpen = true;
+            this.numSegments = numSegments();
+            this.segment = -1;
+            this.segmentRows = 0;
+            this.row = 0;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!this.isOpen) {
+                return null;
+            }
+            while (this.row >= this.segmentRows) {
+                if (this.segment + 1 >= this.numSegments) {
+                    return null;
+                }
+                startSegment(this.segment + 1);
+            }
+            Tuple t = new Tuple(resultTd);
+            for (int i = 0; i < columns.length; i++) {
+                int c = columns[i];
+                int k = this.row / valuesPerPage[c];
+                if (pages[i] == null || pageIndex[i] != k) {
+                    pages[i] = getPage(pageId(this.segment, c, k));
+                    pageIndex[i] = k;
+                }
+                t.setField(i, pages[i].getValue(this.row % valuesPerPage[c]));
+            }
+            t.setRecordId(new RecordId(this.segmentId, this.row));
+            this.row++;
+            return t;
+        }
+
+        /** Move to segment s, leaving segmentRows at 0 if it can be skipped. */
+        private void startSegment(int s) throws DbException, TransactionAbortedException {
+            this.segment = s;
+            this.segmentId = pageId(s, 0, 0);
+            this.row = 0;
+            this.segmentRows = 0;
+            Arrays.fill(pages, null);
+            for (Predicate p : predicates) {
+                if (!getPage(pageId(s, p.getFieldNum(), 0)).mayMatch(p.getOp(), p.getOperand())) {
+                    return;
+                }
+            }
+            // pull in the pages of each wanted column with one read per column
+            BufferPool bufferPool = Database.getBufferPool();
+            for (int c : columns) {
+                if (columnPages[c] > 1) {
+                    bufferPool.getPages(tid, pageId(s, c, 0), columnPages[c], Permissions.READ_ONLY);
+                }
+            }
+            this.segmentRows = getPage(pageId(s, columns[0], 0)).getSegmentRows();
+        }
+
+        private ColumnPage getPage(HeapPageId pid) throws DbException, TransactionAbortedException {
+            return (ColumnPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            this.isOpen = false;
+            Arrays.fill(pages, null);
+        }
+    }
+
+    /**
+     * Write the given tuples to outFile as a column file of the schema td,
+     * replacing whatever the file held. The tuples are not checked against
+     * td.
+     */
+    public static void convert(Iterator<Tuple> tuples, File outFile, TupleDesc td) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int n = td.numFields();
+        int[] valuesPerPage = new int[n];
+        int rowsPerSegment = 0;
+        for (int c = 0; c < n; c++) {
+            valuesPerPage[c] = ColumnPage.valuesPerPage(td.getFieldType(c), pageSize);
+            if (valuesPerPage[c] < 1) {
+                throw new IllegalArgumentException("a page of " + pageSize + " bytes cannot hold a value of column " + c);
+            }
+            rowsPerSegment = Math.max(rowsPerSegment, valuesPerPage[c]);
+        }
+
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+        try {
+            ColumnPage[][] segment = null;
+            int rows = 0;
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                if (segment == null) {
+                    segment = new ColumnPage[n][];
+                    for (int c = 0; c < n; c++) {
+                        segment[c] = new ColumnPage[(rowsPerSegment + valuesPerPage[c] - 1) / valuesPerPage[c]];
+                        for (int k = 0; k < segment[c].length; k++) {
+                            segment[c][k] = new ColumnPage(null, td.getFieldType(c), new byte[pageSize]);
+                        }
+                    }
+                }
+                for (int c = 0; c < n; c++) {
+                    segment[c][0].addToSummary(t.getField(c));
+                    try {
+                        segment[c][rows / valuesPerPage[c]].addValue(t.getField(c));
+                    } catch (DbException e) {
+                        throw new IOException("cannot store column " + c + " of " + t, e);
+                    }
+                }
+                if (++rows == rowsPerSegment) {
+                    writeSegment(os, segment);
+                    segment = null;
+                    rows = 0;
+                }
+            }
+            if (segment != null) {
+                writeSegment(os, segment);
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void writeSegment(OutputStream os, ColumnPage[][] segment) throws IOException {
+        for (ColumnPage[] column : segment) {
+            for (ColumnPage p : column) {
+                os.write(p.getPageData());
+            }
+        }
+    }
+}
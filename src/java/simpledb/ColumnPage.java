@@ -0,0 +1,255 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnPage is a page of a {@link ColumnFile}. It holds consecutive values
+ * of a single column, all of one type, each stored at the fixed width of
+ * its type in the same format as Field.serialize.
+ * <p>
+ * The layout of a page is:
+ * <pre>
+ *   int   number of values on this page
+ *   int   number of rows in the segment
+ *   field smallest value of the column in the segment
+ *   field largest value of the column in the segment
+ *   values
+ * </pre>
+ * The segment summary (row count, min and max) is only kept on the first
+ * page of a column in each segment; it is zero on the other pages. A page
+ * of all zeroes is an empty page. Values are decoded one at a time when
+ * they are asked for.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final HeapPageId pid;
+    final Type type;
+    // page contents in the on-disk format, changed in place
+    private final byte[] data;
+    private final ByteBuffer buf;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private TransactionId lastMarkDirty;
+
+    /**
+     * Create a ColumnPage holding values of the given type from a set of
+     * bytes of data read from disk. The page keeps a reference to data, so
+     * the caller must not change the array afterwards.
+     */
+    public ColumnPage(HeapPageId id, Type type, byte[] data) {
+        this.pid = id;
+        this.type = type;
+        this.data = data;
+        this.buf = ByteBuffer.wrap(data);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of bytes taken by the page header for a column of the given type
+     */
+    static int headerSize(Type type) {
+        return 8 + 2 * type.getLen();
+    }
+
+    /**
+     * @return the number of values of the given type that fit on a page of pageSize bytes
+     */
+    static int valuesPerPage(Type type, int pageSize) {
+        return Math.max(0, (pageSize - headerSize(type)) / type.getLen());
+    }
+
+    /**
+     * @return the byte array of an empty page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    static Field readField(ByteBuffer buf, int pos, Type type) {
+        if (type == Type.STRING_TYPE) {
+            int len = Math.min(Math.max(buf.getInt(pos), 0), Type.STRING_LEN);
+            char[] cs = new char[len];
+            for (int i = 0; i < len; i++) {
+                // one byte per character, like DataOutputStream.writeBytes
+                cs[i] = (char) (buf.get(pos + 4 + i) & 0xff);
+            }
+            return new StringField(new String(cs), Type.STRING_LEN);
+        }
+        return new IntField(buf.getInt(pos));
+    }
+
+    static void writeField(ByteBuffer buf, int pos, Type type, Field f) {
+        if (type == Type.STRING_TYPE) {
+            String s = ((StringField) f).getValue();
+            int len = Math.min(s.length(), Type.STRING_LEN);
+            buf.putInt(pos, len);
+            for (int i = 0; i < Type.STRING_LEN; i++) {
+                buf.put(pos + 4 + i, i < len ? (byte) s.charAt(i) : 0);
+            }
+        } else {
+            buf.putInt(pos, ((IntField) f).getValue());
+        }
+    }
+
+    /**
+     * @return the type of the values on this page
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the number of values stored on this page
+     */
+    public synchronized int getNumValues() {
+        return buf.getInt(0);
+    }
+
+    /**
+     * @return value i of this page
+     */
+    public synchronized Field getValue(int i) {
+        if (i < 0 || i >= getNumValues()) {
+            throw new IndexOutOfBoundsException("value " + i + " is not on page " + pid.pageNumber());
+        }
+        return readField(buf, headerSize(type) + i * type.getLen(), type);
+    }
+
+    /**
+     * Append v after the last value of this page.
+     * @throws DbException if the page is full or v has the wrong type
+     */
+    public synchronized void addValue(Field v) throws DbException {
+        if (v.getType() != type) {
+            throw new DbException("field type is mismatch");
+        }
+        int n = getNumValues();
+        if (n >= valuesPerPage(type, data.length)) {
+            throw new DbException("page is full");
+        }
+        writeField(buf, headerSize(type) + n * type.getLen(), type, v);
+        buf.putInt(0, n + 1);
+    }
+
+    /**
+     * @return the number of rows in the segment this page belongs to; only
+     *   kept on the first page of a column in a segment
+     */
+    public synchronized int getSegmentRows() {
+        return buf.getInt(4);
+    }
+
+    /**
+     * @return the smallest value of the column in the segment, or null if
+     *   the segment is empty; only kept on the first page of a column in a
+     *   segment
+     */
+    public synchronized Field getMin() {
+        return getSegmentRows() == 0 ? null : readField(buf, 8, type);
+    }
+
+    /**
+     * @return the largest value of the column in the segment, or null if
+     *   the segment is empty; only kept on the first page of a column in a
+     *   segment
+     */
+    public synchronized Field getMax() {
+        return getSegmentRows() == 0 ? null : readField(buf, 8 + type.getLen(), type);
+    }
+
+    /**
+     * Account for one more row with value v in the segment summary of this page.
+     */
+    public synchronized void addToSummary(Field v) {
+        int rows = getSegmentRows();
+        if (rows == 0 || v.compare(Predicate.Op.LESS_THAN, getMin())) {
+            writeField(buf, 8, type, v);
+        }
+        if (rows == 0 || v.compare(Predicate.Op.GREATER_THAN, getMax())) {
+            writeField(buf, 8 + type.getLen(), type, v);
+        }
+        buf.putInt(4, rows + 1);
+    }
+
+    /**
+     * @return false if no value between the segment's min and max can
+     *   satisfy "value op operand", so the segment can be skipped; true if
+     *   some might
+     */
+    public synchronized boolean mayMatch(Predicate.Op op, Field operand) {
+        Field min = getMin();
+        Field max = getMax();
+        if (min == null) {
+            return false;
+        }
+        switch (op) {
+        case EQUALS:
+            return !min.compare(Predicate.Op.GREATER_THAN, operand)
+                    && !max.compare(Predicate.Op.LESS_THAN, operand);
+        case GREATER_THAN:
+            return max.compare(Predicate.Op.GREATER_THAN, operand);
+        case GREATER_THAN_OR_EQ:
+            return max.compare(Predicate.Op.GREATER_THAN_OR_EQ, operand);
+        case LESS_THAN:
+            return min.compare(Predicate.Op.LESS_THAN, operand);
+        case LESS_THAN_OR_EQ:
+            return min.compare(Predicate.Op.LESS_THAN_OR_EQ, operand);
+        case NOT_EQUALS:
+            return !(min.equals(operand) && max.equals(operand));
+        default:
+            return true;
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage(){
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        return new ColumnPage(pid, type, oldDataRef.clone());
+    }
+
+    public void setBeforeImage() {
+        byte[] image = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = image;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * @return a copy of the contents of this page in the format described above
+     */
+    public synchronized byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.lastMarkDirty = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return lastMarkDirty;
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan over a {@link ColumnFile} that reads only
+ * some of the columns of the table. Its tuples have only those columns, so
+ * the operators above it have to find their fields by name, as the
+ * operators built by {@link LogicalPlan#physicalPlan} do.
+ * <p>
+ * A ColumnScan can also be given predicates over the table's columns; it
+ * uses them to skip segments whose min and max show that no row in them
+ * can match. It does not filter the rows of the remaining segments, that
+ * is still left to a {@link Filter} above it.
+ */
+public class ColumnScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] columns;
+    private final TupleDesc td;
+
+    /**
+     * Creates a scan over some columns of the specified table as a part of
+     * the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableId
+     *            the table to scan, which must be stored in a ColumnFile.
+     * @param tableAlias
+     *            the alias of this table; the returned tupleDesc has fields
+     *            named tableAlias.fieldName, as in SeqScan.
+     * @param columns
+     *            the columns of the table to read, in the order they appear
+     *            in the returned tuples.
+     * @param predicates
+     *            predicates over the columns of the table used to skip
+     *            segments; may be empty.
+     */
+    public ColumnScan(TransactionId tid, int tableId, String tableAlias, int[] columns, List<Predicate> predicates) {
+        super(tid, tableId, tableAlias,
+                ((ColumnFile) Database.getCatalog().getDatabaseFile(tableId)).iterator(tid, columns, predicates));
+        this.columns = columns.clone();
+
+        TupleDesc oriTd = Database.getCatalog().getTupleDesc(tableId);
+        Type[] newTs = new Type[columns.length];
+        String[] newAs = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            newTs[i] = oriTd.getFieldType(columns[i]);
+            newAs[i] = tableAlias + "." + oriTd.getFieldName(columns[i]);
+        }
+        this.td = new TupleDesc(newTs, newAs);
+    }
+
+    public ColumnScan(TransactionId tid, int tableId, String tableAlias, int[] columns) {
+        this(tid, tableId, tableAlias, columns, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * @return the columns of the table this operator reads
+     */
+    public int[] getColumns() {
+        return this.columns.clone();
+    }
+
+    /**
+     * Returns the TupleDesc of the columns read, with field names prefixed
+     * with the tableAlias string from the constructor.
+     */
+    @Override
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * ColumnScans cannot switch to another table.
+     */
+    @Override
+    public void reset(int tableId, String tableAlias) {
+        throw new UnsupportedOperationException("a column scan cannot be reset to another table");
+    }
+}
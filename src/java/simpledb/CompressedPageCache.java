@@ -0,0 +1,249 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * CompressedPageCache is the second tier of a {@link BufferPool}. When the
+ * buffer pool evicts a clean page, the bytes of the page are deflated and
+ * kept here, and a later miss on the page inflates them again instead of
+ * reading the page from disk. As compressible pages take a fraction of
+ * their size, the two tiers together hold several times the pages the
+ * buffer pool alone could in the same memory.
+ * <p>
+ * The compressed images are kept within a budget of bytes,
+ * {@link #CAPACITY_BYTES} by default, and the least recently used image is
+ * dropped once a new one does not fit. The budget counts the images and an
+ * estimate of the bookkeeping of each, {@link #ENTRY_OVERHEAD} bytes. A
+ * budget of 0 turns the tier off. Pages are deflated like the pages of a
+ * compressed HeapFile, see {@link CompressedPageStore#deflate}; a page that
+ * does not get smaller is kept as it is. Deflating a page costs far more
+ * CPU than inflating it, so the tier pays off when a miss goes to storage
+ * slower than deflating the page evicted for it, not when the pages are in
+ * the operating system's cache anyway.
+ * <p>
+ * A page is only ever in one of the tiers: taking a page back into the
+ * buffer pool, from here or from disk, removes its image, and so does
+ * discarding it or writing it while it is not cached. The images of a
+ * table are dropped when a DbFile is created for its file, as the file may
+ * have been rewritten. The buffer pool adds and drops images while it
+ * holds the latch of the page's partition, and takes them out without it,
+ * like it reads pages from disk; a page taken out while its file was
+ * written is read again.
+ * <p>
+ * Hits, misses, the pages added and dropped, and the bytes of the pages
+ * before and after deflating them are counted, and reported with the
+ * {@link BufferPoolMetrics} of the buffer pool.
+ *
+ * @see BufferPool#getCompressedCache
+ * @Threadsafe
+ */
+public class CompressedPageCache {
+
+    /** Default budget of the compressed images in bytes, 0 to keep no
+     second tier. Can be overridden with -Dsimpledb.CompressedPageCache.bytes=n */
+    public static final long CAPACITY_BYTES = Long.getLong("simpledb.CompressedPageCache.bytes", 0);
+
+    /** Bytes the bookkeeping of every image is estimated to take */
+    public static final int ENTRY_OVERHEAD = 64;
+
+    // an image and the size of the page it was deflated from
+    private static class Entry {
+        private final byte[] image;
+        private final int pageSize;
+
+        Entry(byte[] image, int pageSize) {
+            this.image = image;
+            this.pageSize = pageSize;
+        }
+    }
+
+    // images in least recently used order, guarded by this
+    private final LinkedHashMap<PageId, Entry> entries = new LinkedHashMap<PageId, Entry>(16, 0.75f, true);
+    private volatile long capacityBytes = CAPACITY_BYTES;
+    // guarded by this
+    private long usedBytes;
+    private long hits;
+    private long misses;
+    private long pagesAdded;
+    private long pagesDropped;
+    private long pageBytes;
+    private long compressedBytes;
+
+    /** @return true if the budget leaves room for any image */
+    public boolean isEnabled() {
+        return capacityBytes > 0;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    /**
+     * Sets the budget of the compressed images in bytes, dropping the least
+     * recently used images until they fit. 0 turns the tier off.
+     */
+    public synchronized void setCapacityBytes(long capacityBytes) {
+        this.capacityBytes = Math.max(0, capacityBytes);
+        shrink();
+    }
+
+    /**
+     * Deflate the bytes of page and keep them, in place of an image of the
+     * page kept before. Does nothing if the tier is off, or the page is
+     * dirty.
+     */
+    public void put(Page page) {
+        if (!isEnabled() || page.isDirty() != null) {
+            return;
+        }
+        byte[] data = page.getPageData();
+        byte[] image = CompressedPageStore.deflate(data, data.length);
+        synchronized (this) {
+            Entry old = entries.put(page.getId(), new Entry(image, data.length));
+            if (old != null) {
+                usedBytes -= size(old);
+            }
+            usedBytes += size(image.length);
+            pagesAdded++;
+            pageBytes += data.length;
+            compressedBytes += image.length;
+            shrink();
+        }
+    }
+
+    /**
+     * Take the image of pid out of the tier and inflate it.
+     *
+     * @param file the file of the page, which creates the page from its bytes
+     * @return the page, or null if there is no image of it
+     */
+    public Page take(PageId pid, DbFile file) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry e;
+        synchronized (this) {
+            e = entries.remove(pid);
+            if (e == null) {
+                misses++;
+                return null;
+            }
+            usedBytes -= size(e);
+            hits++;
+        }
+        try {
+            return file.decodePage(pid, CompressedPageStore.inflate(e.image, 0, e.image.length, e.pageSize));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return null;
+        }
+    }
+
+    /** Drop the image of pid, if there is one. */
+    public void remove(PageId pid) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            Entry e = entries.remove(pid);
+            if (e != null) {
+                usedBytes -= size(e);
+            }
+        }
+    }
+
+    /** Drop the images of all pages of the table tableId. */
+    public void removeTable(int tableId) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            Iterator<Map.Entry<PageId, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<PageId, Entry> e = it.next();
+                if (e.getKey().getTableId() == tableId) {
+                    usedBytes -= size(e.getValue());
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** @return true if there is an image of pid */
+    public synchronized boolean contains(PageId pid) {
+        return entries.containsKey(pid);
+    }
+
+    /** Set all counters back to 0. */
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        pagesAdded = 0;
+        pagesDropped = 0;
+        pageBytes = 0;
+        compressedBytes = 0;
+    }
+
+    // the caller holds the lock
+    private void shrink() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (usedBytes > capacityBytes && it.hasNext()) {
+            usedBytes -= size(it.next());
+            it.remove();
+            pagesDropped++;
+        }
+    }
+
+    private static long size(Entry e) {
+        return size(e.image.length);
+    }
+
+    private static long size(int imageLength) {
+        return imageLength + ENTRY_OVERHEAD;
+    }
+
+    /** @return the number of pages whose images are kept right now */
+    public synchronized int getPages() {
+        return entries.size();
+    }
+
+    /** @return the bytes the images kept right now count against the budget */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /** @return the number of misses of the buffer pool served from this tier */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of misses of the buffer pool this tier had no image for */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** @return hits / (hits + misses), or 0 before the first request */
+    public synchronized double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /** @return the number of pages added */
+    public synchronized long getPagesAdded() {
+        return pagesAdded;
+    }
+
+    /** @return the number of images dropped to stay within the budget */
+    public synchronized long getPagesDropped() {
+        return pagesDropped;
+    }
+
+    /**
+     * @return the bytes of the pages added divided by the bytes of their
+     *   images, or 0 before the first page was added
+     */
+    public synchronized double getCompressionRatio() {
+        return compressedBytes == 0 ? 0 : (double) pageBytes / compressedBytes;
+    }
+}
@@ -0,0 +1,301 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageStore keeps the pages of a compressed HeapFile. Every page
+ * is deflated on its own and the compressed images are stored one after the
+ * other in the data file, so pages take a variable number of bytes on disk.
+ * A side file (the data file name plus {@link #INDEX_SUFFIX}) holds the page
+ * offset index: one entry per page of
+ * <pre>
+ *   long offset of the page in the data file
+ *   int  number of bytes stored
+ *   int  number of bytes reserved for the page at that offset
+ * </pre>
+ * An image that does not get smaller when deflated is stored as is, which
+ * is recognised by its length being the page size. A page that is rewritten
+ * stays where it is if its new image fits into the reserved bytes, and is
+ * moved to the end of the data file otherwise; the old space is not reused.
+ * <p>
+ * All I/O goes through the {@link FileHandleManager}. Pages are always
+ * handed out uncompressed, so the BufferPool never sees compressed data.
+ *
+ * @see HeapFile
+ * @Threadsafe
+ */
+public class CompressedPageStore {
+
+    /** Suffix of the page offset index file */
+    public static final String INDEX_SUFFIX = ".idx";
+
+    /** Bytes per entry of the page offset index */
+    static final int ENTRY_SIZE = 16;
+
+    /** Deflate level used for pages; can be overridden with -Dsimpledb.CompressedPageStore.level=n */
+    public static final int LEVEL = Integer.getInteger("simpledb.CompressedPageStore.level", Deflater.BEST_SPEED);
+
+    // Deflater and Inflater are expensive to create and not thread safe
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(LEVEL);
+        }
+    };
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final File data;
+    private final File index;
+    private final int pageSize;
+
+    // in-memory copy of the index, guarded by this
+    private long[] offsets;
+    private int[] lengths;
+    private int[] reserved;
+    private int numPages;
+
+    /**
+     * Open the compressed pages stored in data and its index file. If the
+     * index does not exist the store is empty.
+     */
+    public CompressedPageStore(File data, int pageSize) throws IOException {
+        this.data = data;
+        this.index = indexFile(data);
+        this.pageSize = pageSize;
+        FileHandleManager files = Database.getFileHandleManager();
+        files.close(data);
+        files.close(index);
+
+        this.numPages = index.exists() ? (int) (index.length() / ENTRY_SIZE) : 0;
+        this.offsets = new long[Math.max(16, numPages)];
+        this.lengths = new int[offsets.length];
+        this.reserved = new int[offsets.length];
+        if (numPages > 0) {
+            byte[] entries = new byte[numPages * ENTRY_SIZE];
+            files.read(index, 0, entries);
+            ByteBuffer buf = ByteBuffer.wrap(entries);
+            for (int i = 0; i < numPages; i++) {
+                offsets[i] = buf.getLong();
+                lengths[i] = buf.getInt();
+                reserved[i] = buf.getInt();
+            }
+        }
+    }
+
+    /**
+     * @return the index file that belongs to the data file of a compressed HeapFile
+     */
+    public static File indexFile(File data) {
+        return new File(data.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * @return true if f is the data file of a compressed HeapFile
+     */
+    public static boolean isCompressed(File f) {
+        return indexFile(f).exists();
+    }
+
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of bytes the data file takes on disk
+     */
+    public long storedBytes() throws IOException {
+        return Database.getFileHandleManager().length(data);
+    }
+
+    /**
+     * Read and decompress page pageNo.
+     */
+    public byte[] read(int pageNo) throws IOException {
+        return read(pageNo, 1).get(0);
+    }
+
+    /**
+     * Read and decompress count pages starting at first. Pages that lie next
+     * to each other in the data file are fetched with a single read.
+     */
+    public List<byte[]> read(int first, int count) throws IOException {
+        long[] offs = new long[count];
+        int[] lens = new int[count];
+        int[] res = new int[count];
+        synchronized (this) {
+            if (first < 0 || first + count > numPages) {
+                throw new IllegalArgumentException("pages " + first + ".." + (first + count - 1)
+                        + " do not exist in this file");
+            }
+            System.arraycopy(offsets, first, offs, 0, count);
+            System.arraycopy(lengths, first, lens, 0, count);
+            System.arraycopy(reserved, first, res, 0, count);
+        }
+        List<byte[]> pages = new ArrayList<>(count);
+        int i = 0;
+        while (i < count) {
+            // extend the run while the next page starts where this one's
+            // reserved space ends
+            int j = i + 1;
+            long end = offs[i] + res[i];
+            while (j < count && offs[j] == end) {
+                end += res[j];
+                j++;
+            }
+            byte[] run = new byte[(int) (end - offs[i])];
+            Database.getFileHandleManager().read(data, offs[i], run);
+            int pos = 0;
+            for (int k = i; k < j; k++) {
+                pages.add(inflate(run, pos, lens[k], pageSize));
+                pos += res[k];
+            }
+            i = j;
+        }
+        return pages;
+    }
+
+    /**
+     * Compress and store pageData as page pageNo. pageNo may be at most
+     * numPages(), in which case the file grows by one page.
+     */
+    public synchronized void write(int pageNo, byte[] pageData) throws IOException {
+        if (pageNo < 0 || pageNo > numPages) {
+            throw new IllegalArgumentException("cannot write page " + pageNo + " of a file with "
+                    + numPages + " pages");
+        }
+        byte[] image = deflate(pageData, pageSize);
+        FileHandleManager files = Database.getFileHandleManager();
+        if (pageNo < numPages && image.length <= reserved[pageNo]) {
+            files.write(data, offsets[pageNo], image);
+        } else {
+            if (pageNo == numPages) {
+                grow();
+                numPages++;
+            }
+            offsets[pageNo] = files.append(data, image);
+            reserved[pageNo] = image.length;
+        }
+        lengths[pageNo] = image.length;
+
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(offsets[pageNo]).putInt(lengths[pageNo]).putInt(reserved[pageNo]);
+        files.write(index, (long) pageNo * ENTRY_SIZE, entry.array());
+    }
+
+    private void grow() {
+        if (numPages == offsets.length) {
+            int n = offsets.length * 2;
+            offsets = Arrays.copyOf(offsets, n);
+            lengths = Arrays.copyOf(lengths, n);
+            reserved = Arrays.copyOf(reserved, n);
+        }
+    }
+
+    /**
+     * @return the deflated image of a page of pageSize bytes, or a copy of
+     *   the page itself if it does not get smaller
+     */
+    static byte[] deflate(byte[] pageData, int pageSize) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(pageData);
+        deflater.finish();
+        byte[] out = new byte[pageSize];
+        int n = 0;
+        while (!deflater.finished() && n < out.length) {
+            n += deflater.deflate(out, n, out.length - n);
+        }
+        if (!deflater.finished() || n >= pageSize) {
+            // incompressible, keep the page as it is
+            return pageData.length == pageSize ? pageData.clone() : Arrays.copyOf(pageData, pageSize);
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * @return the page of pageSize bytes whose image, as {@link #deflate}
+     *   returned it, is stored in buf at off
+     */
+    static byte[] inflate(byte[] buf, int off, int len, int pageSize) throws IOException {
+        if (len == pageSize) {
+            return Arrays.copyOfRange(buf, off, off + len);
+        }
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(buf, off, len);
+        byte[] page = new byte[pageSize];
+        try {
+            int n = 0;
+            while (n < pageSize && !inflater.finished()) {
+                int r = inflater.inflate(page, n, pageSize - n);
+                if (r == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += r;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt compressed page", e);
+        }
+        return page;
+    }
+
+    /**
+     * Write a compressed copy of the uncompressed heap file plain to data,
+     * together with its index file.
+     */
+    public static void compress(File plain, File data, int pageSize) throws IOException {
+        if (!data.delete() && data.exists()) {
+            throw new IOException("cannot replace " + data);
+        }
+        File index = indexFile(data);
+        if (!index.delete() && index.exists()) {
+            throw new IOException("cannot replace " + index);
+        }
+        FreeSpaceMap.file(data).delete();
+        Database.getFileHandleManager().close(plain);
+        CompressedPageStore store = new CompressedPageStore(data, pageSize);
+        InputStream in = new BufferedInputStream(new FileInputStream(plain));
+        try {
+            byte[] page = new byte[pageSize];
+            int pageNo = 0;
+            while (true) {
+                int n = 0;
+                while (n < pageSize) {
+                    int r = in.read(page, n, pageSize - n);
+                    if (r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n == 0) {
+                    break;
+                }
+                // a short last page is padded with zeroes
+                Arrays.fill(page, n, pageSize, (byte) 0);
+                store.write(pageNo++, page);
+                if (n < pageSize) {
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        // an empty table still needs its files to be recognised as compressed
+        if (!data.exists()) {
+            data.createNewFile();
+        }
+        if (!index.exists()) {
+            index.createNewFile();
+        }
+    }
+}
@@ -17,13 +17,16 @@ public class Database {
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final FileHandleManager _filehandles;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
 
     private Database() {
         _catalog = new Catalog();
+        _filehandles = new FileHandleManager(FileHandleManager.DEFAULT_MAX_OPEN_FILES);
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool.getMetrics().register();
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -45,6 +48,11 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /** Return the manager of open table files of the static Database instance */
+    public static FileHandleManager getFileHandleManager() {
+        return _instance.get()._filehandles;
+    }
+
     /** Return the catalog of the static Database instance */
     public static Catalog getCatalog() {
         return _instance.get()._catalog;
@@ -70,12 +78,14 @@ public class Database {
             e.printStackTrace();
         }
 //        _instance._bufferpool = new BufferPool(pages);
+        _instance.get()._bufferpool.getMetrics().register();
         return _instance.get()._bufferpool;
     }
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._filehandles.closeAll();
     }
 
 }
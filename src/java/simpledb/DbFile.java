@@ -19,6 +19,34 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read a run of up to count consecutive pages from disk, starting at the
+     * page start. Files that can do so read the whole run with one large
+     * I/O; the default implementation only reads start itself. The run may
+     * end early, for example at the end of the file, so callers must not
+     * assume they get count pages back.
+     *
+     * @return the pages read, in page number order, beginning with start
+     */
+    public default List<Page> readPages(PageId start, int count) {
+        List<Page> pages = new ArrayList<Page>(1);
+        if (count > 0) {
+            pages.add(readPage(start));
+        }
+        return pages;
+    }
+
+    /**
+     * Create the page id of this file from data, the bytes
+     * {@link Page#getPageData} returned for it, without reading from disk.
+     * The default implementation cannot, and returns null.
+     *
+     * @return the page, or null if this file does not create pages from bytes
+     */
+    public default Page decodePage(PageId id, byte[] data) {
+        return null;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +56,31 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push a run of consecutive pages of this file to disk. Files that can
+     * do so write the whole run with one large I/O; the default
+     * implementation writes the pages one by one.
+     *
+     * @param pages pages of this file with consecutive page numbers, in
+     *   page number order
+     * @throws IOException if the write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    /**
+     * @return a counter that moves with every write to this file. A reader
+     *   compares the values before and after reading pages to find out
+     *   whether they may be out of date. The default implementation moves
+     *   with every write to any file, see {@link FileHandleManager#getWriteCount()}.
+     */
+    public default long getWriteCount() {
+        return Database.getFileHandleManager().getWriteCount();
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
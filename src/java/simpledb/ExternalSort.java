@@ -0,0 +1,333 @@
+package simpledb;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * ExternalSort sorts fixed-width records, in the format written by
+ * {@link Field#serialize}, on one key field using a bounded amount of
+ * memory.
+ * <p>
+ * Records are collected in a buffer of about memoryBytes. Whenever the
+ * buffer is full it is sorted and written out as a sorted run to a
+ * temporary file. {@link #sorted} merges the runs, at most
+ * {@link #MERGE_FAN_IN} at a time, and returns a cursor over the merged
+ * records. Input that fits into the buffer is sorted in memory and never
+ * touches the disk. The sort is stable: records with equal keys come out in
+ * the order they were added.
+ * <p>
+ * Keys are compared on their serialized bytes: ints as signed values and
+ * strings byte by byte, which is the order of {@link StringField} for ASCII
+ * strings.
+ *
+ * @see BTreeFileEncoder#bulkConvert
+ */
+public class ExternalSort implements BulkLoader.RecordSink {
+
+    /** Default memory budget of a sort. Can be overridden with
+     -Dsimpledb.ExternalSort.memoryBytes=n */
+    public static final long MEMORY_BYTES = Long.getLong("simpledb.ExternalSort.memoryBytes", 64L << 20);
+
+    /** Maximum number of runs merged in one pass */
+    public static final int MERGE_FAN_IN = 64;
+
+    /**
+     * A cursor over sorted records. After next() returns true the current
+     * record is the recordSize bytes of buffer() starting at offset().
+     */
+    public interface Cursor {
+        boolean next() throws IOException;
+
+        byte[] buffer();
+
+        int offset();
+    }
+
+    private final Type keyType;
+    private final int keyOffset;
+    private final int recordSize;
+    private final long memoryBytes;
+
+    // records not yet written to a run
+    private byte[] records;
+    private final int capacity;
+    private int count;
+    private long size;
+    private final List<File> runs = new ArrayList<File>();
+
+    /**
+     * @param typeAr the types of the fields of the records
+     * @param keyField the field to sort on
+     * @param memoryBytes roughly how much memory the sort may use
+     */
+    public ExternalSort(Type[] typeAr, int keyField, long memoryBytes) {
+        int offset = 0;
+        int bytes = 0;
+        for (int i = 0; i < typeAr.length; i++) {
+            if (i == keyField) {
+                offset = bytes;
+            }
+            bytes += typeAr[i].getLen();
+        }
+        this.keyType = typeAr[keyField];
+        this.keyOffset = offset;
+        this.recordSize = bytes;
+        this.memoryBytes = memoryBytes;
+        // every buffered record also needs two ints for sorting it
+        this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE / bytes, memoryBytes / (bytes + 8)));
+        // grown up to capacity records as they arrive
+        this.records = new byte[Math.min(capacity, 1024) * bytes];
+    }
+
+    /**
+     * @return the size in bytes of the records being sorted
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * @return the number of records added so far
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of runs written to disk so far
+     */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Add count records, stored back to back at the start of buf.
+     */
+    public void add(byte[] buf, int count) throws IOException {
+        int i = 0;
+        while (i < count) {
+            if (this.count == capacity) {
+                spill();
+            }
+            int n = Math.min(count - i, capacity - this.count);
+            if ((this.count + n) * recordSize > records.length) {
+                int grown = Math.max(this.count + n, Math.min(capacity, 2 * records.length / recordSize));
+                records = Arrays.copyOf(records, grown * recordSize);
+            }
+            System.arraycopy(buf, i * recordSize, records, this.count * recordSize, n * recordSize);
+            this.count += n;
+            this.size += n;
+            i += n;
+        }
+    }
+
+    /**
+     * Finish adding records and return a cursor over all of them in key
+     * order. The sort cannot be added to afterwards.
+     */
+    public Cursor sorted() throws IOException {
+        final int[] order = sortBuffer();
+        if (runs.isEmpty()) {
+            return new Cursor() {
+                private int i = -1;
+
+                public boolean next() {
+                    return ++i < order.length;
+                }
+
+                public byte[] buffer() {
+                    return records;
+                }
+
+                public int offset() {
+                    return order[i] * recordSize;
+                }
+            };
+        }
+        writeRun(order);
+        count = 0;
+        // merge consecutive groups of runs, which keeps the sort stable
+        while (runs.size() > MERGE_FAN_IN) {
+            List<File> merged = new ArrayList<File>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                File run = newRunFile();
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(run), 1 << 16);
+                try {
+                    Cursor c = new MergeCursor(new ArrayList<File>(group));
+                    while (c.next()) {
+                        out.write(c.buffer(), c.offset(), recordSize);
+                    }
+                } finally {
+                    out.close();
+                }
+                merged.add(run);
+            }
+            runs.clear();
+            runs.addAll(merged);
+        }
+        List<File> last = new ArrayList<File>(runs);
+        runs.clear();
+        return new MergeCursor(last);
+    }
+
+    /**
+     * Delete any runs that are still on disk.
+     */
+    public void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    private void spill() throws IOException {
+        writeRun(sortBuffer());
+        count = 0;
+    }
+
+    private void writeRun(int[] order) throws IOException {
+        File run = newRunFile();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(run), 1 << 16);
+        try {
+            for (int i : order) {
+                out.write(records, i * recordSize, recordSize);
+            }
+        } finally {
+            out.close();
+        }
+        runs.add(run);
+    }
+
+    private static File newRunFile() throws IOException {
+        File run = File.createTempFile("sortrun", ".tmp");
+        run.deleteOnExit();
+        return run;
+    }
+
+    /**
+     * @return the positions of the buffered records in key order, using a
+     *   stable bottom-up merge sort
+     */
+    private int[] sortBuffer() {
+        int[] a = new int[count];
+        for (int i = 0; i < count; i++) {
+            a[i] = i;
+        }
+        int[] b = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count; lo += 2 * width) {
+                int mid = Math.min(lo + width, count);
+                int hi = Math.min(lo + 2 * width, count);
+                int i = lo, j = mid, k = lo;
+                while (i < mid && j < hi) {
+                    b[k++] = compare(records, a[j] * recordSize, records, a[i] * recordSize) < 0 ? a[j++] : a[i++];
+                }
+                while (i < mid) {
+                    b[k++] = a[i++];
+                }
+                while (j < hi) {
+                    b[k++] = a[j++];
+                }
+            }
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * Compare the keys of the records at offsets ao of a and bo of b.
+     */
+    int compare(byte[] a, int ao, byte[] b, int bo) {
+        ao += keyOffset;
+        bo += keyOffset;
+        if (keyType == Type.INT_TYPE) {
+            return Integer.compare(readInt(a, ao), readInt(b, bo));
+        }
+        int la = readInt(a, ao);
+        int lb = readInt(b, bo);
+        for (int i = 0; i < Math.min(la, lb); i++) {
+            int d = (a[ao + 4 + i] & 0xff) - (b[bo + 4 + i] & 0xff);
+            if (d != 0) {
+                return d;
+            }
+        }
+        return la - lb;
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    /** One sorted run being merged */
+    private class RunReader {
+        final File file;
+        final int index;
+        final DataInputStream in;
+        final byte[] record = new byte[recordSize];
+
+        RunReader(File file, int index, int bufferSize) throws IOException {
+            this.file = file;
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), bufferSize));
+        }
+
+        /** @return false, and close and delete the run, once it is used up */
+        boolean advance() throws IOException {
+            try {
+                in.readFully(record);
+                return true;
+            } catch (EOFException e) {
+                in.close();
+                file.delete();
+                return false;
+            }
+        }
+    }
+
+    /** Merges sorted runs, deleting each one once it has been read */
+    private class MergeCursor implements Cursor {
+        private final PriorityQueue<RunReader> heap;
+        private RunReader current;
+
+        MergeCursor(List<File> runs) throws IOException {
+            this.heap = new PriorityQueue<RunReader>(Math.max(1, runs.size()), new Comparator<RunReader>() {
+                @Override
+                public int compare(RunReader x, RunReader y) {
+                    int cmp = ExternalSort.this.compare(x.record, 0, y.record, 0);
+                    return cmp != 0 ? cmp : Integer.compare(x.index, y.index);
+                }
+            });
+            // share the memory budget between the read buffers
+            int bufferSize = (int) Math.max(8 << 10, Math.min(1 << 20, memoryBytes / (runs.size() + 1)));
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader r = new RunReader(runs.get(i), i, bufferSize);
+                if (r.advance()) {
+                    heap.add(r);
+                }
+            }
+        }
+
+        public boolean next() throws IOException {
+            if (current != null && current.advance()) {
+                heap.add(current);
+            }
+            current = heap.poll();
+            return current != null;
+        }
+
+        public byte[] buffer() {
+            return current.record;
+        }
+
+        public int offset() {
+            return 0;
+        }
+    }
+}
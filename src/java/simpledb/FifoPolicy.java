@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * Evicts frames in the order they became evictable, ignoring requests for
+ * pages that are not pinned. This is how the buffer pool used to pick
+ * victims before replacement policies could be configured.
+ */
+public class FifoPolicy implements ReplacementPolicy {
+    private final FrameList evictable;
+
+    public FifoPolicy(int numFrames) {
+        this.evictable = new FrameList(numFrames);
+    }
+
+    public void pageInstalled(int frame, PageId pid) {
+    }
+
+    public void pageAccessed(int frame) {
+    }
+
+    public void setEvictable(int frame, boolean evictable) {
+        if (evictable) {
+            this.evictable.addLast(frame);
+        } else {
+            this.evictable.remove(frame);
+        }
+    }
+
+    public int victim() {
+        return evictable.first();
+    }
+
+    public int numEvictable() {
+        return evictable.size();
+    }
+
+    public void pageRemoved(int frame, PageId pid, boolean evicted) {
+        evictable.remove(frame);
+    }
+
+    public void resize(int numFrames) {
+        evictable.resize(numFrames);
+    }
+}
@@ -0,0 +1,354 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FileHandleManager keeps the open files behind the DbFiles of the database.
+ * Instead of opening and closing a RandomAccessFile for every page read or
+ * write, DbFiles ask the manager, which keeps one FileChannel per file and
+ * does positional I/O on it. A file is opened read-only, so that reading a
+ * missing file fails and read-only files can be scanned, and is opened for
+ * writing as well on its first write. The length of a file is not cached:
+ * {@link #length} asks the open channel, an fstat on the open descriptor,
+ * so numPages() does not look the file up by its path every time, and
+ * changes made to the file from outside the manager are seen at once.
+ * <p>
+ * At most maxOpenFiles channels are kept open; when another file is opened
+ * the least recently used idle channel is closed. A channel that is in the
+ * middle of an I/O call is never closed underneath its caller.
+ * <p>
+ * Code that replaces a file by other means, so that its path names another
+ * file than the one open, must call {@link #close(File)} before the file
+ * is used again; the DbFile constructors do this for their backing file.
+ *
+ * @see Database#getFileHandleManager
+ * @Threadsafe
+ */
+public class FileHandleManager {
+
+    /** Default number of files kept open at the same time. Can be overridden
+     with -Dsimpledb.FileHandleManager.maxOpenFiles=n */
+    public static final int DEFAULT_MAX_OPEN_FILES =
+            Integer.getInteger("simpledb.FileHandleManager.maxOpenFiles", 128);
+
+    private static class Handle {
+        private final File file;
+        // the write counter of the file
+        private final AtomicLong writes;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        // opened on the first write, unless the file was opened for writing
+        // in the first place; guarded by this handle
+        private RandomAccessFile writeRaf;
+        private FileChannel writeChannel;
+        // number of callers currently doing I/O on the channel, guarded by the manager
+        private int users;
+        // set when the handle was dropped from the table while in use
+        private boolean closeOnRelease;
+
+        private Handle(File file, boolean write, AtomicLong writes) throws IOException {
+            this.file = file;
+            this.writes = writes;
+            this.raf = new RandomAccessFile(file, write ? "rw" : "r");
+            this.channel = raf.getChannel();
+            if(write) {
+                this.writeChannel = channel;
+            }
+        }
+
+        /** @return a channel that can write the file, opening one if needed */
+        private synchronized FileChannel writeChannel() throws IOException {
+            if(writeChannel == null) {
+                writeRaf = new RandomAccessFile(file, "rw");
+                writeChannel = writeRaf.getChannel();
+            }
+            return writeChannel;
+        }
+
+        /** @return the length of the file, including changes from outside the manager */
+        private long length() throws IOException {
+            return channel.size();
+        }
+
+        private void close() {
+            try {
+                raf.close();
+                if(writeRaf != null) {
+                    writeRaf.close();
+                }
+            } catch (IOException e) {
+                // nothing left to do with the file
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final int maxOpenFiles;
+    // access-ordered, so iteration starts at the least recently used handle
+    private final LinkedHashMap<File, Handle> handles;
+    // moves on every write and append done through this manager
+    private final AtomicLong writeCount = new AtomicLong();
+    // the same for each file, kept after the file is closed
+    private final ConcurrentHashMap<File, AtomicLong> fileWriteCounts = new ConcurrentHashMap<>();
+    // bytes returned by all reads done through this manager
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    /**
+     * Creates a FileHandleManager that keeps up to maxOpenFiles files open.
+     *
+     * @param maxOpenFiles maximum number of idle open files
+     */
+    public FileHandleManager(int maxOpenFiles) {
+        if(maxOpenFiles < 1) {
+            throw new IllegalArgumentException("must allow at least one open file");
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.handles = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Read up to buf.length bytes of f starting at position into buf. Bytes
+     * past the end of the file are left untouched.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the end of the file
+     */
+    public int read(File f, long position, byte[] buf) throws IOException {
+        Handle h = acquire(f, false);
+        try {
+            ByteBuffer dst = ByteBuffer.wrap(buf);
+            int total = 0;
+            while(dst.hasRemaining()) {
+                int n = h.channel.read(dst, position + total);
+                if(n < 0) {
+                    break;
+                }
+                total += n;
+            }
+            bytesRead.addAndGet(total);
+            return total == 0 && buf.length > 0 ? -1 : total;
+        } finally {
+            release(h);
+        }
+    }
+
+    /**
+     * Scatter-read consecutive bytes of f starting at position into bufs,
+     * filling one buffer after the other with a single vectored read where
+     * the operating system allows it. Bytes past the end of the file are
+     * left untouched.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the end of the file
+     */
+    public long read(File f, long position, byte[][] bufs) throws IOException {
+        ByteBuffer[] dsts = new ByteBuffer[bufs.length];
+        for(int i = 0; i < bufs.length; i++) {
+            dsts[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        Handle h = acquire(f, false);
+        try {
+            long total = 0;
+            // scattering reads go through the channel position, so they must
+            // not interleave with each other; positional calls do not use it
+            synchronized (h) {
+                h.channel.position(position);
+                while(dsts.length > 0 && dsts[dsts.length - 1].hasRemaining()) {
+                    long n = h.channel.read(dsts);
+                    if(n < 0) {
+                        break;
+                    }
+                    total += n;
+                }
+            }
+            bytesRead.addAndGet(total);
+            return total == 0 && dsts.length > 0 ? -1 : total;
+        } finally {
+            release(h);
+        }
+    }
+
+    /**
+     * Write all of data to f starting at position, growing the file if needed.
+     */
+    public void write(File f, long position, byte[] data) throws IOException {
+        Handle h = acquire(f, true);
+        try {
+            writeFully(h, position, data);
+        } finally {
+            release(h);
+        }
+    }
+
+    /**
+     * Append data to the end of f.
+     *
+     * @return the offset at which data was written
+     */
+    public long append(File f, byte[] data) throws IOException {
+        Handle h = acquire(f, true);
+        try {
+            synchronized (h) {
+                long position = h.length();
+                writeFully(h, position, data);
+                return position;
+            }
+        } finally {
+            release(h);
+        }
+    }
+
+    /**
+     * @return the length of f in bytes, or 0 if there is no such file
+     */
+    public long length(File f) throws IOException {
+        Handle h;
+        synchronized (this) {
+            // like File.length, without creating the file
+            if(!handles.containsKey(f.getAbsoluteFile()) && !f.exists()) {
+                return 0;
+            }
+            h = acquire(f, false);
+        }
+        try {
+            return h.length();
+        } finally {
+            release(h);
+        }
+    }
+
+    /**
+     * Map the current contents of f read-only into memory. The mapping stays
+     * valid after the manager closes the file.
+     */
+    public MappedByteBuffer map(File f) throws IOException {
+        Handle h = acquire(f, false);
+        try {
+            long size = h.length();
+            return h.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            release(h);
+        }
+    }
+
+    /**
+     * Close f if it is open, so that the next access opens the file the
+     * path names now.
+     */
+    public synchronized void close(File f) {
+        Handle h = handles.remove(f.getAbsoluteFile());
+        if(h != null) {
+            closeOrDefer(h);
+        }
+    }
+
+    /** Close every file opened by this manager. */
+    public synchronized void closeAll() {
+        for(Handle h : handles.values()) {
+            closeOrDefer(h);
+        }
+        handles.clear();
+    }
+
+    /**
+     * @return the number of files this manager currently holds open
+     */
+    public synchronized int getOpenCount() {
+        return handles.size();
+    }
+
+    public int getMaxOpenFiles() {
+        return maxOpenFiles;
+    }
+
+    /**
+     * @return a counter that moves with every write and append done through
+     *   this manager; a reader can compare two values to find out whether any
+     *   file may have changed in between
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * @return a counter that moves with every write and append to f done
+     *   through this manager, like {@link #getWriteCount()} for a single file
+     */
+    public long getWriteCount(File f) {
+        AtomicLong count = fileWriteCounts.get(f.isAbsolute() ? f : f.getAbsoluteFile());
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of bytes read through this manager so far
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    private void writeFully(Handle h, long position, byte[] data) throws IOException {
+        // counted before and after, so a reader that sampled the count
+        // while this write was in progress sees it change
+        writeCount.incrementAndGet();
+        h.writes.incrementAndGet();
+        FileChannel channel = h.writeChannel();
+        ByteBuffer src = ByteBuffer.wrap(data);
+        while(src.hasRemaining()) {
+            channel.write(src, position + src.position());
+        }
+        writeCount.incrementAndGet();
+        h.writes.incrementAndGet();
+    }
+
+    /**
+     * @param write true to open a file that is not open yet for writing, which
+     *   creates it if it does not exist
+     */
+    private synchronized Handle acquire(File f, boolean write) throws IOException {
+        File key = f.getAbsoluteFile();
+        Handle h = handles.get(key);
+        if(h == null) {
+            AtomicLong writes = fileWriteCounts.get(key);
+            if(writes == null) {
+                writes = new AtomicLong();
+                fileWriteCounts.put(key, writes);
+            }
+            h = new Handle(key, write, writes);
+            handles.put(key, h);
+        }
+        h.users++;
+        closeIdleHandles();
+        return h;
+    }
+
+    private synchronized void release(Handle h) {
+        h.users--;
+        if(h.users == 0 && h.closeOnRelease) {
+            h.close();
+        }
+    }
+
+    private void closeOrDefer(Handle h) {
+        if(h.users == 0) {
+            h.close();
+        } else {
+            h.closeOnRelease = true;
+        }
+    }
+
+    /** Close least recently used idle handles until we are within the limit. */
+    private void closeIdleHandles() {
+        Iterator<Handle> it = handles.values().iterator();
+        while(handles.size() > maxOpenFiles && it.hasNext()) {
+            Handle h = it.next();
+            if(h.users == 0) {
+                it.remove();
+                h.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A doubly linked list of buffer pool frame numbers, linked through arrays
+ * indexed by frame, so adding, removing and finding the first frame are all
+ * O(1) and allocate nothing. A frame is in the list at most once.
+ */
+class FrameList {
+    private int[] prev;
+    private int[] next;
+    private boolean[] contains;
+    private int head = -1;
+    private int tail = -1;
+    private int size;
+
+    FrameList(int numFrames) {
+        this.prev = new int[numFrames];
+        this.next = new int[numFrames];
+        this.contains = new boolean[numFrames];
+    }
+
+    /** Make room for numFrames frames. Frames taken away must not be in the list. */
+    void resize(int numFrames) {
+        prev = Arrays.copyOf(prev, numFrames);
+        next = Arrays.copyOf(next, numFrames);
+        contains = Arrays.copyOf(contains, numFrames);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int frame) {
+        return contains[frame];
+    }
+
+    /** @return the first frame, or -1 if the list is empty */
+    int first() {
+        return head;
+    }
+
+    /** Append frame at the end of the list, moving it there if it is in the list already */
+    void addLast(int frame) {
+        if (contains[frame]) {
+            if (frame == tail) {
+                return;
+            }
+            remove(frame);
+        }
+        prev[frame] = tail;
+        next[frame] = -1;
+        if (tail == -1) {
+            head = frame;
+        } else {
+            next[tail] = frame;
+        }
+        tail = frame;
+        contains[frame] = true;
+        size++;
+    }
+
+    /** Remove frame from the list if it is in it */
+    void remove(int frame) {
+        if (!contains[frame]) {
+            return;
+        }
+        if (prev[frame] == -1) {
+            head = next[frame];
+        } else {
+            next[prev[frame]] = next[frame];
+        }
+        if (next[frame] == -1) {
+            tail = prev[frame];
+        } else {
+            prev[next[frame]] = prev[frame];
+        }
+        contains[frame] = false;
+        size--;
+    }
+}
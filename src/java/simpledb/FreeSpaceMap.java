@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * FreeSpaceMap records how much room every page of a HeapFile has left, so
+ * that an insert can go straight to a page with enough space instead of
+ * looking at every page of the file.
+ * <p>
+ * The map is kept in a side file (the data file name plus {@link #SUFFIX})
+ * with one unsigned 16 bit entry per page, holding the free space of the
+ * page as reported by {@link HeapFilePage#getFreeSpace}. In memory the
+ * entries are the leaves of a max-tree, so the first page with at least a
+ * given amount of space is found in O(log n) steps without reading any
+ * page.
+ * <p>
+ * The map is only a hint. Pages that have no entry yet, for example those
+ * written by HeapFileEncoder, are recorded as {@link #UNKNOWN} and so are
+ * tried first; entries that are out of date, for example because a
+ * transaction was rolled back, are corrected by the HeapFile when it finds
+ * that a page does not have the room the map promised. A page that has
+ * more room than recorded is only used again once a delete from it
+ * updates its entry.
+ * <p>
+ * The map file is created when the first entry is written. As it is only a
+ * hint, it is safe to lose, and a HeapFile whose data file was removed
+ * drops the map file that is left.
+ *
+ * @see HeapFile
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Suffix of the free space map file */
+    public static final String SUFFIX = ".fsm";
+
+    /** Entry of pages whose free space is not known */
+    static final int UNKNOWN = 0xffff;
+
+    private static final int ENTRY_SIZE = 2;
+
+    private final File file;
+    // number of pages with an entry, and how many of them are in the file
+    private int numPages;
+    private int persisted;
+    // max-tree over the entries: leaves at [leaves, 2 * leaves), tree[1] is the root
+    private int leaves;
+    private int[] tree;
+
+    /**
+     * Open the free space map of a HeapFile with numPages pages, reading
+     * whatever entries the map file already has.
+     *
+     * @param file the map file, see {@link #file}
+     */
+    public FreeSpaceMap(File file, int numPages) throws IOException {
+        this.file = file;
+        this.numPages = numPages;
+        this.leaves = 1;
+        while (this.leaves < Math.max(numPages, 16)) {
+            this.leaves *= 2;
+        }
+        this.tree = new int[2 * this.leaves];
+
+        FileHandleManager files = Database.getFileHandleManager();
+        files.close(file);
+        int known = file.exists() ? (int) Math.min(numPages, file.length() / ENTRY_SIZE) : 0;
+        if (known > 0) {
+            byte[] entries = new byte[known * ENTRY_SIZE];
+            files.read(file, 0, entries);
+            ByteBuffer buf = ByteBuffer.wrap(entries);
+            for (int i = 0; i < known; i++) {
+                tree[leaves + i] = buf.getShort() & 0xffff;
+            }
+        }
+        for (int i = known; i < numPages; i++) {
+            tree[leaves + i] = UNKNOWN;
+        }
+        for (int i = leaves - 1; i > 0; i--) {
+            tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+        }
+        this.persisted = known;
+    }
+
+    /**
+     * @return the free space map file that belongs to the data file of a HeapFile
+     */
+    public static File file(File data) {
+        return new File(data.getPath() + SUFFIX);
+    }
+
+    /**
+     * @return the number of pages the map has entries for
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the recorded free space of page pageNo, or {@link #UNKNOWN}
+     */
+    public synchronized int get(int pageNo) {
+        if (pageNo < 0 || pageNo >= numPages) {
+            throw new IllegalArgumentException("page " + pageNo + " is not in the map");
+        }
+        return tree[leaves + pageNo];
+    }
+
+    /**
+     * @return the lowest numbered page recorded with at least need free
+     *   space (or with unknown free space), or -1 if there is none
+     */
+    public synchronized int find(int need) {
+        if (tree[1] < need) {
+            return -1;
+        }
+        int i = 1;
+        while (i < leaves) {
+            i = tree[2 * i] >= need ? 2 * i : 2 * i + 1;
+        }
+        return i - leaves;
+    }
+
+    /**
+     * Make sure the map has an entry for each of the first numPages pages,
+     * recording pages that are new to it as {@link #UNKNOWN}. The new
+     * entries are not written to the map file, which is fine as pages past
+     * its end read back as unknown.
+     */
+    public synchronized void addPages(int numPages) {
+        if (numPages <= this.numPages) {
+            return;
+        }
+        while (leaves < numPages) {
+            grow();
+        }
+        for (int p = this.numPages; p < numPages; p++) {
+            int i = leaves + p;
+            tree[i] = UNKNOWN;
+            for (i /= 2; i > 0; i /= 2) {
+                tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+            }
+        }
+        this.numPages = numPages;
+    }
+
+    /**
+     * Record that page pageNo has free space left, and write the entry to
+     * the map file. The map grows if pageNo is past its last page.
+     */
+    public synchronized void set(int pageNo, int free) throws IOException {
+        if (pageNo < 0) {
+            throw new IllegalArgumentException("cannot record page " + pageNo);
+        }
+        addPages(pageNo + 1);
+        int value = Math.max(0, Math.min(free, UNKNOWN - 1));
+        int i = leaves + pageNo;
+        tree[i] = value;
+        for (i /= 2; i > 0; i /= 2) {
+            tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+        }
+
+        // entries between the end of the file and pageNo would read back as
+        // zero, i.e. full, so write them out as well
+        int first = Math.min(pageNo, persisted);
+        ByteBuffer buf = ByteBuffer.allocate((pageNo - first + 1) * ENTRY_SIZE);
+        for (int p = first; p <= pageNo; p++) {
+            buf.putShort((short) tree[leaves + p]);
+        }
+        Database.getFileHandleManager().write(file, (long) first * ENTRY_SIZE, buf.array());
+        persisted = Math.max(persisted, pageNo + 1);
+    }
+
+    private void grow() {
+        int[] bigger = new int[4 * leaves];
+        System.arraycopy(tree, leaves, bigger, 2 * leaves, leaves);
+        leaves *= 2;
+        tree = bigger;
+        for (int i = leaves - 1; i > 0; i--) {
+            tree[i] = Math.max(tree[2 * i], tree[2 * i + 1]);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.util.*;
 
 /**
@@ -9,17 +11,62 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile can instead store its tuples in the variable-length
+ * {@link SlottedHeapPage} format, see {@link PageFormat}. The format is not
+ * recorded in the file, it has to be given when the HeapFile is opened.
+ * <p>
+ * Independently of the page format, a HeapFile may be stored compressed
+ * (see {@link CompressedPageStore}). This is recognised by the page offset
+ * index file next to the data file; pages are compressed on writePage and
+ * decompressed on readPage, so the rest of the database only ever sees
+ * uncompressed pages.
+ * <p>
+ * Inserts find a page with room through the file's {@link FreeSpaceMap},
+ * which is kept next to the data file and updated by insertTuple and
+ * deleteTuple.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** On-disk page formats of a HeapFile. */
+    public enum PageFormat {
+        /** fixed-width slots, strings padded to Type.STRING_LEN; see HeapPage */
+        FIXED,
+        /** slot directory and variable-length records; see SlottedHeapPage */
+        SLOTTED
+    }
+
+    /**
+     * Whether new HeapFiles start in memory-mapped mode. Turn it on from the
+     * command line with -Dsimpledb.HeapFile.mmap=true.
+     */
+    private static final boolean MMAP_DEFAULT = Boolean.getBoolean("simpledb.HeapFile.mmap");
+
+    /**
+     * Number of pages a sequential scan fetches with one read once the table
+     * has more pages than that (32 pages, i.e. 128 KB with the default page
+     * size). Set with -Dsimpledb.HeapFile.scanRunPages=n; 1 turns bulk reads off.
+     */
+    public static final int SCAN_RUN_PAGES = Integer.getInteger("simpledb.HeapFile.scanRunPages", 32);
+
     private File f;
     private TupleDesc td;
     private int pagesNum;
     private int tableId;
     private int pageSize;
+    private final PageFormat format;
+    // non-null if the file is stored compressed
+    private final CompressedPageStore compressedStore;
+    // where inserts find a page with room
+    private final FreeSpaceMap freeSpace;
+
+    // memory-mapped read path, see setMemoryMapped()
+    private volatile boolean memoryMapped;
+    private MappedByteBuffer mappedRegion;
+    private long mappedBytes;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,15 +76,93 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, PageFormat.FIXED);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * stored in the given format.
+     */
+    public HeapFile(File f, TupleDesc td, PageFormat format) {
         // some code goes here
         this.f = f;
         this.td = td;
+        this.format = format;
         this.tableId = this.getId();
         pageSize = BufferPool.getPageSize();
-        this.pagesNum = (int) Math.ceil(((double) this.f.length()) / pageSize);
+        // the file may have been created or rewritten behind the file manager's back
+        Database.getFileHandleManager().close(f);
+        Database.getBufferPool().getCompressedCache().removeTable(this.tableId);
+        try {
+            this.compressedStore = CompressedPageStore.isCompressed(f) ? new CompressedPageStore(f, pageSize) : null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.pagesNum = numPages();
+        try {
+            if (!f.exists()) {
+                // the map of a data file that was removed
+                FreeSpaceMap.file(f).delete();
+            }
+            this.freeSpace = new FreeSpaceMap(FreeSpaceMap.file(f), this.pagesNum);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.memoryMapped = MMAP_DEFAULT;
         Database.getCatalog().addTable(this);
     }
 
+    /**
+     * Switch the read path of this file between plain positional reads and a
+     * memory-mapped region. In mapped mode readPage copies the page straight
+     * out of a read-only mapping of the file instead of opening, seeking and
+     * closing the file on every buffer pool miss. The mapping covers the whole
+     * file and is re-created when a page past its end is requested, so it
+     * grows together with numPages(). Writes still go through writePage and
+     * are visible through the shared mapping. Compressed files always use
+     * the plain read path.
+     *
+     * @param memoryMapped true to read pages through the mapped region
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped) {
+            this.mappedRegion = null;
+            this.mappedBytes = 0;
+        }
+    }
+
+    /**
+     * @return true if pages of this file are read through a memory-mapped region
+     */
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
+    }
+
+    /**
+     * @return true if the pages of this file are stored compressed
+     */
+    public boolean isCompressed() {
+        return this.compressedStore != null;
+    }
+
+    /**
+     * @return the format of the pages of this file
+     */
+    public PageFormat getPageFormat() {
+        return this.format;
+    }
+
+    /**
+     * Create a page of this file from its on-disk bytes.
+     */
+    private HeapFilePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        if(this.format == PageFormat.SLOTTED) {
+            return new SlottedHeapPage(pid, data);
+        }
+        return new HeapPage(pid, data);
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -48,6 +173,12 @@ public class HeapFile implements DbFile {
         return this.f;
     }
 
+    @Override
+    public long getWriteCount() {
+        // a compressed file keeps its pages in f as well
+        return Database.getFileHandleManager().getWriteCount(this.f);
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere ensure that each
@@ -77,39 +208,153 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
+        if(this.compressedStore != null) {
+            try {
+                return newPage(new HeapPageId(pid.getTableId(), pid.pageNumber()),
+                        this.compressedStore.read(pid.pageNumber()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+        // a single mapping is limited to 2GB, pages past that use the plain path
+        if(this.memoryMapped && (long) (pid.pageNumber() + 1) * BufferPool.getPageSize() <= Integer.MAX_VALUE) {
+            return readMappedPage(pid);
+        }
         try {
-            RandomAccessFile raf = new RandomAccessFile(this.f, "r");
             int pageSize = BufferPool.getPageSize();
             byte[] curContent = new byte[pageSize];
             // find the start point of current file
-            raf.seek(pid.pageNumber() * pageSize);
-            raf.read(curContent, 0, pageSize);
+            Database.getFileHandleManager().read(this.f, (long) pid.pageNumber() * pageSize, curContent);
             // for table id, each file is a table, so for all pages, they have the same tableid
             // but for pgno, each page is different
             HeapPageId newHeapPageId = new HeapPageId(pid.getTableId(), pid.pageNumber());
 
-            HeapPage heapPage = new HeapPage(newHeapPageId, curContent);
-            raf.close();
-
-            return heapPage;
+            return newPage(newHeapPageId, curContent);
         } catch (Exception e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    // see DbFile.java for javadocs
+    public Page decodePage(PageId pid, byte[] data) {
+        try {
+            return newPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Read a run of consecutive pages with a single scattering read into one
+     * buffer per page. In memory-mapped mode the pages are copied out of the
+     * mapping one by one instead.
+     *
+     * @see DbFile#readPages
+     */
+    public List<Page> readPages(PageId start, int count) {
+        int first = start.pageNumber();
+        int n = Math.min(count, numPages() - first);
+        List<Page> pages = new ArrayList<>(Math.max(n, 0));
+        if(n > 1 && this.compressedStore != null) {
+            try {
+                List<byte[]> contents = this.compressedStore.read(first, n);
+                for(int i = 0; i < n; i++) {
+                    pages.add(newPage(new HeapPageId(start.getTableId(), first + i), contents.get(i)));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return pages;
+        }
+        if(n <= 1 || this.memoryMapped) {
+            for(int i = 0; i < n; i++) {
+                pages.add(readPage(new HeapPageId(start.getTableId(), first + i)));
+            }
+            return pages;
+        }
+        try {
+            int pageSize = BufferPool.getPageSize();
+            byte[][] curContents = new byte[n][pageSize];
+            Database.getFileHandleManager().read(this.f, (long) first * pageSize, curContents);
+            for(int i = 0; i < n; i++) {
+                pages.add(newPage(new HeapPageId(start.getTableId(), first + i), curContents[i]));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return pages;
+    }
+
+    /**
+     * Read a page out of the memory-mapped region, mapping (or re-mapping)
+     * the file first if the page lies beyond the current mapping.
+     */
+    private Page readMappedPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pid.pageNumber() * pageSize;
+        byte[] curContent = new byte[pageSize];
+        try {
+            ByteBuffer region = getMappedRegion(offset + pageSize);
+            if(offset >= region.limit()) {
+                throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in this file");
+            }
+            // the last page of the file may be short, the rest stays zero
+            region.position((int) offset);
+            region.get(curContent, 0, (int) Math.min(pageSize, region.limit() - offset));
+            return newPage(new HeapPageId(pid.getTableId(), pid.pageNumber()), curContent);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return a private view of the mapped region covering at least
+     *   minBytes bytes, or the whole file if it is shorter than that
+     */
+    private synchronized ByteBuffer getMappedRegion(long minBytes) throws IOException {
+        if(this.mappedRegion == null || this.mappedBytes < minBytes) {
+            // a read-only mapping cannot extend the file, so map what is there
+            this.mappedRegion = Database.getFileHandleManager().map(this.f);
+            this.mappedBytes = this.mappedRegion.capacity();
+        }
+        return this.mappedRegion.duplicate();
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         int offset = page.getId().pageNumber();
-        RandomAccessFile raf = new RandomAccessFile(this.f, "rw");
         int pageSize = BufferPool.getPageSize();
-        byte[] curContent = page.getPageData();;
+        // serialize into the thread's page buffer instead of a new array
+        byte[] curContent = PageCodec.serialize(page);
+        if(this.compressedStore != null) {
+            this.compressedStore.write(offset, curContent);
+            return;
+        }
         // find the start point of current file
-        raf.seek(offset * pageSize);
-        raf.write(curContent, 0, pageSize);
-        raf.close();
+        Database.getFileHandleManager().write(this.f, (long) offset * pageSize, curContent);
+    }
+
+    /**
+     * Write a run of consecutive pages with a single write. Compressed files
+     * write the pages one by one.
+     *
+     * @see DbFile#writePages
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if(pages.size() <= 1 || this.compressedStore != null || !PageCodec.isRun(pages)) {
+            for(Page page : pages) {
+                writePage(page);
+            }
+            return;
+        }
+        long offset = (long) pages.get(0).getId().pageNumber() * BufferPool.getPageSize();
+        Database.getFileHandleManager().write(this.f, offset, PageCodec.toByteArray(pages));
     }
 
     /**
@@ -117,7 +362,29 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return this.pagesNum = (int) Math.ceil(((double) this.f.length()) / pageSize);
+        if(this.compressedStore != null) {
+            return this.pagesNum = this.compressedStore.numPages();
+        }
+        return this.pagesNum = (int) Math.ceil(((double) fileLength()) / pageSize);
+    }
+
+    private long fileLength() {
+        try {
+            return Database.getFileHandleManager().length(this.f);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the free space, in the unit of HeapFilePage.getFreeSpace, a
+     *   page needs to have for t to fit on it for sure
+     */
+    private int spaceNeeded(Tuple t) {
+        if(this.format == PageFormat.SLOTTED) {
+            return SlottedHeapPage.recordSize(this.td, t) + SlottedHeapPage.SLOT_SIZE;
+        }
+        return 1;
     }
 
     // see DbFile.java for javadocs
@@ -125,31 +392,38 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         ArrayList<Page> dirtyPage = new ArrayList<>();
-        boolean hasEmptyPage = false;
-        // to see whether there is any existing page has empty slot
-        for(int i = 0; i < pagesNum; i++) {
-            PageId pageId = new HeapPageId(getId(), i);
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId,Permissions.READ_ONLY);
-            if(page.getNumEmptySlots() > 0) {
-                hasEmptyPage = true;
-                page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        int need = spaceNeeded(t);
+        // pages written without going through insertTuple have not been seen yet
+        this.freeSpace.addPages(pagesNum);
+        // ask the free space map for a page with room, so only that page is read
+        int pageNo;
+        while((pageNo = this.freeSpace.find(need)) >= 0 && pageNo < pagesNum) {
+            PageId pageId = new HeapPageId(getId(), pageNo);
+            HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid, pageId,Permissions.READ_ONLY);
+            if(page.hasRoomFor(t)) {
+                page = (HeapFilePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
                 page.insertTuple(t);
                 BufferPoolUtil.unpinPage(pageId);
                 dirtyPage.add(page);
-                break;
+                this.freeSpace.set(pageNo, page.getFreeSpace());
+                return dirtyPage;
             }
+            // the map was out of date
+            this.freeSpace.set(pageNo, Math.min(page.getFreeSpace(), need - 1));
         }
 
         // no empty space, create a new page
-        if(!hasEmptyPage) {
-            HeapPageId pageId = new HeapPageId(getId(), pagesNum++);
+        HeapPageId pageId = new HeapPageId(getId(), pagesNum++);
 //            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId,Permissions.READ_WRITE);
-            HeapPage page = new HeapPage(pageId, HeapPage.createEmptyPageData());
-            page.insertTuple(t);
-//            BufferPoolUtil.unpinPage(pageId);
-            dirtyPage.add(page);
-            writePage(page);
+        HeapFilePage page = newPage(pageId, HeapPage.createEmptyPageData());
+        if(!page.hasRoomFor(t)) {
+            throw new DbException("tuple does not fit on an empty page");
         }
+        page.insertTuple(t);
+//            BufferPoolUtil.unpinPage(pageId);
+        dirtyPage.add(page);
+        writePage(page);
+        this.freeSpace.set(pageId.pageNumber(), page.getFreeSpace());
 
         return dirtyPage;
         // not necessary for lab1
@@ -161,10 +435,15 @@ public class HeapFile implements DbFile {
         // some code goes here
         ArrayList<Page> dirtyPages = new ArrayList<>();
         PageId pageId = t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+        HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
         page.deleteTuple(t);
         dirtyPages.add(page);
         BufferPoolUtil.unpinPage(pageId);
+        try {
+            this.freeSpace.set(pageId.pageNumber(), page.getFreeSpace());
+        } catch (IOException e) {
+            throw new DbException("cannot update the free space map: " + e.getMessage());
+        }
         return dirtyPages;
         // not necessary for lab1
     }
@@ -183,6 +462,12 @@ public class HeapFile implements DbFile {
 
         private int curIndex;
         private Iterator<Tuple> curIter;
+        // pages before this one have been bulk-fetched into the buffer pool
+        private int fetchedUpTo;
+        // read-ahead state, only used on large tables
+        private Prefetcher.Stream prefetchStream;
+        // private frames of a scan too large for the buffer pool, or null
+        private final BufferRing ring;
 
         private boolean isOpen;
 
@@ -191,13 +476,18 @@ public class HeapFile implements DbFile {
             this.tid = tid;
             this.tableId = tableId;
             this.curIndex = 0;
+            this.fetchedUpTo = 0;
             this.isOpen = false;
-            HeapPage curPage = getPage(this.curIndex);
-            this.curIter = curPage.iterator();
+            this.ring = Database.getBufferPool().newRing(pagesNum);
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            // the first page is locked here, where a transaction aborted
+            // while waiting for the lock can be told about it
+            this.curIndex = 0;
+            this.fetchedUpTo = 0;
+            this.curIter = getPage(this.curIndex).iterator();
             this.isOpen = true;
         }
 
@@ -211,7 +501,7 @@ public class HeapFile implements DbFile {
             }
             while (this.curIndex < this.pagesNum - 1) {
 //                Database.getBufferPool().unpinPage(new HeapPageId(this.tableId, this.curIndex++));
-                HeapPage nxtPage = getPage(++this.curIndex);
+                HeapFilePage nxtPage = getPage(++this.curIndex);
                 this.curIter = nxtPage.iterator();
                 if(this.curIter.hasNext()) {
                     return true;
@@ -236,7 +526,7 @@ public class HeapFile implements DbFile {
             }
             while (this.curIndex < this.pagesNum - 1) {
 //                Database.getBufferPool().unpinPage(new HeapPageId(this.tableId, this.curIndex++));
-                HeapPage nxtPage = getPage(++this.curIndex);
+                HeapFilePage nxtPage = getPage(++this.curIndex);
                 this.curIter = nxtPage.iterator();
                 if(this.curIter.hasNext()) {
                     return curIter.next();
@@ -249,7 +539,8 @@ public class HeapFile implements DbFile {
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             this.curIndex = 0;
-            HeapPage firstPage = getPage(this.curIndex);
+            this.fetchedUpTo = 0;
+            HeapFilePage firstPage = getPage(this.curIndex);
             this.curIter = firstPage.iterator();
         }
 
@@ -258,16 +549,25 @@ public class HeapFile implements DbFile {
             this.isOpen = false;
         }
 
-        private HeapPage getPage(int pageNo) {
-            HeapPage curPage = null;
-            try {
-                curPage = (HeapPage) Database.getBufferPool().getPage(this.tid, new HeapPageId(this.tableId, pageNo), Permissions.READ_ONLY);
-            } catch (TransactionAbortedException e) {
-                e.printStackTrace();
-            } catch (DbException e) {
-                e.printStackTrace();
+        private HeapFilePage getPage(int pageNo) throws DbException, TransactionAbortedException {
+            // on large tables, pull in a whole run of pages with one read
+            // the first time the scan reaches a page that is not cached
+            if(this.pagesNum > SCAN_RUN_PAGES && this.ring == null) {
+                // let the prefetcher read further ahead in the background;
+                // it reads into the buffer pool, which a ring scan avoids
+                Prefetcher prefetcher = Database.getBufferPool().getPrefetcher();
+                if(this.prefetchStream == null) {
+                    this.prefetchStream = prefetcher.newStream(this.tableId, this.pagesNum);
+                }
+                prefetcher.access(this.prefetchStream, pageNo);
+            }
+            if(this.pagesNum > SCAN_RUN_PAGES && pageNo >= this.fetchedUpTo) {
+                BufferPool bufferPool = Database.getBufferPool();
+                int run = Math.min(SCAN_RUN_PAGES, this.ring != null ? this.ring.capacity() : Math.max(1, bufferPool.getNumPages() / 4));
+                List<Page> fetched = bufferPool.getPages(this.tid, new HeapPageId(this.tableId, pageNo), run, Permissions.READ_ONLY, this.ring);
+                this.fetchedUpTo = pageNo + Math.max(1, fetched.size());
             }
-            return curPage;
+            return (HeapFilePage) Database.getBufferPool().getPage(this.tid, new HeapPageId(this.tableId, pageNo), Permissions.READ_ONLY, this.ring);
         }
     }
 }
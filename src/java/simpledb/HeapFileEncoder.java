@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -90,6 +91,25 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, HeapFile.PageFormat.FIXED);
+  }
+
+   /** Convert the specified input text file into a binary page file in the
+    * given page format. See {@link #convert(File, File, int, int, Type[], char)}
+    * for the input format.
+    *
+    * @see HeapPage
+    * @see SlottedHeapPage
+    * @param format the page format of the output file
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 HeapFile.PageFormat format)
+      throws IOException {
+      if (format == HeapFile.PageFormat.SLOTTED) {
+          convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -105,6 +125,8 @@ public class HeapFileEncoder {
     int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    // a free space map left by an earlier file of that name would be wrong
+    FreeSpaceMap.file(outFile).delete();
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -223,4 +245,58 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Write the input text file as SlottedHeapPages, filling each page with
+   * as many records as fit before starting the next one. */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(java.util.Arrays.copyOf(typeAr, numFields));
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FreeSpaceMap.file(outFile).delete();
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      String separator = java.util.regex.Pattern.quote(String.valueOf(fieldSeparator));
+
+      List<Tuple> page = new ArrayList<Tuple>();
+      int recordBytes = 0;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(separator, -1);
+          Tuple t = new Tuple(td);
+          for (int i = 0; i < numFields; i++) {
+              String s = i < values.length ? values[i].trim() : "";
+              if (typeAr[i] == Type.INT_TYPE) {
+                  int v = 0;
+                  try {
+                      v = Integer.parseInt(s);
+                  } catch (NumberFormatException e) {
+                      System.out.println ("BAD LINE : " + s);
+                  }
+                  t.setField(i, new IntField(v));
+              } else {
+                  t.setField(i, new StringField(s, Type.STRING_LEN));
+              }
+          }
+
+          int size = SlottedHeapPage.recordSize(td, t);
+          if (SlottedHeapPage.usedBytes(page.size() + 1, recordBytes + size) > npagebytes) {
+              if (page.isEmpty())
+                  throw new IOException("record does not fit on a page: " + line);
+              os.write(SlottedHeapPage.encode(td, page, npagebytes));
+              npages++;
+              page.clear();
+              recordBytes = 0;
+          }
+          page.add(t);
+          recordBytes += size;
+      }
+      // flush the last page, or an empty page if the file is empty
+      if (!page.isEmpty() || npages == 0)
+          os.write(SlottedHeapPage.encode(td, page, npagebytes));
+      br.close();
+      os.close();
+  }
 }
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * The operations HeapFile needs from its pages, whatever their on-disk
+ * format.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface HeapFilePage extends Page {
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the tuple does not fit on the page
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *   already empty
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return true if t can be inserted into this page
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return the room left on this page, in a unit that depends on the page
+     *   format: empty slots for HeapPage, bytes for SlottedHeapPage
+     * @see FreeSpaceMap
+     */
+    public int getFreeSpace();
+}
@@ -2,25 +2,63 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * By default pages are decoded lazily: the page keeps the bytes it was
+ * created from and only the header bitmap is parsed up front. A slot is
+ * turned into a Tuple the first time {@link #iterator()} or
+ * {@link #getTuple(int)} reaches it, so slots a scan never looks at cost
+ * nothing, and {@link #getPageData()} is a plain array copy until a tuple
+ * is inserted or deleted. Lazy decoding can be switched off with
+ * -Dsimpledb.HeapPage.lazy=false, in which case every slot is decoded in
+ * the constructor.
+ * <p>
+ * A page cached by a buffer pool with a {@link PageArena} is attached to
+ * the slot of its frame: it then reads its slots straight out of the arena
+ * and keeps no bytes and no tuples on the heap, until it is first changed.
  *
  * @see HeapFile
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements HeapFilePage, ArenaPage {
+
+    /** Default decoding mode of new pages. */
+    public static final boolean LAZY_DEFAULT =
+            !"false".equalsIgnoreCase(System.getProperty("simpledb.HeapPage.lazy"));
+
+    private static volatile boolean lazyDecoding = LAZY_DEFAULT;
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    // decoded tuples; null for slots that are empty or not decoded yet, and
+    // null altogether while the page is attached to an arena slot
+    Tuple tuples[];
     final int numSlots;
 
+    // bytes the page was created from; never written to, so it can be
+    // shared with the before image. null while the page is attached
+    private byte[] data;
+    // the arena slot holding the bytes of the page instead of data, or null
+    private ByteBuffer view;
+    // true once a tuple was inserted or deleted since data was taken
+    private boolean modified;
+    // reads slots out of data, created on first use
+    private SlotInputStream slotIn;
+    private DataInputStream slotDis;
+    // holds the slot being read while the page is attached
+    private byte[] slotBytes;
+
+    // bytes of the before image, or null while the before image is the
+    // current contents of the page, which are only copied out once the page
+    // is changed again
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     private Map<TransactionId, Boolean> tidDirtyMap;
     private TransactionId lastMarkDiry;
@@ -40,31 +78,50 @@ public class HeapPage implements Page {
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
+     * <p>
+     * The page keeps a reference to data, so the caller must not change the
+     * array afterwards.
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
         this.tidDirtyMap = new HashMap<>();
         this.lastMarkDiry = null;
+        if (data.length < BufferPool.getPageSize()) {
+            data = Arrays.copyOf(data, BufferPool.getPageSize());
+        }
+        this.data = data;
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(data, 0, header, 0, header.length);
+
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        if (!lazyDecoding) {
+            try{
+                // allocate and read the actual records of this page
+                for (int i=0; i<tuples.length; i++)
+                    getTuple(i);
+            }catch(NoSuchElementException e){
+                e.printStackTrace();
+            }
         }
-        dis.close();
 
-        setBeforeImage();
+        // the bytes the page was read from are its before image until it
+        // is first changed
+        oldData = data;
+    }
+
+    /**
+     * Set whether pages created from now on decode their slots lazily.
+     */
+    public static void setLazyDecoding(boolean lazy) {
+        lazyDecoding = lazy;
+    }
+
+    public static boolean isLazyDecoding() {
+        return lazyDecoding;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -88,12 +145,7 @@ public class HeapPage implements Page {
         -- used by recovery */
     public HeapPage getBeforeImage(){
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            return new HeapPage(pid,getBeforeImageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -102,11 +154,58 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Make the current contents of this page its before image. A page that
+     * was read and not changed shares the bytes it was read from with its
+     * before image; a changed one is not serialized here but by the next
+     * change to the page, or by getBeforeImage, whichever comes first.
+     */
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+            oldData = modified || isAttached() ? null : currentData();
+        }
+    }
+
+    /**
+     * Called by every method that changes the page, before it changes
+     * anything, to move an attached page back to the heap and to copy out
+     * the before image if it is still the current contents.
+     */
+    private void beforeWrite() {
+        synchronized(oldDataLock)
+        {
+            detach();
+            if (oldData == null) {
+                oldData = currentData();
+            }
+        }
+    }
+
+    private byte[] getBeforeImageData() {
+        synchronized(oldDataLock)
+        {
+            if (oldData != null) {
+                return oldData;
+            }
+            synchronized(this) {
+                return view != null ? viewData() : currentData();
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of the current contents of this page, which are
+     *   never written to
+     */
+    private synchronized byte[] currentData() {
+        detach();
+        if (modified) {
+            // rebase on the current contents so later copies are cheap again
+            data = getPageData();
+            modified = false;
         }
+        return data;
     }
 
     /**
@@ -119,21 +218,51 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple stored in slot slotId, decoding it if this is the
+     *   first time the slot is asked for, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    public synchronized Tuple getTuple(int slotId) throws NoSuchElementException {
+        if (slotId < 0 || slotId >= numSlots) {
+            throw new NoSuchElementException("no slot " + slotId + " on this page");
+        }
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        if (tuples == null) {
+            return readTuple(slotId);
+        }
+        if (tuples[slotId] == null) {
+            tuples[slotId] = readTuple(slotId);
+        }
+        return tuples[slotId];
+    }
+
+    /**
+     * Decode the tuple in slot slotId of the bytes this page was created
+     * from, or of the arena slot it is attached to.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        int offset = header.length + slotId * td.getSize();
+        if (slotDis == null) {
+            slotIn = new SlotInputStream(new byte[0]);
+            slotDis = new DataInputStream(slotIn);
+        }
+        if (view != null) {
+            // copy the slot out of the arena into a buffer of one tuple
+            if (slotBytes == null) {
+                slotBytes = new byte[td.getSize()];
+            }
+            ByteBuffer in = view.duplicate();
+            in.position(offset);
+            in.get(slotBytes);
+            slotIn.seek(slotBytes, 0);
+        } else {
+            slotIn.seek(data, offset);
+        }
+        return readTuple(slotDis, slotId);
+    }
+
+    private Tuple readTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -152,6 +281,19 @@ public class HeapPage implements Page {
         return t;
     }
 
+    /** A ByteArrayInputStream that can be repositioned without allocating. */
+    private static class SlotInputStream extends ByteArrayInputStream {
+        SlotInputStream(byte[] buf) {
+            super(buf);
+        }
+
+        void seek(byte[] buf, int offset) {
+            this.buf = buf;
+            this.count = buf.length;
+            this.pos = offset;
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -163,65 +305,104 @@ public class HeapPage implements Page {
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
      */
-    public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+    public synchronized byte[] getPageData() {
+        if (view != null) {
+            return viewData();
+        }
+        if (!modified) {
+            return data.clone();
+        }
+        return PageCodec.toByteArray(this);
+    }
 
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+    /**
+     * Serialize this page straight into buf, without building a copy of
+     * the page first.
+     */
+    public synchronized void writePageData(ByteBuffer buf) {
+        if (view != null) {
+            buf.put(view.duplicate());
+            return;
+        }
+        if (!modified) {
+            buf.put(data, 0, BufferPool.getPageSize());
+            return;
         }
+        int start = buf.position();
+
+        // create the header of the page
+        buf.put(header);
 
         // create the tuples
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                PageCodec.zero(buf, td.getSize());
+                continue;
+            }
 
-                }
+            // non-empty slot that was never decoded: its bytes are unchanged
+            if (tuples[i] == null) {
+                buf.put(data, header.length + i * td.getSize(), td.getSize());
                 continue;
             }
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                tuples[i].getField(j).serialize(buf);
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+        PageCodec.zero(buf, BufferPool.getPageSize() - (buf.position() - start));
+    }
+
+    /** @return a copy of the bytes of the arena slot the page is attached to */
+    private byte[] viewData() {
+        byte[] bytes = new byte[BufferPool.getPageSize()];
+        view.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public boolean attach(ByteBuffer slot) {
+        synchronized(oldDataLock)
+        {
+            synchronized(this) {
+                if (view != null) {
+                    return true;
+                }
+                if (isDirty() != null || slot.capacity() != BufferPool.getPageSize()) {
+                    return false;
+                }
+                byte[] bytes = currentData();
+                ByteBuffer out = slot.duplicate();
+                out.clear();
+                out.put(bytes);
+                if (oldData == bytes) {
+                    oldData = null;
+                }
+                view = slot;
+                data = null;
+                tuples = null;
+                slotIn = null;
+                slotDis = null;
+                return true;
+            }
         }
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public synchronized void detach() {
+        if (view == null) {
+            return;
         }
+        data = viewData();
+        view = null;
+        tuples = new Tuple[numSlots];
+    }
 
-        return baos.toByteArray();
+    public synchronized boolean isAttached() {
+        return view != null;
     }
 
     /**
@@ -248,6 +429,7 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        beforeWrite();
         if(getNumEmptySlots() == numSlots) {
             throw new DbException("tuple slot already empty");
         }
@@ -256,7 +438,12 @@ public class HeapPage implements Page {
         }
         int pageNum = t.getRecordId().tupleno();
 //        t.setRecordId(null);
+        // keep the old tuple for iterators that were started before the delete
+        if (isSlotUsed(pageNum)) {
+            slotTuple(pageNum);
+        }
         markSlotUsed(pageNum, false);
+        modified = true;
     }
 
     /**
@@ -269,6 +456,7 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        beforeWrite();
         if(getNumEmptySlots() == 0) {
             throw new DbException("no empty slots");
         }
@@ -278,11 +466,23 @@ public class HeapPage implements Page {
                 RecordId recordId = new RecordId(this.pid, i);
                 t.setRecordId(recordId);
                 markSlotUsed(i, true);
+                modified = true;
                 break;
             }
         }
     }
 
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * @return the number of empty slots on this page
+     */
+    public int getFreeSpace() {
+        return getNumEmptySlots();
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -360,16 +560,53 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> list = new ArrayList<>();
-        for(int i = 0; i < this.header.length; i++) {
-            for(int j = 0; j < 8; j++) {
-                int index = i * 8 + j;
-                if((header[i] & (1 << j)) != 0 && index < this.tuples.length) {
-                    list.add(this.tuples[index]);
+        // iterate over the slots that are used right now; tuples are decoded
+        // as the iterator reaches them
+        final byte[] used = this.header.clone();
+        return new Iterator<Tuple>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                while(from < numSlots && (used[from / 8] & (1 << (from % 8))) == 0) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            @Override
+            public Tuple next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                int slot = next;
+                next = advance(next + 1);
+                return slotTuple(slot);
             }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return the tuple of slot slotId even if it has been deleted since,
+     *   decoding it if needed
+     */
+    private synchronized Tuple slotTuple(int slotId) {
+        if (tuples == null) {
+            return readTuple(slotId);
+        }
+        if (tuples[slotId] == null) {
+            tuples[slotId] = readTuple(slotId);
         }
-        return list.iterator();
+        return tuples[slotId];
     }
 
 }
@@ -35,21 +35,17 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
+     * @return a hash code for this page, computed from the table number and
+     *   the page number (needed if a PageId is used as a
      *   key in a hash table in the BufferPool, for example.)
      * @see BufferPool
      */
     public int hashCode() {
         // some code goes here
 //        throw new UnsupportedOperationException("implement this");
-        return concatInts(this.tableId, this.pgNo).hashCode();
-    }
-
-    private String concatInts(int a, int b) {
-        StringBuilder sb = new StringBuilder();
-        String concatStr = sb.append(a).append(b).toString();
-        return concatStr.toString();
+        // computed without building a string, as every buffer pool lookup
+        // hashes its page id
+        return 31 * this.tableId + this.pgNo;
     }
 
     /**
@@ -249,6 +249,10 @@ public class JoinOptimizer {
         // some code goes here
         //Replace the following
         int n = joins.size();
+        if(n == 0) {
+            // single-table query, nothing to order
+            return joins;
+        }
         PlanCache pc = new PlanCache();
         
         Set<Set<LogicalJoinNode>> joinSets = null;
@@ -0,0 +1,599 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockManager keeps the locks of the transactions using a
+ * {@link BufferPool}, on tables and on the pages of tables.
+ * <p>
+ * Locks are hierarchical. A page is locked shared ({@link Mode#S}) or
+ * exclusive ({@link Mode#X}), and before that its table is locked with the
+ * matching intention mode, {@link Mode#IS} or {@link Mode#IX}, so that a
+ * lock on a whole table conflicts with the page locks other transactions
+ * hold on it. A transaction holding S or X on a table reads, or also
+ * writes, every page of it without any page lock. A transaction that has
+ * taken {@link #getEscalationThreshold} page locks of one table trades
+ * them for a single S or X lock on the table, if that can be granted at
+ * once; otherwise it goes on locking pages and tries again after as many
+ * more. Scans of large tables take the table lock up front with
+ * {@link #acquireTable}. Pages written under an X table lock are still
+ * listed by {@link #exclusivePages}.
+ * <p>
+ * Modes are compatible as {@link Mode#compatible} says, and a transaction
+ * holding a lock in a mode compatible with the other holders gets a
+ * stronger one right away, otherwise its upgrade waits at the head of the
+ * lock's queue. Requests that cannot be granted
+ * wait in the lock's queue in the order they were made, and a new request
+ * is not granted while older ones wait, so a stream of readers cannot
+ * starve a writer. Waiting threads are parked until their request is
+ * granted.
+ * <p>
+ * Before a request waits, the wait-for graph is searched for a cycle
+ * through its transaction. If there is one, the youngest transaction of
+ * the cycle, the one with the largest id, is aborted: its waiting request
+ * is dropped and it gets a {@link TransactionAbortedException}. It keeps
+ * the locks it holds until its transaction is completed.
+ * <p>
+ * The lock table is guarded by the LockManager's monitor. Nothing is read
+ * from or written to disk while it is held.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Number of page locks of one table a transaction takes before it
+     locks the table instead. Can be overridden with
+     -Dsimpledb.LockManager.escalationThreshold=n, 0 to never escalate */
+    public static final int ESCALATION_THRESHOLD =
+            Integer.getInteger("simpledb.LockManager.escalationThreshold", 1000);
+
+    /** Lock modes. Pages are only locked S or X. */
+    public enum Mode {
+        /** intention shared: pages of the table are locked S */
+        IS,
+        /** intention exclusive: pages of the table are locked S or X */
+        IX,
+        /** shared */
+        S,
+        /** exclusive */
+        X;
+
+        private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      X
+            /* IS */ { true,  true,  true,  false },
+            /* IX */ { true,  true,  false, false },
+            /* S  */ { true,  false, true,  false },
+            /* X  */ { false, false, false, false },
+        };
+
+        /** @return true if two transactions can hold this mode and other on the same lock */
+        public boolean compatible(Mode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return true if holding this mode grants everything other does */
+        public boolean covers(Mode other) {
+            return this == other || this == X || other == IS && (this == IX || this == S);
+        }
+
+        /**
+         * @return the weakest mode covering this and other. There is no
+         *   SIX mode, so S and IX join to X.
+         */
+        public Mode join(Mode other) {
+            if (covers(other)) {
+                return this;
+            }
+            return other.covers(this) ? other : X;
+        }
+    }
+
+    /** A request for a lock on a table or a page, granted or waiting. */
+    private static class Request {
+        private final TransactionId tid;
+        // the table id for a table lock, the PageId for a page lock
+        private final Object key;
+        private final Lock lock;
+        private final Mode mode;
+        private final Thread thread;
+        // set under the monitor, read by the parked thread
+        private volatile boolean granted;
+        private volatile boolean aborted;
+
+        Request(TransactionId tid, Object key, Lock lock, Mode mode) {
+            this.tid = tid;
+            this.key = key;
+            this.lock = lock;
+            this.mode = mode;
+            this.thread = Thread.currentThread();
+        }
+    }
+
+    /** The holders and waiters of the lock on one table or page. */
+    private static class Lock {
+        // transactions holding the lock, and their modes
+        private final Map<TransactionId, Mode> holders = new HashMap<>();
+        // waiting requests, oldest first, except that upgrades go first
+        private final Deque<Request> queue = new ArrayDeque<>();
+
+        /** @return true if tid could be granted mode, ignoring the queue */
+        boolean compatible(TransactionId tid, Mode mode) {
+            for (Map.Entry<TransactionId, Mode> h : holders.entrySet()) {
+                if (!h.getValue().compatible(mode) && !h.getKey().equals(tid)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** The lock a transaction holds on a table, and how many of its pages it has locked. */
+    private static class TableHold {
+        private Mode mode;
+        private int pages;
+        // the page locks at which escalation is tried next, 0 for the threshold
+        private int nextAttempt;
+    }
+
+    // locks by table id and by PageId
+    private final Map<Object, Lock> locks = new HashMap<>();
+    // the pages each transaction holds a lock on
+    private final Map<TransactionId, Set<PageId>> pagesOf = new HashMap<>();
+    // the tables each transaction holds a lock on
+    private final Map<TransactionId, Map<Integer, TableHold>> tablesOf = new HashMap<>();
+    // the pages each transaction wrote under an X lock on their table
+    private final Map<TransactionId, Set<PageId>> coveredOf = new HashMap<>();
+    // the request each transaction is waiting for
+    private final Map<TransactionId, Request> waiting = new HashMap<>();
+    private volatile int escalationThreshold = ESCALATION_THRESHOLD;
+    private long deadlocks;
+    private long escalations;
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /** Sets the number of page locks of one table after which they are escalated, 0 for never. */
+    public void setEscalationThreshold(int escalationThreshold) {
+        this.escalationThreshold = escalationThreshold;
+    }
+
+    /**
+     * Acquire a shared or exclusive lock on pid for tid, waiting until it
+     * can be granted. The table of the page is locked IS or IX first.
+     * Returns at once if tid already holds a lock at least as strong, on
+     * the page or on its table.
+     *
+     * @throws TransactionAbortedException if tid was aborted to break a
+     *   deadlock while, or instead of, waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        Mode mode = exclusive ? Mode.X : Mode.S;
+        Integer table = pid.getTableId();
+        if (coveredByTable(tid, table, pid, mode)) {
+            return;
+        }
+        lock(tid, table, exclusive ? Mode.IX : Mode.IS);
+        // an S table lock joined with IX becomes X
+        if (coveredByTable(tid, table, pid, mode)) {
+            return;
+        }
+        lock(tid, pid, mode);
+        synchronized (this) {
+            maybeEscalate(tid, table);
+        }
+    }
+
+    /**
+     * @return true if the lock tid holds on table grants mode on pid, in
+     *   which case a page written is recorded
+     */
+    private synchronized boolean coveredByTable(TransactionId tid, Integer table, PageId pid, Mode mode) {
+        TableHold hold = tableHold(tid, table);
+        if (hold == null || hold.mode == null || !hold.mode.covers(mode)) {
+            return false;
+        }
+        if (mode == Mode.X) {
+            Set<PageId> covered = coveredOf.get(tid);
+            if (covered == null) {
+                covered = new HashSet<>();
+                coveredOf.put(tid, covered);
+            }
+            covered.add(pid);
+        }
+        return true;
+    }
+
+    /**
+     * Acquire a shared or exclusive lock on the whole table tableId for tid,
+     * waiting until it can be granted, in place of the page locks tid holds
+     * on it.
+     *
+     * @throws TransactionAbortedException if tid was aborted to break a
+     *   deadlock while, or instead of, waiting
+     */
+    public void acquireTable(TransactionId tid, int tableId, boolean exclusive)
+            throws TransactionAbortedException {
+        Integer table = tableId;
+        lock(tid, table, exclusive ? Mode.X : Mode.S);
+        synchronized (this) {
+            absorbPageLocks(tid, table);
+        }
+    }
+
+    /**
+     * Acquire mode on key for tid, or the join of it and the mode tid holds
+     * already, waiting until it can be granted.
+     */
+    private void lock(TransactionId tid, Object key, Mode mode) throws TransactionAbortedException {
+        Request r;
+        synchronized (this) {
+            Lock lock = locks.get(key);
+            if (lock == null) {
+                lock = new Lock();
+                locks.put(key, lock);
+            }
+            Mode held = lock.holders.get(tid);
+            if (held != null && held.covers(mode)) {
+                return;
+            }
+            boolean upgrade = held != null;
+            if (upgrade) {
+                mode = held.join(mode);
+            }
+            if (lock.compatible(tid, mode) && (upgrade || lock.queue.isEmpty())) {
+                grant(lock, key, tid, mode);
+                return;
+            }
+            r = new Request(tid, key, lock, mode);
+            if (upgrade) {
+                lock.queue.addFirst(r);
+            } else {
+                lock.queue.addLast(r);
+            }
+            waiting.put(tid, r);
+            // the request may close several cycles, each needs a victim
+            TransactionId victim;
+            while (!r.aborted && (victim = findDeadlock(tid)) != null) {
+                deadlocks++;
+                abort(waiting.get(victim));
+            }
+        }
+        boolean interrupted = false;
+        while (!r.granted && !r.aborted) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
+                synchronized (this) {
+                    if (!r.granted) {
+                        abort(r);
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (r.aborted) {
+            throw new TransactionAbortedException();
+        }
+    }
+
+    /** Record that tid holds the lock in mode. The caller holds the monitor. */
+    private void grant(Lock lock, Object key, TransactionId tid, Mode mode) {
+        Mode old = lock.holders.put(tid, mode);
+        if (key instanceof PageId) {
+            PageId pid = (PageId) key;
+            if (old == null) {
+                Set<PageId> pages = pagesOf.get(tid);
+                if (pages == null) {
+                    pages = new HashSet<>();
+                    pagesOf.put(tid, pages);
+                }
+                pages.add(pid);
+                holdFor(tid, pid.getTableId()).pages++;
+            }
+        } else {
+            holdFor(tid, (Integer) key).mode = mode;
+        }
+    }
+
+    /** @return what tid holds on table, or null. The caller holds the monitor. */
+    private TableHold tableHold(TransactionId tid, Integer table) {
+        Map<Integer, TableHold> tables = tablesOf.get(tid);
+        return tables == null ? null : tables.get(table);
+    }
+
+    private TableHold holdFor(TransactionId tid, Integer table) {
+        Map<Integer, TableHold> tables = tablesOf.get(tid);
+        if (tables == null) {
+            tables = new HashMap<>();
+            tablesOf.put(tid, tables);
+        }
+        TableHold hold = tables.get(table);
+        if (hold == null) {
+            hold = new TableHold();
+            tables.put(table, hold);
+        }
+        return hold;
+    }
+
+    /**
+     * Trade the page locks tid holds on table for an S or X lock on the
+     * table, if it holds the escalation threshold of them, or another
+     * threshold more than when it last tried, and the table lock can be
+     * granted without waiting. The caller holds the monitor.
+     */
+    private void maybeEscalate(TransactionId tid, Integer table) {
+        int threshold = escalationThreshold;
+        TableHold hold = tableHold(tid, table);
+        if (threshold <= 0 || hold == null || hold.mode == null
+                || hold.pages < (hold.nextAttempt > 0 ? hold.nextAttempt : threshold)) {
+            return;
+        }
+        // IS becomes S, IX becomes X
+        Mode mode = hold.mode.join(Mode.S);
+        Lock lock = locks.get(table);
+        if (!lock.compatible(tid, mode)) {
+            hold.nextAttempt = hold.pages + threshold;
+            return;
+        }
+        grant(lock, table, tid, mode);
+        escalations++;
+        absorbPageLocks(tid, table);
+    }
+
+    /**
+     * Release the page locks tid holds on table, which its S or X lock on
+     * the table covers. The pages it holds X locks on are recorded as
+     * written. The caller holds the monitor.
+     */
+    private void absorbPageLocks(TransactionId tid, Integer table) {
+        Set<PageId> pages = pagesOf.get(tid);
+        if (pages == null) {
+            return;
+        }
+        List<PageId> absorbed = new ArrayList<>();
+        for (Iterator<PageId> it = pages.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            if (pid.getTableId() == table) {
+                it.remove();
+                absorbed.add(pid);
+            }
+        }
+        if (pages.isEmpty()) {
+            pagesOf.remove(tid);
+        }
+        for (PageId pid : absorbed) {
+            Lock lock = locks.get(pid);
+            if (lock.holders.remove(tid) == Mode.X) {
+                coveredByTable(tid, table, pid, Mode.X);
+            }
+            grantWaiting(pid, lock);
+        }
+        TableHold hold = tableHold(tid, table);
+        hold.pages = 0;
+        hold.nextAttempt = 0;
+    }
+
+    /**
+     * Grant the requests at the head of the queue of the lock on key for as
+     * long as they are compatible with the holders, and wake their threads.
+     * The caller holds the monitor.
+     */
+    private void grantWaiting(Object key, Lock lock) {
+        Request r;
+        while ((r = lock.queue.peekFirst()) != null && lock.compatible(r.tid, r.mode)) {
+            lock.queue.pollFirst();
+            waiting.remove(r.tid);
+            grant(lock, key, r.tid, r.mode);
+            r.granted = true;
+            LockSupport.unpark(r.thread);
+        }
+        if (lock.queue.isEmpty() && lock.holders.isEmpty()) {
+            locks.remove(key);
+        }
+    }
+
+    /**
+     * Drop the waiting request r and wake its thread, which throws
+     * {@link TransactionAbortedException}. The caller holds the monitor.
+     */
+    private void abort(Request r) {
+        waiting.remove(r.tid);
+        r.lock.queue.remove(r);
+        // requests behind r may be grantable now
+        grantWaiting(r.key, r.lock);
+        r.aborted = true;
+        LockSupport.unpark(r.thread);
+    }
+    /**
+     * Search the wait-for graph for a cycle through tid, which has just
+     * started waiting. A waiting transaction waits for the other holders of
+     * the lock it wants, unless their modes are compatible with its
+     * request, and for the requests ahead of it in the queue that conflict
+     * with it.
+     * The caller holds the monitor.
+     *
+     * @return the youngest transaction of the cycle, or null if there is none
+     */
+    private TransactionId findDeadlock(TransactionId tid) {
+        // depth first search from tid, remembering the path to each node
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(tid, null);
+        stack.push(tid);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            for (TransactionId next : waitsFor(t)) {
+                if (next.equals(tid)) {
+                    TransactionId youngest = tid;
+                    for (TransactionId n = t; n != null; n = parent.get(n)) {
+                        if (n.getId() > youngest.getId()) {
+                            youngest = n;
+                        }
+                    }
+                    return youngest;
+                }
+                if (!parent.containsKey(next)) {
+                    parent.put(next, t);
+                    stack.push(next);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** @return the transactions t waits for. The caller holds the monitor. */
+    private List<TransactionId> waitsFor(TransactionId t) {
+        Request r = waiting.get(t);
+        if (r == null) {
+            return Collections.emptyList();
+        }
+        List<TransactionId> result = new ArrayList<>();
+        for (Map.Entry<TransactionId, Mode> h : r.lock.holders.entrySet()) {
+            if (!h.getKey().equals(t) && !h.getValue().compatible(r.mode)) {
+                result.add(h.getKey());
+            }
+        }
+        for (Request ahead : r.lock.queue) {
+            if (ahead == r) {
+                break;
+            }
+            if (!ahead.mode.compatible(r.mode)) {
+                result.add(ahead.tid);
+            }
+        }
+        return result;
+    }
+
+    /** Release the lock tid holds on pid, if any. */
+    public synchronized void release(TransactionId tid, PageId pid) {
+        Lock lock = locks.get(pid);
+        if (lock == null || lock.holders.remove(tid) == null) {
+            return;
+        }
+        Set<PageId> pages = pagesOf.get(tid);
+        pages.remove(pid);
+        if (pages.isEmpty()) {
+            pagesOf.remove(tid);
+        }
+        tableHold(tid, pid.getTableId()).pages--;
+        grantWaiting(pid, lock);
+    }
+
+    /** Release every lock tid holds, on pages and on tables. */
+    public synchronized void releaseAll(TransactionId tid) {
+        coveredOf.remove(tid);
+        Set<PageId> pages = pagesOf.remove(tid);
+        if (pages != null) {
+            for (PageId pid : pages) {
+                Lock lock = locks.get(pid);
+                lock.holders.remove(tid);
+                grantWaiting(pid, lock);
+            }
+        }
+        Map<Integer, TableHold> tables = tablesOf.remove(tid);
+        if (tables != null) {
+            for (Integer table : tables.keySet()) {
+                Lock lock = locks.get(table);
+                if (lock != null && lock.holders.remove(tid) != null) {
+                    grantWaiting(table, lock);
+                }
+            }
+        }
+    }
+
+    /** @return true if tid holds a lock on pid, shared or exclusive, or an S or X lock on its table */
+    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
+        Lock lock = locks.get(pid);
+        return lock != null && lock.holders.containsKey(tid) || tableCovers(tid, pid, Mode.S);
+    }
+
+    /** @return true if tid holds the exclusive lock on pid, or on its table */
+    public synchronized boolean holdsExclusive(TransactionId tid, PageId pid) {
+        Lock lock = locks.get(pid);
+        return lock != null && lock.holders.get(tid) == Mode.X || tableCovers(tid, pid, Mode.X);
+    }
+
+    /** @return true if any transaction holds the exclusive lock on pid, or on its table */
+    public synchronized boolean isWriteLocked(PageId pid) {
+        Lock lock = locks.get(pid);
+        if (lock != null && lock.holders.containsValue(Mode.X)) {
+            return true;
+        }
+        Lock table = locks.get(pid.getTableId());
+        return table != null && table.holders.containsValue(Mode.X);
+    }
+
+    // the caller holds the monitor
+    private boolean tableCovers(TransactionId tid, PageId pid, Mode mode) {
+        TableHold hold = tableHold(tid, pid.getTableId());
+        return hold != null && hold.mode != null && hold.mode.covers(mode);
+    }
+
+    /** @return the mode of the lock tid holds on the table tableId, or null if it holds none */
+    public synchronized Mode tableMode(TransactionId tid, int tableId) {
+        TableHold hold = tableHold(tid, tableId);
+        return hold == null ? null : hold.mode;
+    }
+
+    /**
+     * @return the pages tid holds a lock on, and those it wrote under an X
+     *   lock on their table
+     */
+    public synchronized Set<PageId> lockedPages(TransactionId tid) {
+        Set<PageId> result = new HashSet<>();
+        Set<PageId> pages = pagesOf.get(tid);
+        if (pages != null) {
+            result.addAll(pages);
+        }
+        Set<PageId> covered = coveredOf.get(tid);
+        if (covered != null) {
+            result.addAll(covered);
+        }
+        return result;
+    }
+
+    /**
+     * @return the pages tid holds the exclusive lock on, and those it wrote
+     *   under an X lock on their table
+     */
+    public synchronized Set<PageId> exclusivePages(TransactionId tid) {
+        Set<PageId> result = new HashSet<>();
+        Set<PageId> pages = pagesOf.get(tid);
+        if (pages != null) {
+            for (PageId pid : pages) {
+                if (locks.get(pid).holders.get(tid) == Mode.X) {
+                    result.add(pid);
+                }
+            }
+        }
+        Set<PageId> covered = coveredOf.get(tid);
+        if (covered != null) {
+            result.addAll(covered);
+        }
+        return result;
+    }
+
+    /** @return the number of page locks held right now, by all transactions */
+    public synchronized int getPageLocks() {
+        int n = 0;
+        for (Set<PageId> pages : pagesOf.values()) {
+            n += pages.size();
+        }
+        return n;
+    }
+
+    /** @return the number of deadlocks broken by aborting a transaction */
+    public synchronized long getDeadlocks() {
+        return deadlocks;
+    }
+
+    /** @return the number of times page locks were traded for a table lock */
+    public synchronized long getEscalations() {
+        return escalations;
+    }
+}
@@ -1,5 +1,8 @@
 package simpledb;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -271,6 +274,69 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** @return the constant c of a filter as a field of type t */
+    private static Field constant(Type t, String c) {
+        if (t == Type.INT_TYPE)
+            return new IntField(new Integer(c).intValue());
+        else
+            return new StringField(c, Type.STRING_LEN);
+    }
+
+    /** Find the columns of the table scanned as alias that the query refers to.
+     *  @param td the TupleDesc of the table
+     *  @return the indexes of those columns in td, in table order; all of
+     *    them if the select list has a *, and the first one if there are none
+     */
+    private int[] columnsUsed(String alias, TupleDesc td) {
+        Set<String> names = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.fieldQuantifiedName);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2QuantifiedName);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        boolean all = names.contains("null.*") || names.contains(alias + ".*");
+        ArrayList<Integer> used = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (all || names.contains(alias + "." + td.getFieldName(i)))
+                used.add(i);
+        }
+        // the scan still has to produce one tuple per row
+        if (used.isEmpty())
+            used.add(0);
+        int[] columns = new int[used.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = used.get(i);
+        return columns;
+    }
+
+    /** @return the filters on alias as predicates over the fields of its table td */
+    private List<Predicate> segmentPredicates(String alias, TupleDesc td) throws ParsingException {
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias))
+                continue;
+            try {
+                int field = td.fieldNameToIndex(lf.fieldPureName);
+                preds.add(new Predicate(field, lf.p, constant(td.getFieldType(field), lf.c)));
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+        }
+        return preds;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -294,7 +360,15 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                if (Database.getCatalog().isColumnar(table.t)) {
+                    // only read the columns the query refers to
+                    TupleDesc td = file.getTupleDesc();
+                    ss = new ColumnScan(t, file.getId(), table.alias,
+                            columnsUsed(table.alias, td), segmentPredicates(table.alias, td));
+                } else {
+                    ss = new SeqScan(t, file.getId(), table.alias);
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -323,10 +397,7 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            f = constant(ftyp, lf.c);
 
             Predicate p = null;
             try {
@@ -338,7 +409,10 @@ public class LogicalPlan {
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            // the stats are over all fields of the table, while a column
+            // scan only returns some of them
+            int tableField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias)).fieldNameToIndex(lf.fieldPureName);
+            double sel= s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The LRU-K policy of O'Neil, O'Neil and Weikum. It remembers the times of
+ * the last K requests for every page and evicts the page whose K-th most
+ * recent request is the oldest. Pages requested fewer than K times go
+ * first, least recently used first, so a page read once by a scan is
+ * evicted before any page that was read twice. The history of evicted pages
+ * is kept for as many pages as there are frames, so a page that comes back
+ * soon keeps its earlier requests.
+ * <p>
+ * Unlike LRU, the eviction order is not the order of the last request, so
+ * it cannot be kept in a list: the evictable frames are kept in a binary
+ * heap, which makes hits and victims O(log n) in the number of frames.
+ * K is set with -Dsimpledb.LruKPolicy.k=n and defaults to 2.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+    /** Default number of requests remembered per page. */
+    public static final int DEFAULT_K = Integer.getInteger("simpledb.LruKPolicy.k", 2);
+
+    private final int k;
+    // request times of the page in each frame, most recent first; 0 = none
+    private long[][] history;
+    private long clock;
+    // request times of evicted pages, oldest eviction first, for at most
+    // numFrames pages
+    private final LinkedHashMap<PageId, long[]> retained;
+    private int numFrames;
+
+    // min-heap of the evictable frames and the position of each frame in it
+    private int[] heap;
+    private int[] pos;
+    private int size;
+
+    public LruKPolicy(int numFrames) {
+        this(numFrames, DEFAULT_K);
+    }
+
+    public LruKPolicy(int numFrames, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.numFrames = numFrames;
+        this.history = new long[numFrames][];
+        this.retained = new LinkedHashMap<PageId, long[]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > LruKPolicy.this.numFrames;
+            }
+        };
+        this.heap = new int[numFrames];
+        this.pos = new int[numFrames];
+        Arrays.fill(pos, -1);
+    }
+
+    public void pageInstalled(int frame, PageId pid) {
+        long[] h = retained.remove(pid);
+        history[frame] = h != null ? h : new long[k];
+        record(frame);
+    }
+
+    public void pageAccessed(int frame) {
+        record(frame);
+        if (pos[frame] != -1) {
+            // the frame's key only grows
+            siftDown(pos[frame]);
+        }
+    }
+
+    public void setEvictable(int frame, boolean evictable) {
+        if (evictable && pos[frame] == -1) {
+            heap[size] = frame;
+            pos[frame] = size;
+            size++;
+            siftUp(size - 1);
+        } else if (!evictable && pos[frame] != -1) {
+            removeAt(pos[frame]);
+        }
+    }
+
+    public int victim() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    public int numEvictable() {
+        return size;
+    }
+
+    public void pageRemoved(int frame, PageId pid, boolean evicted) {
+        if (pos[frame] != -1) {
+            removeAt(pos[frame]);
+        }
+        if (evicted) {
+            retained.put(pid, history[frame]);
+        }
+        history[frame] = null;
+    }
+
+    public void resize(int numFrames) {
+        this.numFrames = numFrames;
+        history = Arrays.copyOf(history, numFrames);
+        heap = Arrays.copyOf(heap, numFrames);
+        int old = pos.length;
+        pos = Arrays.copyOf(pos, numFrames);
+        if (numFrames > old) {
+            Arrays.fill(pos, old, numFrames, -1);
+        }
+        Iterator<PageId> oldest = retained.keySet().iterator();
+        for (int n = retained.size(); n > numFrames; n--) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private void record(int frame) {
+        long[] h = history[frame];
+        System.arraycopy(h, 0, h, 1, k - 1);
+        h[0] = ++clock;
+    }
+
+    /** @return true if the page of frame a should be evicted before that of b */
+    private boolean before(int a, int b) {
+        long[] ha = history[a];
+        long[] hb = history[b];
+        if (ha[k - 1] != hb[k - 1]) {
+            return ha[k - 1] < hb[k - 1];
+        }
+        return ha[0] < hb[0];
+    }
+
+    private void removeAt(int i) {
+        int frame = heap[i];
+        pos[frame] = -1;
+        size--;
+        if (i < size) {
+            int moved = heap[size];
+            heap[i] = moved;
+            pos[moved] = i;
+            siftDown(i);
+            if (pos[moved] == i) {
+                siftUp(i);
+            }
+        }
+    }
+
+    private void siftUp(int i) {
+        int frame = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(frame, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            pos[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = frame;
+        pos[frame] = i;
+    }
+
+    private void siftDown(int i) {
+        int frame = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], frame)) {
+                break;
+            }
+            heap[i] = heap[child];
+            pos[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = frame;
+        pos[frame] = i;
+    }
+}
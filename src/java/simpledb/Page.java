@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -46,6 +48,17 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Write the bytes getPageData would return into buf, starting at its
+     * position and advancing it. Pages that can serialize themselves
+     * straight into a buffer override this to skip the intermediate array.
+     *
+     * @see PageCodec
+     */
+    default void writePageData(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
@@ -0,0 +1,67 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PageArena holds the bytes of the pages cached by a {@link BufferPool} in
+ * direct ByteBuffers outside the Java heap, one slot of the page size per
+ * frame. Pages that implement {@link ArenaPage} are attached to the slot of
+ * their frame and read their tuples out of it, so a clean cached page costs
+ * the heap little more than its header, however large the buffer pool is.
+ * <p>
+ * The arena is allocated in chunks, as a ByteBuffer is indexed by an int,
+ * and counts against the JVM's limit on direct memory, which can be raised
+ * with -XX:MaxDirectMemorySize.
+ *
+ * @see BufferPool#getArena
+ */
+public class PageArena {
+    /** Largest chunk allocated at once */
+    static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int pageSize;
+    private final int numSlots;
+    private final int slotsPerChunk;
+    private final ByteBuffer[] chunks;
+
+    /**
+     * Allocate an arena of numSlots slots of pageSize bytes each.
+     */
+    public PageArena(int numSlots, int pageSize) {
+        this.pageSize = pageSize;
+        this.numSlots = numSlots;
+        this.slotsPerChunk = Math.max(1, MAX_CHUNK_BYTES / pageSize);
+        this.chunks = new ByteBuffer[(numSlots + slotsPerChunk - 1) / slotsPerChunk];
+        for (int i = 0; i < chunks.length; i++) {
+            int slots = Math.min(slotsPerChunk, numSlots - i * slotsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(slots * pageSize);
+        }
+    }
+
+    /**
+     * @return a buffer over slot i, of exactly the page size, positioned at 0
+     */
+    public ByteBuffer slot(int i) {
+        if (i < 0 || i >= numSlots) {
+            throw new IndexOutOfBoundsException("no slot " + i + " in the arena");
+        }
+        ByteBuffer chunk = chunks[i / slotsPerChunk].duplicate();
+        int offset = (i % slotsPerChunk) * pageSize;
+        chunk.limit(offset + pageSize);
+        chunk.position(offset);
+        return chunk.slice();
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /** @return the number of bytes allocated off the heap */
+    public long capacity() {
+        return (long) numSlots * pageSize;
+    }
+}
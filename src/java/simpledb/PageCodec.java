@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PageCodec holds the helpers pages use to serialize themselves into a
+ * {@link ByteBuffer} with {@link Page#writePageData}, and a per-thread page
+ * buffer that DbFiles reuse when they write pages out, so that flushing a
+ * page does not allocate.
+ *
+ * @see Page#writePageData
+ * @see Field#serialize(ByteBuffer)
+ */
+public class PageCodec {
+
+    private static final ThreadLocal<ByteBuffer> PAGE_BUFFER = new ThreadLocal<ByteBuffer>();
+
+    private PageCodec() {
+    }
+
+    /**
+     * @return this thread's page buffer, cleared, backed by an array of
+     *   exactly {@link BufferPool#getPageSize} bytes
+     */
+    public static ByteBuffer pageBuffer() {
+        ByteBuffer buf = PAGE_BUFFER.get();
+        if (buf == null || buf.capacity() != BufferPool.getPageSize()) {
+            buf = ByteBuffer.allocate(BufferPool.getPageSize());
+            PAGE_BUFFER.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * Serialize a page of {@link BufferPool#getPageSize} bytes into this
+     * thread's page buffer.
+     *
+     * @return the array of the page buffer, which is only valid until the
+     *   thread serializes the next page
+     */
+    public static byte[] serialize(Page page) {
+        ByteBuffer buf = pageBuffer();
+        page.writePageData(buf);
+        return buf.array();
+    }
+
+    /**
+     * @return a new array of {@link BufferPool#getPageSize} bytes holding
+     *   the page
+     */
+    public static byte[] toByteArray(Page page) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        page.writePageData(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    /**
+     * @return a new array holding the pages back to back, each in
+     *   {@link BufferPool#getPageSize} bytes
+     */
+    public static byte[] toByteArray(List<Page> pages) {
+        byte[] data = new byte[pages.size() * BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (Page page : pages) {
+            page.writePageData(buf);
+        }
+        return data;
+    }
+
+    /**
+     * @return true if the pages have consecutive page numbers, in order
+     */
+    public static boolean isRun(List<Page> pages) {
+        for (int i = 1; i < pages.size(); i++) {
+            if (pages.get(i).getId().pageNumber() != pages.get(0).getId().pageNumber() + i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write n zero bytes into buf.
+     */
+    public static void zero(ByteBuffer buf, int n) {
+        if (n <= 0) {
+            return;
+        }
+        if (n > buf.remaining()) {
+            throw new BufferOverflowException();
+        }
+        if (buf.hasArray()) {
+            int start = buf.arrayOffset() + buf.position();
+            Arrays.fill(buf.array(), start, start + n, (byte) 0);
+            buf.position(buf.position() + n);
+        } else {
+            for (int i = 0; i < n; i++) {
+                buf.put((byte) 0);
+            }
+        }
+    }
+}
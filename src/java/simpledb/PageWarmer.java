@@ -0,0 +1,383 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * PageWarmer saves which pages a {@link BufferPool} caches to a small file,
+ * and reads those pages back in after a restart, so that the buffer pool
+ * does not have to fault its working set back in one miss at a time.
+ * <p>
+ * A snapshot lists the ids of the cached pages, most recently used first.
+ * Once {@link #start} was called it is written every interval,
+ * {@link #INTERVAL_SECONDS} by default, and when the JVM shuts down. A
+ * snapshot is written to a temporary file first and then moved into place,
+ * so a crash never leaves half a snapshot behind.
+ * <p>
+ * {@link #startWarmUp} reads the snapshot back on a background thread. It
+ * takes as many of the most recently used pages as the buffer pool holds,
+ * sorts them by file and page number and reads every run of consecutive
+ * pages of a file with one {@link DbFile#readPages} call of up to
+ * {@link #BATCH_PAGES} pages. The pages are only installed into free
+ * frames, so a warm-up running while queries arrive never evicts a page
+ * they read, and stops once the buffer pool is full. Pages of tables that
+ * no longer exist are skipped, and so are batches read while their file
+ * was written, as they may be out of date. How far the warm-up has got is
+ * reported by {@link #getProgress} and by the {@link BufferPoolMetrics}.
+ *
+ * @see BufferPool#getWarmer
+ * @Threadsafe
+ */
+public class PageWarmer {
+
+    /** File the snapshots are saved to and warmed up from. Set with
+     -Dsimpledb.PageWarmer.file=path; there are no snapshots without it */
+    public static final String FILE = System.getProperty("simpledb.PageWarmer.file");
+
+    /** Default time between two snapshots. Can be overridden with
+     -Dsimpledb.PageWarmer.intervalSeconds=n */
+    public static final int INTERVAL_SECONDS = Integer.getInteger("simpledb.PageWarmer.intervalSeconds", 60);
+
+    /** Most pages read by a single readPages call during a warm-up. Can be
+     overridden with -Dsimpledb.PageWarmer.batchPages=n */
+    public static final int BATCH_PAGES = Integer.getInteger("simpledb.PageWarmer.batchPages", 64);
+
+    // first int of a snapshot file
+    private static final int MAGIC = 0x53444257;
+
+    private final BufferPool bufferPool;
+    private volatile File file;
+    private volatile long intervalMillis = INTERVAL_SECONDS * 1000L;
+    // the thread saving snapshots and the shutdown hook, or null if not
+    // started; guarded by this
+    private Thread saver;
+    private Thread hook;
+    // the thread of the last warm-up, or null if none was started; guarded by this
+    private Thread loader;
+
+    // progress of the last warm-up
+    private volatile int pagesPlanned;
+    private volatile int pagesProcessed;
+    private volatile int pagesLoaded;
+    private volatile boolean finished;
+
+    public PageWarmer(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.file = FILE != null ? new File(FILE) : null;
+    }
+
+    /** @return the snapshot file, or null if there is none */
+    public File getFile() {
+        return file;
+    }
+
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    public void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = Math.max(1, intervalMillis);
+    }
+
+    /**
+     * Save a snapshot every interval on a background thread, and once more
+     * when the JVM shuts down. Does nothing if there is no snapshot file or
+     * saving was started already.
+     */
+    public synchronized void start() {
+        if (file == null || saver != null) {
+            return;
+        }
+        saver = new Thread("simpledb-page-warmer") {
+            @Override
+            public void run() {
+                saveLoop();
+            }
+        };
+        saver.setDaemon(true);
+        saver.start();
+        hook = new Thread("simpledb-page-warmer-shutdown") {
+            @Override
+            public void run() {
+                saveQuietly();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    /** Stop saving snapshots, without saving one more. */
+    public synchronized void stop() {
+        if (saver == null) {
+            return;
+        }
+        saver.interrupt();
+        saver = null;
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down and runs the hook already
+        }
+        hook = null;
+    }
+
+    private void saveLoop() {
+        while (true) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            synchronized (this) {
+                if (saver != Thread.currentThread()) {
+                    return;
+                }
+            }
+            saveQuietly();
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Save the ids of the pages cached right now to the snapshot file, most
+     * recently used first.
+     *
+     * @return the number of page ids saved
+     * @throws IOException if the snapshot cannot be written
+     */
+    public int save() throws IOException {
+        File f = file;
+        if (f == null) {
+            return 0;
+        }
+        List<PageId> pages = bufferPool.residentPages();
+        File tmp = new File(f.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            write(out, pages);
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return pages.size();
+    }
+
+    /**
+     * Write pages as the class names of their ids, followed by each id as
+     * the index of its class and the ints {@link PageId#serialize} returns.
+     */
+    static void write(DataOutputStream out, List<PageId> pages) throws IOException {
+        List<String> classes = new ArrayList<String>();
+        for (PageId pid : pages) {
+            if (!classes.contains(pid.getClass().getName())) {
+                classes.add(pid.getClass().getName());
+            }
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(classes.size());
+        for (String name : classes) {
+            out.writeUTF(name);
+        }
+        out.writeInt(pages.size());
+        for (PageId pid : pages) {
+            int[] ints = pid.serialize();
+            out.writeByte(classes.indexOf(pid.getClass().getName()));
+            out.writeByte(ints.length);
+            for (int i : ints) {
+                out.writeInt(i);
+            }
+        }
+    }
+
+    /**
+     * Read the page ids of a snapshot, most recently used first. Like
+     * {@link LogFile}, ids are constructed with the constructor of their
+     * class that takes as many ints as they were serialized to.
+     *
+     * @throws IOException if f is not a snapshot or cannot be read
+     */
+    static List<PageId> read(File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(f + " is not a page snapshot");
+            }
+            int numClasses = in.readInt();
+            Class<?>[] classes = new Class<?>[numClasses];
+            for (int i = 0; i < numClasses; i++) {
+                classes[i] = Class.forName(in.readUTF());
+            }
+            int n = in.readInt();
+            List<PageId> pages = new ArrayList<PageId>(n);
+            for (int i = 0; i < n; i++) {
+                Class<?> idClass = classes[in.readByte()];
+                Object[] args = new Object[in.readByte()];
+                for (int j = 0; j < args.length; j++) {
+                    args[j] = in.readInt();
+                }
+                pages.add((PageId) intConstructor(idClass, args.length).newInstance(args));
+            }
+            return pages;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException("cannot read the page snapshot " + f, e);
+        }
+    }
+
+    private static Constructor<?> intConstructor(Class<?> idClass, int numInts) throws NoSuchMethodException {
+        Class<?>[] params = new Class<?>[numInts];
+        Arrays.fill(params, int.class);
+        return idClass.getConstructor(params);
+    }
+
+    /**
+     * Warm the buffer pool up from the snapshot file on a background thread.
+     * Does nothing if there is no snapshot, or a warm-up is running.
+     */
+    public synchronized void startWarmUp() {
+        final File f = file;
+        if (f == null || !f.exists() || isWarmingUp()) {
+            return;
+        }
+        loader = new Thread("simpledb-page-warmup") {
+            @Override
+            public void run() {
+                try {
+                    warmUp(read(f));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /** Wait until the warm-up started last, if any, has finished. */
+    public void awaitWarmUp() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = loader;
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    public synchronized boolean isWarmingUp() {
+        return loader != null && loader.isAlive();
+    }
+
+    /**
+     * Read as many of pages, most recently used first, into the buffer pool
+     * as it has free frames for.
+     *
+     * @return the number of pages installed
+     */
+    public int warmUp(List<PageId> pages) {
+        List<PageId> planned = new ArrayList<PageId>(pages.subList(0, Math.min(pages.size(), bufferPool.getNumPages())));
+        Collections.sort(planned, new Comparator<PageId>() {
+            @Override
+            public int compare(PageId a, PageId b) {
+                if (a.getTableId() != b.getTableId()) {
+                    return Integer.compare(a.getTableId(), b.getTableId());
+                }
+                int c = a.getClass().getName().compareTo(b.getClass().getName());
+                return c != 0 ? c : Integer.compare(a.pageNumber(), b.pageNumber());
+            }
+        });
+        finished = false;
+        pagesPlanned = planned.size();
+        pagesProcessed = 0;
+        pagesLoaded = 0;
+        int i = 0;
+        while (i < planned.size() && bufferPool.hasFreeFrames()) {
+            // a run of consecutive pages of one file
+            PageId first = planned.get(i);
+            int j = i + 1;
+            while (j < planned.size() && j - i < BATCH_PAGES && sameRun(first, planned.get(j), j - i)) {
+                j++;
+            }
+            pagesLoaded += load(planned.subList(i, j));
+            pagesProcessed = j;
+            i = j;
+        }
+        pagesProcessed = planned.size();
+        finished = true;
+        return pagesLoaded;
+    }
+
+    /** @return true if pid is the page offset pages after first, in the same file and of the same kind */
+    private static boolean sameRun(PageId first, PageId pid, int offset) {
+        if (pid.getClass() != first.getClass() || pid.getTableId() != first.getTableId()
+                || pid.pageNumber() != first.pageNumber() + offset) {
+            return false;
+        }
+        // ids serialize to the table id, the page number and whatever else
+        // tells them apart, such as the category of a BTree page
+        int[] a = first.serialize();
+        int[] b = pid.serialize();
+        for (int k = 2; k < a.length; k++) {
+            if (a[k] != b[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a run of consecutive pages and install them.
+     *
+     * @return the number of pages installed
+     */
+    private int load(List<PageId> run) {
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(run.get(0).getTableId());
+            long writeCount = file.getWriteCount();
+            List<Page> pages = new ArrayList<Page>(file.readPages(run.get(0), run.size()));
+            // the rest of the run, for files that read single pages only,
+            // through readPages, which stops at the end of the file
+            try {
+                for (int k = pages.size(); k < run.size(); k++) {
+                    List<Page> page = file.readPages(run.get(k), 1);
+                    if (page.isEmpty()) {
+                        break;
+                    }
+                    pages.add(page.get(0));
+                }
+            } catch (IllegalArgumentException e) {
+                // the file ends before the run
+            }
+            return bufferPool.installWarm(file, pages, writeCount);
+        } catch (NoSuchElementException | DbException e) {
+            // the table is gone
+            return 0;
+        }
+    }
+
+    /** @return the number of pages the last warm-up set out to read */
+    public int getPagesPlanned() {
+        return pagesPlanned;
+    }
+
+    /** @return the number of pages the last warm-up installed so far */
+    public int getPagesLoaded() {
+        return pagesLoaded;
+    }
+
+    /**
+     * @return the fraction of its pages the last warm-up has been through,
+     *   1 once it finished, or 0 if none was started
+     */
+    public double getProgress() {
+        int planned = pagesPlanned;
+        if (planned == 0) {
+            return finished ? 1 : 0;
+        }
+        return (double) pagesProcessed / planned;
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageWriter writes dirty pages of a {@link BufferPool} to disk on a
+ * background thread, so that the replacement policy mostly picks clean
+ * victims and a miss in {@link BufferPool#getPage} rarely has to write a
+ * page before it can read one.
+ * <p>
+ * Every interval, {@link #INTERVAL_MILLIS} by default, the writer takes up
+ * to its share of the rate limit, {@link #MAX_PAGES_PER_SECOND} by default,
+ * of dirty pages that are not pinned and that no transaction holds an
+ * exclusive lock on, so that changes that are not committed never reach
+ * the disk. It copies each page while the latch of its partition is held,
+ * sorts the copies by file and page number and writes each run of
+ * consecutive pages of a file with a single {@link DbFile#writePages}
+ * call. A page that was pinned again while it was written stays dirty, as
+ * it may have changed.
+ * <p>
+ * The thread is started by {@link #wakeUp} when pages may have been
+ * dirtied, and exits after {@link #IDLE_ROUNDS} rounds without dirty pages.
+ *
+ * @see BufferPool#getPageWriter
+ * @Threadsafe
+ */
+public class PageWriter {
+
+    /** Background writing is off unless enabled with -Dsimpledb.PageWriter.enabled=true */
+    public static final boolean ENABLED =
+            "true".equalsIgnoreCase(System.getProperty("simpledb.PageWriter.enabled"));
+
+    /** Default time between two rounds of writes. Can be overridden with
+     -Dsimpledb.PageWriter.intervalMillis=n */
+    public static final int INTERVAL_MILLIS = Integer.getInteger("simpledb.PageWriter.intervalMillis", 100);
+
+    /** Default for the most pages written per second. Can be overridden with
+     -Dsimpledb.PageWriter.maxPagesPerSecond=n */
+    public static final int MAX_PAGES_PER_SECOND = Integer.getInteger("simpledb.PageWriter.maxPagesPerSecond", 2000);
+
+    /** Number of rounds without dirty pages after which the thread exits */
+    static final int IDLE_ROUNDS = 10;
+
+    private final BufferPool bufferPool;
+    private volatile boolean enabled;
+    private volatile int intervalMillis = INTERVAL_MILLIS;
+    private volatile int maxPagesPerSecond = MAX_PAGES_PER_SECOND;
+    // the background thread, or null if none is running; guarded by this
+    private Thread thread;
+    // wakeUp was called since the thread last looked; set under the monitor
+    private volatile boolean woken;
+
+    private final AtomicLong pagesWritten = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+
+    public PageWriter(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.enabled = ENABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setIntervalMillis(int intervalMillis) {
+        this.intervalMillis = Math.max(1, intervalMillis);
+    }
+
+    public void setMaxPagesPerSecond(int maxPagesPerSecond) {
+        this.maxPagesPerSecond = Math.max(1, maxPagesPerSecond);
+    }
+
+    /** @return the number of pages written per round */
+    public int pagesPerRound() {
+        return Math.max(1, (int) ((long) maxPagesPerSecond * intervalMillis / 1000));
+    }
+
+    /**
+     * Report that pages of the buffer pool may have been dirtied. Starts the
+     * background thread if it is not running.
+     */
+    public void wakeUp() {
+        // the thread is running and will look again
+        if (!enabled || woken) {
+            return;
+        }
+        synchronized (this) {
+            woken = true;
+            if (thread == null) {
+                thread = new Thread("simpledb-page-writer") {
+                    @Override
+                    public void run() {
+                        writeLoop();
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    private void writeLoop() {
+        int idle = 0;
+        while (true) {
+            synchronized (this) {
+                if (!enabled || (idle >= IDLE_ROUNDS && !woken)) {
+                    thread = null;
+                    woken = false;
+                    return;
+                }
+                woken = false;
+            }
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    thread = null;
+                    woken = false;
+                }
+                return;
+            }
+            idle = runOnce() == 0 ? idle + 1 : 0;
+        }
+    }
+
+    /**
+     * Write one round of dirty pages.
+     *
+     * @return the number of pages written
+     */
+    public int runOnce() {
+        try {
+            return bufferPool.writeDirtyPages(pagesPerRound(), false);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /** Record that a write of n consecutive pages was issued. */
+    void recordWrite(int n) {
+        pagesWritten.addAndGet(n);
+        writes.incrementAndGet();
+    }
+
+    /** @return the number of pages written by this writer or by BufferPool.flushAllPages */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /** @return the number of writes issued for them */
+    public long getWrites() {
+        return writes.get();
+    }
+}
@@ -581,7 +581,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "stats", "resize" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -602,11 +602,36 @@ public class Parser {
         System.out.println("Bye");
     }
 
+    /** Print the metrics of the buffer pool, for the command stats; */
+    protected void printStats() {
+        System.out.println(Database.getBufferPool().getMetrics().report());
+    }
+
+    /** Resize the buffer pool, for the command resize pages; */
+    protected void resizeBufferPool(String cmd) {
+        String pages = cmd.substring("resize".length(), cmd.length() - 1).trim();
+        try {
+            Database.getBufferPool().resize(Integer.parseInt(pages));
+            System.out.println("Buffer pool resized to " + pages + " pages");
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: resize <pages>;");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     protected boolean interactive = true;
 
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // read the pages cached before the last shutdown back in while we
+        // go on, and keep saving which pages are cached
+        PageWarmer warmer = Database.getBufferPool().getWarmer();
+        warmer.startWarmUp();
+        warmer.start();
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -682,12 +707,18 @@ public class Parser {
                         break;
                     }
 
-                    long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(
-                            statementBytes));
-                    long time = System.currentTimeMillis() - startTime;
-                    System.out.printf("----------------\n%.2f seconds\n\n",
-                            ((double) time / 1000.0));
+                    if (cmd.equalsIgnoreCase("stats;")) {
+                        printStats();
+                    } else if (cmd.toLowerCase().startsWith("resize ")) {
+                        resizeBufferPool(cmd);
+                    } else {
+                        long startTime = System.currentTimeMillis();
+                        processNextStatement(new ByteArrayInputStream(
+                                statementBytes));
+                        long time = System.currentTimeMillis() - startTime;
+                        System.out.printf("----------------\n%.2f seconds\n\n",
+                                ((double) time / 1000.0));
+                    }
 
                     // Grab the remainder of the line
                     line = line.substring(split + 1);
@@ -0,0 +1,269 @@
+package simpledb;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetcher reads pages of sequential HeapFile scans into the BufferPool
+ * ahead of the scan, on a background thread, so that the scan finds the
+ * next pages cached instead of waiting for the disk.
+ * <p>
+ * Every scan gets its own {@link Stream} and reports each page it moves to
+ * with {@link #access}. Once a stream has touched a few consecutive pages it
+ * is considered sequential and the prefetcher keeps the next depth pages
+ * read ahead of it, issuing one {@link DbFile#readPages} call per batch. The
+ * depth starts at {@link #DEFAULT_DEPTH}; it doubles whenever the scan
+ * reaches a page whose batch is still being read (the scan consumes pages
+ * faster than they arrive) and halves whenever pages prefetched for this
+ * scan were evicted before anybody used them (the scan is slower than the
+ * read-ahead, or the pool is too small for it). Pages wasted by one scan do
+ * not change the depth of any other. It never exceeds {@link #MAX_DEPTH} or a
+ * quarter of the buffer pool.
+ * <p>
+ * Prefetched pages are only installed into free or evictable frames and are
+ * never pinned. A batch read while its file was written, see
+ * {@link DbFile#getWriteCount}, is dropped instead of installed, so the
+ * prefetcher never puts a stale page image into the cache.
+ *
+ * @see BufferPool#getPrefetcher
+ * @Threadsafe
+ */
+public class Prefetcher {
+
+    /** Read-ahead is on unless disabled with -Dsimpledb.Prefetcher.enabled=false */
+    public static final boolean ENABLED =
+            !"false".equalsIgnoreCase(System.getProperty("simpledb.Prefetcher.enabled"));
+
+    /** Initial number of pages read ahead of a sequential scan. Can be
+     overridden with -Dsimpledb.Prefetcher.depth=n */
+    public static final int DEFAULT_DEPTH = Integer.getInteger("simpledb.Prefetcher.depth", 8);
+
+    /** Upper bound for the adaptive read-ahead depth. Can be overridden with
+     -Dsimpledb.Prefetcher.maxDepth=n */
+    public static final int MAX_DEPTH = Integer.getInteger("simpledb.Prefetcher.maxDepth", 64);
+
+    /** Number of consecutive page accesses after which a stream counts as sequential */
+    static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /**
+     * Read-ahead state of a single scan. Streams are created with
+     * {@link Prefetcher#newStream} and only touched by the prefetcher.
+     */
+    public static class Stream {
+        private final int tableId;
+        private final int numPages;
+        // last page the scan reported, -1 before the first one
+        private int lastPage = -1;
+        // number of consecutive pages seen so far
+        private int runLength;
+        // pages below this one have been handed to the background thread
+        private int frontier;
+        // pages below this one have been read ahead and installed
+        private int landed;
+        private int depth;
+        // pages read ahead for this stream and evicted unused
+        private long wasted;
+        // value of wasted when the depth was last adjusted
+        private long wastedSeen;
+
+        private Stream(int tableId, int numPages, int depth) {
+            this.tableId = tableId;
+            this.numPages = numPages;
+            this.depth = depth;
+        }
+
+        /** @return the number of pages currently read ahead of this stream */
+        public synchronized int getDepth() {
+            return depth;
+        }
+    }
+
+    private final BufferPool bufferPool;
+    private volatile boolean enabled;
+    private volatile Executor executor;
+
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong wasted = new AtomicLong();
+
+    /**
+     * Creates a prefetcher that installs pages into bufferPool. Reads run on
+     * a single daemon thread that is started on demand and exits when idle.
+     */
+    public Prefetcher(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.enabled = ENABLED;
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(0, 1, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-prefetcher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.executor = workers;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Start tracking a new scan over the first numPages pages of a HeapFile.
+     */
+    public Stream newStream(int tableId, int numPages) {
+        return new Stream(tableId, numPages, Math.max(1, Math.min(DEFAULT_DEPTH, maxDepth())));
+    }
+
+    /**
+     * Report that the scan tracked by stream moved to page pageNo. If the
+     * scan is sequential and is getting close to the end of the pages read
+     * ahead, the next batch is handed to the background thread.
+     */
+    public void access(Stream stream, int pageNo) {
+        if(!enabled) {
+            return;
+        }
+        int start;
+        int count;
+        synchronized (stream) {
+            if(pageNo == stream.lastPage + 1) {
+                stream.runLength++;
+            } else {
+                // random access or a rewind: start over
+                stream.runLength = 1;
+                stream.frontier = pageNo + 1;
+                stream.landed = pageNo + 1;
+            }
+            stream.lastPage = pageNo;
+            if(stream.runLength < SEQUENTIAL_THRESHOLD) {
+                return;
+            }
+
+            long wastedNow = stream.wasted;
+            if(wastedNow > stream.wastedSeen) {
+                stream.depth = Math.max(1, stream.depth / 2);
+            } else if(pageNo >= stream.landed && pageNo < stream.frontier) {
+                // the scan caught up with a batch that is still being read
+                stream.depth = Math.min(maxDepth(), stream.depth * 2);
+            }
+            stream.wastedSeen = wastedNow;
+            stream.frontier = Math.max(stream.frontier, pageNo + 1);
+            stream.landed = Math.max(stream.landed, pageNo + 1);
+
+            // top up once half of the read-ahead has been consumed
+            int ahead = stream.frontier - pageNo - 1;
+            if(ahead > stream.depth / 2) {
+                return;
+            }
+            start = stream.frontier;
+            count = Math.min(stream.depth - ahead, stream.numPages - start);
+            if(count <= 0) {
+                return;
+            }
+            stream.frontier = start + count;
+        }
+        final Stream s = stream;
+        final PageId first = new HeapPageId(stream.tableId, start);
+        final int n = count;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fetch(s, first, n);
+                    } finally {
+                        synchronized (s) {
+                            s.landed = Math.max(s.landed, first.pageNumber() + n);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // read-ahead is only a hint
+            e.printStackTrace();
+        }
+    }
+
+    /** Read count pages starting at start and install them into the buffer pool. */
+    private void fetch(Stream stream, PageId start, int count) {
+        // batches queue up behind each other, so the scan may have passed
+        // part of this one already; those pages would only be wasted
+        int first = start.pageNumber();
+        synchronized (stream) {
+            first = Math.max(first, stream.lastPage + 1);
+        }
+        // skip the part of the batch the scan already pulled in itself
+        int end = start.pageNumber() + count;
+        while(first < end && bufferPool.isCached(new HeapPageId(start.getTableId(), first))) {
+            first++;
+        }
+        if(first >= end) {
+            return;
+        }
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(start.getTableId());
+            long writeCount = file.getWriteCount();
+            List<Page> pages = file.readPages(new HeapPageId(start.getTableId(), first), end - first);
+            prefetched.addAndGet(bufferPool.installPrefetched(file, pages, writeCount, stream));
+        } catch (Exception e) {
+            // the table may have been dropped or the pool reset under us
+            e.printStackTrace();
+        }
+    }
+
+    private int maxDepth() {
+        return Math.max(1, Math.min(MAX_DEPTH, bufferPool.getNumPages() / 4));
+    }
+
+    /** Called by the buffer pool when a prefetched page is used for the first time */
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /** Called by the buffer pool when a page prefetched for stream is evicted unused */
+    void recordWasted(Stream stream) {
+        wasted.incrementAndGet();
+        synchronized (stream) {
+            stream.wasted++;
+        }
+    }
+
+    /** @return the number of pages read ahead and installed into the buffer pool */
+    public long getPrefetchedPages() {
+        return prefetched.get();
+    }
+
+    /** @return the number of prefetched pages that were later requested */
+    public long getPrefetchHits() {
+        return hits.get();
+    }
+
+    /** @return the number of prefetched pages that were evicted without being requested */
+    public long getWastedPrefetches() {
+        return wasted.get();
+    }
+
+    public void resetStats() {
+        prefetched.set(0);
+        hits.set(0);
+        wasted.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "prefetched=" + getPrefetchedPages() + " hits=" + getPrefetchHits()
+                + " wasted=" + getWastedPrefetches();
+    }
+}
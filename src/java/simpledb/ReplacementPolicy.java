@@ -0,0 +1,58 @@
+package simpledb;
+
+/**
+ * A ReplacementPolicy decides which page the {@link BufferPool} evicts when
+ * it needs a frame for a new page. The buffer pool numbers its frames 0 ..
+ * numFrames-1 and tells the policy when a page is installed into a frame,
+ * when a cached page is requested again, when a frame becomes evictable
+ * (its pin count drops to 0) or stops being evictable, and when a page
+ * leaves its frame. Frames without a page are managed by the buffer pool
+ * and never handed out by {@link #victim}.
+ * <p>
+ * Policies are called with the buffer pool's lock held, so they need not be
+ * thread-safe. The policy of a buffer pool is chosen with
+ * -Dsimpledb.BufferPool.policy=fifo|clock|lru-k|2q.
+ *
+ * @see BufferPool#newPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * The page pid was installed into frame. The frame is pinned.
+     */
+    void pageInstalled(int frame, PageId pid);
+
+    /**
+     * The page in frame was requested while cached.
+     */
+    void pageAccessed(int frame);
+
+    /**
+     * The frame may (evictable) or may not be evicted from now on.
+     */
+    void setEvictable(int frame, boolean evictable);
+
+    /**
+     * @return the frame of the page to evict next, which must be evictable,
+     *   or -1 if no frame is evictable
+     */
+    int victim();
+
+    /**
+     * @return the number of evictable frames
+     */
+    int numEvictable();
+
+    /**
+     * The page pid left frame, either because it was evicted or because it
+     * was discarded from the buffer pool. The frame is empty afterwards.
+     */
+    void pageRemoved(int frame, PageId pid, boolean evicted);
+
+    /**
+     * The buffer pool now numbers its frames 0 .. numFrames-1. New frames
+     * are empty. When frames are taken away they are empty already, and
+     * the pages of the remaining frames keep their place in the order.
+     */
+    void resize(int numFrames);
+}
@@ -13,7 +13,7 @@ public class SeqScan implements DbIterator {
 
     private TransactionId tid;
     private int tableId;
-    private HeapFile dbFile;
+    private DbFile dbFile;
     private String tableAlias;
 
     private boolean isOpen; // for iterator
@@ -39,12 +39,26 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tid = tid;
          this.tableId = tableId;
-        this.dbFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        this.dbFile = Database.getCatalog().getDatabaseFile(tableId);
         this.tableAlias = tableAlias;
         this.isOpen = false;
         this.innerIterator = this.dbFile.iterator(tid);
     }
 
+    /**
+     * Creates a scan of the specified table that returns the tuples of the
+     * given iterator over it, for subclasses that read the table in some
+     * other way than DbFile.iterator.
+     */
+    protected SeqScan(TransactionId tid, int tableId, String tableAlias, DbFileIterator innerIterator) {
+        this.tid = tid;
+        this.tableId = tableId;
+        this.dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        this.tableAlias = tableAlias;
+        this.isOpen = false;
+        this.innerIterator = innerIterator;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -79,7 +93,7 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableId = tableId;
         this.tableAlias = tableAlias;
-        this.dbFile = (HeapFile) Database.getCatalog().getDatabaseFile(this.tableId);
+        this.dbFile = Database.getCatalog().getDatabaseFile(this.tableId);
         this.isOpen = false;
         this.innerIterator.close();
     }
@@ -91,6 +105,12 @@ public class SeqScan implements DbIterator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         this.isOpen = true;
+        // a scan would escalate to a lock on a large table anyway
+        int threshold = Database.getBufferPool().getLockManager().getEscalationThreshold();
+        if(threshold > 0 && this.dbFile instanceof HeapFile
+                && ((HeapFile) this.dbFile).numPages() >= threshold) {
+            Database.getBufferPool().lockTable(this.tid, this.tableId, false);
+        }
         this.innerIterator.open();
     }
 
@@ -1,5 +1,8 @@
 package simpledb;
 import java.io.*;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class SimpleDb {
     public static void main (String args[])
@@ -7,6 +10,26 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            HeapFile.PageFormat format = HeapFile.PageFormat.FIXED;
+            boolean compressed = false;
+            boolean columnar = false;
+            boolean ordered = true;
+            while (args.length > 3 && args[args.length-1].matches("-[a-z]+")) {
+                String flag = args[args.length-1];
+                if (flag.equals("-slotted"))
+                    format = HeapFile.PageFormat.SLOTTED;
+                else if (flag.equals("-compressed"))
+                    compressed = true;
+                else if (flag.equals("-columnar"))
+                    columnar = true;
+                else if (flag.equals("-unordered"))
+                    ordered = false;
+                else {
+                    System.err.println("Unknown option " + flag);
+                    return;
+                }
+                args = java.util.Arrays.copyOf(args, args.length-1);
+            }
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -43,8 +66,42 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            if (columnar) {
+                // write the rows as a plain heap file first, then split them into columns
+                File plainDatFile = File.createTempFile("convert", ".dat");
+                plainDatFile.deleteOnExit();
+                encode(sourceTxtFile,plainDatFile,ts,fieldSeparator,
+                        HeapFile.PageFormat.FIXED,ordered);
+                final HeapFile plain = new HeapFile(plainDatFile, new TupleDesc(ts));
+                Iterator<Tuple> tuples = new Iterator<Tuple>() {
+                    int pageNo = 0;
+                    Iterator<Tuple> page = Collections.<Tuple>emptyIterator();
+
+                    public boolean hasNext() {
+                        while (!page.hasNext() && pageNo < plain.numPages())
+                            page = ((HeapPage) plain.readPage(new HeapPageId(plain.getId(), pageNo++))).iterator();
+                        return page.hasNext();
+                    }
+
+                    public Tuple next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        return page.next();
+                    }
+                };
+                CompressedPageStore.indexFile(targetDatFile).delete();
+                ColumnFile.convert(tuples, targetDatFile, new TupleDesc(ts));
+            } else if (compressed) {
+                // write the plain pages first, then compress them into place
+                File plainDatFile = File.createTempFile("convert", ".dat");
+                plainDatFile.deleteOnExit();
+                encode(sourceTxtFile,plainDatFile,ts,fieldSeparator,format,ordered);
+                CompressedPageStore.compress(plainDatFile, targetDatFile, BufferPool.getPageSize());
+            } else {
+                // a left-over index would make the new file look compressed
+                CompressedPageStore.indexFile(targetDatFile).delete();
+                encode(sourceTxtFile,targetDatFile,ts,fieldSeparator,format,ordered);
+            }
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -96,4 +153,18 @@ public class SimpleDb {
         }
     }
 
+    /** Write the text file as a heap file: fixed-size pages are parsed in
+     * parallel by the BulkLoader, slotted pages by the HeapFileEncoder. */
+    private static void encode(File sourceTxtFile, File targetDatFile, Type[] ts,
+                               char fieldSeparator, HeapFile.PageFormat format, boolean ordered)
+            throws IOException {
+        if (format == HeapFile.PageFormat.FIXED) {
+            BulkLoader.convert(sourceTxtFile, targetDatFile, BufferPool.getPageSize(), ts,
+                    fieldSeparator, BulkLoader.THREADS, ordered);
+        } else {
+            HeapFileEncoder.convert(sourceTxtFile, targetDatFile, BufferPool.getPageSize(),
+                    ts.length, ts, fieldSeparator, format);
+        }
+    }
+
 }
@@ -0,0 +1,336 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is the variable-length page format of HeapFiles (see
+ * {@link HeapFile.PageFormat#SLOTTED}). Instead of fixed-width slots it has a
+ * slot directory at the front of the page and the records packed against the
+ * end of the page, so a string takes only as many bytes as it has
+ * characters.
+ * <p>
+ * The layout of a page is:
+ * <pre>
+ *   u16 number of slots n
+ *   u16 offset of the first record byte (the end of the free space)
+ *   n slot entries of u16 record offset, u16 record length; 0,0 is a free slot
+ *   free space
+ *   records
+ * </pre>
+ * A record stores its fields in order: an int field as 4 bytes, a string
+ * field as a u16 length followed by that many bytes (strings are cut to
+ * {@link Type#STRING_LEN} characters, as in StringField). A page of all
+ * zeroes is an empty page. Slot numbers, and so RecordIds, stay the same
+ * when other tuples are deleted; the records are re-packed whenever the
+ * page is written out.
+ *
+ * @see HeapFile
+ * @see BufferPool
+ */
+public class SlottedHeapPage implements HeapFilePage {
+
+    /** Bytes taken by the page header */
+    static final int HEADER_SIZE = 4;
+    /** Bytes taken by one slot directory entry */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // slot directory, null entries are free slots
+    final List<Tuple> tuples;
+    // bytes taken by the records of all used slots
+    private int recordBytes;
+    // bytes the page was created from, never written to
+    private byte[] data;
+    // true once a tuple was inserted or deleted since data was taken
+    private boolean modified;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    private TransactionId lastMarkDirty;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above. The page keeps a reference to data, so
+     * the caller must not change the array afterwards.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.tuples = new ArrayList<>();
+        this.data = data;
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int numSlots = buf.getShort(0) & 0xffff;
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > data.length) {
+            throw new IOException("corrupt slot directory on page " + id.pageNumber());
+        }
+        for (int i = 0; i < numSlots; i++) {
+            int offset = buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+            int length = buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+            if (length == 0) {
+                tuples.add(null);
+                continue;
+            }
+            buf.position(offset);
+            Tuple t = readRecord(buf, td);
+            t.setRecordId(new RecordId(pid, i));
+            tuples.add(t);
+            recordBytes += length;
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of bytes the record of t takes on a slotted page
+     */
+    static int recordSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(j).getLen();
+            }
+        }
+        return size;
+    }
+
+    private static Tuple readRecord(ByteBuffer buf, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int len = buf.getShort() & 0xffff;
+                byte[] bs = new byte[len];
+                buf.get(bs);
+                t.setField(j, new StringField(new String(bs), Type.STRING_LEN));
+            } else {
+                t.setField(j, new IntField(buf.getInt()));
+            }
+        }
+        return t;
+    }
+
+    private static void writeRecord(ByteBuffer buf, TupleDesc td, Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(j)).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                buf.putShort((short) len);
+                // one byte per character, like DataOutputStream.writeBytes
+                for (int k = 0; k < len; k++) {
+                    buf.put((byte) s.charAt(k));
+                }
+            } else {
+                buf.putInt(((IntField) t.getField(j)).getValue());
+            }
+        }
+    }
+
+    /**
+     * Lay out the given slot directory as a page of pageSize bytes.
+     *
+     * @param tuples the tuple of every slot, null for free slots
+     */
+    static byte[] encode(TupleDesc td, List<Tuple> tuples, int pageSize) {
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int end = pageSize;
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                continue;
+            }
+            int length = recordSize(td, t);
+            end -= length;
+            buf.position(end);
+            writeRecord(buf, td, t);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) end);
+            buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+        }
+        buf.putShort(0, (short) tuples.size());
+        buf.putShort(2, (short) (tuples.isEmpty() ? 0 : end));
+        return data;
+    }
+
+    /**
+     * @return the number of bytes a page with the given number of slots and
+     *   record bytes needs
+     */
+    static int usedBytes(int numSlots, int recordBytes) {
+        return HEADER_SIZE + numSlots * SLOT_SIZE + recordBytes;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] image;
+        synchronized(this)
+        {
+            if (modified) {
+                data = getPageData();
+                modified = false;
+            }
+            image = data;
+        }
+        synchronized(oldDataLock)
+        {
+        oldData = image;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, with
+     * the records packed against the end of the page. An unchanged page is
+     * returned as a copy of the bytes it was read from.
+     *
+     * @see #SlottedHeapPage
+     */
+    public synchronized byte[] getPageData() {
+        if (!modified && data.length == BufferPool.getPageSize()) {
+            return data.clone();
+        }
+        return encode(td, tuples, BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the byte array of an empty page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * @return the tuple stored in slot slotId, or null if the slot is free
+     */
+    public synchronized Tuple getTuple(int slotId) {
+        if (slotId < 0 || slotId >= tuples.size()) {
+            return null;
+        }
+        return tuples.get(slotId);
+    }
+
+    /**
+     * Delete the specified tuple from the page. Its slot becomes free, the
+     * space of the record is reclaimed when the page is written.
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *         already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !rid.getPageId().equals(this.pid)) {
+            throw new DbException("tuple is not on this page");
+        }
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= tuples.size() || tuples.get(slot) == null) {
+            throw new DbException("tuple slot already empty");
+        }
+        recordBytes -= recordSize(td, tuples.get(slot));
+        tuples.set(slot, null);
+        modified = true;
+    }
+
+    /**
+     * Adds the specified tuple to the page, reusing a free slot if there is
+     * one; the tuple is updated to reflect that it is now stored on this page.
+     * @throws DbException if the tuple does not fit or tupledesc is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("not enough free space");
+        }
+        int slot = tuples.indexOf(null);
+        if (slot < 0) {
+            slot = tuples.size();
+            tuples.add(t);
+        } else {
+            tuples.set(slot, t);
+        }
+        t.setRecordId(new RecordId(this.pid, slot));
+        recordBytes += recordSize(td, t);
+        modified = true;
+    }
+
+    public synchronized boolean hasRoomFor(Tuple t) {
+        int slots = tuples.contains(null) ? tuples.size() : tuples.size() + 1;
+        return usedBytes(slots, recordBytes + recordSize(td, t)) <= BufferPool.getPageSize();
+    }
+
+    /**
+     * @return the number of bytes still free on this page
+     */
+    public synchronized int getFreeSpace() {
+        return BufferPool.getPageSize() - usedBytes(tuples.size(), recordBytes);
+    }
+
+    /**
+     * @return the number of tuples stored on this page
+     */
+    public synchronized int getNumTuples() {
+        int n = 0;
+        for (Tuple t : tuples) {
+            if (t != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.lastMarkDirty = dirty ? tid : null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return lastMarkDirty;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public synchronized Iterator<Tuple> iterator() {
+        List<Tuple> list = new ArrayList<>();
+        for (Tuple t : tuples) {
+            if (t != null) {
+                list.add(t);
+            }
+        }
+        return Collections.unmodifiableList(list).iterator();
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,19 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to buf, in the same format as
+	 * {@link #serialize(DataOutputStream)}.
+	 */
+	public void serialize(ByteBuffer buf) {
+		String s = value;
+		int len = Math.min(s.length(), maxSize);
+		buf.putInt(len);
+		for (int i = 0; i < len; i++)
+			buf.put((byte) s.charAt(i));
+		PageCodec.zero(buf, maxSize - len);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -93,7 +93,7 @@ public class TableStats {
         DbFile f = Database.getCatalog().getDatabaseFile(tableid);
         td = f.getTupleDesc();
 
-        if (!(f instanceof HeapFile)) {
+        if (!(f instanceof HeapFile) && !(f instanceof ColumnFile)) {
             basePages = 0;
             baseTups = 0;
             this.costPerPageIO=ioCostPerPage;
@@ -142,7 +142,7 @@ public class TableStats {
             }
         }
 
-        basePages = ((HeapFile) f).numPages();
+        basePages = f instanceof HeapFile ? ((HeapFile) f).numPages() : ((ColumnFile) f).numPages();
         int count = 0;
         try {
             Transaction t = new Transaction();
@@ -160,8 +160,11 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        int tupleSize = 4;
-        return tupleSize * this.numFields();
+        int tupleSize = 0;
+        for (int i = 0; i < this.numFields(); i++) {
+            tupleSize += getFieldType(i).getLen();
+        }
+        return tupleSize;
     }
 
     /**
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The full 2Q policy of Johnson and Shasha. A page read for the first time
+ * goes into the FIFO queue A1in, and requests for it while it is there are
+ * not counted, so the pages of a scan pass through A1in without displacing
+ * anything else. When a page is evicted from A1in its id is remembered in
+ * the ghost queue A1out. A page that is read again while its id is in A1out
+ * has proven itself and goes into the LRU queue Am.
+ * <p>
+ * Victims are taken from A1in while it holds more than a quarter of the
+ * frames, and from Am otherwise. A1out remembers up to half as many ids as
+ * there are frames. All operations are O(1).
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+    private static final byte A1IN = 0;
+    private static final byte AM = 1;
+
+    private int kin;
+    private int kout;
+    // which queue the page of each frame is in
+    private byte[] queue;
+    // the evictable frames of each queue, oldest first
+    private final FrameList a1in;
+    private final FrameList am;
+    // number of pages in A1in, pinned or not
+    private int a1inPages;
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+
+    public TwoQueuePolicy(int numFrames) {
+        this.kin = Math.max(1, numFrames / 4);
+        this.kout = Math.max(1, numFrames / 2);
+        this.queue = new byte[numFrames];
+        this.a1in = new FrameList(numFrames);
+        this.am = new FrameList(numFrames);
+    }
+
+    public void pageInstalled(int frame, PageId pid) {
+        if (a1out.remove(pid)) {
+            queue[frame] = AM;
+        } else {
+            queue[frame] = A1IN;
+            a1inPages++;
+        }
+    }
+
+    public void pageAccessed(int frame) {
+        if (queue[frame] == AM && am.contains(frame)) {
+            am.addLast(frame);
+        }
+    }
+
+    public void setEvictable(int frame, boolean evictable) {
+        FrameList list = queue[frame] == AM ? am : a1in;
+        if (evictable) {
+            if (!list.contains(frame)) {
+                list.addLast(frame);
+            }
+        } else {
+            list.remove(frame);
+        }
+    }
+
+    public int victim() {
+        if (a1in.size() > 0 && (a1inPages > kin || am.size() == 0)) {
+            return a1in.first();
+        }
+        return am.first();
+    }
+
+    public int numEvictable() {
+        return a1in.size() + am.size();
+    }
+
+    public void pageRemoved(int frame, PageId pid, boolean evicted) {
+        if (queue[frame] == AM) {
+            am.remove(frame);
+            return;
+        }
+        a1in.remove(frame);
+        a1inPages--;
+        if (evicted) {
+            a1out.add(pid);
+            trimA1out();
+        }
+    }
+
+    public void resize(int numFrames) {
+        kin = Math.max(1, numFrames / 4);
+        kout = Math.max(1, numFrames / 2);
+        queue = Arrays.copyOf(queue, numFrames);
+        a1in.resize(numFrames);
+        am.resize(numFrames);
+        trimA1out();
+    }
+
+    /** Forget the oldest ids in A1out beyond kout */
+    private void trimA1out() {
+        Iterator<PageId> oldest = a1out.iterator();
+        for (int n = a1out.size(); n > kout; n--) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
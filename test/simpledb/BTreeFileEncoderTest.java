@@ -0,0 +1,160 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BTreeFileEncoderTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE};
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File text;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        text = writeText(20000, 1000);
+        tid = new TransactionId();
+    }
+
+    /** @return a text file with rows random tuples whose keys (field 1) are below maxKey */
+    private File writeText(int rows, int maxKey) throws IOException {
+        Random r = new Random(7);
+        File f = File.createTempFile("bulk", ".txt");
+        f.deleteOnExit();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(f)));
+        for (int i = 0; i < rows; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(r.nextInt());
+            t.add(r.nextInt(maxKey));
+            tuples.add(t);
+            out.print(t.get(0) + "," + t.get(1) + "\n");
+        }
+        out.close();
+        return f;
+    }
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    /** @return the number of leaf pages reachable from the root */
+    private int leafPages(BTreeFile bf) throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bf.readPage(BTreeRootPtrPage.getId(bf.getId()));
+        BTreePageId pid = rootPtr.getRootId();
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            pid = ((BTreeInternalPage) bf.readPage(pid)).iterator().next().getLeftChild();
+        }
+        int n = 0;
+        while (pid != null) {
+            n++;
+            pid = ((BTreeLeafPage) bf.readPage(pid)).getRightSiblingId();
+        }
+        return n;
+    }
+
+    /**
+     * A tree built with a sort that spills to disk holds all tuples in key
+     * order and passes the checker
+     */
+    @Test public void bulkConvert() throws Exception {
+        BTreeFile bf = BTreeFileEncoder.bulkConvert(text, tempFile(), BufferPool.getPageSize(),
+                TYPES, ',', 1, 1.0, 16 << 10);
+        assertTrue(bf.numPages() > 40);
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), true);
+        SystemTestUtil.matchTuples(bf, tuples);
+
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(1)).getValue();
+            assertTrue(key >= last);
+            last = key;
+        }
+        it.close();
+
+        int matches = 0;
+        for (ArrayList<Integer> t : tuples) {
+            matches += t.get(1) == 500 ? 1 : 0;
+        }
+        it = bf.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(500)));
+        it.open();
+        int found = 0;
+        while (it.hasNext()) {
+            assertEquals(500, ((IntField) it.next().getField(1)).getValue());
+            found++;
+        }
+        it.close();
+        assertEquals(matches, found);
+    }
+
+    /**
+     * A lower fill factor spreads the tuples over more pages, which leaves
+     * room for inserts, and the tree stays valid under inserts and deletes
+     */
+    @Test public void fillFactor() throws Exception {
+        BTreeFile full = BTreeFileEncoder.bulkConvert(text, tempFile(), BufferPool.getPageSize(),
+                TYPES, ',', 1, 1.0, 1 << 20);
+        BTreeFile half = BTreeFileEncoder.bulkConvert(text, tempFile(), BufferPool.getPageSize(),
+                TYPES, ',', 1, 0.5, 1 << 20);
+        int fullLeaves = leafPages(full);
+        assertEquals((20000 + 501) / 502, fullLeaves);
+        assertEquals((20000 + 250) / 251, leafPages(half));
+
+        for (int i = 0; i < 100; i++) {
+            Database.getBufferPool().insertTuple(tid, half.getId(), BTreeUtility.getBTreeTuple(new int[] {i, i * 10}));
+        }
+        DbFileIterator it = half.indexIterator(tid, new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(100)));
+        it.open();
+        List<Tuple> doomed = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            doomed.add(it.next());
+        }
+        it.close();
+        for (Tuple t : doomed) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        BTreeChecker.checkRep(half, tid, new HashMap<PageId, Page>(), false);
+        it = half.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(20000 + 100 - doomed.size(), count);
+    }
+
+    /**
+     * An empty input gives a tree with a single empty leaf
+     */
+    @Test public void emptyInput() throws Exception {
+        tuples.clear();
+        BTreeFile bf = BTreeFileEncoder.bulkConvert(writeText(0, 1), tempFile(), BufferPool.getPageSize(),
+                TYPES, ',', 0, 1.0, 1 << 20);
+        assertEquals(1, bf.numPages());
+        BTreeChecker.checkRep(bf, tid, new HashMap<PageId, Page>(), false);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileEncoderTest.class);
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BeforeImageTest extends SimpleDbTestBase {
+    private int tableId;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        tableId = -1;
+        Database.getCatalog().addTable(new SkeletonFile(tableId, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A HeapPage shares the bytes it was read from with its before image,
+     * and only copies its contents out after setBeforeImage once it is
+     * changed again
+     */
+    @Test public void heapPage() throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(tableId, 0), HeapPageReadTest.EXAMPLE_DATA);
+        assertSame(HeapPageReadTest.EXAMPLE_DATA, page.oldData);
+
+        page.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+        assertSame(HeapPageReadTest.EXAMPLE_DATA, page.oldData);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(committed, page.oldData);
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(committed, page.getPageData()));
+
+        // setBeforeImage on an unchanged page keeps sharing its bytes
+        HeapPage clean = new HeapPage(new HeapPageId(tableId, 1), HeapPageReadTest.EXAMPLE_DATA);
+        clean.setBeforeImage();
+        assertSame(HeapPageReadTest.EXAMPLE_DATA, clean.oldData);
+    }
+
+    /**
+     * BTree pages keep the bytes they were read from as their before image
+     * instead of serializing themselves, and copy their contents out after
+     * setBeforeImage only once they are changed again
+     */
+    @Test public void bTreeLeafPage() throws Exception {
+        BTreeLeafPage page = new BTreeLeafPage(new BTreePageId(tableId, 1, BTreePageId.LEAF),
+                BTreeLeafPageTest.EXAMPLE_DATA, 0);
+        assertSame(BTreeLeafPageTest.EXAMPLE_DATA, page.oldData);
+
+        page.insertTuple(Utility.getHeapTuple(new int[] {1, 2}));
+        assertSame(BTreeLeafPageTest.EXAMPLE_DATA, page.oldData);
+        assertArrayEquals(BTreeLeafPageTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+
+        page.setRightSiblingId(new BTreePageId(tableId, 7, BTreePageId.LEAF));
+        assertArrayEquals(committed, page.oldData);
+        assertNull(page.getBeforeImage().getRightSiblingId());
+        assertEquals(7, page.getRightSiblingId().pageNumber());
+    }
+
+    /**
+     * The same holds for internal pages
+     */
+    @Test public void bTreeInternalPage() throws Exception {
+        BTreeInternalPage page = new BTreeInternalPage(new BTreePageId(tableId, 1, BTreePageId.INTERNAL),
+                BTreeInternalPageTest.EXAMPLE_DATA, 0);
+        assertSame(BTreeInternalPageTest.EXAMPLE_DATA, page.oldData);
+
+        page.setBeforeImage();
+        BTreeEntry e = page.iterator().next();
+        page.deleteKeyAndRightChild(e);
+        assertArrayEquals(BTreeInternalPageTest.EXAMPLE_DATA, page.oldData);
+        assertEquals(page.getNumEntries() + 1, page.getBeforeImage().getNumEntries());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BeforeImageTest.class);
+    }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolMetricsTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private BufferPool bufferPool;
+    private BufferPoolMetrics metrics;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 10 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        Database.getCatalog().addTable(hf, "metrics");
+        tid = new TransactionId();
+        bufferPool = new BufferPool(5, "fifo", 1);
+        bufferPool.getPageWriter().setEnabled(false);
+        metrics = bufferPool.getMetrics();
+        metrics.setEnabled(true);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /**
+     * Requests for cached pages are hits, and the others misses
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        bufferPool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(2, metrics.getHits());
+        assertEquals(2, metrics.getMisses());
+        assertEquals(0.5, metrics.getHitRatio(), 1e-9);
+        assertTrue(metrics.getAverageMissMicros() > 0);
+
+        // a batch of pages counts each page once
+        bufferPool.getPages(tid, pid(2), 3, Permissions.READ_ONLY);
+        assertEquals(2, metrics.getHits());
+        assertEquals(5, metrics.getMisses());
+
+        metrics.reset();
+        assertEquals(0, metrics.getHits());
+        assertEquals(0, metrics.getMisses());
+        assertEquals(0, metrics.getHitRatio(), 0);
+
+        metrics.setEnabled(false);
+        bufferPool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, pid(9), Permissions.READ_ONLY);
+        assertEquals(0, metrics.getHits());
+        assertEquals(0, metrics.getMisses());
+    }
+
+    /**
+     * Evicting a dirty page writes it, and counts as a dirty eviction
+     */
+    @Test public void evictions() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            bufferPool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(0, metrics.getEvictions());
+        bufferPool.getPage(tid, pid(5), Permissions.READ_ONLY);
+        assertEquals(1, metrics.getEvictions());
+        assertEquals(0, metrics.getDirtyEvictions());
+
+        TransactionId writer = new TransactionId();
+        Page page = bufferPool.getPage(writer, pid(6), Permissions.READ_WRITE);
+        page.markDirty(true, writer);
+        bufferPool.unpinPage(pid(6));
+        assertEquals(1, metrics.getDirtyPages());
+        for (int i = 7; i < 10; i++) {
+            bufferPool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        bufferPool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, pid(1), Permissions.READ_ONLY);
+        assertFalse(bufferPool.isCached(pid(6)));
+        assertEquals(7, metrics.getEvictions());
+        assertEquals(1, metrics.getDirtyEvictions());
+        assertEquals(1, metrics.getDirtyPageWrites());
+        assertEquals(1, bufferPool.getDirtyEvictions());
+    }
+
+    /**
+     * Flushing and the page writer count the dirty pages they write
+     */
+    @Test public void dirtyPageWrites() throws Exception {
+        TransactionId flushed = new TransactionId();
+        for (int i = 0; i < 3; i++) {
+            TransactionId t = i == 0 ? flushed : tid;
+            Page page = bufferPool.getPage(t, pid(i), Permissions.READ_WRITE);
+            page.markDirty(true, t);
+            bufferPool.unpinPage(pid(i));
+        }
+        assertEquals(3, metrics.getDirtyPages());
+        bufferPool.flushPages(flushed);
+        assertEquals(1, metrics.getDirtyPageWrites());
+        // the page writer leaves pages tid may still change
+        assertEquals(0, bufferPool.getPageWriter().runOnce());
+        bufferPool.releasePage(tid, pid(1));
+        bufferPool.releasePage(tid, pid(2));
+        assertEquals(2, bufferPool.getPageWriter().runOnce());
+        assertEquals(3, metrics.getDirtyPageWrites());
+        assertEquals(0, metrics.getDirtyPages());
+    }
+
+    /**
+     * Resident, dirty and pinned pages are counted from the frames, and the
+     * resident pages by table name
+     */
+    @Test public void residency() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        Database.getCatalog().addTable(other, "other");
+        bufferPool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, pid(1), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_WRITE);
+
+        assertEquals(5, metrics.getCapacity());
+        assertEquals(3, metrics.getResidentPages());
+        assertEquals(1, metrics.getPinnedPages());
+        assertEquals(0, metrics.getDirtyPages());
+        Map<String, Integer> byTable = metrics.getResidentPagesByTable();
+        assertEquals(2, byTable.size());
+        assertEquals(Integer.valueOf(2), byTable.get("metrics"));
+        assertEquals(Integer.valueOf(1), byTable.get("other"));
+
+        String report = metrics.report();
+        assertTrue(report.contains("resident: 3 of 5 pages, 0 dirty, 1 pinned"));
+        assertTrue(report.contains("metrics"));
+        assertTrue(report.contains("other"));
+    }
+
+    /**
+     * The metrics of the buffer pool of the Database can be read over JMX
+     */
+    @Test public void mbean() throws Exception {
+        BufferPool pool = Database.resetBufferPool(5);
+        pool.getMetrics().setEnabled(true);
+        pool.getPage(tid, pid(0), Permissions.READ_ONLY);
+        pool.getPage(tid, pid(0), Permissions.READ_ONLY);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(BufferPoolMetrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertEquals(1L, server.getAttribute(name, "Hits"));
+        assertEquals(1L, server.getAttribute(name, "Misses"));
+        assertEquals(1, server.getAttribute(name, "ResidentPages"));
+        TabularData byTable = (TabularData) server.getAttribute(name, "ResidentPagesByTable");
+        CompositeData row = byTable.get(new Object[] { "metrics" });
+        assertEquals(1, row.get("value"));
+
+        server.invoke(name, "reset", null, null);
+        assertEquals(0L, server.getAttribute(name, "Hits"));
+        pool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolMetricsTest.class);
+    }
+}
@@ -0,0 +1,187 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPartitionTest extends SimpleDbTestBase {
+    private HeapFile hf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 200 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 200, null, null);
+    }
+
+    /**
+     * Small pools are not partitioned, and large ones at most as far as
+     * MAX_PARTITIONS allows
+     */
+    @Test public void numPartitions() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumPartitions());
+        assertEquals(Math.min(BufferPool.MAX_PARTITIONS, 8),
+                new BufferPool(8 * BufferPool.MIN_PARTITION_PAGES).getNumPartitions());
+        assertEquals(4, new BufferPool(10, "clock", 4).getNumPartitions());
+        assertEquals(10, new BufferPool(10, "clock", 16).getNumPartitions());
+    }
+
+    /**
+     * A partitioned pool never holds more pages than it has frames, and a
+     * page that is pinned twice stays cached until it is unpinned twice
+     */
+    @Test public void pinning() throws Exception {
+        BufferPool bp = new BufferPool(40, "clock", 4);
+        TransactionId tid = new TransactionId();
+        HeapPageId pinned = new HeapPageId(hf.getId(), 0);
+        bp.getPage(tid, pinned, Permissions.READ_WRITE);
+        bp.getPage(tid, pinned, Permissions.READ_WRITE);
+        bp.unpinPage(pinned);
+        for (int i = 1; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertTrue(bp.isCached(pinned));
+        assertEquals(40, countCached(bp));
+
+        bp.unpinPage(pinned);
+        // unpinning an unpinned page does nothing
+        bp.unpinPage(pinned);
+        for (int i = 1; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        assertFalse(bp.isCached(pinned));
+    }
+
+    private int countCached(BufferPool bp) {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            n += bp.isCached(new HeapPageId(hf.getId(), i)) ? 1 : 0;
+        }
+        return n;
+    }
+
+    /**
+     * Threads reading, pinning and unpinning pages of a pool that is too
+     * small for the table always get the page they asked for
+     */
+    @Test public void concurrentRequests() throws Exception {
+        final BufferPool bp = new BufferPool(128, "clock", 4);
+        final TransactionId tid = new TransactionId();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(hf.numPages()));
+                            boolean pin = r.nextInt(4) == 0;
+                            Page p = bp.getPage(tid, pid, pin ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                            assertEquals(pid, p.getId());
+                            if (pin) {
+                                bp.unpinPage(pid);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(countCached(bp) <= 128);
+
+        // nothing was left pinned, so every page can be read once more
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * A miss reads its page without holding the latch, so a hit in the same
+     * partition is served while the read goes on
+     */
+    @Test public void missOutsideLatch() throws Exception {
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        HeapFile slow = new HeapFile(other.getFile(), other.getTupleDesc()) {
+            @Override
+            public Page readPage(PageId pid) {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(slow, "slow");
+        final BufferPool bp = new BufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1, bp.getNumPartitions());
+        final TransactionId tid = new TransactionId();
+        final HeapPageId cached = new HeapPageId(hf.getId(), 0);
+        final HeapPageId missed = new HeapPageId(slow.getId(), 0);
+        bp.getPage(tid, cached, Permissions.READ_ONLY);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread miss = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(tid, missed, Permissions.READ_ONLY);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+        Thread hit = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(tid, cached, Permissions.READ_ONLY);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+        try {
+            miss.start();
+            reading.await();
+            hit.start();
+            hit.join(5000);
+            assertFalse(hit.isAlive());
+        } finally {
+            release.countDown();
+        }
+        miss.join();
+        hit.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(bp.isCached(missed));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPartitionTest.class);
+    }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolPriorityTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private BTreePageId rootPtr;
+    private BTreePageId root;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 40 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        rootPtr = BTreeRootPtrPage.getId(bf.getId());
+        root = ((BTreeRootPtrPage) bf.readPage(rootPtr)).getRootId();
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private BufferPool newPool(int numPages, double indexReserve) {
+        BufferPool bp = new BufferPool(numPages, "clock", 1);
+        bp.setIndexReserve(indexReserve);
+        return bp;
+    }
+
+    private void readHeapPages(BufferPool bp) throws Exception {
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Root pointer and internal pages are of the high priority class, and
+     * leaves and heap pages of the normal one
+     */
+    @Test public void priorityClasses() {
+        assertTrue(BufferPool.isHighPriority(rootPtr));
+        assertTrue(BufferPool.isHighPriority(root));
+        assertFalse(BufferPool.isHighPriority(new BTreePageId(root.getTableId(), 1, BTreePageId.LEAF)));
+        assertFalse(BufferPool.isHighPriority(new BTreePageId(root.getTableId(), 1, BTreePageId.HEADER)));
+        assertFalse(BufferPool.isHighPriority(pid(0)));
+    }
+
+    /**
+     * Pages in the reserve stay cached while a scan of a larger table
+     * pushes every other page out, and are evicted like any other without
+     * a reserve
+     */
+    @Test public void reserveSurvivesScan() throws Exception {
+        BufferPool bp = newPool(20, 0.1);
+        bp.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bp.getPage(tid, root, Permissions.READ_ONLY);
+        assertEquals(2, bp.getMetrics().getReservedPages());
+        readHeapPages(bp);
+        assertTrue(bp.isCached(rootPtr));
+        assertTrue(bp.isCached(root));
+
+        BufferPool none = newPool(20, 0);
+        none.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        none.getPage(tid, root, Permissions.READ_ONLY);
+        assertEquals(0, none.getMetrics().getReservedPages());
+        readHeapPages(none);
+        assertFalse(none.isCached(rootPtr));
+        assertFalse(none.isCached(root));
+    }
+
+    /**
+     * Pages of the high class beyond the reserve are evicted like any other
+     */
+    @Test public void reserveIsBounded() throws Exception {
+        BufferPool bp = newPool(20, 0.05);
+        bp.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bp.getPage(tid, root, Permissions.READ_ONLY);
+        assertEquals(1, bp.getMetrics().getReservedPages());
+        readHeapPages(bp);
+        assertTrue(bp.isCached(rootPtr));
+        assertFalse(bp.isCached(root));
+
+        // a page requested again once the reserve has room is taken in
+        bp.discardPage(rootPtr);
+        assertEquals(0, bp.getMetrics().getReservedPages());
+        bp.getPage(tid, root, Permissions.READ_ONLY);
+        assertEquals(1, bp.getMetrics().getReservedPages());
+    }
+
+    /**
+     * Once every frame outside the reserve is pinned, the least recently
+     * requested page of the reserve is evicted instead of failing
+     */
+    @Test public void reserveIsSoft() throws Exception {
+        BufferPool bp = newPool(5, 1.0);
+        bp.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bp.getPage(tid, root, Permissions.READ_ONLY);
+        for (int i = 0; i < 3; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_WRITE);
+        }
+        bp.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        assertTrue(bp.isCached(rootPtr));
+        assertFalse(bp.isCached(root));
+        assertTrue(bp.isCached(pid(3)));
+        assertEquals(1, bp.getMetrics().getReservedPages());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Hit ratios are reported for each category of pages requested
+     */
+    @Test public void hitRatioByCategory() throws Exception {
+        BufferPool bp = newPool(20, 0.1);
+        BufferPoolMetrics metrics = bp.getMetrics();
+        metrics.setEnabled(true);
+        bp.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bp.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bp.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bp.getPage(tid, root, Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+
+        Map<String, Double> byCategory = metrics.getHitRatioByCategory();
+        assertEquals(3, byCategory.size());
+        assertEquals(2.0 / 3, byCategory.get("root pointer"), 1e-9);
+        assertEquals(0, byCategory.get("internal"), 1e-9);
+        assertEquals(0.5, byCategory.get("data"), 1e-9);
+        assertEquals(3, metrics.getHits());
+        assertEquals(3, metrics.getMisses());
+        assertTrue(metrics.report().contains("hit ratio by page category: root pointer 0.667, internal 0.000, data 0.500"));
+
+        metrics.reset();
+        assertTrue(metrics.getHitRatioByCategory().isEmpty());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolPriorityTest.class);
+    }
+}
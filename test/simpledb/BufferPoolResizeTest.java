@@ -0,0 +1,226 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 200 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 200, null, null);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private void readAll(BufferPool bp) throws Exception {
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+    }
+
+    private List<HeapPageId> cached(BufferPool bp) {
+        List<HeapPageId> cached = new ArrayList<HeapPageId>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (bp.isCached(pid(i))) {
+                cached.add(pid(i));
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Growing keeps every cached page and makes room for more
+     */
+    @Test public void grow() throws Exception {
+        BufferPool bp = new BufferPool(20, "clock", 2);
+        readAll(bp);
+        List<HeapPageId> before = cached(bp);
+        assertEquals(20, before.size());
+
+        bp.resize(60);
+        assertEquals(60, bp.getNumPages());
+        assertEquals(2, bp.getNumPartitions());
+        assertEquals(before, cached(bp));
+        readAll(bp);
+        assertEquals(60, cached(bp).size());
+    }
+
+    /**
+     * Shrinking writes the dirty pages and evicts the pages of the frames
+     * taken away
+     */
+    @Test public void shrink() throws Exception {
+        BufferPool bp = new BufferPool(60, "clock", 2);
+        bp.getPageWriter().setEnabled(false);
+        readAll(bp);
+        for (HeapPageId pid : cached(bp).subList(0, 10)) {
+            bp.getPage(tid, pid, Permissions.READ_WRITE).markDirty(true, tid);
+            bp.unpinPage(pid);
+            // as if tid had committed, so that the page may be written
+            bp.releasePage(tid, pid);
+        }
+        assertEquals(10, bp.getMetrics().getDirtyPages());
+
+        bp.resize(20);
+        assertEquals(20, bp.getNumPages());
+        assertEquals(20, cached(bp).size());
+        assertEquals(0, bp.getMetrics().getDirtyPages());
+        assertEquals(10, bp.getMetrics().getDirtyPageWrites());
+        readAll(bp);
+        assertEquals(20, cached(bp).size());
+    }
+
+    /**
+     * Frames holding pinned pages are drained once their pages are unpinned
+     * and evicted, and no page is installed there meanwhile
+     */
+    @Test public void pinnedFramesDrain() throws Exception {
+        BufferPool bp = new BufferPool(10, "fifo", 1);
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_WRITE);
+        }
+        bp.resize(5);
+        assertEquals(5, bp.getNumPages());
+        assertEquals(10, cached(bp).size());
+
+        for (int i = 0; i < 10; i++) {
+            bp.unpinPage(pid(i));
+        }
+        for (int i = 10; i < 20; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+            assertTrue(cached(bp).size() <= 10);
+        }
+        assertEquals(5, cached(bp).size());
+        assertEquals(5, bp.getMetrics().getResidentPages());
+        for (int i = 15; i < 20; i++) {
+            assertTrue(bp.isCached(pid(i)));
+        }
+
+        // growing again before a frame drained keeps its page
+        bp.getPage(tid, pid(19), Permissions.READ_WRITE);
+        bp.resize(3);
+        assertEquals(4, cached(bp).size());
+        assertTrue(bp.isCached(pid(19)));
+        bp.resize(8);
+        bp.unpinPage(pid(19));
+        assertTrue(bp.isCached(pid(19)));
+        readAll(bp);
+        assertEquals(8, cached(bp).size());
+    }
+
+    /**
+     * Off heap, the cached pages move into an arena of the new size
+     */
+    @Test public void offHeap() throws Exception {
+        BufferPool bp = new BufferPool(10, "clock", 2, true);
+        bp.getPageWriter().setEnabled(false);
+        readAll(bp);
+        bp.resize(30);
+        assertEquals(30, bp.getArena().getNumSlots());
+        readAll(bp);
+        checkAttached(bp, 30);
+
+        bp.resize(4);
+        assertEquals(4, bp.getArena().getNumSlots());
+        checkAttached(bp, 4);
+        readAll(bp);
+        checkAttached(bp, 4);
+    }
+
+    private void checkAttached(BufferPool bp, int numPages) throws Exception {
+        List<HeapPageId> cached = cached(bp);
+        assertEquals(numPages, cached.size());
+        for (HeapPageId pid : cached) {
+            HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+            assertTrue(page.isAttached());
+            assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        }
+    }
+
+    /**
+     * A buffer pool cannot have fewer pages than partitions
+     */
+    @Test(expected = IllegalArgumentException.class) public void tooSmall() throws Exception {
+        new BufferPool(10, "clock", 4).resize(3);
+    }
+
+    /**
+     * Threads reading and pinning pages always get the page they asked for
+     * while the buffer pool is grown and shrunk under them
+     */
+    @Test public void concurrentResize() throws Exception {
+        final BufferPool bp = new BufferPool(64, "clock", 4);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final boolean[] done = new boolean[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        while (!isDone(done)) {
+                            HeapPageId pid = pid(r.nextInt(hf.numPages()));
+                            boolean pin = r.nextInt(4) == 0;
+                            Page p = bp.getPage(tid, pid, pin ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+                            assertEquals(pid, p.getId());
+                            if (pin) {
+                                bp.unpinPage(pid);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        int[] sizes = { 16, 128, 32, 96, 8, 64 };
+        for (int round = 0; round < 5; round++) {
+            for (int size : sizes) {
+                bp.resize(size);
+                Thread.sleep(10);
+            }
+        }
+        synchronized (done) {
+            done[0] = true;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        readAll(bp);
+        assertEquals(64, cached(bp).size());
+    }
+
+    private static boolean isDone(boolean[] done) {
+        synchronized (done) {
+            return done[0];
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
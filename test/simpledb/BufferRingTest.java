@@ -0,0 +1,136 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private HeapFile hot;
+    private HeapFile big;
+    private BufferPool bufferPool;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 4 and 60 pages
+        hot = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * 60, null, null);
+        bufferPool = Database.resetBufferPool(20);
+    }
+
+    private int scan(HeapFile hf) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        bufferPool.transactionComplete(tid);
+        return count;
+    }
+
+    private int countCached(HeapFile hf) {
+        int n = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            n += bufferPool.isCached(new HeapPageId(hf.getId(), i)) ? 1 : 0;
+        }
+        return n;
+    }
+
+    /**
+     * Scanning a table bigger than the buffer pool leaves the pages other
+     * queries read cached and caches none of its own
+     */
+    @Test public void largeScanKeepsHotPages() throws Exception {
+        assertEquals(504 * 4, scan(hot));
+        assertEquals(4, countCached(hot));
+        assertEquals(504 * 60, scan(big));
+        assertEquals(4, countCached(hot));
+        assertEquals(0, countCached(big));
+    }
+
+    /**
+     * Tables that fit the buffer pool are cached as before, unless the
+     * threshold is lowered below their size
+     */
+    @Test public void threshold() throws Exception {
+        assertNull(bufferPool.newRing(20));
+        assertNotNull(bufferPool.newRing(21));
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        scan(small);
+        assertEquals(10, countCached(small));
+
+        bufferPool = Database.resetBufferPool(20);
+        bufferPool.setRingThreshold(0.25);
+        assertNotNull(bufferPool.newRing(10));
+        scan(small);
+        assertEquals(0, countCached(small));
+    }
+
+    /**
+     * A ring keeps the pages read last and forgets a page once its file is
+     * written
+     */
+    @Test public void ring() throws Exception {
+        BufferRing ring = new BufferRing(4);
+        List<Page> pages = new ArrayList<Page>();
+        for (int i = 0; i < 4; i++) {
+            pages.add(hot.readPage(new HeapPageId(hot.getId(), i)));
+        }
+        long writeCount = hot.getWriteCount();
+        ring.add(pages.subList(0, 3), hot, writeCount);
+        ring.add(pages.subList(3, 4), hot, writeCount);
+        assertSame(pages.get(0), ring.get(new HeapPageId(hot.getId(), 0)));
+        ring.add(Collections.singletonList(big.readPage(new HeapPageId(big.getId(), 0))), big, big.getWriteCount());
+        assertNull(ring.get(new HeapPageId(hot.getId(), 0)));
+        assertSame(pages.get(1), ring.get(new HeapPageId(hot.getId(), 1)));
+        assertEquals(5, ring.getReads());
+        assertEquals(2, ring.getHits());
+
+        // a write to another file keeps the pages
+        big.writePage(big.readPage(new HeapPageId(big.getId(), 0)));
+        assertNull(ring.get(new HeapPageId(big.getId(), 0)));
+        assertSame(pages.get(2), ring.get(new HeapPageId(hot.getId(), 2)));
+
+        hot.writePage(pages.get(2));
+        assertNull(ring.get(new HeapPageId(hot.getId(), 1)));
+    }
+
+    /**
+     * Pages of a large scan read into its ring are locked, and are taken
+     * from the buffer pool instead when they are cached there
+     */
+    @Test public void ringPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferRing ring = bufferPool.newRing(big.numPages());
+        HeapPageId pid = new HeapPageId(big.getId(), 5);
+        List<Page> run = bufferPool.getPages(tid, new HeapPageId(big.getId(), 0), 8, Permissions.READ_ONLY, ring);
+        assertEquals(8, run.size());
+        assertEquals(8, ring.getReads());
+        assertTrue(bufferPool.holdsLock(tid, pid));
+        assertFalse(bufferPool.isCached(pid));
+        assertSame(run.get(5), bufferPool.getPage(tid, pid, Permissions.READ_ONLY, ring));
+
+        Page cached = bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+        assertNotSame(run.get(5), cached);
+        assertSame(cached, bufferPool.getPage(tid, pid, Permissions.READ_ONLY, ring));
+        bufferPool.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
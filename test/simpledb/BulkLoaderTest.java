@@ -0,0 +1,126 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+
+    private File text;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // a little over 3 pages, with a couple of lines the encoder skips
+        text = File.createTempFile("bulk", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < 1000; i++) {
+            out.print(i + ",name" + (i * 31 % 1000) + "," + (-i * 7) + "\n");
+            if (i % 300 == 0) {
+                out.print("\r\n");
+            }
+        }
+        out.close();
+    }
+
+    private static File tempFile() throws IOException {
+        File f = File.createTempFile("bulk", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.file(f).deleteOnExit();
+        return f;
+    }
+
+    private static byte[] readAll(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        in.readFully(data);
+        in.close();
+        return data;
+    }
+
+    private static List<String> tuples(File f) throws Exception {
+        HeapFile hf = new HeapFile(f, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, f.getName());
+        List<String> tuples = new ArrayList<String>();
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next().toString());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * An ordered load writes the same file as HeapFileEncoder, whatever the
+     * chunk size and number of threads
+     */
+    @Test public void sameAsEncoder() throws Exception {
+        File expected = tempFile();
+        HeapFileEncoder.convert(text, expected, BufferPool.getPageSize(), TYPES.length, TYPES);
+        for (int threads : new int[] {1, 4}) {
+            for (int chunkBytes : new int[] {100, 4096, 1 << 20}) {
+                File actual = tempFile();
+                long n = BulkLoader.convert(text, actual, BufferPool.getPageSize(), TYPES, ',',
+                        threads, true, chunkBytes);
+                assertEquals(1000, n);
+                assertArrayEquals(readAll(expected), readAll(actual));
+            }
+        }
+    }
+
+    /**
+     * An unordered load writes full pages holding the same tuples
+     */
+    @Test public void unordered() throws Exception {
+        File expected = tempFile();
+        HeapFileEncoder.convert(text, expected, BufferPool.getPageSize(), TYPES.length, TYPES);
+        File actual = tempFile();
+        BulkLoader.convert(text, actual, BufferPool.getPageSize(), TYPES, ',', 4, false, 1000);
+        assertEquals(expected.length(), actual.length());
+
+        List<String> want = tuples(expected);
+        List<String> got = tuples(actual);
+        Collections.sort(want);
+        Collections.sort(got);
+        assertEquals(want, got);
+    }
+
+    /**
+     * Empty input gives one empty page, a last line without a line break is
+     * loaded, and lines longer than a chunk are handled
+     */
+    @Test public void edgeCases() throws Exception {
+        File empty = File.createTempFile("bulk", ".txt");
+        empty.deleteOnExit();
+        File out = tempFile();
+        assertEquals(0, BulkLoader.convert(empty, out, BufferPool.getPageSize(), TYPES, ',', 2, true, 16));
+        assertEquals(BufferPool.getPageSize(), out.length());
+        assertEquals(0, tuples(out).size());
+
+        File in = File.createTempFile("bulk", ".txt");
+        in.deleteOnExit();
+        Writer w = new FileWriter(in);
+        w.write("1|a rather long string value|2\n 3 | b |4\n5|c");
+        w.close();
+        out = tempFile();
+        assertEquals(3, BulkLoader.convert(in, out, BufferPool.getPageSize(), TYPES, '|', 2, true, 8));
+        assertEquals(Arrays.asList("1\ta rather long string value\t2", "3\tb\t4", "5\tc\t0"), tuples(out));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        this.td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[] {"id", "name", "value"});
+        this.tid = new TransactionId();
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(i * 7 % 1000));
+        return t;
+    }
+
+    /** @return a column file holding rows 0 .. rows-1 */
+    private ColumnFile createColumnFile(int rows) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < rows; i++) {
+            tuples.add(tuple(i));
+        }
+        File f = File.createTempFile("column", ".dat");
+        f.deleteOnExit();
+        ColumnFile.convert(tuples.iterator(), f, td);
+        return new ColumnFile(f, td);
+    }
+
+    private static List<Tuple> drain(DbFileIterator it) throws Exception {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Rows written by convert come back in order, with all columns
+     */
+    @Test public void convertAndScan() throws Exception {
+        ColumnFile cf = createColumnFile(2500);
+        int segments = (2500 + cf.getRowsPerSegment() - 1) / cf.getRowsPerSegment();
+        assertEquals(segments, cf.numSegments());
+        assertEquals(segments * cf.getPagesPerSegment(), cf.numPages());
+
+        List<Tuple> tuples = drain(cf.iterator(tid));
+        assertEquals(2500, tuples.size());
+        for (int i = 0; i < tuples.size(); i++) {
+            assertEquals(tuple(i).toString(), tuples.get(i).toString());
+        }
+    }
+
+    /**
+     * A scan of some columns returns only those and reads only their pages
+     */
+    @Test public void readsOnlyRequestedColumns() throws Exception {
+        ColumnFile cf = createColumnFile(2500);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = Database.getFileHandleManager().getBytesRead();
+        List<Tuple> tuples = drain(cf.iterator(tid, new int[] {2, 0}, Collections.<Predicate>emptyList()));
+        long read = Database.getFileHandleManager().getBytesRead() - before;
+
+        assertEquals(2500, tuples.size());
+        assertEquals(2, tuples.get(0).getTupleDesc().numFields());
+        assertEquals(new IntField(7 * 123 % 1000), tuples.get(123).getField(0));
+        assertEquals(new IntField(123), tuples.get(123).getField(1));
+        // the string column takes most of every segment and is never read
+        long intPages = (long) cf.numSegments() * (cf.getColumnPages(0) + cf.getColumnPages(2));
+        assertEquals(intPages * BufferPool.getPageSize(), read);
+    }
+
+    /**
+     * Segments whose min and max rule out a predicate are skipped
+     */
+    @Test public void skipsSegments() throws Exception {
+        ColumnFile cf = createColumnFile(2500);
+        int rows = cf.getRowsPerSegment();
+        List<Predicate> preds = Arrays.asList(new Predicate(0, Predicate.Op.EQUALS, new IntField(rows + 5)));
+        List<Tuple> tuples = drain(cf.iterator(tid, new int[] {1}, preds));
+        // only the second segment can hold the row
+        assertEquals(rows, tuples.size());
+        assertEquals("name" + rows, ((StringField) tuples.get(0).getField(0)).getValue());
+
+        preds = Arrays.asList(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(5000)));
+        assertEquals(0, drain(cf.iterator(tid, new int[] {1}, preds)).size());
+    }
+
+    /**
+     * Tuples inserted through the buffer pool are appended across segments
+     * and survive reopening the file
+     */
+    @Test public void insertAndReopen() throws Exception {
+        File f = File.createTempFile("column", ".dat");
+        f.deleteOnExit();
+        ColumnFile cf = new ColumnFile(f, td);
+        int n = cf.getRowsPerSegment() + 10;
+        for (int i = 0; i < n; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), tuple(i));
+        }
+        assertEquals(2, cf.numSegments());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        cf = new ColumnFile(f, td);
+        List<Tuple> tuples = drain(cf.iterator(tid));
+        assertEquals(n, tuples.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(tuple(i).toString(), tuples.get(i).toString());
+        }
+
+        try {
+            cf.deleteTuple(tid, tuples.get(0));
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+    }
+
+    /**
+     * The planner scans a columnar table with a ColumnScan of the columns the
+     * query uses
+     */
+    @Test public void physicalPlan() throws Exception {
+        ColumnFile cf = createColumnFile(2500);
+        Database.getCatalog().addTable(cf, "columnar");
+        TableStats.setTableStats("columnar", new TableStats(cf.getId(), 1000));
+
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT c.name FROM columnar c WHERE c.id < 10;");
+        DbIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+        DbIterator scan = plan;
+        while (scan instanceof Operator) {
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertTrue(scan instanceof ColumnScan);
+        assertArrayEquals(new int[] {0, 1}, ((ColumnScan) scan).getColumns());
+
+        List<String> names = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext()) {
+            names.add(((StringField) plan.next().getField(0)).getValue());
+        }
+        plan.close();
+        assertEquals(10, names.size());
+        assertEquals("name9", names.get(9));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
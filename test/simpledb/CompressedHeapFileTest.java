@@ -0,0 +1,86 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile plain;
+    private HeapFile compressed;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // 3 pages, the last one mostly empty
+        plain = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, 100, null, tuples);
+        File data = File.createTempFile("compressed", ".dat");
+        data.deleteOnExit();
+        FreeSpaceMap.file(data).deleteOnExit();
+        CompressedPageStore.indexFile(data).deleteOnExit();
+        CompressedPageStore.compress(plain.getFile(), data, BufferPool.getPageSize());
+        compressed = Utility.openHeapFile(2, data);
+        tid = new TransactionId();
+    }
+
+    /**
+     * A compressed file is recognised, smaller and reads back the same pages
+     */
+    @Test public void readPages() throws Exception {
+        assertTrue(compressed.isCompressed());
+        assertFalse(plain.isCompressed());
+        assertEquals(plain.numPages(), compressed.numPages());
+        assertTrue(compressed.getFile().length() < plain.getFile().length() / 2);
+
+        for (int i = 0; i < plain.numPages(); i++) {
+            assertArrayEquals(plain.readPage(new HeapPageId(plain.getId(), i)).getPageData(),
+                    compressed.readPage(new HeapPageId(compressed.getId(), i)).getPageData());
+        }
+        List<Page> run = compressed.readPages(new HeapPageId(compressed.getId(), 0), 3);
+        assertEquals(3, run.size());
+        assertEquals(494, ((HeapPage) run.get(2)).getNumEmptySlots());
+        SystemTestUtil.matchTuples(compressed, tuples);
+    }
+
+    /**
+     * Inserted tuples are written compressed and survive reopening the file,
+     * including pages that outgrow their reserved space
+     */
+    @Test public void writeAndReopen() throws Exception {
+        // page 2 compresses well while it is nearly empty, filling it moves it
+        for (int i = 0; i < 600; i++) {
+            ArrayList<Integer> t = new ArrayList<Integer>();
+            t.add(i * 7919);
+            t.add(i * 104729);
+            tuples.add(t);
+            Tuple tup = Utility.getHeapTuple(new int[] {t.get(0), t.get(1)});
+            Database.getBufferPool().insertTuple(tid, compressed.getId(), tup);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(4, compressed.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = Utility.openHeapFile(2, compressed.getFile());
+        assertTrue(reopened.isCompressed());
+        assertEquals(4, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
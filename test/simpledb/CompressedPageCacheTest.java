@@ -0,0 +1,168 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageCacheTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private BufferPool bufferPool;
+    private CompressedPageCache tier;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 20 pages of values below 16, which deflate well
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, 16, null, null);
+        tid = new TransactionId();
+        bufferPool = new BufferPool(5, "fifo", 1);
+        bufferPool.getPageWriter().setEnabled(false);
+        tier = bufferPool.getCompressedCache();
+        tier.setCapacityBytes(1 << 20);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private void read(int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            bufferPool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Evicted pages are kept compressed, and a miss on them is served from
+     * the tier with the bytes that are on disk
+     */
+    @Test public void evictedPagesServedFromTier() throws Exception {
+        read(0, 10);
+        assertEquals(5, tier.getPages());
+        assertEquals(5, tier.getPagesAdded());
+        assertTrue(tier.getCompressionRatio() > 2);
+        assertEquals(0, tier.getHits());
+        assertEquals(10, tier.getMisses());
+
+        for (int i = 0; i < 5; i++) {
+            Page page = bufferPool.getPage(tid, pid(i), Permissions.READ_ONLY);
+            assertArrayEquals(hf.readPage(pid(i)).getPageData(), page.getPageData());
+            // a page is in one tier only
+            assertFalse(tier.contains(pid(i)));
+        }
+        assertEquals(5, tier.getHits());
+        assertEquals(5.0 / 15, tier.getHitRatio(), 1e-9);
+        assertEquals(5, tier.getPages());
+        assertTrue(bufferPool.getMetrics().report().contains("second tier: 5 pages"));
+    }
+
+    /**
+     * The least recently used images are dropped to stay within the budget
+     */
+    @Test public void budget() throws Exception {
+        read(0, 10);
+        long perPage = tier.getUsedBytes() / tier.getPages();
+        tier.setCapacityBytes(2 * perPage + perPage / 2);
+        assertEquals(2, tier.getPages());
+        assertEquals(3, tier.getPagesDropped());
+        assertTrue(tier.contains(pid(3)));
+        assertTrue(tier.contains(pid(4)));
+
+        read(10, 20);
+        assertEquals(2, tier.getPages());
+        assertTrue(tier.getUsedBytes() <= tier.getCapacityBytes());
+
+        tier.setCapacityBytes(0);
+        assertFalse(tier.isEnabled());
+        assertEquals(0, tier.getPages());
+        read(0, 10);
+        assertEquals(0, tier.getPages());
+    }
+
+    /**
+     * Dirty pages are written before they are kept, and images are dropped
+     * when the page is read from disk again, discarded or written while it
+     * is not cached
+     */
+    @Test public void imagesStayCurrent() throws Exception {
+        Page page = bufferPool.getPage(tid, pid(0), Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+        bufferPool.unpinPage(pid(0));
+        read(1, 6);
+        assertTrue(tier.contains(pid(0)));
+        assertEquals(1, bufferPool.getMetrics().getDirtyPageWrites());
+
+        bufferPool.getPages(tid, pid(1), 2, Permissions.READ_ONLY);
+        assertFalse(tier.contains(pid(1)));
+        assertFalse(tier.contains(pid(2)));
+
+        bufferPool.discardPage(pid(0));
+        assertFalse(tier.contains(pid(0)));
+        read(0, 1);
+        read(6, 12);
+        assertTrue(tier.contains(pid(0)));
+        bufferPool.flushPages(tid);
+        assertTrue(tier.contains(pid(0)));
+    }
+
+    /**
+     * Creating a HeapFile for a file drops the images of its pages, which may
+     * no longer be the pages in the file
+     */
+    @Test public void rewrittenFile() throws Exception {
+        // HeapFile drops the images from the tier of the Database's buffer pool
+        bufferPool = Database.resetBufferPool(5);
+        tier = bufferPool.getCompressedCache();
+        tier.setCapacityBytes(1 << 20);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 2, 16, null, null);
+        HeapPageId otherPid = new HeapPageId(other.getId(), 0);
+        bufferPool.getPage(tid, otherPid, Permissions.READ_ONLY);
+        read(0, 10);
+        assertTrue(tier.contains(otherPid));
+        assertTrue(tier.getPages() > 1);
+
+        HeapFile rewritten = new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertEquals(hf.getId(), rewritten.getId());
+        assertEquals(1, tier.getPages());
+        assertTrue(tier.contains(otherPid));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(tier.contains(pid(i)));
+        }
+        tier.remove(otherPid);
+        assertEquals(0, tier.getUsedBytes());
+    }
+
+    /**
+     * Pages of a B+ tree keep their kind when they come back from the tier
+     */
+    @Test public void btreePages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        BTreePageId rootPtr = BTreeRootPtrPage.getId(bf.getId());
+        BTreePageId root = ((BTreeRootPtrPage) bf.readPage(rootPtr)).getRootId();
+        bufferPool.setIndexReserve(0);
+        bufferPool.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        bufferPool.getPage(tid, root, Permissions.READ_ONLY);
+        read(0, 5);
+        assertTrue(tier.contains(rootPtr));
+        assertTrue(tier.contains(root));
+
+        Page page = bufferPool.getPage(tid, root, Permissions.READ_ONLY);
+        assertTrue(page instanceof BTreeInternalPage);
+        assertArrayEquals(bf.readPage(root).getPageData(), page.getPageData());
+        page = bufferPool.getPage(tid, rootPtr, Permissions.READ_ONLY);
+        assertEquals(root, ((BTreeRootPtrPage) page).getRootId());
+        assertEquals(2, tier.getHits());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedPageCacheTest.class);
+    }
+}
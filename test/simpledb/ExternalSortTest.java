@@ -0,0 +1,119 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE};
+
+    /** @return the records (key, first + i) for i = 0 .. n-1, with keys from a small range */
+    private static byte[] records(int first, int n, Random r) {
+        ByteBuffer buf = ByteBuffer.allocate(n * 8);
+        for (int i = 0; i < n; i++) {
+            buf.putInt(r.nextInt(1000) - 500);
+            buf.putInt(first + i);
+        }
+        return buf.array();
+    }
+
+    private static void checkSorted(ExternalSort sort, int n) throws Exception {
+        ExternalSort.Cursor c = sort.sorted();
+        int seen = 0;
+        int lastKey = Integer.MIN_VALUE;
+        int lastSeq = -1;
+        while (c.next()) {
+            ByteBuffer rec = ByteBuffer.wrap(c.buffer(), c.offset(), 8);
+            int key = rec.getInt();
+            int seq = rec.getInt();
+            assertTrue(key >= lastKey);
+            // equal keys keep the order they were added in
+            if (key == lastKey) {
+                assertTrue(seq > lastSeq);
+            }
+            lastKey = key;
+            lastSeq = seq;
+            seen++;
+        }
+        assertEquals(n, seen);
+    }
+
+    /**
+     * Input that fits into memory is sorted without writing runs
+     */
+    @Test public void inMemory() throws Exception {
+        ExternalSort sort = new ExternalSort(TYPES, 0, 1 << 20);
+        byte[] recs = records(0, 5000, new Random(1));
+        sort.add(recs, 5000);
+        assertEquals(5000, sort.size());
+        assertEquals(0, sort.numRuns());
+        checkSorted(sort, 5000);
+    }
+
+    /**
+     * Input larger than the memory budget is spilled to runs, which may take
+     * more than one merge pass, and still comes out sorted and stable
+     */
+    @Test public void spillsRuns() throws Exception {
+        // 100 records per run
+        ExternalSort sort = new ExternalSort(TYPES, 0, 100 * 16);
+        Random r = new Random(2);
+        int n = 0;
+        for (int i = 0; i < 150; i++) {
+            sort.add(records(n, 70, r), 70);
+            n += 70;
+        }
+        assertTrue(sort.numRuns() > ExternalSort.MERGE_FAN_IN);
+        checkSorted(sort, n);
+        sort.close();
+    }
+
+    /**
+     * String keys sort like StringFields
+     */
+    @Test public void stringKeys() throws Exception {
+        Type[] types = {Type.STRING_TYPE, Type.INT_TYPE};
+        ExternalSort sort = new ExternalSort(types, 0, 10 * (types[0].getLen() + 4 + 8));
+        String[] values = {"pear", "apple", "", "apples", "Zebra", "app", "banana", "apple"};
+        List<String> expected = new ArrayList<String>();
+        for (int round = 0; round < 5; round++) {
+            for (String v : values) {
+                Tuple t = new Tuple(new TupleDesc(types));
+                t.setField(0, new StringField(v + round % 2, Type.STRING_LEN));
+                t.setField(1, new IntField(round));
+                ByteBuffer buf = ByteBuffer.allocate(sort.getRecordSize());
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                t.getField(0).serialize(out);
+                t.getField(1).serialize(out);
+                buf.put(bytes.toByteArray());
+                sort.add(buf.array(), 1);
+                expected.add(v + round % 2);
+            }
+        }
+        assertTrue(sort.numRuns() > 0);
+        Collections.sort(expected);
+
+        List<String> actual = new ArrayList<String>();
+        ExternalSort.Cursor c = sort.sorted();
+        while (c.next()) {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(c.buffer(), c.offset(), sort.getRecordSize()));
+            actual.add(((StringField) Type.STRING_TYPE.parse(in)).getValue());
+        }
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FileHandleManagerTest {
+    private FileHandleManager files;
+    private File a;
+    private File b;
+    private File c;
+
+    @Before public void setUp() throws Exception {
+        files = new FileHandleManager(2);
+        a = File.createTempFile("fhm", ".dat");
+        b = File.createTempFile("fhm", ".dat");
+        c = File.createTempFile("fhm", ".dat");
+        a.deleteOnExit();
+        b.deleteOnExit();
+        c.deleteOnExit();
+    }
+
+    @After public void tearDown() {
+        files.closeAll();
+    }
+
+    /**
+     * Unit test for FileHandleManager.read() and write()
+     */
+    @Test public void readWrite() throws Exception {
+        files.write(a, 4, new byte[] {1, 2, 3, 4});
+        assertEquals(8, files.length(a));
+        assertEquals(8, a.length());
+
+        byte[] buf = new byte[8];
+        assertEquals(8, files.read(a, 0, buf));
+        assertArrayEquals(new byte[] {0, 0, 0, 0, 1, 2, 3, 4}, buf);
+
+        // short read at the end of the file, then past it
+        buf = new byte[4];
+        assertEquals(2, files.read(a, 6, buf));
+        assertArrayEquals(new byte[] {3, 4, 0, 0}, buf);
+        assertEquals(-1, files.read(a, 8, buf));
+    }
+
+    /**
+     * Unit test for FileHandleManager.append()
+     */
+    @Test public void append() throws Exception {
+        assertEquals(0, files.append(a, new byte[3]));
+        assertEquals(3, files.append(a, new byte[5]));
+        assertEquals(8, files.length(a));
+    }
+
+    /**
+     * Opening more files than the limit closes the least recently used one,
+     * which is transparently reopened on its next use.
+     */
+    @Test public void closesLeastRecentlyUsed() throws Exception {
+        files.write(a, 0, new byte[] {7});
+        files.write(b, 0, new byte[] {8});
+        assertEquals(2, files.getOpenCount());
+        files.write(c, 0, new byte[] {9});
+        assertEquals(2, files.getOpenCount());
+
+        byte[] buf = new byte[1];
+        assertEquals(1, files.read(a, 0, buf));
+        assertEquals(7, buf[0]);
+        assertEquals(2, files.getOpenCount());
+    }
+
+    /**
+     * Changes to an open file from outside the manager are seen at once, and
+     * close() makes a file replaced under its path visible.
+     */
+    @Test public void externalChanges() throws Exception {
+        assertEquals(0, files.length(a));
+        FileOutputStream fos = new FileOutputStream(a, true);
+        fos.write(new byte[10]);
+        fos.close();
+        assertEquals(10, files.length(a));
+        assertEquals(10, files.append(a, new byte[2]));
+
+        // truncated from outside
+        new FileOutputStream(a).close();
+        assertEquals(0, files.length(a));
+        assertEquals(0, files.append(a, new byte[2]));
+
+        // replaced by another file
+        FileOutputStream other = new FileOutputStream(b);
+        other.write(new byte[5]);
+        other.close();
+        assertTrue(a.delete());
+        assertTrue(b.renameTo(a));
+        assertEquals(2, files.length(a));
+        files.close(a);
+        assertEquals(5, files.length(a));
+    }
+
+    /**
+     * Files are opened read-only until they are written, so a missing file
+     * is not created by a read and a read-only file can be read.
+     */
+    @Test public void readOnly() throws Exception {
+        File missing = new File(a.getPath() + ".missing");
+        try {
+            files.read(missing, 0, new byte[1]);
+            fail("read a missing file");
+        } catch (FileNotFoundException e) {
+            // expected
+        }
+        assertFalse(missing.exists());
+        assertEquals(0, files.length(missing));
+
+        files.write(a, 0, new byte[] {5});
+        files.close(a);
+        assertTrue(a.setWritable(false));
+        try {
+            byte[] buf = new byte[1];
+            assertEquals(1, files.read(a, 0, buf));
+            assertEquals(5, buf[0]);
+        } finally {
+            a.setWritable(true);
+        }
+
+        // a file opened for reading is written through a second channel
+        files.write(a, 1, new byte[] {6});
+        byte[] buf = new byte[2];
+        assertEquals(2, files.read(a, 0, buf));
+        assertArrayEquals(new byte[] {5, 6}, buf);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileHandleManagerTest.class);
+    }
+}
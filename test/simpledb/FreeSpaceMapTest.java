@@ -0,0 +1,162 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private File file;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("fsm", FreeSpaceMap.SUFFIX);
+        file.deleteOnExit();
+        file.delete();
+        tid = new TransactionId();
+    }
+
+    /**
+     * find returns the first page with enough room, and pages the map has no
+     * entry for count as having room
+     */
+    @Test public void findAndSet() throws Exception {
+        FreeSpaceMap map = new FreeSpaceMap(file, 3);
+        assertEquals(0, map.find(1));
+        for (int i = 0; i < 3; i++) {
+            map.set(i, 0);
+        }
+        assertEquals(-1, map.find(1));
+        map.set(1, 5);
+        assertEquals(1, map.find(1));
+        assertEquals(1, map.find(5));
+        assertEquals(-1, map.find(6));
+
+        // grows past its initial size, and past pages it never saw
+        map.set(100, 7);
+        assertEquals(101, map.numPages());
+        assertEquals(FreeSpaceMap.UNKNOWN, map.get(50));
+        assertEquals(3, map.find(6));
+        map.addPages(200);
+        assertEquals(200, map.numPages());
+        assertEquals(FreeSpaceMap.UNKNOWN, map.get(150));
+    }
+
+    /**
+     * Entries survive reopening the map, and pages past its end are unknown
+     */
+    @Test public void reopen() throws Exception {
+        FreeSpaceMap map = new FreeSpaceMap(file, 0);
+        map.set(0, 0);
+        map.set(3, 2);
+        Database.getFileHandleManager().close(file);
+
+        map = new FreeSpaceMap(file, 6);
+        assertEquals(0, map.get(0));
+        assertEquals(FreeSpaceMap.UNKNOWN, map.get(1));
+        assertEquals(2, map.get(3));
+        assertEquals(FreeSpaceMap.UNKNOWN, map.get(4));
+        assertEquals(1, map.find(1));
+    }
+
+    /**
+     * Once the map knows that the pages of a table are full, an insert reads
+     * no page and appends a new one; a delete makes the page it freed the
+     * place for the next insert
+     */
+    @Test public void heapFileInserts() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 20, 100, null, tuples);
+        assertEquals(20, hf.numPages());
+
+        // the first insert learns that all pages are full
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        assertEquals(21, hf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, hf.getFile());
+        long before = Database.getFileHandleManager().getBytesRead();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(3, 4));
+        assertEquals(BufferPool.getPageSize(), Database.getFileHandleManager().getBytesRead() - before);
+        assertEquals(21, hf.numPages());
+
+        // free a slot on page 7
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple victim = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().pageNumber() == 7) {
+                victim = t;
+                break;
+            }
+        }
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().flushAllPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf = Utility.openHeapFile(2, hf.getFile());
+        before = Database.getFileHandleManager().getBytesRead();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(5, 6));
+        assertEquals(BufferPool.getPageSize(), Database.getFileHandleManager().getBytesRead() - before);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 7));
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * Slotted pages record their free space in bytes, and a tuple too big
+     * for the room a page has left goes elsewhere
+     */
+    @Test public void slottedPages() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.file(f).deleteOnExit();
+        HeapFile hf = new HeapFile(f, td, HeapFile.PageFormat.SLOTTED);
+        Database.getCatalog().addTable(hf, "slotted");
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("x", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        FreeSpaceMap map = new FreeSpaceMap(FreeSpaceMap.file(f), hf.numPages());
+        HeapFilePage page = (HeapFilePage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(page.getFreeSpace(), map.get(0));
+        assertTrue(map.get(0) > Type.STRING_LEN);
+    }
+
+    /**
+     * The map file is only created by the first entry written, and is
+     * dropped with a removed data file
+     */
+    @Test public void mapFile() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        File map = FreeSpaceMap.file(hf.getFile());
+        assertFalse(map.exists());
+
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(map.exists());
+
+        assertTrue(hf.getFile().delete());
+        new HeapFile(hf.getFile(), hf.getTupleDesc());
+        assertFalse(map.exists());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -77,6 +77,68 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through the memory-mapped region
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage expected = (HeapPage) hf.readPage(pid);
+
+        hf.setMemoryMapped(true);
+        assertTrue(hf.isMemoryMapped());
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        assertArrayEquals(expected.getPageData(), page.getPageData());
+
+        // pages appended after the file was mapped are still readable
+        HeapPage newPage = new HeapPage(new HeapPageId(hf.getId(), 1), HeapPage.createEmptyPageData());
+        newPage.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(newPage);
+        page = (HeapPage) hf.readPage(newPage.getId());
+        assertEquals(newPage.getNumEmptySlots(), page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(0));
+    }
+
+    /**
+     * Unit test for HeapFile.readPages()
+     */
+    @Test
+    public void readPages() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, null, null);
+        List<Page> pages = threePageFile.readPages(new HeapPageId(threePageFile.getId(), 1), 8);
+
+        // the run stops at the end of the file
+        assertEquals(2, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            HeapPageId pid = new HeapPageId(threePageFile.getId(), i + 1);
+            assertEquals(pid, pages.get(i).getId());
+            assertArrayEquals(threePageFile.readPage(pid).getPageData(), pages.get(i).getPageData());
+        }
+        assertEquals(0, ((HeapPage) pages.get(0)).getNumEmptySlots());
+        assertEquals(494, ((HeapPage) pages.get(1)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for BufferPool.getPages()
+     */
+    @Test
+    public void bufferPoolGetPages() throws Exception {
+        HeapFile threePageFile = SystemTestUtil.createRandomHeapFile(2, 504 * 2 + 10, null, null);
+        HeapPageId first = new HeapPageId(threePageFile.getId(), 0);
+        List<Page> pages = Database.getBufferPool().getPages(tid, first, 3, Permissions.READ_ONLY);
+        assertEquals(3, pages.size());
+        for (int i = 0; i < pages.size(); i++) {
+            // the run is now cached
+            HeapPageId pid = new HeapPageId(threePageFile.getId(), i);
+            assertSame(pages.get(i), Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY));
+        }
+
+        // a cached start page is returned on its own
+        pages = Database.getBufferPool().getPages(tid, first, 3, Permissions.READ_ONLY);
+        assertEquals(1, pages.size());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
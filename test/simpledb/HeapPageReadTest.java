@@ -13,6 +13,9 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -57,6 +60,7 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         try {
             File temp = File.createTempFile("table", ".dat");
             temp.deleteOnExit();
+            FreeSpaceMap.file(temp).deleteOnExit();
             HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
             EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
         } catch (IOException e) {
@@ -120,6 +124,48 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getTuple()
+     */
+    @Test public void getTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple tup = page.getTuple(7);
+        assertEquals(EXAMPLE_VALUES[7][0], ((IntField) tup.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[7][1], ((IntField) tup.getField(1)).getValue());
+        assertEquals(7, tup.getRecordId().tupleno());
+        // a decoded slot is decoded only once
+        assertSame(tup, page.getTuple(7));
+        assertNull(page.getTuple(20));
+    }
+
+    /**
+     * Lazily and eagerly decoded pages hold the same tuples and bytes
+     */
+    @Test public void lazyDecoding() throws Exception {
+        boolean lazy = HeapPage.isLazyDecoding();
+        try {
+            HeapPage.setLazyDecoding(false);
+            HeapPage eager = new HeapPage(pid, EXAMPLE_DATA);
+            HeapPage.setLazyDecoding(true);
+            HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+            assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+            Iterator<Tuple> expected = eager.iterator();
+            Iterator<Tuple> it = page.iterator();
+            while (expected.hasNext()) {
+                assertEquals(expected.next().toString(), it.next().toString());
+            }
+            assertFalse(it.hasNext());
+
+            // slots that were never decoded survive a rewrite of the page
+            page.deleteTuple(page.getTuple(3));
+            eager.deleteTuple(eager.getTuple(3));
+            assertArrayEquals(eager.getPageData(), page.getPageData());
+        } finally {
+            HeapPage.setLazyDecoding(lazy);
+        }
+    }
+
     /**
      * JUnit suite target
      */
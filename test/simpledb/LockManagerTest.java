@@ -0,0 +1,558 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private static final long WAIT = 200;
+
+    private LockManager lm;
+    private PageId p0, p1;
+    private TransactionId tid1, tid2, tid3;
+
+    /**
+     * A thread acquiring one lock, remembering whether it got it or was
+     * aborted.
+     */
+    private class Acquirer extends Thread {
+        private final TransactionId tid;
+        private final PageId pid;
+        private final int tableId;
+        private final boolean exclusive;
+        private volatile boolean acquired;
+        private volatile boolean aborted;
+
+        Acquirer(TransactionId tid, PageId pid, boolean exclusive) {
+            this.tid = tid;
+            this.pid = pid;
+            this.tableId = pid.getTableId();
+            this.exclusive = exclusive;
+            start();
+        }
+
+        /** Acquire a lock on the whole table tableId */
+        Acquirer(TransactionId tid, int tableId, boolean exclusive) {
+            this.tid = tid;
+            this.pid = null;
+            this.tableId = tableId;
+            this.exclusive = exclusive;
+            start();
+        }
+
+        public void run() {
+            try {
+                if (pid == null) {
+                    lm.acquireTable(tid, tableId, exclusive);
+                } else {
+                    lm.acquire(tid, pid, exclusive);
+                }
+                acquired = true;
+            } catch (TransactionAbortedException e) {
+                aborted = true;
+            }
+        }
+
+        /** @return true if the thread is still waiting after a while */
+        boolean blocked() throws InterruptedException {
+            join(WAIT);
+            return isAlive();
+        }
+    }
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() {
+        lm = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        p1 = new HeapPageId(1, 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /**
+     * Shared locks are compatible with each other, an exclusive lock with
+     * nothing else
+     */
+    @Test public void sharedAndExclusive() throws Exception {
+        lm.acquire(tid1, p0, false);
+        assertFalse(new Acquirer(tid2, p0, false).blocked());
+        Acquirer writer = new Acquirer(tid3, p0, true);
+        assertTrue(writer.blocked());
+        lm.releaseAll(tid1);
+        assertTrue(writer.blocked());
+        lm.release(tid2, p0);
+        writer.join();
+        assertTrue(writer.acquired);
+        assertTrue(lm.holdsLock(tid3, p0));
+        assertFalse(lm.holdsLock(tid1, p0));
+        assertTrue(new Acquirer(tid1, p0, false).blocked());
+    }
+
+    /**
+     * The only holder of a shared lock gets the exclusive lock at once,
+     * another holder makes it wait
+     */
+    @Test public void upgrade() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid1, p0, true);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        // a weaker request is granted by the exclusive lock
+        lm.acquire(tid1, p0, false);
+        assertTrue(lm.holdsExclusive(tid1, p0));
+        lm.releaseAll(tid1);
+
+        lm.acquire(tid1, p1, false);
+        lm.acquire(tid2, p1, false);
+        Acquirer upgrade = new Acquirer(tid1, p1, true);
+        assertTrue(upgrade.blocked());
+        lm.releaseAll(tid2);
+        upgrade.join();
+        assertTrue(upgrade.acquired);
+        assertEquals(Collections.singleton(p1), lm.exclusivePages(tid1));
+    }
+
+    /**
+     * A new shared request waits behind a waiting exclusive one instead of
+     * joining the shared holders
+     */
+    @Test public void fifo() throws Exception {
+        lm.acquire(tid1, p0, false);
+        Acquirer writer = new Acquirer(tid2, p0, true);
+        assertTrue(writer.blocked());
+        Acquirer reader = new Acquirer(tid3, p0, false);
+        assertTrue(reader.blocked());
+        lm.releaseAll(tid1);
+        writer.join();
+        assertTrue(writer.acquired);
+        assertTrue(reader.blocked());
+        lm.releaseAll(tid2);
+        reader.join();
+        assertTrue(reader.acquired);
+    }
+
+    /**
+     * Two transactions each waiting for a lock the other holds are a
+     * deadlock, and the younger one is aborted
+     */
+    @Test public void deadlock() throws Exception {
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, true);
+        Acquirer older = new Acquirer(tid1, p1, false);
+        assertTrue(older.blocked());
+        Acquirer younger = new Acquirer(tid2, p0, false);
+        younger.join();
+        assertTrue(younger.aborted);
+        assertEquals(1, lm.getDeadlocks());
+        assertTrue(older.blocked());
+
+        // the aborted transaction keeps its locks until it completes
+        lm.releaseAll(tid2);
+        older.join();
+        assertTrue(older.acquired);
+    }
+
+    /**
+     * Two holders of a shared lock that both upgrade are a deadlock
+     */
+    @Test public void upgradeDeadlock() throws Exception {
+        lm.acquire(tid1, p0, false);
+        lm.acquire(tid2, p0, false);
+        Acquirer older = new Acquirer(tid1, p0, true);
+        assertTrue(older.blocked());
+        Acquirer younger = new Acquirer(tid2, p0, true);
+        younger.join();
+        assertTrue(younger.aborted);
+        lm.releaseAll(tid2);
+        older.join();
+        assertTrue(older.acquired);
+    }
+
+    /**
+     * A cycle through three transactions aborts the youngest of them, even
+     * when an older one closes it
+     */
+    @Test public void longerCycle() throws Exception {
+        PageId p2 = new HeapPageId(1, 2);
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, true);
+        lm.acquire(tid3, p2, true);
+        Acquirer a2 = new Acquirer(tid2, p2, true);
+        assertTrue(a2.blocked());
+        Acquirer a3 = new Acquirer(tid3, p0, true);
+        assertTrue(a3.blocked());
+        Acquirer a1 = new Acquirer(tid1, p1, true);
+        a3.join();
+        assertTrue(a3.aborted);
+        assertTrue(a1.blocked());
+        assertTrue(a2.blocked());
+        lm.releaseAll(tid3);
+        a2.join();
+        assertTrue(a2.acquired);
+        lm.releaseAll(tid2);
+        a1.join();
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * A request that closes two cycles at once aborts a victim in each
+     */
+    @Test public void severalCycles() throws Exception {
+        lm.acquire(tid1, p0, true);
+        lm.acquire(tid2, p1, false);
+        lm.acquire(tid3, p1, false);
+        Acquirer a2 = new Acquirer(tid2, p0, false);
+        Acquirer a3 = new Acquirer(tid3, p0, false);
+        assertTrue(a2.blocked());
+        assertTrue(a3.blocked());
+        Acquirer a1 = new Acquirer(tid1, p1, true);
+        a2.join();
+        a3.join();
+        assertTrue(a2.aborted);
+        assertTrue(a3.aborted);
+        assertEquals(2, lm.getDeadlocks());
+        assertTrue(a1.blocked());
+        lm.releaseAll(tid2);
+        lm.releaseAll(tid3);
+        a1.join();
+        assertTrue(a1.acquired);
+    }
+
+    /**
+     * The BufferPool locks the pages it returns, flushes the pages of a
+     * transaction that commits and rolls back those of one that aborts
+     */
+    @Test public void bufferPoolTransactions() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        byte[] before = hf.readPage(pid).getPageData();
+
+        bp.getPage(tid1, pid, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid1, pid));
+        bp.transactionComplete(tid1);
+        assertFalse(bp.holdsLock(tid1, pid));
+
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        bp.insertTuple(tid2, hf.getId(), t);
+        assertTrue(bp.getLockManager().holdsExclusive(tid2, pid));
+        bp.transactionComplete(tid2, false);
+        assertArrayEquals(before, hf.readPage(pid).getPageData());
+        HeapPage page = (HeapPage) bp.getPage(tid3, pid, Permissions.READ_ONLY);
+        assertArrayEquals(before, page.getPageData());
+
+        bp.insertTuple(tid3, hf.getId(), t);
+        bp.transactionComplete(tid3, true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = hf.iterator(reader);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(11, count);
+    }
+
+    /**
+     * An abort puts back a page the transaction changed even if the page was
+     * written and evicted before, and read again since
+     */
+    @Test public void abortAfterEviction() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 60, null, null);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        byte[] before = hf.readPage(pid).getPageData();
+
+        Tuple t = new Tuple(hf.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        bp.insertTuple(tid1, hf.getId(), t);
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < other.numPages(); i++) {
+                bp.getPage(tid2, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+                bp.unpinPage(new HeapPageId(other.getId(), i));
+            }
+            // read again after the eviction, with the insert on disk
+            if (round == 0) {
+                bp.getPage(tid1, pid, Permissions.READ_WRITE);
+                bp.unpinPage(pid);
+            }
+        }
+        bp.transactionComplete(tid2);
+        bp.transactionComplete(tid1, false);
+        assertArrayEquals(before, hf.readPage(pid).getPageData());
+
+        DbFileIterator it = hf.iterator(tid3);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(10, count);
+        bp.transactionComplete(tid3);
+    }
+
+    /**
+     * Intention modes are compatible with each other, S with IS and S, and
+     * X with nothing
+     */
+    @Test public void modes() {
+        LockManager.Mode IS = LockManager.Mode.IS, IX = LockManager.Mode.IX,
+                S = LockManager.Mode.S, X = LockManager.Mode.X;
+        assertTrue(IS.compatible(IX));
+        assertTrue(IX.compatible(IX));
+        assertTrue(IS.compatible(S));
+        assertFalse(IX.compatible(S));
+        assertTrue(S.compatible(S));
+        assertFalse(IS.compatible(X));
+        assertTrue(S.covers(IS));
+        assertFalse(S.covers(IX));
+        assertTrue(X.covers(IX));
+        assertEquals(S, IS.join(S));
+        assertEquals(IX, IS.join(IX));
+        assertEquals(X, S.join(IX));
+    }
+
+    private PageId page(int pageNo) {
+        return new HeapPageId(1, pageNo);
+    }
+
+    /**
+     * A lock on a table waits for the page locks of other transactions that
+     * conflict with it, and page locks wait for it
+     */
+    @Test public void tableLocks() throws Exception {
+        lm.acquire(tid1, p0, false);
+        assertEquals(LockManager.Mode.IS, lm.tableMode(tid1, 1));
+        assertFalse(new Acquirer(tid3, 1, false).blocked());
+        assertTrue(lm.holdsLock(tid3, p1));
+        assertFalse(lm.holdsExclusive(tid3, p1));
+        Acquirer writer = new Acquirer(tid2, 1, true);
+        assertTrue(writer.blocked());
+
+        lm.releaseAll(tid1);
+        assertTrue(writer.blocked());
+        lm.releaseAll(tid3);
+        writer.join();
+        assertTrue(writer.acquired);
+        assertTrue(lm.holdsExclusive(tid2, p1));
+        assertTrue(new Acquirer(tid1, p1, false).blocked());
+        // a page of another table
+        assertFalse(new Acquirer(tid3, new HeapPageId(2, 0), true).blocked());
+    }
+
+    /**
+     * A transaction taking the threshold of page locks of a table trades
+     * them for a lock on the table
+     */
+    @Test public void escalation() throws Exception {
+        lm.setEscalationThreshold(3);
+        for (int i = 0; i < 3; i++) {
+            lm.acquire(tid1, page(i), false);
+        }
+        assertEquals(LockManager.Mode.S, lm.tableMode(tid1, 1));
+        assertEquals(1, lm.getEscalations());
+        assertEquals(0, lm.getPageLocks());
+        assertTrue(lm.holdsLock(tid1, page(10)));
+        Acquirer writer = new Acquirer(tid2, page(10), true);
+        assertTrue(writer.blocked());
+        lm.releaseAll(tid1);
+        writer.join();
+        assertTrue(writer.acquired);
+        lm.releaseAll(tid2);
+
+        for (int i = 0; i < 3; i++) {
+            lm.acquire(tid3, page(i), i != 1);
+        }
+        assertEquals(LockManager.Mode.X, lm.tableMode(tid3, 1));
+        lm.acquire(tid3, page(7), true);
+        assertEquals(0, lm.getPageLocks());
+        assertEquals(new HashSet<>(Arrays.asList(page(0), page(2), page(7))), lm.exclusivePages(tid3));
+        assertEquals(new HashSet<>(Arrays.asList(page(0), page(2), page(7))), lm.lockedPages(tid3));
+        lm.releaseAll(tid3);
+        assertNull(lm.tableMode(tid3, 1));
+        assertTrue(lm.exclusivePages(tid3).isEmpty());
+    }
+
+    /**
+     * Escalation never waits: while the table lock cannot be granted the
+     * transaction goes on with page locks, and tries again after another
+     * threshold of them
+     */
+    @Test public void blockedEscalation() throws Exception {
+        lm.setEscalationThreshold(3);
+        lm.acquire(tid2, page(9), false);
+        for (int i = 0; i < 3; i++) {
+            lm.acquire(tid1, page(i), true);
+        }
+        assertEquals(LockManager.Mode.IX, lm.tableMode(tid1, 1));
+        assertEquals(0, lm.getEscalations());
+        assertEquals(4, lm.getPageLocks());
+        assertFalse(new Acquirer(tid3, page(8), false).blocked());
+
+        lm.releaseAll(tid2);
+        lm.releaseAll(tid3);
+        // releasing a page lock and taking it again is not another threshold
+        lm.release(tid1, page(2));
+        lm.acquire(tid1, page(2), true);
+        assertEquals(LockManager.Mode.IX, lm.tableMode(tid1, 1));
+        for (int i = 3; i < 5; i++) {
+            lm.acquire(tid1, page(i), true);
+        }
+        assertEquals(LockManager.Mode.IX, lm.tableMode(tid1, 1));
+        // the count passes the next attempt even if released meanwhile
+        lm.release(tid1, page(4));
+        lm.acquire(tid1, page(5), true);
+        assertEquals(LockManager.Mode.IX, lm.tableMode(tid1, 1));
+        lm.acquire(tid1, page(6), true);
+        assertEquals(LockManager.Mode.X, lm.tableMode(tid1, 1));
+        assertEquals(1, lm.getEscalations());
+        assertEquals(6, lm.exclusivePages(tid1).size());
+    }
+
+    /**
+     * A lower threshold set while a transaction holds page locks applies to
+     * its next page lock
+     */
+    @Test public void loweredThreshold() throws Exception {
+        lm.setEscalationThreshold(10);
+        for (int i = 0; i < 5; i++) {
+            lm.acquire(tid1, page(i), false);
+        }
+        assertEquals(LockManager.Mode.IS, lm.tableMode(tid1, 1));
+        lm.setEscalationThreshold(3);
+        lm.acquire(tid1, page(5), false);
+        assertEquals(LockManager.Mode.S, lm.tableMode(tid1, 1));
+        assertEquals(0, lm.getPageLocks());
+    }
+
+    /**
+     * Escalation can be turned off
+     */
+    @Test public void noEscalation() throws Exception {
+        lm.setEscalationThreshold(0);
+        for (int i = 0; i < 10; i++) {
+            lm.acquire(tid1, page(i), false);
+        }
+        assertEquals(LockManager.Mode.IS, lm.tableMode(tid1, 1));
+        assertEquals(10, lm.getPageLocks());
+    }
+
+    /**
+     * A scan chosen as the victim of a deadlock throws
+     * TransactionAbortedException instead of failing on a missing page
+     */
+    @Test public void scanAbortedByDeadlock() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final HeapPageId first = new HeapPageId(hf.getId(), 0);
+        final HeapPageId second = new HeapPageId(hf.getId(), 1);
+        bp.getPage(tid1, first, Permissions.READ_WRITE);
+        bp.getPage(tid2, second, Permissions.READ_WRITE);
+
+        final DbFileIterator scan = hf.iterator(tid2);
+        final Throwable[] thrown = new Throwable[2];
+        Thread scanner = new Thread() {
+            public void run() {
+                try {
+                    scan.open();
+                    while (scan.hasNext()) {
+                        scan.next();
+                    }
+                } catch (Throwable e) {
+                    thrown[0] = e;
+                }
+            }
+        };
+        scanner.start();
+        scanner.join(WAIT);
+        assertTrue(scanner.isAlive());
+        // closes the cycle, and the younger transaction is aborted
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    bp.getPage(tid1, second, Permissions.READ_ONLY);
+                } catch (Exception e) {
+                    thrown[1] = e;
+                }
+            }
+        };
+        reader.start();
+        scanner.join();
+        assertTrue(thrown[0] instanceof TransactionAbortedException);
+        bp.transactionComplete(tid2, false);
+        reader.join();
+        assertNull(thrown[1]);
+        bp.transactionComplete(tid1, false);
+    }
+
+    /**
+     * A scan of a large table locks the table up front, and a bulk delete
+     * under the table lock is rolled back on abort and written on commit
+     */
+    @Test public void scanLocksTable() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        LockManager locks = bp.getLockManager();
+        locks.setEscalationThreshold(4);
+
+        assertEquals(504 * 6, count(hf, tid1));
+        assertEquals(LockManager.Mode.S, locks.tableMode(tid1, hf.getId()));
+        assertEquals(0, locks.getPageLocks());
+        bp.transactionComplete(tid1);
+
+        Delete delete = new Delete(tid2, new SeqScan(tid2, hf.getId()));
+        delete.open();
+        delete.next();
+        delete.close();
+        assertEquals(LockManager.Mode.X, locks.tableMode(tid2, hf.getId()));
+        assertEquals(6, locks.exclusivePages(tid2).size());
+        bp.transactionComplete(tid2, false);
+        assertEquals(504 * 6, count(hf, tid3));
+        bp.transactionComplete(tid3);
+
+        TransactionId deleter = new TransactionId();
+        delete = new Delete(deleter, new SeqScan(deleter, hf.getId()));
+        delete.open();
+        delete.next();
+        delete.close();
+        bp.transactionComplete(deleter, true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, count(hf, new TransactionId()));
+    }
+
+    private int count(HeapFile hf, TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageArenaTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private BufferPool bufferPool;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 30 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 30, null, null);
+        tid = new TransactionId();
+        bufferPool = new BufferPool(10, "clock", 2, true);
+        bufferPool.getPageWriter().setEnabled(false);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private static List<Tuple> tuples(Iterator<Tuple> it) {
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        return tuples;
+    }
+
+    private static void assertSameTuples(List<Tuple> expected, List<Tuple> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), actual.get(i).toString());
+            assertEquals(expected.get(i).getRecordId(), actual.get(i).getRecordId());
+        }
+    }
+
+    /**
+     * Every slot of the arena is a separate page-sized buffer off the heap
+     */
+    @Test public void slots() {
+        PageArena arena = bufferPool.getArena();
+        assertEquals(10, arena.getNumSlots());
+        assertEquals(10L * BufferPool.getPageSize(), arena.capacity());
+        arena.slot(3).putInt(0, 42);
+        assertEquals(42, arena.slot(3).getInt(0));
+        assertEquals(0, arena.slot(4).getInt(0));
+        assertTrue(arena.slot(9).isDirect());
+        assertEquals(BufferPool.getPageSize(), arena.slot(9).capacity());
+        assertNull(new BufferPool(10, "clock", 2, false).getArena());
+    }
+
+    /**
+     * Cached heap pages read their tuples out of the arena, and keep reading
+     * the same tuples once they were evicted
+     */
+    @Test public void heapPages() throws Exception {
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, pid(2), Permissions.READ_ONLY);
+        HeapPage onDisk = (HeapPage) hf.readPage(pid(2));
+        assertTrue(page.isAttached());
+        assertSameTuples(tuples(onDisk.iterator()), tuples(page.iterator()));
+        assertArrayEquals(onDisk.getPageData(), page.getPageData());
+
+        for (int i = 3; i < hf.numPages(); i++) {
+            bufferPool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertFalse(bufferPool.isCached(pid(2)));
+        assertFalse(page.isAttached());
+        assertSameTuples(tuples(onDisk.iterator()), tuples(page.iterator()));
+        assertArrayEquals(onDisk.getPageData(), page.getPageData());
+    }
+
+    /**
+     * A page moves to the heap when it is changed, and back into the arena
+     * once it was written
+     */
+    @Test public void writes() throws Exception {
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, pid(0), Permissions.READ_WRITE);
+        Tuple deleted = page.iterator().next();
+        page.deleteTuple(deleted);
+        page.markDirty(true, tid);
+        assertFalse(page.isAttached());
+        assertEquals(503, tuples(page.iterator()).size());
+        bufferPool.unpinPage(pid(0));
+
+        bufferPool.flushAllPages();
+        assertEquals(1, bufferPool.getPageWriter().getPagesWritten());
+        assertTrue(page.isAttached());
+        List<Tuple> left = tuples(page.iterator());
+        assertEquals(503, left.size());
+        assertSameTuples(tuples(((HeapPage) hf.readPage(pid(0))).iterator()), left);
+
+        // the before image is still the page as it was read
+        assertEquals(504, tuples(page.getBeforeImage().iterator()).size());
+        bufferPool.transactionComplete(tid);
+        assertTrue(page.isAttached());
+        assertEquals(503, tuples(page.getBeforeImage().iterator()).size());
+    }
+
+    /**
+     * BTree internal and leaf pages read their entries and tuples out of the
+     * arena, and are decoded by their first change, keeping the tuples
+     * they handed out
+     */
+    @Test public void btreePages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) bufferPool.getPage(tid,
+                BTreeRootPtrPage.getId(bf.getId()), Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        assertEquals(BTreePageId.INTERNAL, rootId.pgcateg());
+
+        BTreeInternalPage root = (BTreeInternalPage) bufferPool.getPage(tid, rootId, Permissions.READ_ONLY);
+        assertTrue(root.isAttached());
+        Iterator<BTreeEntry> expected = ((BTreeInternalPage) bf.readPage(rootId)).iterator();
+        Iterator<BTreeEntry> it = root.iterator();
+        BTreePageId firstLeaf = null;
+        while (expected.hasNext()) {
+            BTreeEntry e = it.next();
+            assertEquals(expected.next().toString(), e.toString());
+            if (firstLeaf == null) {
+                firstLeaf = e.getLeftChild();
+            }
+        }
+        assertFalse(it.hasNext());
+        assertArrayEquals(bf.readPage(rootId).getPageData(), root.getPageData());
+
+        BTreeLeafPage leaf = (BTreeLeafPage) bufferPool.getPage(tid, firstLeaf, Permissions.READ_WRITE);
+        BTreeLeafPage onDisk = (BTreeLeafPage) bf.readPage(firstLeaf);
+        assertTrue(leaf.isAttached());
+        assertSameTuples(tuples(onDisk.iterator()), tuples(leaf.iterator()));
+        assertSameTuples(tuples(onDisk.reverseIterator()), tuples(leaf.reverseIterator()));
+
+        Iterator<Tuple> tuples = leaf.iterator();
+        Tuple first = tuples.next();
+        Tuple second = tuples.next();
+        leaf.deleteTuple(first);
+        assertSame(second, leaf.getTuple(second.getRecordId().tupleno()));
+        onDisk.deleteTuple(onDisk.iterator().next());
+        assertFalse(leaf.isAttached());
+        assertSameTuples(tuples(onDisk.iterator()), tuples(leaf.iterator()));
+        assertArrayEquals(onDisk.getPageData(), leaf.getPageData());
+        assertArrayEquals(bf.readPage(firstLeaf).getPageData(), leaf.getBeforeImage().getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
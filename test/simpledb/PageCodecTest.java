@@ -0,0 +1,119 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageCodecTest extends SimpleDbTestBase {
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+    }
+
+    /** @return the bytes writePageData writes when the buffer does not start at position 0 */
+    private static byte[] written(Page page) {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 3);
+        buf.put(new byte[] {1, 2, 3});
+        page.writePageData(buf);
+        assertEquals(0, buf.remaining());
+        return Arrays.copyOfRange(buf.array(), 3, buf.capacity());
+    }
+
+    private static byte[] streamed(Field f) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static byte[] buffered(Field f) {
+        ByteBuffer buf = ByteBuffer.allocate(f.getType().getLen());
+        f.serialize(buf);
+        assertEquals(0, buf.remaining());
+        return buf.array();
+    }
+
+    /**
+     * Fields write the same bytes into a buffer as into a stream
+     */
+    @Test public void fields() throws Exception {
+        for (int v : new int[] {0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            assertArrayEquals(streamed(new IntField(v)), buffered(new IntField(v)));
+        }
+        char[] longValue = new char[Type.STRING_LEN + 10];
+        Arrays.fill(longValue, 'x');
+        for (String s : new String[] {"", "a", "hello world", new String(longValue)}) {
+            StringField f = new StringField(s, Type.STRING_LEN);
+            assertArrayEquals(streamed(f), buffered(f));
+        }
+    }
+
+    /**
+     * A HeapPage writes the same bytes as getPageData, whether it has been
+     * modified or not, and the bytes read back into the same tuples
+     */
+    @Test public void heapPage() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, written(page));
+
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        byte[] data = page.getPageData();
+        assertArrayEquals(data, written(page));
+
+        HeapPage copy = new HeapPage(pid, data);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        Iterator<Tuple> it = page.iterator();
+        Iterator<Tuple> copyIt = copy.iterator();
+        while (it.hasNext()) {
+            assertEquals(it.next().toString(), copyIt.next().toString());
+        }
+        assertFalse(copyIt.hasNext());
+    }
+
+    /**
+     * BTree pages write the same bytes the encoder builds them from
+     */
+    @Test public void bTreePages() throws Exception {
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(-1, -1, BTreePageId.LEAF),
+                BTreeLeafPageTest.EXAMPLE_DATA, 0);
+        assertArrayEquals(BTreeLeafPageTest.EXAMPLE_DATA, written(leaf));
+        assertArrayEquals(BTreeLeafPageTest.EXAMPLE_DATA, leaf.getPageData());
+        leaf.insertTuple(Utility.getHeapTuple(new int[] {7, 8}));
+        assertArrayEquals(leaf.getPageData(), written(leaf));
+
+        BTreeInternalPage internal = new BTreeInternalPage(new BTreePageId(-1, -1, BTreePageId.INTERNAL),
+                BTreeInternalPageTest.EXAMPLE_DATA, 0);
+        assertArrayEquals(BTreeInternalPageTest.EXAMPLE_DATA, written(internal));
+        assertArrayEquals(BTreeInternalPageTest.EXAMPLE_DATA, internal.getPageData());
+    }
+
+    /**
+     * serialize reuses one buffer per thread
+     */
+    @Test public void reusesBuffer() throws Exception {
+        HeapPage page = new HeapPage(new HeapPageId(-1, -1), HeapPageReadTest.EXAMPLE_DATA);
+        byte[] first = PageCodec.serialize(page);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, first);
+        assertSame(first, PageCodec.serialize(page));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecTest.class);
+    }
+}
@@ -0,0 +1,186 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageWarmerTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private File snapshot;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 40 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        tid = new TransactionId();
+        snapshot = File.createTempFile("warmer", ".snapshot");
+        snapshot.delete();
+    }
+
+    @After public void tearDown() {
+        snapshot.delete();
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    private BufferPool newPool(int numPages, int numPartitions) {
+        BufferPool bp = new BufferPool(numPages, "clock", numPartitions);
+        bp.getWarmer().setFile(snapshot);
+        return bp;
+    }
+
+    private Set<PageId> cached(BufferPool bp) {
+        Set<PageId> cached = new HashSet<PageId>();
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (bp.isCached(pid(i))) {
+                cached.add(pid(i));
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * The cached pages are listed most recently requested first, and saved
+     * and read back in that order
+     */
+    @Test public void recency() throws Exception {
+        BufferPool bp = newPool(10, 1);
+        for (int i = 0; i < 10; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(7), Permissions.READ_ONLY);
+        List<PageId> pages = bp.residentPages();
+        assertEquals(10, pages.size());
+        assertEquals(pid(7), pages.get(0));
+        assertEquals(pid(3), pages.get(1));
+        assertEquals(pid(9), pages.get(2));
+        assertEquals(pid(0), pages.get(9));
+
+        assertEquals(10, bp.getWarmer().save());
+        assertEquals(pages, PageWarmer.read(snapshot));
+        assertFalse(new File(snapshot.getPath() + ".tmp").exists());
+    }
+
+    /**
+     * A new buffer pool warmed up from a snapshot caches the pages the old
+     * one cached, without a miss when they are requested
+     */
+    @Test public void warmUp() throws Exception {
+        BufferPool old = newPool(20, 2);
+        for (int i = 0; i < hf.numPages(); i++) {
+            old.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        Set<PageId> before = cached(old);
+        assertEquals(20, before.size());
+        old.getWarmer().save();
+
+        BufferPool bp = newPool(20, 2);
+        PageWarmer warmer = bp.getWarmer();
+        assertEquals(0, warmer.getProgress(), 0);
+        warmer.startWarmUp();
+        warmer.awaitWarmUp();
+        assertFalse(warmer.isWarmingUp());
+        assertEquals(20, warmer.getPagesPlanned());
+        assertEquals(20, warmer.getPagesLoaded());
+        assertEquals(1, warmer.getProgress(), 0);
+        assertEquals(before, cached(bp));
+        for (PageId pid : before) {
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        assertEquals(0, bp.getMetrics().getMisses());
+        assertEquals(20, bp.getMetrics().getWarmUpPagesLoaded());
+        assertTrue(bp.getMetrics().report().contains("warm-up: 20 of 20 pages loaded, 100% done"));
+    }
+
+    /**
+     * A smaller buffer pool gets the most recently used pages, and pages
+     * requested before the warm-up are not pushed out by it
+     */
+    @Test public void smallerPool() throws Exception {
+        BufferPool old = newPool(20, 1);
+        for (int i = 0; i < 20; i++) {
+            old.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        old.getWarmer().save();
+
+        BufferPool bp = newPool(5, 1);
+        bp.getPage(tid, pid(30), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(31), Permissions.READ_ONLY);
+        assertEquals(3, bp.getWarmer().warmUp(PageWarmer.read(snapshot)));
+        assertEquals(5, bp.getWarmer().getPagesPlanned());
+        Set<PageId> expected = new HashSet<PageId>();
+        for (int i = 30; i < 32; i++) {
+            expected.add(pid(i));
+        }
+        Set<PageId> cached = cached(bp);
+        assertTrue(cached.containsAll(expected));
+        cached.removeAll(expected);
+        assertEquals(3, cached.size());
+        for (PageId pid : cached) {
+            assertTrue(pid.pageNumber() >= 15 && pid.pageNumber() < 20);
+        }
+    }
+
+    /**
+     * Pages of tables that are gone and pages past the end of a file are
+     * skipped, and BTree pages keep their category
+     */
+    @Test public void skipsMissingPages() throws Exception {
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        BTreePageId rootPtr = BTreeRootPtrPage.getId(bf.getId());
+        BufferPool old = newPool(20, 1);
+        BTreePageId root = ((BTreeRootPtrPage) old.getPage(tid, rootPtr, Permissions.READ_ONLY)).getRootId();
+        old.getPage(tid, root, Permissions.READ_ONLY);
+        old.getPage(tid, pid(0), Permissions.READ_ONLY);
+        List<PageId> pages = new ArrayList<PageId>(old.residentPages());
+        pages.add(new HeapPageId(hf.getId() + 1, 0));
+        pages.add(pid(hf.numPages() + 5));
+
+        BufferPool bp = newPool(20, 1);
+        assertEquals(3, bp.getWarmer().warmUp(pages));
+        assertTrue(bp.isCached(rootPtr));
+        assertTrue(bp.isCached(root));
+        assertTrue(bp.isCached(pid(0)));
+        assertTrue(bp.getPage(tid, root, Permissions.READ_ONLY) instanceof BTreeInternalPage);
+    }
+
+    /**
+     * Once started, a snapshot is saved every interval
+     */
+    @Test public void periodicSnapshots() throws Exception {
+        BufferPool bp = newPool(10, 1);
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        PageWarmer warmer = bp.getWarmer();
+        warmer.setIntervalMillis(10);
+        warmer.start();
+        try {
+            for (int i = 0; i < 500 && !snapshot.exists(); i++) {
+                Thread.sleep(10);
+            }
+        } finally {
+            warmer.stop();
+        }
+        assertEquals(Collections.singletonList(pid(0)), PageWarmer.read(snapshot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageWarmerTest.class);
+    }
+}
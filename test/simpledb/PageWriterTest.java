@@ -0,0 +1,172 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageWriterTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private BufferPool bufferPool;
+    private PageWriter writer;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        // 30 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 30, null, null);
+        tid = new TransactionId();
+        bufferPool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        writer = bufferPool.getPageWriter();
+        writer.setEnabled(false);
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /**
+     * Delete the first tuple of the page in the buffer pool, leaving it
+     * dirty and, if unpin is set, unpinned. The lock on the page is
+     * released, as if tid had committed, unless locked is set.
+     */
+    private HeapPage dirty(int pageNo, boolean unpin, boolean locked) throws Exception {
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, pid(pageNo), Permissions.READ_WRITE);
+        page.deleteTuple(page.iterator().next());
+        page.markDirty(true, tid);
+        if (unpin) {
+            bufferPool.unpinPage(pid(pageNo));
+        }
+        if (!locked) {
+            bufferPool.releasePage(tid, pid(pageNo));
+        }
+        return page;
+    }
+
+    private HeapPage dirty(int pageNo, boolean unpin) throws Exception {
+        return dirty(pageNo, unpin, false);
+    }
+
+    private int tuplesOnDisk(int pageNo) {
+        HeapPage page = (HeapPage) hf.readPage(pid(pageNo));
+        return page.numSlots - page.getNumEmptySlots();
+    }
+
+    /**
+     * Consecutive dirty pages are written with one write per run, and are
+     * clean afterwards
+     */
+    @Test public void coalescedWrites() throws Exception {
+        List<HeapPage> pages = new ArrayList<HeapPage>();
+        for (int i : new int[] {7, 3, 5, 4, 6, 12}) {
+            pages.add(dirty(i, true));
+        }
+        assertEquals(6, writer.runOnce());
+        assertEquals(6, writer.getPagesWritten());
+        assertEquals(2, writer.getWrites());
+        for (HeapPage page : pages) {
+            assertNull(page.isDirty());
+            assertEquals(503, tuplesOnDisk(page.getId().pageNumber()));
+        }
+        assertEquals(504, tuplesOnDisk(8));
+        assertEquals(0, writer.runOnce());
+    }
+
+    /**
+     * Pinned pages are left to their users, and written once unpinned
+     */
+    @Test public void pinnedPages() throws Exception {
+        HeapPage pinned = dirty(2, false);
+        dirty(9, true);
+        assertEquals(1, writer.runOnce());
+        assertNotNull(pinned.isDirty());
+        assertEquals(504, tuplesOnDisk(2));
+        bufferPool.unpinPage(pid(2));
+        assertEquals(1, writer.runOnce());
+        assertEquals(503, tuplesOnDisk(2));
+    }
+
+    /**
+     * Pages a running transaction holds an exclusive lock on may hold
+     * changes that are not committed, and are not written until it
+     * releases the lock
+     */
+    @Test public void uncommittedPages() throws Exception {
+        HeapPage page = dirty(6, true, true);
+        assertEquals(0, writer.runOnce());
+        assertEquals(tid, page.isDirty());
+        assertEquals(504, tuplesOnDisk(6));
+        bufferPool.releasePage(tid, pid(6));
+        assertEquals(1, writer.runOnce());
+        assertEquals(503, tuplesOnDisk(6));
+    }
+
+    /**
+     * flushAllPages writes pages of running transactions too
+     */
+    @Test public void flushUncommitted() throws Exception {
+        dirty(5, true, true);
+        bufferPool.flushAllPages();
+        assertEquals(503, tuplesOnDisk(5));
+    }
+
+    /**
+     * Pages the writer cleaned are evicted without being written again
+     */
+    @Test public void cleanVictims() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            dirty(i, true);
+        }
+        writer.runOnce();
+        long written = writer.getPagesWritten();
+        for (int i = 10; i < hf.numPages(); i++) {
+            bufferPool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(503, tuplesOnDisk(i));
+        }
+        assertEquals(0, bufferPool.getDirtyEvictions());
+        assertEquals(written, writer.getPagesWritten());
+    }
+
+    /**
+     * flushAllPages writes pinned pages too, coalesced like the writer does
+     */
+    @Test public void flushAllPages() throws Exception {
+        dirty(0, false);
+        dirty(1, true);
+        bufferPool.flushAllPages();
+        assertEquals(1, writer.getWrites());
+        assertEquals(503, tuplesOnDisk(0));
+        assertEquals(503, tuplesOnDisk(1));
+    }
+
+    /**
+     * Once enabled, the background thread cleans pages dirtied through the
+     * buffer pool on its own
+     */
+    @Test public void background() throws Exception {
+        writer.setEnabled(true);
+        HeapPage page = dirty(4, true);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (page.isDirty() != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(page.isDirty());
+        assertEquals(503, tuplesOnDisk(4));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageWriterTest.class);
+    }
+}
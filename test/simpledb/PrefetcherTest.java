@@ -0,0 +1,169 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PrefetcherTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private TransactionId tid;
+    private BufferPool bufferPool;
+    private Prefetcher prefetcher;
+    // read-ahead tasks that were handed to the executor but not run yet
+    private List<Runnable> queued;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        // 40 pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * 40, null, null);
+        tid = new TransactionId();
+        bufferPool = Database.resetBufferPool(64);
+        prefetcher = bufferPool.getPrefetcher();
+        prefetcher.setEnabled(true);
+        queued = new ArrayList<>();
+        prefetcher.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+    }
+
+    private void runQueued() {
+        while (!queued.isEmpty()) {
+            queued.remove(0).run();
+        }
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(hf.getId(), pageNo);
+    }
+
+    /**
+     * Read-ahead starts once the scan is sequential
+     */
+    @Test
+    public void readsAheadOfSequentialScan() throws Exception {
+        Prefetcher.Stream stream = prefetcher.newStream(hf.getId(), hf.numPages());
+        prefetcher.access(stream, 0);
+        assertTrue(queued.isEmpty());
+        prefetcher.access(stream, 1);
+        assertEquals(1, queued.size());
+        runQueued();
+
+        int depth = stream.getDepth();
+        assertEquals(depth, prefetcher.getPrefetchedPages());
+        for (int i = 2; i < 2 + depth; i++) {
+            assertTrue(bufferPool.isCached(pid(i)));
+        }
+        assertFalse(bufferPool.isCached(pid(2 + depth)));
+
+        bufferPool.getPage(tid, pid(2), Permissions.READ_ONLY);
+        bufferPool.getPage(tid, pid(2), Permissions.READ_ONLY);
+        assertEquals(1, prefetcher.getPrefetchHits());
+        assertEquals(0, prefetcher.getWastedPrefetches());
+    }
+
+    /**
+     * Random access does not trigger read-ahead
+     */
+    @Test
+    public void ignoresRandomAccess() throws Exception {
+        Prefetcher.Stream stream = prefetcher.newStream(hf.getId(), hf.numPages());
+        for (int pageNo : new int[] {5, 17, 3, 30, 12}) {
+            prefetcher.access(stream, pageNo);
+        }
+        assertTrue(queued.isEmpty());
+    }
+
+    /**
+     * The depth grows when the scan waits for a batch and shrinks when the
+     * pages prefetched for it are evicted unused
+     */
+    @Test
+    public void adaptsDepth() throws Exception {
+        Prefetcher.Stream stream = prefetcher.newStream(hf.getId(), hf.numPages());
+        int initial = stream.getDepth();
+        prefetcher.access(stream, 0);
+        prefetcher.access(stream, 1);
+        // the batch for page 2 has not been read yet
+        prefetcher.access(stream, 2);
+        assertEquals(initial * 2, stream.getDepth());
+        runQueued();
+
+        // push every prefetched page out of the pool
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 64, null, null);
+        for (int i = 0; i < 64; i++) {
+            bufferPool.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(prefetcher.getPrefetchedPages(), prefetcher.getWastedPrefetches());
+        prefetcher.access(stream, 3);
+        assertEquals(initial, stream.getDepth());
+
+        // the pages wasted by one scan do not shrink the depth of another
+        Prefetcher.Stream bystander = prefetcher.newStream(hf.getId(), hf.numPages());
+        prefetcher.access(bystander, 20);
+        prefetcher.access(bystander, 21);
+        assertEquals(initial, bystander.getDepth());
+    }
+
+    /**
+     * Nothing is installed if a page of the file was written while the batch
+     * was read, but writes to other files do not matter
+     */
+    @Test
+    public void dropsBatchAfterWrite() throws Exception {
+        Prefetcher.Stream stream = prefetcher.newStream(hf.getId(), hf.numPages());
+        prefetcher.access(stream, 0);
+        prefetcher.access(stream, 1);
+        long writeCount = hf.getWriteCount();
+        hf.writePage(hf.readPage(pid(39)));
+        List<Page> pages = hf.readPages(pid(2), 4);
+        assertEquals(0, bufferPool.installPrefetched(hf, pages, writeCount, stream));
+
+        writeCount = hf.getWriteCount();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        other.writePage(other.readPage(new HeapPageId(other.getId(), 0)));
+        assertEquals(4, bufferPool.installPrefetched(hf, pages, writeCount, stream));
+    }
+
+    /**
+     * A full scan with read-ahead on returns every tuple once
+     */
+    @Test
+    public void scanWithReadAhead() throws Exception {
+        prefetcher.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 40, count);
+        assertTrue(prefetcher.getPrefetchHits() > 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetcherTest.class);
+    }
+}
@@ -0,0 +1,197 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.*;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final String[] POLICIES = {"fifo", "clock", "lru-k", "2q"};
+    private static final int FRAMES = 50;
+
+    /**
+     * Replay a trace of page requests against a cache of frames pages
+     * managed by policy, with every page unpinned right after its request.
+     *
+     * @return the fraction of requests that were hits
+     */
+    private static double hitRatio(ReplacementPolicy policy, int frames, List<PageId> trace) {
+        Map<PageId, Integer> cached = new HashMap<PageId, Integer>();
+        PageId[] pages = new PageId[frames];
+        int used = 0;
+        int hits = 0;
+        for (PageId pid : trace) {
+            Integer frame = cached.get(pid);
+            if (frame != null) {
+                hits++;
+                policy.pageAccessed(frame);
+                continue;
+            }
+            if (used < frames) {
+                frame = used++;
+            } else {
+                frame = policy.victim();
+                assertTrue(frame >= 0);
+                cached.remove(pages[frame]);
+                policy.pageRemoved(frame, pages[frame], true);
+            }
+            pages[frame] = pid;
+            cached.put(pid, frame);
+            policy.pageInstalled(frame, pid);
+            policy.setEvictable(frame, true);
+        }
+        return (double) hits / trace.size();
+    }
+
+    /**
+     * @return point lookups into hot pages of one table, lookups at a time,
+     *   interleaved with a sequential scan of scanPages pages of another
+     *   table, one page at a time, as a scan and an OLTP workload running
+     *   side by side would request pages
+     */
+    private static List<PageId> mixedTrace(int scanPages, int lookups, int hot, long seed) {
+        Random r = new Random(seed);
+        List<PageId> trace = new ArrayList<PageId>();
+        for (int page = 0; page < scanPages; page++) {
+            trace.add(new HeapPageId(2, page));
+            for (int i = 0; i < lookups; i++) {
+                trace.add(new HeapPageId(1, r.nextInt(hot)));
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * A scan pushes the hot pages of the lookups out of FIFO and, to a
+     * lesser degree, out of CLOCK, but LRU-K and 2Q only keep pages that
+     * were requested more than once and keep nearly all of them
+     */
+    @Test public void scanResistance() {
+        List<PageId> trace = mixedTrace(20000, 2, 40, 1);
+        Map<String, Double> ratio = new HashMap<String, Double>();
+        for (String name : POLICIES) {
+            ratio.put(name, hitRatio(BufferPool.newPolicy(name, FRAMES), FRAMES, trace));
+        }
+        // at most the two lookups of every three requests can hit
+        assertTrue(ratio.get("clock") >= ratio.get("fifo"));
+        assertTrue(ratio.get("lru-k") > 0.6);
+        assertTrue(ratio.get("2q") > 0.6);
+        assertTrue(ratio.get("fifo") < 0.6);
+    }
+
+    /**
+     * With only point lookups over a skewed key distribution every policy
+     * does at least as well as FIFO
+     */
+    @Test public void skewedLookups() {
+        Random r = new Random(2);
+        List<PageId> trace = new ArrayList<PageId>();
+        for (int i = 0; i < 50000; i++) {
+            // 80% of the requests go to 20% of 250 pages
+            int page = r.nextInt(10) < 8 ? r.nextInt(50) : 50 + r.nextInt(200);
+            trace.add(new HeapPageId(1, page));
+        }
+        double fifo = hitRatio(new FifoPolicy(FRAMES), FRAMES, trace);
+        for (String name : POLICIES) {
+            assertTrue(name, hitRatio(BufferPool.newPolicy(name, FRAMES), FRAMES, trace) >= fifo - 0.01);
+        }
+    }
+
+    /**
+     * Pinned frames are never victims, and a policy without evictable
+     * frames has no victim
+     */
+    @Test public void pinnedFrames() {
+        for (String name : POLICIES) {
+            ReplacementPolicy policy = BufferPool.newPolicy(name, 4);
+            for (int i = 0; i < 4; i++) {
+                policy.pageInstalled(i, new HeapPageId(1, i));
+            }
+            assertEquals(name, -1, policy.victim());
+            policy.setEvictable(2, true);
+            assertEquals(name, 1, policy.numEvictable());
+            assertEquals(name, 2, policy.victim());
+            policy.setEvictable(1, true);
+            policy.setEvictable(2, false);
+            assertEquals(name, 1, policy.victim());
+            policy.pageRemoved(1, new HeapPageId(1, 1), true);
+            assertEquals(name, 0, policy.numEvictable());
+            assertEquals(name, -1, policy.victim());
+        }
+    }
+
+    /**
+     * Frames added by a resize can be used at once, and after frames were
+     * taken away again victims only come from the frames that are left
+     */
+    @Test public void resize() {
+        for (String name : POLICIES) {
+            ReplacementPolicy policy = BufferPool.newPolicy(name, 4);
+            for (int i = 0; i < 4; i++) {
+                policy.pageInstalled(i, new HeapPageId(1, i));
+                policy.setEvictable(i, true);
+            }
+            policy.resize(8);
+            for (int i = 4; i < 8; i++) {
+                policy.pageInstalled(i, new HeapPageId(1, i));
+                policy.setEvictable(i, true);
+            }
+            assertEquals(name, 8, policy.numEvictable());
+            for (int i = 4; i < 8; i++) {
+                policy.pageRemoved(i, new HeapPageId(1, i), true);
+            }
+            policy.resize(4);
+            assertEquals(name, 4, policy.numEvictable());
+            Set<Integer> victims = new HashSet<Integer>();
+            for (int i = 0; i < 4; i++) {
+                int frame = policy.victim();
+                assertTrue(name, frame >= 0 && frame < 4);
+                victims.add(frame);
+                policy.pageRemoved(frame, new HeapPageId(1, frame), true);
+            }
+            assertEquals(name, 4, victims.size());
+            assertEquals(name, -1, policy.victim());
+        }
+    }
+
+    /**
+     * A buffer pool with every frame pinned cannot read another page,
+     * whatever its policy
+     */
+    @Test public void allPinned() throws Exception {
+        HeapFile hf = simpledb.systemtest.SystemTestUtil.createRandomHeapFile(2, 3000, null, null);
+        assertTrue(hf.numPages() > 3);
+        TransactionId tid = new TransactionId();
+        for (String name : POLICIES) {
+            BufferPool bp = new BufferPool(3, name);
+            for (int i = 0; i < 3; i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            }
+            try {
+                bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+                fail(name + " evicted a pinned page");
+            } catch (DbException expected) {
+            }
+            bp.unpinPage(new HeapPageId(hf.getId(), 1));
+            bp.getPage(tid, new HeapPageId(hf.getId(), 3), Permissions.READ_ONLY);
+            assertFalse(name, bp.isCached(new HeapPageId(hf.getId(), 1)));
+        }
+    }
+
+    /**
+     * Unknown policies are rejected
+     */
+    @Test(expected = IllegalArgumentException.class) public void unknownPolicy() {
+        BufferPool.newPolicy("mru", FRAMES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * An empty page has no tuples
+     */
+    @Test public void emptyPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        assertFalse(page.iterator().hasNext());
+        assertEquals(0, page.getNumTuples());
+        assertEquals(BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE, page.getFreeSpace());
+    }
+
+    /**
+     * Tuples survive a round trip through getPageData, at their real length
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "a"));
+        page.insertTuple(tuple(2, ""));
+        page.insertTuple(tuple(3, "hello world"));
+        // int + 2 byte length + characters, plus a slot entry each
+        int used = 3 * (4 + 2 + SlottedHeapPage.SLOT_SIZE) + 1 + 11;
+        assertEquals(BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE - used, page.getFreeSpace());
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(3, copy.getNumTuples());
+        assertEquals("hello world", ((StringField) copy.getTuple(2).getField(1)).getValue());
+        assertEquals(new RecordId(pid, 2), copy.getTuple(2).getRecordId());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+    }
+
+    /**
+     * Deleting frees the slot for reuse without renumbering other slots
+     */
+    @Test public void deleteAndReuse() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        Tuple a = tuple(1, "aaaa");
+        Tuple b = tuple(2, "bbbb");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.deleteTuple(a);
+        try {
+            page.deleteTuple(a);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        assertNull(copy.getTuple(0));
+        assertEquals(new RecordId(pid, 1), copy.getTuple(1).getRecordId());
+
+        Tuple c = tuple(3, "cccc");
+        copy.insertTuple(c);
+        assertEquals(0, c.getRecordId().tupleno());
+    }
+
+    /**
+     * Short strings pack many more tuples per page than fixed slots
+     */
+    @Test public void fillPage() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, SlottedHeapPage.createEmptyPageData());
+        Tuple t = tuple(7, "short");
+        int n = 0;
+        while (page.hasRoomFor(t)) {
+            page.insertTuple(tuple(n++, "short"));
+        }
+        try {
+            page.insertTuple(t);
+            fail("expected exception");
+        } catch (DbException e) {
+        }
+        int fixedSlots = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(n > 5 * fixedSlots);
+        assertEquals(n, new SlottedHeapPage(pid, page.getPageData()).getNumTuples());
+    }
+
+    /**
+     * HeapFileEncoder writes slotted files that a slotted HeapFile can scan
+     * and insert into
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new FileWriter(text));
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            out.println(i + ",name" + i);
+        }
+        out.close();
+        File data = File.createTempFile("slotted", ".dat");
+        data.deleteOnExit();
+        FreeSpaceMap.file(data).deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2,
+                new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, ',', HeapFile.PageFormat.SLOTTED);
+
+        HeapFile hf = new HeapFile(data, td, HeapFile.PageFormat.SLOTTED);
+        assertEquals(HeapFile.PageFormat.SLOTTED, Database.getCatalog().getPageFormat(hf.getId()));
+        // 2000 rows of about 20 bytes each
+        assertTrue(hf.numPages() < 15);
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(rows, "inserted"));
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("name" + ((IntField) t.getField(0)).getValue(),
+                    ((StringField) t.getField(1)).getValue().replace("inserted", "name" + rows));
+            count++;
+        }
+        it.close();
+        assertEquals(rows + 1, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -380,6 +380,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.file(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,94 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+
+/**
+ * Reports load time and peak heap of building a B+ tree on a table of two
+ * int columns with random keys, with BTreeFileEncoder.bulkConvert and, on a
+ * smaller table, with the in-memory BTreeFileEncoder.convert it replaces.
+ *
+ * Run with: ant runbench -Dbench=BTreeBulkLoadBenchmark [-Dbench.args="rows inMemoryRows"]
+ * The sort memory budget is set with -Dsimpledb.ExternalSort.memoryBytes.
+ */
+public class BTreeBulkLoadBenchmark {
+    private static final int ROWS = 10000000;
+    private static final int IN_MEMORY_ROWS = 1000000;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        int inMemoryRows = args.length > 1 ? Integer.parseInt(args[1]) : IN_MEMORY_ROWS;
+        System.out.printf("max heap %d MB, sort memory %d MB%n",
+                Runtime.getRuntime().maxMemory() >> 20, ExternalSort.MEMORY_BYTES >> 20);
+
+        if (inMemoryRows > 0) {
+            File text = writeText(inMemoryRows);
+            File heap = File.createTempFile("btree", ".heap");
+            heap.deleteOnExit();
+            FreeSpaceMap.file(heap).deleteOnExit();
+            File tree = File.createTempFile("btree", ".dat");
+            tree.deleteOnExit();
+            resetPeak();
+            long start = System.nanoTime();
+            BTreeFileEncoder.convert(text, heap, tree, BufferPool.getPageSize(), 2, TYPES, ',', 1);
+            report("convert, " + inMemoryRows + " rows", start, tree);
+            text.delete();
+        }
+
+        File text = writeText(rows);
+        for (double fill : new double[] {1.0, 0.7}) {
+            File tree = File.createTempFile("btree", ".dat");
+            tree.deleteOnExit();
+            resetPeak();
+            long start = System.nanoTime();
+            BTreeFile bf = BTreeFileEncoder.bulkConvert(text, tree, BufferPool.getPageSize(), TYPES, ',', 1,
+                    fill, ExternalSort.MEMORY_BYTES);
+            report("bulkConvert, " + rows + " rows, fill " + fill, start, tree);
+            tree.delete();
+        }
+    }
+
+    private static File writeText(int rows) throws IOException {
+        File text = File.createTempFile("btree", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(42);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text), 1 << 16));
+        for (int i = 0; i < rows; i++) {
+            out.print(i + "," + r.nextInt() + "\n");
+        }
+        out.close();
+        return text;
+    }
+
+    private static void resetPeak() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /** @return the sum of the peak usage of the heap pools since resetPeak */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void report(String name, long start, File tree) {
+        long time = System.nanoTime() - start;
+        System.out.printf("%-40s %7d ms, peak heap %5d MB, %6d MB written%n", name, time / 1000000,
+                peakHeap() >> 20, tree.length() >> 20);
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * Measures how much Java heap a full BufferPool retains with its pages on
+ * the heap and with them attached to a PageArena off the heap, how long a
+ * full garbage collection takes while the pool is alive, and the throughput
+ * of reading every tuple of randomly chosen cached pages.
+ *
+ * Run with: ant runbench -Dbench=BufferPoolArenaBenchmark [-Dbench.args="poolPages reads"]
+ */
+public class BufferPoolArenaBenchmark {
+    private static final int POOL_PAGES = 4096;
+    private static final int READS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : POOL_PAGES;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : READS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * poolPages, null, null);
+        System.out.println("buffer pool and table: " + poolPages + " pages");
+
+        for (int round = 0; round < 2; round++) {
+            run("heap", hf, poolPages, reads, false);
+            run("arena", hf, poolPages, reads, true);
+        }
+    }
+
+    private static void run(String name, HeapFile hf, int poolPages, int reads, boolean offHeap) throws Exception {
+        long before = usedHeap();
+        BufferPool bp = new BufferPool(poolPages, "clock", 1, offHeap);
+        bp.getPageWriter().setEnabled(false);
+        TransactionId tid = new TransactionId();
+        // cache every page and read all of its tuples once
+        for (int i = 0; i < poolPages; i++) {
+            count(bp, tid, new HeapPageId(hf.getId(), i));
+        }
+        long retained = usedHeap() - before;
+
+        long start = System.nanoTime();
+        System.gc();
+        long gcMicros = (System.nanoTime() - start) / 1000;
+
+        Random r = new Random(1);
+        long tuples = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            tuples += count(bp, tid, new HeapPageId(hf.getId(), r.nextInt(poolPages)));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        bp.transactionComplete(tid);
+
+        System.out.printf("%-6s heap retained %7.1f MB (%6d bytes/page), full gc %6d us, %8.0f pages/s (%d tuples)%n",
+                name + ":", retained / 1e6, retained / poolPages, gcMicros, reads / seconds, tuples);
+    }
+
+    private static int count(BufferPool bp, TransactionId tid, HeapPageId pid) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            n++;
+        }
+        return n;
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Random;
+
+/**
+ * Measures what the BufferPoolMetrics counters cost on the getPage path:
+ * the throughput of requests for cached pages with the metrics enabled and
+ * disabled, from one thread and from several at once. The pages requested
+ * are chosen up front, so the threads do little besides calling getPage.
+ *
+ * Run with: ant runbench -Dbench=BufferPoolMetricsBenchmark [-Dbench.args="threads requests"]
+ */
+public class BufferPoolMetricsBenchmark {
+    private static final int TABLE_PAGES = 256;
+    private static final int THREADS = 4;
+    private static final int REQUESTS = 2000000;
+    private static final int ROUNDS = 7;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : THREADS;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : REQUESTS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, null);
+        // room to spare, so that every partition holds all of its pages
+        BufferPool bp = new BufferPool(4 * TABLE_PAGES, "clock", 8);
+        bp.getPageWriter().setEnabled(false);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(warm, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warm);
+
+        // let the JIT compile both paths before measuring either
+        for (int round = 0; round < 3; round++) {
+            run(bp, hf, threads, requests, round % 2 == 0);
+        }
+        bp.getMetrics().reset();
+        // alternate the two settings and keep the best run of each, which
+        // takes most of the noise of the machine out
+        for (int t : new int[] { 1, threads }) {
+            double off = 0, on = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                off = Math.max(off, run(bp, hf, t, requests, false));
+                on = Math.max(on, run(bp, hf, t, requests, true));
+            }
+            System.out.printf("%d thread(s): disabled %10.0f gets/s, enabled %10.0f gets/s (%+.1f%%)%n",
+                    t, off, on, 100 * (on - off) / off);
+        }
+        System.out.print(bp.getMetrics().report());
+    }
+
+    private static double run(final BufferPool bp, final HeapFile hf, int threads, int requests,
+                              boolean enabled) throws Exception {
+        bp.getMetrics().setEnabled(enabled);
+        final int perThread = requests / threads;
+        final HeapPageId[] pids = new HeapPageId[1 << 16];
+        Random r = new Random(threads);
+        for (int i = 0; i < pids.length; i++) {
+            pids[i] = new HeapPageId(hf.getId(), r.nextInt(TABLE_PAGES));
+        }
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t * 7919L;
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        TransactionId tid = new TransactionId();
+                        for (int i = 0; i < perThread; i++) {
+                            bp.getPage(tid, pids[(int) ((seed + i) & (pids.length - 1))], Permissions.READ_ONLY);
+                        }
+                        bp.transactionComplete(tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers) {
+            w.start();
+        }
+        for (Thread w : workers) {
+            w.join();
+        }
+        return perThread * threads / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of BufferPool.getPage hits with 1, 2, 4, ...
+ * threads up to twice the number of processors, for an unpartitioned pool
+ * and for one with the default number of partitions. Every page of the
+ * table is cached, so each request is a hit on a random page.
+ *
+ * Run with: ant runbench -Dbench=BufferPoolScalingBenchmark [-Dbench.args="pages requests"]
+ */
+public class BufferPoolScalingBenchmark {
+    private static final int PAGES = 2048;
+    private static final int REQUESTS = 2000000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : PAGES;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : REQUESTS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("table: " + hf.numPages() + " pages, " + cores + " processors");
+
+        for (int partitions : new int[] {1, BufferPool.MAX_PARTITIONS}) {
+            BufferPool bp = new BufferPool(hf.numPages(), BufferPool.DEFAULT_POLICY, partitions);
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < hf.numPages(); i++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            }
+            double single = 0;
+            for (int threads = 1; threads <= 2 * cores; threads *= 2) {
+                long best = Long.MAX_VALUE;
+                for (int r = 0; r < ROUNDS; r++) {
+                    best = Math.min(best, run(bp, hf, threads, requests / threads));
+                }
+                double rate = (double) (requests / threads * threads) / best * 1e3;
+                if (threads == 1) {
+                    single = rate;
+                }
+                System.out.printf("%2d partitions, %2d threads: %8.2f M hits/s, speedup %.2f%n",
+                        bp.getNumPartitions(), threads, rate, rate / single);
+            }
+        }
+    }
+
+    /** @return nanoseconds taken by threads threads making requests hits each */
+    private static long run(final BufferPool bp, final HeapFile hf, int threads, final int requests)
+            throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    TransactionId tid = new TransactionId();
+                    int n = hf.numPages();
+                    try {
+                        start.await();
+                        for (int i = 0; i < requests; i++) {
+                            bp.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(n)), Permissions.READ_ONLY);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        return System.nanoTime() - begin;
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the throughput, in MB of input text per second, of loading a
+ * table with HeapFileEncoder and with the BulkLoader at 1, 2, 4, ... threads
+ * up to the number of processors, ordered and unordered.
+ *
+ * Run with: ant runbench -Dbench=BulkLoadBenchmark [-Dbench.args=rows]
+ */
+public class BulkLoadBenchmark {
+    private static final int ROWS = 1000000;
+    private static final int ROUNDS = 3;
+    private static final Type[] TYPES = {
+            Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        File text = File.createTempFile("bulk", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(42);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < rows; i++) {
+            out.print(i + "," + r.nextInt() + ",customer" + r.nextInt(100000) + ","
+                    + r.nextInt(1000) + ",some comment " + r.nextInt(1000000) + "\n");
+        }
+        out.close();
+        File data = File.createTempFile("bulk", ".dat");
+        data.deleteOnExit();
+        FreeSpaceMap.file(data).deleteOnExit();
+        double mb = text.length() / (1024.0 * 1024.0);
+        System.out.printf("input: %d rows, %.1f MB, %d processors%n", rows, mb,
+                Runtime.getRuntime().availableProcessors());
+
+        List<String> names = new ArrayList<String>();
+        List<int[]> configs = new ArrayList<int[]>();
+        names.add("HeapFileEncoder");
+        configs.add(null);
+        for (int threads = 1; threads <= Math.max(4, Runtime.getRuntime().availableProcessors()); threads *= 2) {
+            names.add("BulkLoader, " + threads + " threads");
+            configs.add(new int[] {threads, 1});
+            names.add("BulkLoader, " + threads + " threads, unordered");
+            configs.add(new int[] {threads, 0});
+        }
+
+        long[] best = new long[names.size()];
+        Arrays.fill(best, Long.MAX_VALUE);
+        // the first round warms up the JIT and the OS page cache
+        for (int round = 0; round < ROUNDS + 1; round++) {
+            for (int v = 0; v < names.size(); v++) {
+                long start = System.nanoTime();
+                int[] config = configs.get(v);
+                if (config == null) {
+                    HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), TYPES.length, TYPES);
+                } else {
+                    BulkLoader.convert(text, data, BufferPool.getPageSize(), TYPES, ',',
+                            config[0], config[1] == 1);
+                }
+                long time = System.nanoTime() - start;
+                if (round > 0) {
+                    best[v] = Math.min(best[v], time);
+                }
+            }
+        }
+        for (int v = 0; v < names.size(); v++) {
+            System.out.printf("%-36s best of %d: %6d ms, %7.1f MB/s%n", names.get(v), ROUNDS,
+                    best[v] / 1000000, mb / (best[v] / 1e9));
+        }
+    }
+}
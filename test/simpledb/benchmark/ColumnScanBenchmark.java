@@ -0,0 +1,120 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares summing two int columns of a wide table (six ints and four
+ * strings) stored as a HeapFile and as a ColumnFile: bytes read and time of
+ * a cold scan, for a SeqScan, a ColumnScan of the two columns, and a
+ * ColumnScan that can skip segments with a selective predicate on a
+ * sorted column.
+ *
+ * Run with: ant runbench -Dbench=ColumnScanBenchmark [-Dbench.args=rows]
+ */
+public class ColumnScanBenchmark {
+    private static final int ROWS = 100000;
+    private static final int ROUNDS = 5;
+    private static final Type[] TYPES = {
+            Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE,
+            Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        TupleDesc td = new TupleDesc(TYPES);
+        Random r = new Random(42);
+        List<Tuple> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            for (int c = 1; c < 6; c++) {
+                t.setField(c, new IntField(r.nextInt(1000)));
+            }
+            for (int c = 6; c < TYPES.length; c++) {
+                t.setField(c, new StringField("s" + r.nextInt(100000), Type.STRING_LEN));
+            }
+            tuples.add(t);
+        }
+
+        File heap = File.createTempFile("wide", ".dat");
+        heap.deleteOnExit();
+        FreeSpaceMap.file(heap).deleteOnExit();
+        File text = File.createTempFile("wide", ".txt");
+        text.deleteOnExit();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (Tuple t : tuples) {
+            StringBuilder sb = new StringBuilder();
+            for (int c = 0; c < TYPES.length; c++) {
+                sb.append(c == 0 ? "" : ",").append(t.getField(c));
+            }
+            out.println(sb);
+        }
+        out.close();
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), TYPES.length, TYPES);
+        HeapFile hf = new HeapFile(heap, td);
+
+        File columns = File.createTempFile("wide", ".col");
+        columns.deleteOnExit();
+        ColumnFile.convert(tuples.iterator(), columns, td);
+        ColumnFile cf = new ColumnFile(columns, td);
+        tuples = null;
+        System.out.printf("table: %d rows, %d heap pages, %d column pages%n", rows, hf.numPages(), cf.numPages());
+
+        final int lo = rows / 2;
+        final int hi = lo + rows / 100;
+        List<Predicate> range = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(lo)),
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(hi)));
+
+        String[] names = {"heap scan", "column scan", "column scan, 1% range"};
+        long[] best = new long[names.length];
+        long[] read = new long[names.length];
+        Arrays.fill(best, Long.MAX_VALUE);
+        // the first two rounds warm up the JIT and the OS page cache
+        for (int round = 0; round < ROUNDS + 2; round++) {
+            for (int v = 0; v < names.length; v++) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                TransactionId tid = new TransactionId();
+                DbIterator scan;
+                if (v == 0) {
+                    scan = new SeqScan(tid, hf.getId(), "t");
+                } else if (v == 1) {
+                    scan = new ColumnScan(tid, cf.getId(), "t", new int[] {1, 2});
+                } else {
+                    scan = new Filter(range.get(1), new Filter(range.get(0),
+                            new ColumnScan(tid, cf.getId(), "t", new int[] {0, 1, 2}, range)));
+                }
+                long bytes = Database.getFileHandleManager().getBytesRead();
+                long start = System.nanoTime();
+                // column 1 of the table is field 0 of the plain column scan
+                long sum = sum(scan, v == 1 ? 0 : 1);
+                long time = System.nanoTime() - start;
+                if (round >= 2) {
+                    best[v] = Math.min(best[v], time);
+                    read[v] = Database.getFileHandleManager().getBytesRead() - bytes;
+                }
+                if (sum < 0) {
+                    System.out.println(sum);
+                }
+            }
+        }
+        for (int v = 0; v < names.length; v++) {
+            System.out.printf("%-22s %8d KB read, best of %d: %6d ms%n",
+                    names[v], read[v] / 1024, ROUNDS, best[v] / 1000000);
+        }
+    }
+
+    /** @return the sum of field f and the field after it over all tuples of scan */
+    private static long sum(DbIterator scan, int f) throws Exception {
+        long sum = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            sum += ((IntField) t.getField(f)).getValue() + ((IntField) t.getField(f + 1)).getValue();
+        }
+        scan.close();
+        return sum;
+    }
+}
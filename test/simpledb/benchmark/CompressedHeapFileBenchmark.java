@@ -0,0 +1,89 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Compares a plain and a compressed HeapFile of the same table (an int and
+ * two short strings, so most of every fixed-width string slot is padding):
+ * bytes on disk, bytes read and time of a cold full-table SeqScan.
+ *
+ * Run with: ant runbench -Dbench=CompressedHeapFileBenchmark [-Dbench.args=rows]
+ */
+public class CompressedHeapFileBenchmark {
+    private static final int ROWS = 200000;
+    private static final int ROUNDS = 5;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        File text = File.createTempFile("strings", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(42);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < rows; i++) {
+            out.println(i + "," + randomString(r) + "," + randomString(r));
+        }
+        out.close();
+        System.out.println("table: " + rows + " rows of (int, string, string)");
+
+        File plain = File.createTempFile("plain", ".dat");
+        plain.deleteOnExit();
+        FreeSpaceMap.file(plain).deleteOnExit();
+        HeapFileEncoder.convert(text, plain, BufferPool.getPageSize(), TYPES.length, TYPES, ',');
+        File compressed = File.createTempFile("compressed", ".dat");
+        compressed.deleteOnExit();
+        FreeSpaceMap.file(compressed).deleteOnExit();
+        CompressedPageStore.indexFile(compressed).deleteOnExit();
+        CompressedPageStore.compress(plain, compressed, BufferPool.getPageSize());
+
+        HeapFile[] files = {
+                new HeapFile(plain, new TupleDesc(TYPES)),
+                new HeapFile(compressed, new TupleDesc(TYPES))
+        };
+
+        // warm up the JIT and the OS page cache with both files
+        for (HeapFile hf : files) {
+            scan(hf);
+            scan(hf);
+        }
+
+        for (HeapFile hf : files) {
+            long best = Long.MAX_VALUE;
+            long read = 0;
+            for (int i = 0; i < ROUNDS; i++) {
+                long before = Database.getFileHandleManager().getBytesRead();
+                best = Math.min(best, scan(hf));
+                read = Database.getFileHandleManager().getBytesRead() - before;
+            }
+            System.out.printf("%-10s %7d pages, %8d KB on disk, %8d KB read per scan, best of %d: %6d ms%n",
+                    hf.isCompressed() ? "compressed" : "plain", hf.numPages(), hf.getFile().length() / 1024,
+                    read / 1024, ROUNDS, best / 1000000);
+        }
+    }
+
+    private static String randomString(Random r) {
+        int len = 4 + r.nextInt(21);
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append((char) ('a' + r.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /** @return nanoseconds taken by one cold full scan of hf */
+    private static long scan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        return System.nanoTime() - start;
+    }
+}
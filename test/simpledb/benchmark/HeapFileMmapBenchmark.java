@@ -0,0 +1,52 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares cold full-table SeqScan throughput of HeapFile with plain
+ * positional reads against the memory-mapped read path. Each round resets
+ * the buffer pool so every page of the table is a buffer pool miss.
+ *
+ * Run with: ant runbench -Dbench=HeapFileMmapBenchmark
+ */
+public class HeapFileMmapBenchmark {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 1024 * 500;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, null);
+        System.out.println("table: " + rows + " rows, " + hf.numPages() + " pages");
+
+        // warm up the JIT and the OS page cache with both paths
+        scan(hf, false);
+        scan(hf, true);
+
+        for (boolean mapped : new boolean[] {false, true}) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                best = Math.min(best, scan(hf, mapped));
+            }
+            System.out.printf("%-8s best of %d: %6d ms, %8.0f pages/s, %10.0f tuples/s%n",
+                    mapped ? "mmap" : "read", ROUNDS, best / 1000000,
+                    hf.numPages() * 1e9 / best, rows * 1e9 / best);
+        }
+    }
+
+    /** @return nanoseconds taken by one cold full scan of hf */
+    private static long scan(HeapFile hf, boolean mapped) throws Exception {
+        hf.setMemoryMapped(mapped);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        return System.nanoTime() - start;
+    }
+}
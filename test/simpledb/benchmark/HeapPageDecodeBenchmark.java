@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Compares eagerly and lazily decoded HeapPages: the cost of building a page
+ * from its bytes (what a buffer pool miss pays), and a cold full-table scan
+ * that only looks at every 16th page's tuples, as an index-like probe would.
+ * Reports time and bytes allocated by the benchmark thread.
+ *
+ * Run with: ant runbench -Dbench=HeapPageDecodeBenchmark [-Dbench.args=rows]
+ */
+public class HeapPageDecodeBenchmark {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 1024 * 200;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, null);
+        System.out.println("table: " + rows + " rows, " + hf.numPages() + " pages");
+        List<Page> pages = hf.readPages(new HeapPageId(hf.getId(), 0), hf.numPages());
+        byte[][] images = new byte[pages.size()][];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = pages.get(i).getPageData();
+        }
+
+        for (boolean lazy : new boolean[] {false, true, false, true}) {
+            HeapPage.setLazyDecoding(lazy);
+            long best = Long.MAX_VALUE;
+            long bytes = 0;
+            for (int r = 0; r < ROUNDS; r++) {
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < images.length; i++) {
+                    new HeapPage(new HeapPageId(hf.getId(), i), images[i]);
+                }
+                long t = System.nanoTime() - start;
+                if (t < best) {
+                    best = t;
+                    bytes = allocatedBytes() - allocated;
+                }
+            }
+            System.out.printf("construct %-5s best of %d: %6.1f us/page, %8d bytes/page%n",
+                    lazy ? "lazy" : "eager", ROUNDS, best / 1e3 / images.length, bytes / images.length);
+        }
+
+        for (boolean lazy : new boolean[] {false, true, false, true}) {
+            HeapPage.setLazyDecoding(lazy);
+            long best = Long.MAX_VALUE;
+            long bytes = 0;
+            for (int r = 0; r < ROUNDS; r++) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                TransactionId tid = new TransactionId();
+                long allocated = allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < hf.numPages(); i++) {
+                    HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                    if (i % 16 == 0) {
+                        java.util.Iterator<Tuple> it = p.iterator();
+                        while (it.hasNext()) {
+                            it.next();
+                        }
+                    }
+                }
+                long t = System.nanoTime() - start;
+                if (t < best) {
+                    best = t;
+                    bytes = allocatedBytes() - allocated;
+                }
+            }
+            System.out.printf("probe     %-5s best of %d: %6d ms, %10d bytes allocated%n",
+                    lazy ? "lazy" : "eager", ROUNDS, best / 1000000, bytes);
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
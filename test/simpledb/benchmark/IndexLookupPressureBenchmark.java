@@ -0,0 +1,99 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Measures point lookups in a B+ tree while the buffer pool is under
+ * memory pressure. Every lookup of a random key is followed by requests for
+ * random pages of a heap table eight times the size of the buffer pool,
+ * which push pages out as fast as the replacement policy picks them. The
+ * workload runs once without an index reserve and once with the reserve
+ * {@link BufferPool#DEFAULT_INDEX_RESERVE}. Reports the lookup latency
+ * percentiles and the hit ratio of each category of pages. The files are
+ * read from the operating system's cache, so a miss costs far less than one
+ * that goes to disk.
+ *
+ * Run with: ant runbench -Dbench=IndexLookupPressureBenchmark [-Dbench.args="poolPages rows lookups"]
+ */
+public class IndexLookupPressureBenchmark {
+    private static final int POOL_PAGES = 256;
+    private static final int ROWS = 2000000;
+    private static final int LOOKUPS = 20000;
+    // heap pages requested after each lookup
+    private static final int SCATTER = 8;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : POOL_PAGES;
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : ROWS;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : LOOKUPS;
+
+        File text = File.createTempFile("lookup", ".txt");
+        text.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text), 1 << 16))) {
+            for (int i = 0; i < rows; i++) {
+                out.print(i);
+                out.print(',');
+                out.println(i);
+            }
+        }
+        File tree = File.createTempFile("lookup", ".dat");
+        tree.deleteOnExit();
+        BTreeFile bf = BTreeFileEncoder.bulkConvert(text, tree, BufferPool.getPageSize(), TYPES, ',', 0,
+                0.7, ExternalSort.MEMORY_BYTES);
+        text.delete();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8 * poolPages, null, null);
+        System.out.printf("buffer pool: %d pages, index: %d pages, table: %d pages%n",
+                poolPages, bf.numPages(), hf.numPages());
+
+        for (int round = 0; round < 2; round++) {
+            for (double reserve : new double[] {0, BufferPool.DEFAULT_INDEX_RESERVE}) {
+                BufferPool bp = Database.resetBufferPool(poolPages);
+                bp.setIndexReserve(reserve);
+                run(bf, hf, rows, lookups / 4, 1);
+                bp.getMetrics().reset();
+                long[] latency = run(bf, hf, rows, lookups, 2);
+                print(String.format("reserve %.2f", reserve), latency, bp);
+            }
+        }
+    }
+
+    /** @return the latency of every lookup, sorted */
+    private static long[] run(BTreeFile bf, HeapFile hf, int rows, int lookups, long seed) throws Exception {
+        TransactionId tid = new TransactionId();
+        Random r = new Random(seed);
+        long[] latency = new long[lookups];
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < lookups; i++) {
+            IndexPredicate p = new IndexPredicate(Predicate.Op.EQUALS, new IntField(r.nextInt(rows)));
+            long start = System.nanoTime();
+            DbFileIterator it = bf.indexIterator(tid, p);
+            it.open();
+            if (!it.hasNext()) {
+                throw new IllegalStateException("key not found");
+            }
+            it.next();
+            it.close();
+            latency[i] = System.nanoTime() - start;
+            for (int j = 0; j < SCATTER; j++) {
+                bp.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(hf.numPages())), Permissions.READ_ONLY);
+            }
+        }
+        bp.transactionComplete(tid);
+        Arrays.sort(latency);
+        return latency;
+    }
+
+    private static void print(String name, long[] latency, BufferPool bp) {
+        System.out.printf("%s: p50 %6.1f us, p99 %6.1f us, %d pages in the reserve%n", name,
+                latency[latency.length / 2] / 1e3, latency[latency.length * 99 / 100] / 1e3,
+                bp.getMetrics().getReservedPages());
+        for (Map.Entry<String, Double> e : bp.getMetrics().getHitRatioByCategory().entrySet()) {
+            System.out.printf("  %-12s hit ratio %.3f%n", e.getKey(), e.getValue());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures committed transactions per second and the fraction of
+ * transactions aborted to break deadlocks with 1, 2, 4, ... threads up to
+ * twice the number of processors, and at least 8. Every transaction locks
+ * random pages of a table through BufferPool.getPage, most of them shared
+ * and some exclusive, and commits; an aborted transaction is rolled back
+ * and retried. The table is fully cached, so the benchmark measures the
+ * locking rather than the disk.
+ *
+ * Run with: ant runbench -Dbench=LockManagerBenchmark [-Dbench.args="pages transactions"]
+ */
+public class LockManagerBenchmark {
+    private static final int PAGES = 256;
+    private static final int TRANSACTIONS = 20000;
+    // pages each transaction reads, and of them how many it writes
+    private static final int READS = 8;
+    private static final int WRITES = 2;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : PAGES;
+        int transactions = args.length > 1 ? Integer.parseInt(args[1]) : TRANSACTIONS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        BufferPool bp = Database.resetBufferPool(hf.numPages());
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(warm, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(warm);
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("table: " + hf.numPages() + " pages, " + cores + " processors");
+
+        for (int threads = 1; threads <= Math.max(8, 2 * cores); threads *= 2) {
+            AtomicLong aborts = new AtomicLong();
+            long deadlocks = bp.getLockManager().getDeadlocks();
+            long nanos = run(bp, hf, threads, transactions / threads, aborts);
+            long commits = transactions / threads * threads;
+            System.out.printf("%2d threads: %8.0f commits/s, %5.2f%% aborted, %d deadlocks%n",
+                    threads, commits / (nanos / 1e9), 100.0 * aborts.get() / (commits + aborts.get()),
+                    bp.getLockManager().getDeadlocks() - deadlocks);
+        }
+    }
+
+    /** @return nanoseconds taken by threads threads committing transactions transactions each */
+    private static long run(final BufferPool bp, final HeapFile hf, int threads, final int transactions,
+            final AtomicLong aborts) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        start.await();
+                        for (int i = 0; i < transactions; i++) {
+                            long txSeed = r.nextLong();
+                            while (!transaction(bp, hf, new Random(txSeed))) {
+                                aborts.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    /** @return true if the transaction committed, false if it was aborted */
+    private static boolean transaction(BufferPool bp, HeapFile hf, Random r) throws Exception {
+        TransactionId tid = new TransactionId();
+        try {
+            for (int i = 0; i < READS; i++) {
+                HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(hf.numPages()));
+                if (i < READS - WRITES) {
+                    bp.getPage(tid, pid, Permissions.READ_ONLY);
+                } else {
+                    bp.getPage(tid, pid, Permissions.READ_WRITE);
+                    bp.unpinPage(pid);
+                }
+            }
+        } catch (TransactionAbortedException e) {
+            bp.transactionComplete(tid, false);
+            return false;
+        }
+        bp.transactionComplete(tid, true);
+        return true;
+    }
+}
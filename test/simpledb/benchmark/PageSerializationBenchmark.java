@@ -0,0 +1,108 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Compares three ways of serializing modified HeapPages, as flushing dirty
+ * pages does: the DataOutputStream serializer getPageData used to be,
+ * getPageData, which now writes into a new array, and PageCodec.serialize,
+ * which writes into the thread's reusable page buffer. Reports throughput
+ * and bytes allocated per page by the benchmark thread.
+ *
+ * Run with: ant runbench -Dbench=PageSerializationBenchmark [-Dbench.args=rows]
+ */
+public class PageSerializationBenchmark {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 1024 * 200;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, null);
+        List<Page> pages = hf.readPages(new HeapPageId(hf.getId(), 0), hf.numPages());
+        for (Page p : pages) {
+            // delete and re-insert a tuple so the page serializes its tuples
+            HeapPage page = (HeapPage) p;
+            Tuple t = page.iterator().next();
+            page.deleteTuple(t);
+            page.insertTuple(t);
+            if (!Arrays.equals(legacy(page), page.getPageData())) {
+                throw new IllegalStateException("serializers disagree on " + page.getId());
+            }
+        }
+        System.out.println("table: " + rows + " rows, " + pages.size() + " pages");
+
+        String[] names = {"DataOutputStream", "getPageData", "PageCodec.serialize"};
+        for (int round = 0; round < 2; round++) {
+            for (int v = 0; v < names.length; v++) {
+                long best = Long.MAX_VALUE;
+                long bytes = 0;
+                for (int r = 0; r < ROUNDS; r++) {
+                    long allocated = allocatedBytes();
+                    long start = System.nanoTime();
+                    int sink = 0;
+                    for (Page p : pages) {
+                        byte[] data = v == 0 ? legacy((HeapPage) p)
+                                : v == 1 ? p.getPageData() : PageCodec.serialize(p);
+                        sink += data[data.length - 1];
+                    }
+                    long t = System.nanoTime() - start;
+                    if (t < best) {
+                        best = t;
+                        bytes = allocatedBytes() - allocated;
+                    }
+                    if (sink == Integer.MIN_VALUE) {
+                        System.out.print("");
+                    }
+                }
+                double mb = (double) pages.size() * BufferPool.getPageSize() / (1024 * 1024);
+                System.out.printf("%-20s best of %d: %7.1f MB/s, %8d bytes/page%n",
+                        names[v], ROUNDS, mb / (best / 1e9), bytes / pages.size());
+            }
+        }
+    }
+
+    /** The stream-based serializer HeapPage.getPageData used before PageCodec */
+    private static byte[] legacy(HeapPage page) throws IOException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(page.getId().getTableId());
+        int numSlots = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        byte[] header = new byte[(numSlots + 7) / 8];
+        for (int i = 0; i < numSlots; i++) {
+            if (page.isSlotUsed(i)) {
+                header[i / 8] |= 1 << (i % 8);
+            }
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < header.length; i++) {
+            dos.writeByte(header[i]);
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!page.isSlotUsed(i)) {
+                for (int j = 0; j < td.getSize(); j++) {
+                    dos.writeByte(0);
+                }
+                continue;
+            }
+            Tuple t = page.getTuple(i);
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(dos);
+            }
+        }
+        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * numSlots);
+        dos.write(new byte[zerolen], 0, zerolen);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
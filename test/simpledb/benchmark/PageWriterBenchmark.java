@@ -0,0 +1,78 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the latency of BufferPool.getPage misses in a workload that
+ * dirties a third of the pages it reads from a table four times the size
+ * of the buffer pool, with and without the background PageWriter. Without
+ * it most victims are dirty and the miss has to write them first. Reports
+ * latency percentiles of the misses, the number of dirty evictions and the
+ * pages written by the writer per write issued. The pages are only written
+ * to the operating system's cache, so this workload dirties pages far
+ * faster than one hitting the disk would; the writer runs every 2 ms and
+ * may write up to 50000 pages per second to keep up with it.
+ *
+ * Run with: ant runbench -Dbench=PageWriterBenchmark [-Dbench.args="poolPages requests"]
+ */
+public class PageWriterBenchmark {
+    private static final int POOL_PAGES = 256;
+    private static final int REQUESTS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : POOL_PAGES;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : REQUESTS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4 * poolPages, null, null);
+        System.out.println("buffer pool: " + poolPages + " pages, table: " + hf.numPages() + " pages");
+        for (int round = 0; round < 2; round++) {
+            run("no writer", hf, poolPages, requests, false);
+            run("page writer", hf, poolPages, requests, true);
+        }
+    }
+
+    private static void run(String name, HeapFile hf, int poolPages, int requests, boolean writer)
+            throws Exception {
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        bp.getPageWriter().setEnabled(writer);
+        bp.getPageWriter().setIntervalMillis(2);
+        bp.getPageWriter().setMaxPagesPerSecond(50000);
+        TransactionId tid = new TransactionId();
+        Random r = new Random(1);
+        long[] misses = new long[requests];
+        int n = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            // skewed, so the pool holds a hot set that is dirtied repeatedly
+            int pageNo = r.nextInt(4) == 0 ? r.nextInt(hf.numPages()) : r.nextInt(poolPages);
+            HeapPageId pid = new HeapPageId(hf.getId(), pageNo);
+            boolean write = r.nextInt(3) == 0;
+            boolean cached = bp.isCached(pid);
+            long start = System.nanoTime();
+            Page p = bp.getPage(tid, pid, write ? Permissions.READ_WRITE : Permissions.READ_ONLY);
+            if (!cached) {
+                misses[n++] = System.nanoTime() - start;
+            }
+            if (write) {
+                p.markDirty(true, tid);
+                bp.unpinPage(pid);
+            }
+            // let the writer run as it would between queries
+            if (i % 1000 == 0) {
+                Thread.yield();
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        bp.transactionComplete(tid);
+        long[] sorted = Arrays.copyOf(misses, n);
+        Arrays.sort(sorted);
+        PageWriter w = bp.getPageWriter();
+        System.out.printf("%-12s %6.0f ms, %d misses: p50 %5.1f us, p99 %6.1f us, p99.9 %6.1f us; "
+                + "%d dirty evictions, writer %d pages in %d writes%n",
+                name + ":", elapsed / 1e6, n, sorted[n / 2] / 1e3, sorted[(int) (n * 0.99)] / 1e3,
+                sorted[(int) (n * 0.999)] / 1e3, bp.getDirtyEvictions(), w.getPagesWritten(), w.getWrites());
+    }
+}
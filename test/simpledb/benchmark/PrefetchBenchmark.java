@@ -0,0 +1,59 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Compares cold full-table SeqScan time with and without background
+ * read-ahead, and prints the prefetcher's hit and waste counters. The scan
+ * evaluates a predicate on every tuple so there is some work to overlap the
+ * reads with.
+ *
+ * Run with: ant runbench -Dbench=PrefetchBenchmark [-Dbench.args=rows]
+ */
+public class PrefetchBenchmark {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 1024 * 500;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, null);
+        System.out.println("table: " + rows + " rows, " + hf.numPages() + " pages");
+
+        // warm up the JIT and the OS page cache
+        scan(hf, false);
+        scan(hf, true);
+
+        for (boolean readAhead : new boolean[] {false, true}) {
+            long best = Long.MAX_VALUE;
+            String stats = "";
+            for (int i = 0; i < ROUNDS; i++) {
+                long t = scan(hf, readAhead);
+                if (t < best) {
+                    best = t;
+                    stats = Database.getBufferPool().getPrefetcher().toString();
+                }
+            }
+            System.out.printf("%-10s best of %d: %6d ms, %8.0f pages/s  %s%n",
+                    readAhead ? "readahead" : "none", ROUNDS, best / 1000000,
+                    hf.numPages() * 1e9 / best, readAhead ? stats : "");
+        }
+    }
+
+    /** @return nanoseconds taken by one cold filtered scan of hf */
+    private static long scan(HeapFile hf, boolean readAhead) throws Exception {
+        BufferPool bufferPool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES * 4);
+        bufferPool.getPrefetcher().setEnabled(readAhead);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 15)),
+                new SeqScan(tid, hf.getId(), ""));
+        filter.open();
+        while (filter.hasNext()) {
+            filter.next();
+        }
+        filter.close();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the hit ratio of point lookups into a small hot table while
+ * another thread keeps scanning a table four times the size of the
+ * BufferPool, once with the scan reading through the shared frames and
+ * once through a BufferRing. The lookups are made in windows of equal
+ * size, and the lowest and average hit ratio of the windows are reported,
+ * next to those of the lookups running alone.
+ *
+ * Run with: ant runbench -Dbench=ScanResistanceBenchmark [-Dbench.args="poolPages windows"]
+ */
+public class ScanResistanceBenchmark {
+    private static final int POOL_PAGES = 256;
+    private static final int WINDOWS = 20;
+    private static final int LOOKUPS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : POOL_PAGES;
+        int windows = args.length > 1 ? Integer.parseInt(args[1]) : WINDOWS;
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * (3 * poolPages / 4), null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * (4 * poolPages), null, null);
+        System.out.println("buffer pool: " + poolPages + " pages, hot table: " + hot.numPages()
+                + " pages, scanned table: " + big.numPages() + " pages");
+
+        run("no scan", hot, null, poolPages, windows, Double.MAX_VALUE);
+        run("scan, shared frames", hot, big, poolPages, windows, Double.MAX_VALUE);
+        run("scan, ring", hot, big, poolPages, windows, BufferPool.DEFAULT_RING_THRESHOLD);
+    }
+
+    private static void run(String name, HeapFile hot, final HeapFile big, int poolPages, int windows,
+            double ringThreshold) throws Exception {
+        final BufferPool bp = Database.resetBufferPool(poolPages);
+        bp.setRingThreshold(ringThreshold);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong scanned = new AtomicLong();
+        Thread scanner = new Thread() {
+            public void run() {
+                try {
+                    while (big != null && !done.get()) {
+                        TransactionId tid = new TransactionId();
+                        DbFileIterator it = big.iterator(tid);
+                        it.open();
+                        while (it.hasNext() && !done.get()) {
+                            it.next();
+                            scanned.incrementAndGet();
+                        }
+                        it.close();
+                        bp.transactionComplete(tid);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        Random r = new Random(1);
+        // warm the hot table up before the scan starts
+        lookups(bp, hot, r, LOOKUPS);
+        scanner.start();
+        double min = 1;
+        double sum = 0;
+        for (int w = 0; w < windows; w++) {
+            double ratio = lookups(bp, hot, r, LOOKUPS);
+            min = Math.min(min, ratio);
+            sum += ratio;
+            // give the scan its share of the processor
+            Thread.sleep(50);
+        }
+        done.set(true);
+        scanner.join();
+        System.out.printf("%-20s hit ratio min %.3f avg %.3f, %d tuples scanned%n",
+                name + ":", min, sum / windows, scanned.get());
+    }
+
+    /** @return the fraction of n random lookups into hot that were hits */
+    private static double lookups(BufferPool bp, HeapFile hot, Random r, int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        int hits = 0;
+        for (int i = 0; i < n; i++) {
+            HeapPageId pid = new HeapPageId(hot.getId(), r.nextInt(hot.numPages()));
+            if (bp.isCached(pid)) {
+                hits++;
+            }
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        return (double) hits / n;
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures what the compressed second tier of the buffer pool buys for a
+ * table whose pages deflate well. A workload requests random pages of a
+ * hot set three times the size of a buffer pool of poolPages pages. It runs
+ * against a buffer pool of twice as many pages and no second tier, and
+ * against one of poolPages pages with a second tier of as many bytes as
+ * the other poolPages pages would take, so both use the same memory for
+ * pages. Reports the pages each keeps, the hit ratios of both tiers, the
+ * compression ratio and the latency percentiles of the requests. The table
+ * is read from the operating system's cache, so a miss costs far less than
+ * one that goes to disk, and may well cost less than inflating a page and
+ * deflating the page evicted for it; what the tier saves in latency
+ * depends on the device the misses would go to.
+ *
+ * Run with: ant runbench -Dbench=SecondTierCacheBenchmark [-Dbench.args="poolPages requests"]
+ */
+public class SecondTierCacheBenchmark {
+    private static final int POOL_PAGES = 256;
+    private static final int REQUESTS = 100000;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : POOL_PAGES;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : REQUESTS;
+        // values below 256 leave three of every four bytes zero
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8 * poolPages, 256, null, null);
+        int hotPages = 3 * poolPages;
+        long budget = (long) poolPages * BufferPool.getPageSize();
+        System.out.printf("table: %d pages, hot set: %d pages, memory for pages: %d KB%n",
+                hf.numPages(), hotPages, 2 * budget >> 10);
+
+        for (int round = 0; round < 2; round++) {
+            BufferPool plain = new BufferPool(2 * poolPages);
+            run(plain, hf, hotPages, requests / 4, 1);
+            plain.getMetrics().reset();
+            print(2 * poolPages + " pages", run(plain, hf, hotPages, requests, 2), plain);
+
+            BufferPool tiered = new BufferPool(poolPages);
+            tiered.getCompressedCache().setCapacityBytes(budget);
+            run(tiered, hf, hotPages, requests / 4, 1);
+            tiered.getMetrics().reset();
+            print(poolPages + " pages + tier", run(tiered, hf, hotPages, requests, 2), tiered);
+        }
+    }
+
+    /** @return the latency of every request, sorted */
+    private static long[] run(BufferPool bp, HeapFile hf, int hotPages, int requests, long seed) throws Exception {
+        TransactionId tid = new TransactionId();
+        Random r = new Random(seed);
+        long[] latency = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(hotPages));
+            long start = System.nanoTime();
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            latency[i] = System.nanoTime() - start;
+        }
+        bp.transactionComplete(tid);
+        Arrays.sort(latency);
+        return latency;
+    }
+
+    private static void print(String name, long[] latency, BufferPool bp) {
+        CompressedPageCache tier = bp.getCompressedCache();
+        BufferPoolMetrics metrics = bp.getMetrics();
+        double misses = metrics.getMisses();
+        double requests = metrics.getHits() + misses;
+        System.out.printf("%-17s pages kept %5d, hit ratio %.3f, second tier %.3f, disk reads %.3f, "
+                + "compression %.2f, p50 %5.1f us, p99 %5.1f us%n", name + ":",
+                metrics.getResidentPages() + tier.getPages(), metrics.getHitRatio(), tier.getHits() / requests,
+                (misses - tier.getHits()) / requests, tier.getCompressionRatio(),
+                latency[latency.length / 2] / 1e3, latency[latency.length * 99 / 100] / 1e3);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Compares the fixed-width and the slotted page format on a string-heavy
+ * table (an int and two strings of 4 to 24 characters): number of pages
+ * written by HeapFileEncoder and the time of a cold full-table SeqScan.
+ *
+ * Run with: ant runbench -Dbench=SlottedPageBenchmark [-Dbench.args=rows]
+ */
+public class SlottedPageBenchmark {
+    private static final int ROWS = 200000;
+    private static final int ROUNDS = 5;
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : ROWS;
+        File text = File.createTempFile("strings", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(42);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)));
+        for (int i = 0; i < rows; i++) {
+            out.println(i + "," + randomString(r) + "," + randomString(r));
+        }
+        out.close();
+        System.out.println("table: " + rows + " rows of (int, string, string)");
+
+        HeapFile.PageFormat[] formats = HeapFile.PageFormat.values();
+        HeapFile[] files = new HeapFile[formats.length];
+        for (int f = 0; f < formats.length; f++) {
+            File data = File.createTempFile("strings-" + formats[f], ".dat");
+            data.deleteOnExit();
+            FreeSpaceMap.file(data).deleteOnExit();
+            HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), TYPES.length, TYPES, ',', formats[f]);
+            files[f] = new HeapFile(data, new TupleDesc(TYPES), formats[f]);
+        }
+
+        // warm up the JIT and the OS page cache with both formats
+        for (HeapFile hf : files) {
+            scan(hf);
+            scan(hf);
+        }
+
+        for (HeapFile hf : files) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                best = Math.min(best, scan(hf));
+            }
+            System.out.printf("%-8s %7d pages, %8d KB, best of %d: %6d ms%n",
+                    hf.getPageFormat(), hf.numPages(), hf.getFile().length() / 1024, ROUNDS, best / 1000000);
+        }
+    }
+
+    private static String randomString(Random r) {
+        int len = 4 + r.nextInt(21);
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++) {
+            sb.append((char) ('a' + r.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /** @return nanoseconds taken by one cold full scan of hf */
+    private static long scan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, hf.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures what locking whole tables saves a full scan and a bulk delete of
+ * a large table. Both run with lock escalation turned off, so that they lock
+ * every page, and with the threshold
+ * {@link LockManager#ESCALATION_THRESHOLD}, where the scan locks the table
+ * up front and the delete escalates to an X lock on it. The delete is rolled
+ * back. Reports the time of each, the page locks held at its end and the
+ * lock on the table. The table is fully cached, so the benchmark measures
+ * the locking rather than the disk.
+ *
+ * Run with: ant runbench -Dbench=TableLockBenchmark [-Dbench.args="pages"]
+ */
+public class TableLockBenchmark {
+    private static final int PAGES = 2048;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : PAGES;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        BufferPool bp = Database.resetBufferPool(hf.numPages());
+        System.out.println("table: " + hf.numPages() + " pages");
+        run(bp, hf, false);
+
+        for (int round = 0; round < 3; round++) {
+            for (int threshold : new int[] {0, LockManager.ESCALATION_THRESHOLD}) {
+                bp.getLockManager().setEscalationThreshold(threshold);
+                run(bp, hf, true);
+            }
+        }
+    }
+
+    private static void run(BufferPool bp, HeapFile hf, boolean print) throws Exception {
+        LockManager locks = bp.getLockManager();
+        int threshold = locks.getEscalationThreshold();
+        String name = threshold == 0 ? "page locks only" : "threshold " + threshold;
+
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, hf.getId());
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        long scanTime = System.nanoTime() - start;
+        int scanLocks = locks.getPageLocks();
+        LockManager.Mode scanMode = locks.tableMode(tid, hf.getId());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        long escalations = locks.getEscalations();
+        start = System.nanoTime();
+        Delete delete = new Delete(tid, new SeqScan(tid, hf.getId()));
+        delete.open();
+        delete.next();
+        delete.close();
+        long deleteTime = System.nanoTime() - start;
+        int deleteLocks = locks.getPageLocks();
+        LockManager.Mode deleteMode = locks.tableMode(tid, hf.getId());
+        bp.transactionComplete(tid, false);
+
+        if (!print) {
+            return;
+        }
+        System.out.printf("%-16s scan %6.1f ms, %5d page locks, table %-2s | delete %7.1f ms, "
+                + "%5d page locks, table %-2s, %d escalations%n", name + ":",
+                scanTime / 1e6, scanLocks, scanMode, deleteTime / 1e6, deleteLocks, deleteMode,
+                locks.getEscalations() - escalations);
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures what a PageWarmer snapshot saves after a restart. A workload
+ * requests a hot set of pages scattered over a table eight times the size
+ * of the buffer pool, and the pages cached at the end are saved. Then a new
+ * buffer pool serves the first requests of the same workload once cold and
+ * once after a warm-up from the snapshot. Reports the hit ratio and the
+ * latency percentiles of those requests, and how long the warm-up took.
+ * The table is read from the operating system's cache, so a miss costs
+ * far less than one that goes to disk.
+ *
+ * Run with: ant runbench -Dbench=WarmRestartBenchmark [-Dbench.args="poolPages requests"]
+ */
+public class WarmRestartBenchmark {
+    private static final int POOL_PAGES = 1024;
+    private static final int REQUESTS = 4000;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : POOL_PAGES;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : REQUESTS;
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 8 * poolPages, null, null);
+        File snapshot = File.createTempFile("warm", ".snapshot");
+        snapshot.deleteOnExit();
+        int[] hot = new int[poolPages * 3 / 4];
+        Random r = new Random(1);
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = r.nextInt(hf.numPages());
+        }
+        System.out.println("buffer pool: " + poolPages + " pages, table: " + hf.numPages() + " pages");
+
+        BufferPool before = new BufferPool(poolPages);
+        run(before, hf, hot, 10 * requests, 2);
+        before.getWarmer().setFile(snapshot);
+        System.out.println("snapshot: " + before.getWarmer().save() + " pages, " + snapshot.length() + " bytes");
+
+        for (int round = 0; round < 2; round++) {
+            BufferPool cold = new BufferPool(poolPages);
+            print("cold", run(cold, hf, hot, requests, 3), cold);
+
+            BufferPool warm = new BufferPool(poolPages);
+            warm.getWarmer().setFile(snapshot);
+            long start = System.nanoTime();
+            warm.getWarmer().startWarmUp();
+            warm.getWarmer().awaitWarmUp();
+            double ms = (System.nanoTime() - start) / 1e6;
+            System.out.printf("warm-up: %d pages in %.1f ms%n", warm.getWarmer().getPagesLoaded(), ms);
+            print("warm", run(warm, hf, hot, requests, 3), warm);
+        }
+    }
+
+    /** @return the latency of every request, sorted */
+    private static long[] run(BufferPool bp, HeapFile hf, int[] hot, int requests, long seed) throws Exception {
+        TransactionId tid = new TransactionId();
+        Random r = new Random(seed);
+        long[] latency = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            int pageNo = r.nextInt(10) == 0 ? r.nextInt(hf.numPages()) : hot[r.nextInt(hot.length)];
+            long start = System.nanoTime();
+            bp.getPage(tid, new HeapPageId(hf.getId(), pageNo), Permissions.READ_ONLY);
+            latency[i] = System.nanoTime() - start;
+        }
+        bp.transactionComplete(tid);
+        Arrays.sort(latency);
+        return latency;
+    }
+
+    private static void print(String name, long[] latency, BufferPool bp) {
+        System.out.printf("%-5s hit ratio %.3f, p50 %6.1f us, p99 %6.1f us, p99.9 %6.1f us%n",
+                name + ":", bp.getMetrics().getHitRatio(), latency[latency.length / 2] / 1e3,
+                latency[latency.length * 99 / 100] / 1e3, latency[latency.length * 999 / 1000] / 1e3);
+    }
+}